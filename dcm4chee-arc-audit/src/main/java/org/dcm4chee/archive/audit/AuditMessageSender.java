@@ -0,0 +1,360 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.audit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+import org.dcm4che3.audit.AuditMessage;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.audit.AuditLogger;
+import org.dcm4che3.util.StringUtils;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.AuditOverflowPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends audit messages asynchronously, so the latency of the audit record
+ * repository does not add to the processing time of the audited requests.
+ * <p>
+ * Audit messages are queued in a bounded queue, which is drained by
+ * {@link ArchiveDeviceExtension#getAuditSenderThreads()} threads of the device
+ * executor. The messages are created by the caller, so they do not refer to
+ * state of the audited request, which may change after it completed. If the
+ * queue is full, the caller blocks, the message is dropped or the message is
+ * spilled to the audit journal directory, according to
+ * {@link ArchiveDeviceExtension#getAuditQueueOverflow()}.
+ * <p>
+ * Messages which could not be sent, or which are still queued on shutdown,
+ * are also saved in the journal directory, if one is configured; they are
+ * sent as soon as a sender thread becomes idle.
+ *
+ * @author agent <agent@local>
+ */
+@ApplicationScoped
+public class AuditMessageSender {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuditMessageSender.class);
+
+    private static final long IDLE_TIMEOUT = 1000L;
+    private static final long SHUTDOWN_TIMEOUT = 30000L;
+    private static final String JOURNAL_FILE_SUFFIX = ".xml";
+
+    /**
+     * Audit message to be sent by one of the sender threads.
+     */
+    private static final class PendingAudit {
+
+        final AuditLogger logger;
+        final Calendar timeStamp;
+        final AuditMessage msg;
+
+        PendingAudit(AuditLogger logger, AuditMessage msg) {
+            this.logger = logger;
+            this.timeStamp = logger.timeStamp();
+            this.msg = msg;
+        }
+    }
+
+    @Inject
+    private Device device;
+
+    private BlockingQueue<PendingAudit> queue;
+    private CountDownLatch senders;
+    private final Set<Thread> senderThreads = new CopyOnWriteArraySet<Thread>();
+    private AuditOverflowPolicy overflow;
+    private Path journalDir;
+    private volatile boolean started;
+    private volatile boolean closed;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong journalSeq = new AtomicLong();
+    private final ReentrantLock replayLock = new ReentrantLock();
+    private JAXBContext jaxbContext;
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public void send(AuditLogger logger, AuditMessage msg) {
+        PendingAudit audit = new PendingAudit(logger, msg);
+        if (!start()) {
+            send(audit, false);
+            return;
+        }
+        switch (overflow) {
+        case DROP:
+            if (!queue.offer(audit)) {
+                long count = dropped.incrementAndGet();
+                if (count == 1 || count % 100 == 0)
+                    LOG.warn("Audit message queue full - dropped {} audit messages", count);
+            }
+            break;
+        case SPILL:
+            if (journalDir != null) {
+                if (!queue.offer(audit))
+                    writeJournal(audit.timeStamp, audit.msg);
+                break;
+            }
+            // without journal directory, fall through to BLOCK
+        default:
+            try {
+                queue.put(audit);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                send(audit, false);
+            }
+        }
+    }
+
+    private boolean start() {
+        // avoid taking the lock for each message once the senders run
+        return started ? !closed : startSenders();
+    }
+
+    private synchronized boolean startSenders() {
+        if (closed)
+            return false;
+
+        if (!started) {
+            ArchiveDeviceExtension arcDev =
+                    device.getDeviceExtension(ArchiveDeviceExtension.class);
+            String dir = arcDev.getAuditJournalDirectory();
+            journalDir = dir != null
+                    ? new File(StringUtils.replaceSystemProperties(dir)).toPath()
+                    : null;
+            overflow = arcDev.getAuditQueueOverflow();
+            queue = new ArrayBlockingQueue<PendingAudit>(
+                    Math.max(1, arcDev.getAuditQueueCapacity()));
+            int threads = Math.max(1, arcDev.getAuditSenderThreads());
+            senders = new CountDownLatch(threads);
+            for (int i = 0; i < threads; i++)
+                device.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        senderThreads.add(Thread.currentThread());
+                        try {
+                            drainQueue();
+                        } finally {
+                            senderThreads.remove(Thread.currentThread());
+                            // do not pass the interrupt of a timed out
+                            // shutdown to the next task of the thread
+                            Thread.interrupted();
+                            senders.countDown();
+                        }
+                    }
+                });
+            started = true;
+        }
+        return true;
+    }
+
+    private void drainQueue() {
+        try {
+            for (;;) {
+                PendingAudit audit = queue.poll(IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (audit != null)
+                    send(audit, true);
+                else if (closed)
+                    return;
+                else
+                    replayJournal();
+            }
+        } catch (InterruptedException e) {
+            // shutdown timed out
+        }
+    }
+
+    /**
+     * Sends queued audit messages and waits until they are sent; messages
+     * still queued after {@link #SHUTDOWN_TIMEOUT} are saved in the journal
+     * directory. Messages passed after shutdown are sent by the caller.
+     */
+    @PreDestroy
+    public void shutdown() {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        if (senders == null)
+            return;
+
+        try {
+            if (!senders.await(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS))
+                interruptSenders();
+        } catch (InterruptedException e) {
+            interruptSenders();
+            Thread.currentThread().interrupt();
+        }
+        List<PendingAudit> remaining = new ArrayList<PendingAudit>();
+        queue.drainTo(remaining);
+        if (remaining.isEmpty())
+            return;
+
+        if (journalDir == null) {
+            LOG.error("Failed to send {} audit messages on shutdown", remaining.size());
+            return;
+        }
+        for (PendingAudit audit : remaining)
+            writeJournal(audit.timeStamp, audit.msg);
+        LOG.info("Saved {} not sent audit messages in {}", remaining.size(), journalDir);
+    }
+
+    private void interruptSenders() {
+        for (Thread thread : senderThreads)
+            thread.interrupt();
+    }
+
+    private void send(PendingAudit audit, boolean journalOnFailure) {
+        AuditMessage msg = audit.msg;
+
+        try {
+            audit.logger.write(audit.timeStamp, msg);
+        } catch (Exception e) {
+            LOG.error("Failed to write audit log message: {}", e.getMessage());
+            LOG.debug(e.getMessage(), e);
+            if (journalOnFailure && journalDir != null)
+                writeJournal(audit.timeStamp, msg);
+        }
+    }
+
+    private synchronized JAXBContext jaxbContext() throws JAXBException {
+        if (jaxbContext == null)
+            jaxbContext = JAXBContext.newInstance(AuditMessage.class);
+        return jaxbContext;
+    }
+
+    private void writeJournal(Calendar timeStamp, AuditMessage msg) {
+        if (msg == null)
+            return;
+
+        String name = String.format("%013d-%08d", timeStamp.getTimeInMillis(),
+                journalSeq.incrementAndGet() % 100000000L);
+        try {
+            Files.createDirectories(journalDir);
+            Path tmp = journalDir.resolve(name + ".tmp");
+            jaxbContext().createMarshaller().marshal(msg, tmp.toFile());
+            Files.move(tmp, journalDir.resolve(name + JOURNAL_FILE_SUFFIX),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            LOG.error("Failed to save audit message in {}: {}", journalDir, e.getMessage());
+            LOG.debug(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Sends audit messages from the journal directory in the order they were
+     * saved, until the journal is empty or a message could not be sent.
+     */
+    private void replayJournal() {
+        if (journalDir == null || !replayLock.tryLock())
+            return;
+
+        try {
+            AuditLogger logger = device.getDeviceExtension(AuditLogger.class);
+            if (logger == null || !logger.isInstalled())
+                return;
+
+            for (Path file : listJournal()) {
+                if (closed || !queue.isEmpty())
+                    return;
+
+                AuditMessage msg;
+                try {
+                    msg = (AuditMessage) jaxbContext()
+                            .createUnmarshaller().unmarshal(file.toFile());
+                } catch (JAXBException e) {
+                    LOG.warn("Failed to parse audit message from {} - skipped", file, e);
+                    Files.move(file, file.resolveSibling(file.getFileName() + ".corrupted"));
+                    continue;
+                }
+                Calendar timeStamp = new GregorianCalendar();
+                timeStamp.setTimeInMillis(Long.parseLong(
+                        file.getFileName().toString().substring(0, 13)));
+                logger.write(timeStamp, msg);
+                Files.delete(file);
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed to send audit messages from {}: {}", journalDir, e.getMessage());
+            LOG.debug(e.getMessage(), e);
+        } finally {
+            replayLock.unlock();
+        }
+    }
+
+    private List<Path> listJournal() throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        if (!Files.isDirectory(journalDir))
+            return files;
+
+        try (DirectoryStream<Path> dir =
+                Files.newDirectoryStream(journalDir, "*" + JOURNAL_FILE_SUFFIX)) {
+            for (Path file : dir)
+                files.add(file);
+        }
+        Collections.sort(files);
+        return files;
+    }
+}
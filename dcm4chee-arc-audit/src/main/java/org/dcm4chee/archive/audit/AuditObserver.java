@@ -44,6 +44,7 @@ import java.util.List;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Observes;
+import javax.inject.Inject;
 
 import org.dcm4che.archive.audit.message.PixQueryAudit;
 import org.dcm4che.archive.audit.message.QueryAudit;
@@ -62,6 +63,7 @@ import org.dcm4chee.archive.ArchiveServiceStarted;
 import org.dcm4chee.archive.ArchiveServiceStopped;
 import org.dcm4chee.archive.conf.StoreAction;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
+import org.dcm4chee.archive.dto.Participant;
 import org.dcm4chee.archive.event.ConnectionEvent;
 import org.dcm4chee.archive.event.StartStopReloadEvent;
 import org.dcm4chee.archive.mima.impl.PixQueryEvent;
@@ -78,6 +80,9 @@ import org.slf4j.LoggerFactory;
  * Observer receiving events (like store, query, association) to be audited.
  * Implements the ITI-20 transaction of IHE actor Secure Node (see IHE ITI
  * Technical Framework, Vol. 2 - Section 3.20).
+ * <p>
+ * Audit messages are created from the event by the thread which fired it, and
+ * sent asynchronously by {@link AuditMessageSender}.
  * 
  * @author Umberto Cappellini <umberto.cappellini@agfa.com>
  * 
@@ -92,6 +97,9 @@ public class AuditObserver {
     protected static final Logger LOG = LoggerFactory
             .getLogger(AuditObserver.class);
 
+    @Inject
+    private AuditMessageSender sender;
+
     public void receiveStoreContext(@Observes StoreContext context) {
 
         StoreSession session = context.getStoreSession();
@@ -101,17 +109,20 @@ public class AuditObserver {
         StoreAction storeAction = context.getStoreAction();
         HashMap<String, StoreAudit> auditMap = getOrCreateAuditsMap(session, storeAction);
 
-        if (auditMap.get(studyID) == null)
-            auditMap.put(
-                    studyID,
-                    new StoreAudit(session.getRemoteAET(), session.getSource(), 
-                            context.getAttributes(),
-                            storeAction == StoreAction.IGNORE ? EventActionCode.Read : EventActionCode.Create,
-                            storeAction == StoreAction.FAIL ? EventOutcomeIndicator.SeriousFailure
-                            : EventOutcomeIndicator.Success, logger));
-        else {
-            StoreAudit existingAudit = auditMap.get(studyID);
-            existingAudit.addInstance(context.getAttributes());
+        // instances of one session may be stored concurrently
+        synchronized (auditMap) {
+            if (auditMap.get(studyID) == null)
+                auditMap.put(
+                        studyID,
+                        new StoreAudit(session.getRemoteAET(), session.getSource(), 
+                                context.getAttributes(),
+                                storeAction == StoreAction.IGNORE ? EventActionCode.Read : EventActionCode.Create,
+                                storeAction == StoreAction.FAIL ? EventOutcomeIndicator.SeriousFailure
+                                : EventOutcomeIndicator.Success, logger));
+            else {
+                StoreAudit existingAudit = auditMap.get(studyID);
+                existingAudit.addInstance(context.getAttributes());
+            }
         }
     }
 
@@ -151,11 +162,11 @@ public class AuditObserver {
     public void receiveRetrieveBeforeSend(
             @Observes RetrieveBeforeSendEvent event) {
         AuditLogger logger = getLogger(event.getDevice());
-        sendAuditMessage (new RetrieveAudit(event.getSource(),
+        sendRetrieveAudit(event.getSource(),
                 event.getDestination(), event.getRequestor(),
                 event.getInstances(),
                 EventID.BeginTransferringDICOMInstances, EventActionCode.Execute,
-                EventOutcomeIndicator.Success, logger), logger);
+                EventOutcomeIndicator.Success, logger);
     }
     
     public void receiveRetrieveAfterSend(
@@ -176,26 +187,26 @@ public class AuditObserver {
         
 
         if (success.size()>0)
-            sendAuditMessage (new RetrieveAudit(event.getSource(),
+            sendRetrieveAudit(event.getSource(),
                     event.getDestination(), event.getRequestor(),
                     success,
                     EventID.DICOMInstancesTransferred, EventActionCode.Read,
-                    EventOutcomeIndicator.Success, logger), logger);
+                    EventOutcomeIndicator.Success, logger);
         
         if (event.getFailed()!=null && event.getFailed().size()>0) {
             
             if (success.size()>0) //there are failures and successes
-                sendAuditMessage (new RetrieveAudit(event.getSource(),
+                sendRetrieveAudit(event.getSource(),
                         event.getDestination(), event.getRequestor(),
                         event.getFailed(),
                         EventID.DICOMInstancesTransferred, EventActionCode.Read,
-                        EventOutcomeIndicator.MinorFailure, logger), logger);
+                        EventOutcomeIndicator.MinorFailure, logger);
             else //all the instance are failed: major failure
-                sendAuditMessage (new RetrieveAudit(event.getSource(),
+                sendRetrieveAudit(event.getSource(),
                         event.getDestination(), event.getRequestor(),
                         event.getFailed(),
                         EventID.DICOMInstancesTransferred, EventActionCode.Read,
-                        EventOutcomeIndicator.MajorFailure, logger), logger);
+                        EventOutcomeIndicator.MajorFailure, logger);
         }
     } 
     
@@ -216,6 +227,16 @@ public class AuditObserver {
                 event.getPatId(), event.getMessageControlId(), 
                 event.getQuery(), logger), logger);
     }
+
+    private void sendRetrieveAudit(Participant source,
+            Participant destination, Participant requestor,
+            List<ArchiveInstanceLocator> instances, EventID eventID,
+            String eventActionCode, String eventOutcomeIndicator,
+            AuditLogger logger) {
+        sendAuditMessage (new RetrieveAudit(source, destination, requestor,
+                instances, eventID, eventActionCode,
+                eventOutcomeIndicator, logger), logger);
+    }
     
     private HashMap<String, StoreAudit> getOrCreateAuditsMap(
             StoreSession session, StoreAction action) {
@@ -223,10 +244,12 @@ public class AuditObserver {
         	action == StoreAction.IGNORE ? AUDIT_MESSAGES_IGNORED : AUDIT_MESSAGES_SUCCESS;
 
         // if not existing, create a new map for audits (failed or success)
-        if (session.getProperty(mapType) == null)
-            session.setProperty(mapType, new HashMap<String, StoreAudit>());
+        synchronized (session) {
+            if (session.getProperty(mapType) == null)
+                session.setProperty(mapType, new HashMap<String, StoreAudit>());
 
-        return (HashMap<String, StoreAudit>) session.getProperty(mapType);
+            return (HashMap<String, StoreAudit>) session.getProperty(mapType);
+        }
     }
 
     private AuditLogger getLogger(Device device) {
@@ -247,14 +270,7 @@ public class AuditObserver {
         if (logger == null || !logger.isInstalled())
             return;
 
-        try {
-            logger.write(logger.timeStamp(), msg);
-
-        } catch (Exception e) {
-            
-            LOG.error("Failed to write audit log message: {}", e.getMessage());
-            LOG.debug(e.getMessage(), e);
-        }
+        sender.send(logger, msg);
     }
 
 }
@@ -0,0 +1,91 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.code.impl;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.dcm4chee.archive.entity.Code;
+
+/**
+ * Persists new codes in their own transaction, so a unique constraint
+ * violation caused by the concurrent creation of the same code does not
+ * roll back the transaction of the caller.
+ *
+ * @author agent <agent@local>
+ */
+@Stateless
+public class CodeCreatorEJB {
+
+    @PersistenceContext(name = "dcm4chee-arc", unitName="dcm4chee-arc")
+    private EntityManager em;
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public long create(Code code) {
+        em.persist(code);
+        em.flush();
+        return code.getPk();
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public long find(org.dcm4che3.data.Code code) {
+        return CodeServiceEJB.find(em, code).getPk();
+    }
+
+    /**
+     * Removes the just created code with primary key {@code pk}, if another
+     * transaction created the same code with a lower primary key meanwhile.
+     *
+     * @return the primary key of the code to use
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public long removeIfDuplicate(org.dcm4che3.data.Code code, long pk) {
+        long first = CodeServiceEJB.find(em, code).getPk();
+        if (first != pk) {
+            Code duplicate = em.find(Code.class, pk);
+            if (duplicate != null)
+                em.remove(duplicate);
+        }
+        return first;
+    }
+}
@@ -38,6 +38,11 @@
 
 package org.dcm4chee.archive.code.impl;
 
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.ejb.EJB;
+import javax.ejb.EJBException;
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -46,6 +51,8 @@ import javax.persistence.TypedQuery;
 
 import org.dcm4chee.archive.code.CodeService;
 import org.dcm4chee.archive.entity.Code;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -54,24 +61,48 @@ import org.dcm4chee.archive.entity.Code;
 @Stateless
 public class CodeServiceEJB implements CodeService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(CodeServiceEJB.class);
+
     @PersistenceContext(name = "dcm4chee-arc", unitName="dcm4chee-arc")
     private EntityManager em;
 
+    @EJB
+    private CodeCreatorEJB creator;
+
     @Override
     public Code findOrCreate(org.dcm4che3.data.Code code) {
         if (code == null)
             return null;
         try {
-            return find(code);
+            return find(em, code);
         } catch (NoResultException e) {
-            if (!(code instanceof Code))
-                code = new Code(code);
-            em.persist(code);
-            return (Code) code;
+            long pk;
+            try {
+                pk = creator.create(code instanceof Code ? (Code) code : new Code(code));
+                // the unique constraint does not cover codes without Coding
+                // Scheme Version, which may be created concurrently
+                if (code.getCodingSchemeVersion() == null)
+                    pk = creator.removeIfDuplicate(code, pk);
+            } catch (EJBException e2) {
+                if (!isConstraintViolation(e2))
+                    throw e2;
+                // created by concurrent transaction in the meantime
+                LOG.info("Failed to create {} - retry find", code, e2);
+                pk = creator.find(code);
+            }
+            // the new row may not be visible to the caller's transaction
+            Code created = em.find(Code.class, pk);
+            return created != null ? created : em.getReference(Code.class, pk);
         }
     }
 
-    private Code find(org.dcm4che3.data.Code code) {
+    /**
+     * Returns the code with the lowest primary key matching {@code code}.
+     * There may be more than one, if codes without Coding Scheme Version
+     * were created concurrently, because NULL values are not considered
+     * equal by the unique constraint on most databases.
+     */
+    static Code find(EntityManager em, org.dcm4che3.data.Code code) {
         String codingSchemeVersion = code.getCodingSchemeVersion();
         TypedQuery<Code> query = em.createNamedQuery(
                 codingSchemeVersion == null
@@ -82,7 +113,21 @@ public class CodeServiceEJB implements CodeService {
                 .setParameter(2, code.getCodingSchemeDesignator());
         if (codingSchemeVersion != null)
             query.setParameter(3, codingSchemeVersion);
-        return query.getSingleResult();
+        List<Code> codes = query.setMaxResults(1).getResultList();
+        if (codes.isEmpty())
+            throw new NoResultException();
+        return codes.get(0);
+    }
+
+    private static boolean isConstraintViolation(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause())
+            if (cause instanceof SQLException) {
+                // SQL state class 23: integrity constraint violation
+                String sqlState = ((SQLException) cause).getSQLState();
+                if (sqlState != null && sqlState.startsWith("23"))
+                    return true;
+            }
+        return false;
     }
 
 }
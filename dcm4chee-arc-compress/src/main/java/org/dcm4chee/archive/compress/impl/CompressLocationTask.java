@@ -0,0 +1,175 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.compress.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.imageio.codec.CompressionRule;
+import org.dcm4che3.imageio.codec.Compressor;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.TagUtils;
+import org.dcm4chee.archive.store.StoragePathFormat;
+import org.dcm4chee.storage.ObjectAlreadyExistsException;
+import org.dcm4chee.storage.StorageContext;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.service.StorageService;
+import org.dcm4chee.task.ImageProcessingTaskTypes;
+import org.dcm4chee.task.MemoryConsumingTask;
+import org.dcm4chee.task.TaskType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compresses an already stored DICOM instance into a new object on the
+ * storage system of the original object.
+ *
+ * @author agent <agent@local>
+ */
+class CompressLocationTask implements MemoryConsumingTask<StorageContext> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompressLocationTask.class);
+
+    private final StorageService storageService;
+    private final StorageSystem storageSystem;
+    private final Attributes attributes;
+    private final String transferSyntax;
+    private Compressor compressor;
+
+    public CompressLocationTask(StorageService storageService,
+            StorageSystem storageSystem, Attributes attributes,
+            String sourceTransferSyntax, CompressionRule rule) {
+        this.storageService = storageService;
+        this.storageSystem = storageSystem;
+        this.attributes = attributes;
+        this.transferSyntax = rule.getTransferSyntax();
+
+        compressor = new Compressor(attributes, sourceTransferSyntax,
+                transferSyntax, rule.getImageWriteParams());
+    }
+
+    public String getTransferSyntax() {
+        return transferSyntax;
+    }
+
+    @Override
+    public TaskType getTaskType() {
+        return ImageProcessingTaskTypes.TRANSCODE_INCOMING;
+    }
+
+    @Override
+    public long getEstimatedWeight() {
+        return compressor.getEstimatedNeededMemory();
+    }
+
+    @Override
+    public StorageContext call() throws IOException {
+        StorageContext storageContext = storageService.createStorageContext(storageSystem);
+        String root = calculatePath(storageSystem, attributes);
+        String path = root;
+        int copies = 1;
+
+        OutputStream out = null;
+        while (out == null) {
+            try {
+                out = storageService.openOutputStream(storageContext, path);
+            } catch (ObjectAlreadyExistsException e) {
+                path = root + '.' + copies++;
+            }
+        }
+
+        MessageDigest digest = null;
+        boolean written = false;
+        try {
+            String algorithm = storageSystem.getStorageSystemGroup().getDigestAlgorithm();
+            if (algorithm != null) {
+                digest = MessageDigest.getInstance(algorithm);
+                out = new DigestOutputStream(out, digest);
+            }
+            out = new BufferedOutputStream(out, storageSystem.getBufferedOutputLength());
+            compressor.compress();
+            out = new DicomOutputStream(out, UID.ExplicitVRLittleEndian);
+            ((DicomOutputStream) out).writeDataset(
+                    attributes.createFileMetaInformation(transferSyntax), attributes);
+            out.close();
+            written = true;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        } finally {
+            SafeClose.close(out);
+            SafeClose.close(compressor);
+
+            // release the compressed pixel data and the decompressor
+            attributes.setNull(Tag.PixelData, VR.OB);
+            compressor = null;
+
+            if (!written) {
+                try {
+                    storageService.deleteObject(storageContext, path);
+                } catch (IOException e) {
+                    LOG.warn("Failed to delete incomplete compressed object {}", path, e);
+                }
+            }
+        }
+
+        storageContext.setFilePath(Paths.get(path));
+        storageContext.setFileSize(Files.size(
+                Paths.get(storageSystem.getStorageSystemPath(), path)));
+        storageContext.setFileDigest(
+                digest == null ? null : TagUtils.toHexString(digest.digest()));
+        return storageContext;
+    }
+
+    private static String calculatePath(StorageSystem system, Attributes attributes) {
+        String pattern = system.getStorageSystemGroup().getStorageFilePathFormat();
+        return StoragePathFormat.format(pattern, attributes);
+    }
+}
@@ -0,0 +1,122 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.compress.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.ejb.Stateless;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+import javax.jms.JMSException;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
+
+import org.dcm4chee.archive.entity.Instance;
+import org.dcm4chee.archive.entity.Location;
+import org.dcm4chee.archive.event.InstancesInvalidatedEvent;
+import org.dcm4chee.archive.locationmgmt.LocationMgmt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author agent <agent@local>
+ */
+@Stateless
+public class DeferredCompressionEJB {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeferredCompressionEJB.class);
+
+    /**
+     * Delay in ms before the uncompressed object is deleted, so retrieves
+     * which already resolved its location can complete.
+     */
+    private static final int DELETE_DELAY = 60000;
+
+    @PersistenceContext(name = "dcm4chee-arc", unitName = "dcm4chee-arc")
+    private EntityManager em;
+
+    @Inject
+    private LocationMgmt locationManager;
+
+    @Inject
+    private Event<InstancesInvalidatedEvent> instancesInvalidated;
+
+    public Location findLocation(long pk) {
+        List<Location> result = em.createQuery(
+                "SELECT DISTINCT l FROM Location l LEFT JOIN FETCH l.instances WHERE l.pk = ?1",
+                Location.class)
+                .setParameter(1, pk)
+                .getResultList();
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * Switches the instances referenced by the location with the specified
+     * {@code pk} to the compressed location, and schedules the deletion of
+     * the uncompressed object.
+     *
+     * @return {@code false}, if the location is no longer referenced by any
+     *         instance - e.g. because the instance was replaced meanwhile
+     */
+    public boolean replaceLocation(long pk, Location compressed)
+            throws JMSException {
+        Location location = em.find(Location.class, pk,
+                LockModeType.PESSIMISTIC_WRITE);
+        if (location == null || location.getInstances().isEmpty())
+            return false;
+
+        em.persist(compressed);
+        Collection<String> iuids = new ArrayList<String>();
+        for (Instance inst : location.getInstances()) {
+            compressed.addInstance(inst);
+            iuids.add(inst.getSopInstanceUID());
+        }
+        location.getInstances().clear();
+        LOG.info("Replace {} by {}", location, compressed);
+        locationManager.scheduleDelete(Collections.singleton(location),
+                DELETE_DELAY, false);
+        instancesInvalidated.fire(new InstancesInvalidatedEvent(iuids));
+        return true;
+    }
+}
@@ -0,0 +1,209 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.compress.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Calendar;
+
+import javax.annotation.Resource;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.imageio.codec.CompressionRule;
+import org.dcm4che3.imageio.codec.TransferSyntaxType;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.entity.Location;
+import org.dcm4chee.archive.store.StoreContext;
+import org.dcm4chee.archive.store.StoreSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules the compression of objects stored uncompressed by Application
+ * Entities configured for deferred compression, and decides if a scheduled
+ * compression may be performed now or has to be postponed.
+ *
+ * @author agent <agent@local>
+ */
+@ApplicationScoped
+public class DeferredCompressionScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeferredCompressionScheduler.class);
+
+    @Resource(mappedName = "java:/JmsXA")
+    private ConnectionFactory connFactory;
+
+    @Resource(mappedName = "java:/queue/compress")
+    private Queue compressQueue;
+
+    @Inject
+    private Device device;
+
+    /**
+     * Only schedules the compression after the transaction which stored the
+     * location was committed, so the message cannot be consumed before the
+     * location is visible, nor refer to a location which was rolled back.
+     */
+    public void onStoreInstance(
+            @Observes(during = TransactionPhase.AFTER_SUCCESS) StoreContext storeContext) {
+        switch (storeContext.getStoreAction()) {
+        case REPLACE:
+        case RESTORE:
+        case STORE:
+            break;
+        default:
+            return;
+        }
+
+        StoreSession session = storeContext.getStoreSession();
+        ArchiveAEExtension arcAE = session.getArchiveAEExtension();
+        Location fileRef = storeContext.getFileRef();
+        if (arcAE == null || !arcAE.isDeferredCompression()
+                || fileRef == null || fileRef.getEntryName() != null
+                || !storeContext.getOriginalAttributes().contains(Tag.PixelData)
+                || TransferSyntaxType.forUID(storeContext.getTransferSyntax())
+                        != TransferSyntaxType.NATIVE)
+            return;
+
+        CompressionRule rule = arcAE.getCompressionRules().findCompressionRule(
+                session.getRemoteAET(), storeContext.getAttributes());
+        if (rule == null)
+            return;
+
+        try {
+            scheduleCompression(session.getLocalAET(), session.getRemoteAET(),
+                    fileRef.getPk(), 0);
+            LOG.info("{}: Scheduled compression of {} according {}",
+                    session, fileRef, rule.getCommonName());
+        } catch (JMSException e) {
+            LOG.warn("{}: Failed to schedule compression of {}", session, fileRef, e);
+        }
+    }
+
+    public void scheduleCompression(String localAET, String remoteAET,
+            long locationPk, long delay) throws JMSException {
+        Connection conn = connFactory.createConnection();
+        try {
+            Session session = conn.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(compressQueue);
+            Message msg = session.createMessage();
+            msg.setStringProperty("LocalAET", localAET);
+            msg.setStringProperty("RemoteAET", remoteAET);
+            msg.setLongProperty("LocationPk", locationPk);
+            if (delay > 0)
+                msg.setLongProperty("_HQ_SCHED_DELIVERY",
+                        System.currentTimeMillis() + delay);
+            producer.send(msg);
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * Returns the delay in ms after which a compression which should not be
+     * performed now shall be attempted again.
+     */
+    public long retryDelay() {
+        return arcDev().getDeferredCompressionRetryDelay() * 1000L;
+    }
+
+    /**
+     * Returns {@code true} if the current hour of the day is outside of the
+     * configured interval or if the system load average per processor
+     * exceeds the configured limit.
+     */
+    public boolean isPostponed() {
+        ArchiveDeviceExtension arcDev = arcDev();
+        return !isAllowedHour(arcDev.getDeferredCompressionAllowedInterval())
+                || isSystemLoadExceeded(arcDev.getDeferredCompressionMaxSystemLoad());
+    }
+
+    public int maxTasks() {
+        return arcDev().getDeferredCompressionMaxTasks();
+    }
+
+    private ArchiveDeviceExtension arcDev() {
+        return device.getDeviceExtension(ArchiveDeviceExtension.class);
+    }
+
+    private static boolean isAllowedHour(String interval) {
+        if (interval == null)
+            return true;
+
+        String[] hours = interval.split("-");
+        try {
+            int start = Integer.parseInt(hours[0].trim());
+            int end = Integer.parseInt(hours[1].trim());
+            int hour = Calendar.getInstance().get(Calendar.HOUR_OF_DAY);
+            return start <= end
+                    ? hour >= start && hour < end
+                    : hour >= start || hour < end;
+        } catch (RuntimeException e) {
+            LOG.warn("Invalid deferred compression interval: {} - compress at any time",
+                    interval);
+            return true;
+        }
+    }
+
+    private static boolean isSystemLoadExceeded(double maxLoad) {
+        if (maxLoad <= 0)
+            return false;
+
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        double load = os.getSystemLoadAverage();
+        if (load < 0)
+            return false; // not available on this platform
+
+        return load / os.getAvailableProcessors() > maxLoad;
+    }
+}
@@ -0,0 +1,265 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.compress.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.DatasetWithFMI;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.imageio.codec.CompressionRule;
+import org.dcm4che3.imageio.codec.TransferSyntaxType;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.util.TagUtils;
+import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.entity.Location;
+import org.dcm4chee.storage.RetrieveContext;
+import org.dcm4chee.storage.StorageContext;
+import org.dcm4chee.storage.conf.StorageDeviceExtension;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.service.RetrieveService;
+import org.dcm4chee.storage.service.StorageService;
+import org.dcm4chee.task.WeightWatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compresses an object stored uncompressed according the matching
+ * compression rule into a new location, verifies the compressed object and
+ * switches the referencing instances to the new location.
+ *
+ * @author agent <agent@local>
+ */
+@ApplicationScoped
+public class DeferredCompressor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeferredCompressor.class);
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private DeferredCompressionScheduler scheduler;
+
+    @Inject
+    private DeferredCompressionEJB ejb;
+
+    @Inject
+    private StorageService storageService;
+
+    @Inject
+    private RetrieveService retrieveService;
+
+    @Inject
+    private WeightWatcher weightWatcher;
+
+    private final AtomicInteger runningTasks = new AtomicInteger();
+
+    /**
+     * Compresses the object referenced by the location with the specified
+     * {@code locationPk}, if the configured limits permit it.
+     *
+     * @return {@code false}, if the compression was postponed
+     */
+    public boolean compress(String localAET, String remoteAET, long locationPk)
+            throws Exception {
+        if (scheduler.isPostponed() || !tryAcquire(scheduler.maxTasks()))
+            return false;
+
+        try {
+            doCompress(localAET, remoteAET, locationPk);
+        } finally {
+            runningTasks.decrementAndGet();
+        }
+        return true;
+    }
+
+    private boolean tryAcquire(int maxTasks) {
+        for (;;) {
+            int running = runningTasks.get();
+            if (maxTasks > 0 && running >= maxTasks)
+                return false;
+            if (runningTasks.compareAndSet(running, running + 1))
+                return true;
+        }
+    }
+
+    private void doCompress(String localAET, String remoteAET, long locationPk)
+            throws Exception {
+        Location location = ejb.findLocation(locationPk);
+        if (location == null || location.getInstances().isEmpty()) {
+            LOG.info("Location[pk={}] no longer referenced - skip compression",
+                    locationPk);
+            return;
+        }
+        if (location.getEntryName() != null
+                || TransferSyntaxType.forUID(location.getTransferSyntaxUID())
+                        != TransferSyntaxType.NATIVE) {
+            LOG.info("{} not stored uncompressed - skip compression", location);
+            return;
+        }
+
+        ApplicationEntity ae = device.getApplicationEntity(localAET);
+        if (ae == null) {
+            LOG.warn("Failed to compress {} - no such local AE: {}",
+                    location, localAET);
+            return;
+        }
+        ArchiveAEExtension arcAE = ae.getAEExtension(ArchiveAEExtension.class);
+
+        StorageSystem storageSystem = device
+                .getDeviceExtensionNotNull(StorageDeviceExtension.class)
+                .getStorageSystem(location.getStorageSystemGroupID(),
+                        location.getStorageSystemID());
+        DatasetWithFMI dataset = readFrom(storageSystem, location.getStoragePath());
+        Attributes attrs = dataset.getDataset();
+        CompressionRule rule = arcAE.getCompressionRules()
+                .findCompressionRule(remoteAET, attrs);
+        if (rule == null) {
+            LOG.info("No compression rule matches {} - skip compression", location);
+            return;
+        }
+
+        String iuid = attrs.getString(Tag.SOPInstanceUID);
+        StorageContext compressedContext = weightWatcher.execute(
+                new CompressLocationTask(storageService, storageSystem, attrs,
+                        location.getTransferSyntaxUID(), rule));
+        String compressedPath = compressedContext.getFilePath().toString();
+        boolean replaced = false;
+        try {
+            verify(storageSystem, compressedContext, iuid, rule.getTransferSyntax());
+            Location compressed = new Location.Builder()
+                    .timeZone(location.getTimeZone())
+                    .storageSystemGroupID(location.getStorageSystemGroupID())
+                    .storageSystemID(location.getStorageSystemID())
+                    .storagePath(compressedPath)
+                    .digest(compressedContext.getFileDigest())
+                    .otherAttsDigest(location.getOtherAttsDigest())
+                    .size(compressedContext.getFileSize())
+                    .transferSyntaxUID(rule.getTransferSyntax())
+                    .build();
+            replaced = ejb.replaceLocation(locationPk, compressed);
+            if (replaced)
+                LOG.info("Compressed {} according {}", location, rule.getCommonName());
+            else
+                LOG.info("{} no longer referenced - discard compressed object",
+                        location);
+        } finally {
+            if (!replaced)
+                deleteObject(compressedContext, compressedPath);
+        }
+    }
+
+    private void deleteObject(StorageContext ctx, String path) {
+        try {
+            storageService.deleteObject(ctx, path);
+        } catch (IOException e) {
+            LOG.warn("Failed to delete compressed object {}", path, e);
+        }
+    }
+
+    private DatasetWithFMI readFrom(StorageSystem storageSystem, String path)
+            throws IOException {
+        RetrieveContext ctx = retrieveService.createRetrieveContext(storageSystem);
+        Path file;
+        try {
+            file = retrieveService.getFile(ctx, path);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        try (DicomInputStream din = new DicomInputStream(file.toFile())) {
+            din.setIncludeBulkData(IncludeBulkData.URI);
+            return din.readDatasetWithFMI(-1, -1);
+        }
+    }
+
+    /**
+     * Parses the compressed object and recalculates its digest, to detect
+     * objects which were not completely or not correctly written.
+     */
+    private void verify(StorageSystem storageSystem,
+            StorageContext compressedContext, String iuid, String tsuid)
+            throws IOException {
+        String path = compressedContext.getFilePath().toString();
+        DatasetWithFMI dataset = readFrom(storageSystem, path);
+        if (!iuid.equals(dataset.getDataset().getString(Tag.SOPInstanceUID))
+                || !tsuid.equals(dataset.getFileMetaInformation()
+                        .getString(Tag.TransferSyntaxUID)))
+            throw new IOException("Verification of compressed object "
+                    + path + " failed");
+
+        String expectedDigest = compressedContext.getFileDigest();
+        if (expectedDigest == null)
+            return;
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(
+                    storageSystem.getStorageSystemGroup().getDigestAlgorithm());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        RetrieveContext ctx = retrieveService.createRetrieveContext(storageSystem);
+        byte[] buf = new byte[8192];
+        try (InputStream in = Files.newInputStream(retrieveService.getFile(ctx, path))) {
+            int read;
+            while ((read = in.read(buf)) > 0)
+                digest.update(buf, 0, read);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        if (!expectedDigest.equals(TagUtils.toHexString(digest.digest())))
+            throw new IOException("Digest of compressed object "
+                    + path + " does not match");
+    }
+}
@@ -53,8 +53,8 @@ import org.dcm4che3.imageio.codec.Compressor;
 import org.dcm4che3.io.DicomOutputStream;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.service.DicomServiceException;
-import org.dcm4che3.util.AttributesFormat;
 import org.dcm4che3.util.SafeClose;
+import org.dcm4chee.archive.store.StoragePathFormat;
 import org.dcm4chee.archive.store.StoreContext;
 import org.dcm4chee.archive.store.StoreSession;
 import org.dcm4chee.storage.ObjectAlreadyExistsException;
@@ -174,7 +174,6 @@ class StoreCompressedTask implements MemoryConsumingTask<StorageContext> {
 
     private static String calculatePath(StorageSystem system, Attributes attributes) {
         String pattern = system.getStorageSystemGroup().getStorageFilePathFormat();
-        AttributesFormat format = AttributesFormat.valueOf(pattern);
-        return format.format(attributes);
+        return StoragePathFormat.format(pattern, attributes);
     }
 }
@@ -103,6 +103,9 @@ public class StoreServiceCompressDecorator extends DelegatingStoreService {
         StoreSession session = context.getStoreSession();
 
         ArchiveAEExtension archiveAE = session.getArchiveAEExtension();
+        if (archiveAE.isDeferredCompression())
+            return null; // compressed later by DeferredCompressionScheduler
+
         CompressionRules rules = archiveAE.getCompressionRules();
 
         Attributes attributes = context.getOriginalAttributes();
@@ -59,6 +59,9 @@ import javax.xml.transform.TransformerConfigurationException;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -149,6 +152,22 @@ public class ArchiveAEExtension extends AEExtension {
     @ConfigurableProperty(name = "dcmIanRetryInterval", defaultValue = DEF_RETRY_INTERVAL)
     private int IANRetryInterval = Integer.parseInt(DEF_RETRY_INTERVAL);
 
+    @ConfigurableProperty(name = "dcmIanOnStore", defaultValue = "false",
+            description = "Emit IANs for received instances which are not referenced by a MPPS, "
+                    + "aggregated per Study and Association")
+    private boolean IANOnStore;
+
+    @ConfigurableProperty(name = "dcmIanStoreQuietPeriod", defaultValue = "0",
+            description = "Period in s without receiving further instances of a Study on an Association "
+                    + "after which the IAN for the received instances is emitted. The default (0) emits the "
+                    + "IAN on a change of the Study or on the release of the Association.")
+    private int IANStoreQuietPeriod;
+
+    @ConfigurableProperty(name = "dcmIanCoalescingPeriod", defaultValue = "0",
+            description = "Period in s in which IANs to the same destination are collected, merging IANs "
+                    + "for the same Study into one. The default (0) sends each IAN separately.")
+    private int IANCoalescingPeriod;
+
     @LDAP(noContainerNode = true)
     @ConfigurableProperty(name = "dcmAttributeCoercions")
     private AttributeCoercions attributeCoercions = new AttributeCoercions();
@@ -157,6 +176,10 @@ public class ArchiveAEExtension extends AEExtension {
     @ConfigurableProperty(name = "dcmCompressionRules")
     private CompressionRules compressionRules = new CompressionRules();
 
+    @ConfigurableProperty(name = "dcmDeferredCompression", defaultValue = "false",
+            description = "Store received objects as received and compress them later in the background")
+    private boolean deferredCompression;
+
     @ConfigurableProperty(name = "dcmReturnOtherPatientIDs", defaultValue = "false")
     private boolean returnOtherPatientIDs;
 
@@ -204,6 +227,52 @@ public class ArchiveAEExtension extends AEExtension {
     @ConfigurableProperty(name = "dcmStoreRememberDelayAfterFailedResponse", defaultValue = "3600")
     private int storeAndRememberDelayAfterFailedResponse = 3600;
 
+    @ConfigurableProperty(name = "dcmStoreGroupCommitMaxInstances", defaultValue = "0",
+            description = "Maximal number of instances received on one association which are written to the "
+                    + "database in one transaction. Only effective if asynchronous operations are negotiated. "
+                    + "If set to 0 or 1, each instance is committed separately.")
+    private int storeGroupCommitMaxInstances;
+
+    @ConfigurableProperty(name = "dcmStoreGroupCommitMaxDelay", defaultValue = "100",
+            description = "Maximal time in ms the first instance of a group waits for further instances "
+                    + "before the group is committed")
+    private int storeGroupCommitMaxDelay = 100;
+
+    @ConfigurableProperty(name = "dcmStoreSCUParallelAssociations", defaultValue = "1",
+            description = "Number of associations opened to the destination of a C-MOVE or a forward "
+                    + "to send the instances in parallel. The instances of one series are sent over "
+                    + "the same association.")
+    private int storeSCUParallelAssociations = 1;
+
+    @LDAP(
+            distinguishingField = "dicomAETitle",
+            mapEntryObjectClass = "dcmStoreSCUParallelAssociationsEntry",
+            mapValueAttribute = "dcmStoreSCUParallelAssociations"
+    )
+    @ConfigurableProperty(name = "dcmStoreSCUParallelAssociationsMap",
+            description = "Number of parallel associations by destination AE Title, "
+                    + "overriding dcmStoreSCUParallelAssociations")
+    private Map<String, String> storeSCUParallelAssociationsMap = new TreeMap<String, String>();
+
+    @ConfigurableProperty(name = "dcmStoreSCUReadAhead", defaultValue = "10",
+            description = "Maximal number of instances per parallel association which are read "
+                    + "and prepared ahead of sending")
+    private int storeSCUReadAhead = 10;
+
+    @LDAP(
+            distinguishingField = "cn",
+            mapEntryObjectClass = "dcmDeclarativeAttributeCoercionEntry",
+            mapValueAttribute = "dcmDeclarativeAttributeCoercion"
+    )
+    @ConfigurableProperty(name = "dcmDeclarativeAttributeCoercionMap",
+            description = "Operations applied directly on the data set by Attribute Coercion common name, "
+                    + "replacing the XSLT of the Attribute Coercion. "
+                    + "E.g. 'set InstitutionName ACME; remove 00100030; copy PatientID OtherPatientIDs; "
+                    + "map Modality CR=DX'")
+    private Map<String, String> declarativeAttributeCoercionMap = new TreeMap<String, String>();
+
+    private transient volatile Map<String, DeclarativeCoercion> declarativeCoercions;
+
     public RetrieveSuppressionCriteria getRetrieveSuppressionCriteria() {
         return retrieveSuppressionCriteria;
     }
@@ -278,6 +347,14 @@ public class ArchiveAEExtension extends AEExtension {
         return compressionRules.remove(ac);
     }
 
+    public boolean isDeferredCompression() {
+        return deferredCompression;
+    }
+
+    public void setDeferredCompression(boolean deferredCompression) {
+        this.deferredCompression = deferredCompression;
+    }
+
     public String getModifyingSystem() {
         return modifyingSystem;
     }
@@ -331,6 +408,49 @@ public class ArchiveAEExtension extends AEExtension {
                 StringUtils.replaceSystemProperties(ac.getURI())) : null;
     }
 
+    /**
+     * Returns the declarative coercion configured for the common name of the
+     * matching Attribute Coercion, or {@code null}, if there is no matching
+     * Attribute Coercion or it shall be applied by XSLT.
+     */
+    public DeclarativeCoercion getDeclarativeAttributeCoercion(String cuid,
+            Dimse dimse, TransferCapability.Role role, String aet) {
+        AttributeCoercion ac = getAttributeCoercion(cuid, dimse, role, aet);
+        if (ac == null)
+            return null;
+
+        String spec = declarativeAttributeCoercionMap.get(ac.getCommonName());
+        if (spec == null)
+            return null;
+
+        Map<String, DeclarativeCoercion> parsed = declarativeCoercions;
+        if (parsed == null) {
+            synchronized (this) {
+                parsed = declarativeCoercions;
+                if (parsed == null)
+                    declarativeCoercions = parsed =
+                            new ConcurrentHashMap<String, DeclarativeCoercion>();
+            }
+        }
+
+        DeclarativeCoercion coercion = parsed.get(spec);
+        if (coercion == null) {
+            coercion = DeclarativeCoercion.valueOf(spec);
+            parsed.put(spec, coercion);
+        }
+        return coercion;
+    }
+
+    public Map<String, String> getDeclarativeAttributeCoercionMap() {
+        return declarativeAttributeCoercionMap;
+    }
+
+    public void setDeclarativeAttributeCoercionMap(
+            Map<String, String> declarativeAttributeCoercionMap) {
+        this.declarativeAttributeCoercionMap = declarativeAttributeCoercionMap;
+        this.declarativeCoercions = null;
+    }
+
     public boolean isSuppressWarningCoercionOfDataElements() {
         return suppressWarningCoercionOfDataElements;
     }
@@ -468,6 +588,30 @@ public class ArchiveAEExtension extends AEExtension {
         this.IANRetryInterval = ianRetryInterval;
     }
 
+    public boolean isIANOnStore() {
+        return IANOnStore;
+    }
+
+    public void setIANOnStore(boolean ianOnStore) {
+        this.IANOnStore = ianOnStore;
+    }
+
+    public int getIANStoreQuietPeriod() {
+        return IANStoreQuietPeriod;
+    }
+
+    public void setIANStoreQuietPeriod(int ianStoreQuietPeriod) {
+        this.IANStoreQuietPeriod = ianStoreQuietPeriod;
+    }
+
+    public int getIANCoalescingPeriod() {
+        return IANCoalescingPeriod;
+    }
+
+    public void setIANCoalescingPeriod(int ianCoalescingPeriod) {
+        this.IANCoalescingPeriod = ianCoalescingPeriod;
+    }
+
     public boolean isReturnOtherPatientIDs() {
         return returnOtherPatientIDs;
     }
@@ -624,6 +768,56 @@ public class ArchiveAEExtension extends AEExtension {
         this.storeAndRememberDelayAfterFailedResponse = storeAndRememberDelayAfterFailedResponse;
     }
 
+    public int getStoreGroupCommitMaxInstances() {
+        return storeGroupCommitMaxInstances;
+    }
+
+    public void setStoreGroupCommitMaxInstances(int storeGroupCommitMaxInstances) {
+        this.storeGroupCommitMaxInstances = storeGroupCommitMaxInstances;
+    }
+
+    public int getStoreGroupCommitMaxDelay() {
+        return storeGroupCommitMaxDelay;
+    }
+
+    public void setStoreGroupCommitMaxDelay(int storeGroupCommitMaxDelay) {
+        this.storeGroupCommitMaxDelay = storeGroupCommitMaxDelay;
+    }
+
+    public boolean isStoreGroupCommit() {
+        return storeGroupCommitMaxInstances > 1;
+    }
+
+    public int getStoreSCUParallelAssociations() {
+        return storeSCUParallelAssociations;
+    }
+
+    public void setStoreSCUParallelAssociations(int storeSCUParallelAssociations) {
+        this.storeSCUParallelAssociations = storeSCUParallelAssociations;
+    }
+
+    public Map<String, String> getStoreSCUParallelAssociationsMap() {
+        return storeSCUParallelAssociationsMap;
+    }
+
+    public void setStoreSCUParallelAssociationsMap(
+            Map<String, String> storeSCUParallelAssociationsMap) {
+        this.storeSCUParallelAssociationsMap = storeSCUParallelAssociationsMap;
+    }
+
+    public int getStoreSCUParallelAssociations(String destinationAET) {
+        String value = storeSCUParallelAssociationsMap.get(destinationAET);
+        return value != null ? Integer.parseInt(value) : storeSCUParallelAssociations;
+    }
+
+    public int getStoreSCUReadAhead() {
+        return storeSCUReadAhead;
+    }
+
+    public void setStoreSCUReadAhead(int storeSCUReadAhead) {
+        this.storeSCUReadAhead = storeSCUReadAhead;
+    }
+
     public String getOlockHash() {
         return olockHash;
     }
@@ -96,6 +96,21 @@ public class ArchiveDeviceExtension extends DeviceExtension {
     @ConfigurableProperty(name = "dcmWadoAttributesStaleTimeout", defaultValue = "0")
     private int wadoAttributesStaleTimeout;
 
+    @ConfigurableProperty(name = "dcmWadoRenderedImageCacheDirectory",
+            description = "Directory in which images rendered by WADO-URI are cached in a "
+                    + "subdirectory rendered-image-cache. If not set, images are rendered on each request.")
+    private String wadoRenderedImageCacheDirectory;
+
+    @ConfigurableProperty(name = "dcmWadoRenderedImageCacheMaxSize", defaultValue = "1024",
+            description = "Maximal size in MB of the rendered image cache. "
+                    + "If exceeded, least recently used images are removed.")
+    private int wadoRenderedImageCacheMaxSize = 1024;
+
+    @ConfigurableProperty(name = "dcmWadoRenderedImageCacheTTL", defaultValue = "86400",
+            description = "Time in s after which a cached rendered image is discarded. "
+                    + "If set to 0, images are only discarded if the maximal size is exceeded.")
+    private int wadoRenderedImageCacheTTL = 86400;
+
 
     @ConfigurableProperty(name = "dcmHostnameAEResolution", defaultValue = "false")
     private boolean hostnameAEResolution;
@@ -150,6 +165,15 @@ public class ArchiveDeviceExtension extends DeviceExtension {
     @ConfigurableProperty(name = "dcmRejectedObjectsCleanUpMaxNumberOfDeletes")
     private int rejectedObjectsCleanUpMaxNumberOfDeletes;
 
+    @ConfigurableProperty(name = "dcmRejectedObjectsCleanUpBatchSize", defaultValue = "100",
+            description = "Maximal number of rejected instances deleted in one transaction")
+    private int rejectedObjectsCleanUpBatchSize = 100;
+
+    @ConfigurableProperty(name = "dcmRejectedObjectsCleanUpMaxBatchDuration", defaultValue = "1000",
+            description = "Duration in ms of the deletion of one batch of rejected instances, above which "
+                    + "the batch size is reduced and the clean up is continued with the next poll")
+    private int rejectedObjectsCleanUpMaxBatchDuration = 1000;
+
     @ConfigurableProperty(name = "dcmMppsEmulationPollInterval",
             description = "Interval in seconds that should be used to poll for finished study updates (and therefore mpps emulation candidates)" +
                     "If set to 0, disables polling.",
@@ -205,6 +229,114 @@ public class ArchiveDeviceExtension extends DeviceExtension {
     @ConfigurableProperty(name = "dcmDeleteServiceAllowedInterval")
     private String deleteServiceAllowedInterval;
 
+    @ConfigurableProperty(name = "dcmDeleteServiceFetchSize", defaultValue = "100",
+            description = "Number of studies due for deletion fetched from the database at once")
+    private int deleteServiceFetchSize = 100;
+
+    @ConfigurableProperty(name = "dcmQueryFetchSize", defaultValue = "100",
+            description = "Number of matching rows fetched from the database at once by C-FIND and QIDO-RS queries; "
+                    + "0 uses the default of the JDBC driver. Ignored for MySQL, whose driver streams the rows")
+    private int queryFetchSize = 100;
+
+    @ConfigurableProperty(name = "dcmAuditQueueCapacity", defaultValue = "1000",
+            description = "Maximal number of audit messages waiting to be sent to the audit record repository")
+    private int auditQueueCapacity = 1000;
+
+    @ConfigurableProperty(name = "dcmAuditQueueOverflow", defaultValue = "BLOCK",
+            description = "Handling of audit messages if the queue is full: BLOCK the caller, "
+                    + "DROP the message or SPILL it to the audit journal directory")
+    private AuditOverflowPolicy auditQueueOverflow = AuditOverflowPolicy.BLOCK;
+
+    @ConfigurableProperty(name = "dcmAuditSenderThreads", defaultValue = "2",
+            description = "Number of threads sending queued audit messages")
+    private int auditSenderThreads = 2;
+
+    @ConfigurableProperty(name = "dcmAuditJournalDirectory",
+            description = "Directory to which audit messages are spilled if the queue is full, and in which "
+                    + "audit messages not sent on shutdown are saved. Saved messages are sent on next start.")
+    private String auditJournalDirectory;
+
+    @ConfigurableProperty(name = "dcmDeferredCompressionAllowedInterval",
+            description = "Hours of the day in which deferred compression is performed, e.g. 20-6. "
+                    + "If absent, deferred compression is performed at any time")
+    private String deferredCompressionAllowedInterval;
+
+    @ConfigurableProperty(name = "dcmDeferredCompressionMaxTasks", defaultValue = "1",
+            description = "Maximal number of deferred compressions performed concurrently")
+    private int deferredCompressionMaxTasks = 1;
+
+    @ConfigurableProperty(name = "dcmDeferredCompressionMaxSystemLoad", defaultValue = "0",
+            description = "System load average per available processor above which deferred compression "
+                    + "is postponed. The default (0) means no limit.")
+    private double deferredCompressionMaxSystemLoad;
+
+    @ConfigurableProperty(name = "dcmDeferredCompressionRetryDelay", defaultValue = "300",
+            description = "Delay in s after which a postponed deferred compression is attempted again")
+    private int deferredCompressionRetryDelay = 300;
+
+    @ConfigurableProperty(name = "dcmStoreExecutorCorePoolSize", defaultValue = "4",
+            description = "Number of threads kept for processing received objects in the background")
+    private int storeExecutorCorePoolSize = 4;
+
+    @ConfigurableProperty(name = "dcmStoreExecutorMaxPoolSize", defaultValue = "16",
+            description = "Maximal number of threads processing received objects in the background")
+    private int storeExecutorMaxPoolSize = 16;
+
+    @ConfigurableProperty(name = "dcmStoreExecutorQueueSize", defaultValue = "100",
+            description = "Maximal number of store tasks waiting for a background thread. "
+                    + "If the queue is full and all threads are busy, the task is executed by the caller")
+    private int storeExecutorQueueSize = 100;
+
+    @ConfigurableProperty(name = "dcmFileSyncMaxFiles", defaultValue = "25",
+            description = "Maximal number of stored files of one storage system synced together")
+    private int fileSyncMaxFiles = 25;
+
+    @ConfigurableProperty(name = "dcmFileSyncMaxBytes", defaultValue = "0",
+            description = "Total size of stored files of one storage system in bytes, which triggers "
+                    + "their sync. The default (0) means no limit.")
+    private long fileSyncMaxBytes;
+
+    @ConfigurableProperty(name = "dcmFileSyncMaxDelay", defaultValue = "20",
+            description = "Maximal delay in ms of the sync of a stored file, in which the syncs of further "
+                    + "files on the same storage system are collected. 0 syncs each file separately.")
+    private int fileSyncMaxDelay = 20;
+
+    @ConfigurableProperty(name = "dcmNumberOfFramesMigrationPollInterval", defaultValue = "60",
+            description = "Interval in s in which the Number of Frames of instances stored by a previous "
+                    + "version is copied from their attributes blob into its own column. "
+                    + "0 disables the migration, so the Number of Frames of such instances "
+                    + "is always read from their attributes blob.")
+    private int numberOfFramesMigrationPollInterval = 60;
+
+    @ConfigurableProperty(name = "dcmNumberOfFramesMigrationBatchSize", defaultValue = "1000",
+            description = "Maximal number of instances migrated in one transaction")
+    private int numberOfFramesMigrationBatchSize = 1000;
+
+    @ConfigurableProperty(name = "dcmPIXQueryCacheStaleTimeout", defaultValue = "60",
+            description = "Period in s for which the result of a PIX Query is reused for further "
+                    + "queries for the same Patient ID. 0 disables caching.")
+    private int pixQueryCacheStaleTimeout = 60;
+
+    @ConfigurableProperty(name = "dcmPIXQueryCacheMaxSize", defaultValue = "1000",
+            description = "Maximal number of cached results of PIX Queries")
+    private int pixQueryCacheMaxSize = 1000;
+
+    @ConfigurableProperty(name = "dcmPIXMaxIdleConnections", defaultValue = "4",
+            description = "Maximal number of idle MLLP connections kept open to one PIX Manager "
+                    + "for further PIX Queries within the Idle Timeout of the local HL7 connection")
+    private int pixMaxIdleConnections = 4;
+
+    @ConfigurableProperty(name = "dcmStgCmtDigestVerificationValidity", defaultValue = "0",
+            description = "Period in s for which a successful verification of the digest of a stored "
+                    + "file is reused for further Storage Commitment requests. 0 verifies the digest "
+                    + "on each request.")
+    private int stgCmtDigestVerificationValidity;
+
+    @ConfigurableProperty(name = "dcmStgCmtMaxParallelDigestVerifications", defaultValue = "4",
+            description = "Maximal number of files of one storage system whose digest is verified "
+                    + "in parallel for one Storage Commitment request")
+    private int stgCmtMaxParallelDigestVerifications = 4;
+
     @ConfigurableProperty(name = "dcmDataVolumePerDayCalculationRange", defaultValue = "23-0")
     private String dataVolumePerDayCalculationRange = "23-0";
 
@@ -400,6 +532,30 @@ public class ArchiveDeviceExtension extends DeviceExtension {
         this.wadoAttributesStaleTimeout = wadoAttributesStaleTimeout;
     }
 
+    public String getWadoRenderedImageCacheDirectory() {
+        return wadoRenderedImageCacheDirectory;
+    }
+
+    public void setWadoRenderedImageCacheDirectory(String wadoRenderedImageCacheDirectory) {
+        this.wadoRenderedImageCacheDirectory = wadoRenderedImageCacheDirectory;
+    }
+
+    public int getWadoRenderedImageCacheMaxSize() {
+        return wadoRenderedImageCacheMaxSize;
+    }
+
+    public void setWadoRenderedImageCacheMaxSize(int wadoRenderedImageCacheMaxSize) {
+        this.wadoRenderedImageCacheMaxSize = wadoRenderedImageCacheMaxSize;
+    }
+
+    public int getWadoRenderedImageCacheTTL() {
+        return wadoRenderedImageCacheTTL;
+    }
+
+    public void setWadoRenderedImageCacheTTL(int wadoRenderedImageCacheTTL) {
+        this.wadoRenderedImageCacheTTL = wadoRenderedImageCacheTTL;
+    }
+
     public int getRejectedObjectsCleanUpPollInterval() {
         return rejectedObjectsCleanUpPollInterval;
     }
@@ -418,6 +574,22 @@ public class ArchiveDeviceExtension extends DeviceExtension {
         this.rejectedObjectsCleanUpMaxNumberOfDeletes = rejectedObjectsCleanUpMaxNumberOfDeletes;
     }
 
+    public int getRejectedObjectsCleanUpBatchSize() {
+        return rejectedObjectsCleanUpBatchSize;
+    }
+
+    public void setRejectedObjectsCleanUpBatchSize(int rejectedObjectsCleanUpBatchSize) {
+        this.rejectedObjectsCleanUpBatchSize = rejectedObjectsCleanUpBatchSize;
+    }
+
+    public int getRejectedObjectsCleanUpMaxBatchDuration() {
+        return rejectedObjectsCleanUpMaxBatchDuration;
+    }
+
+    public void setRejectedObjectsCleanUpMaxBatchDuration(int rejectedObjectsCleanUpMaxBatchDuration) {
+        this.rejectedObjectsCleanUpMaxBatchDuration = rejectedObjectsCleanUpMaxBatchDuration;
+    }
+
     public int getMppsEmulationPollInterval() {
         return mppsEmulationPollInterval;
     }
@@ -719,6 +891,194 @@ public class ArchiveDeviceExtension extends DeviceExtension {
         this.deleteServiceAllowedInterval = deleteServiceAllowedInterval;
     }
 
+    public int getDeleteServiceFetchSize() {
+        return deleteServiceFetchSize;
+    }
+
+    public void setDeleteServiceFetchSize(int deleteServiceFetchSize) {
+        this.deleteServiceFetchSize = deleteServiceFetchSize;
+    }
+
+    public int getQueryFetchSize() {
+        return queryFetchSize;
+    }
+
+    public void setQueryFetchSize(int queryFetchSize) {
+        this.queryFetchSize = queryFetchSize;
+    }
+
+    public int getAuditQueueCapacity() {
+        return auditQueueCapacity;
+    }
+
+    public void setAuditQueueCapacity(int auditQueueCapacity) {
+        this.auditQueueCapacity = auditQueueCapacity;
+    }
+
+    public AuditOverflowPolicy getAuditQueueOverflow() {
+        return auditQueueOverflow;
+    }
+
+    public void setAuditQueueOverflow(AuditOverflowPolicy auditQueueOverflow) {
+        this.auditQueueOverflow = auditQueueOverflow;
+    }
+
+    public int getAuditSenderThreads() {
+        return auditSenderThreads;
+    }
+
+    public void setAuditSenderThreads(int auditSenderThreads) {
+        this.auditSenderThreads = auditSenderThreads;
+    }
+
+    public String getAuditJournalDirectory() {
+        return auditJournalDirectory;
+    }
+
+    public void setAuditJournalDirectory(String auditJournalDirectory) {
+        this.auditJournalDirectory = auditJournalDirectory;
+    }
+
+    public String getDeferredCompressionAllowedInterval() {
+        return deferredCompressionAllowedInterval;
+    }
+
+    public void setDeferredCompressionAllowedInterval(
+            String deferredCompressionAllowedInterval) {
+        this.deferredCompressionAllowedInterval = deferredCompressionAllowedInterval;
+    }
+
+    public int getDeferredCompressionMaxTasks() {
+        return deferredCompressionMaxTasks;
+    }
+
+    public void setDeferredCompressionMaxTasks(int deferredCompressionMaxTasks) {
+        this.deferredCompressionMaxTasks = deferredCompressionMaxTasks;
+    }
+
+    public double getDeferredCompressionMaxSystemLoad() {
+        return deferredCompressionMaxSystemLoad;
+    }
+
+    public void setDeferredCompressionMaxSystemLoad(
+            double deferredCompressionMaxSystemLoad) {
+        this.deferredCompressionMaxSystemLoad = deferredCompressionMaxSystemLoad;
+    }
+
+    public int getDeferredCompressionRetryDelay() {
+        return deferredCompressionRetryDelay;
+    }
+
+    public void setDeferredCompressionRetryDelay(int deferredCompressionRetryDelay) {
+        this.deferredCompressionRetryDelay = deferredCompressionRetryDelay;
+    }
+
+    public int getStoreExecutorCorePoolSize() {
+        return storeExecutorCorePoolSize;
+    }
+
+    public void setStoreExecutorCorePoolSize(int storeExecutorCorePoolSize) {
+        this.storeExecutorCorePoolSize = storeExecutorCorePoolSize;
+    }
+
+    public int getStoreExecutorMaxPoolSize() {
+        return storeExecutorMaxPoolSize;
+    }
+
+    public void setStoreExecutorMaxPoolSize(int storeExecutorMaxPoolSize) {
+        this.storeExecutorMaxPoolSize = storeExecutorMaxPoolSize;
+    }
+
+    public int getStoreExecutorQueueSize() {
+        return storeExecutorQueueSize;
+    }
+
+    public void setStoreExecutorQueueSize(int storeExecutorQueueSize) {
+        this.storeExecutorQueueSize = storeExecutorQueueSize;
+    }
+
+    public int getFileSyncMaxFiles() {
+        return fileSyncMaxFiles;
+    }
+
+    public void setFileSyncMaxFiles(int fileSyncMaxFiles) {
+        this.fileSyncMaxFiles = fileSyncMaxFiles;
+    }
+
+    public long getFileSyncMaxBytes() {
+        return fileSyncMaxBytes;
+    }
+
+    public void setFileSyncMaxBytes(long fileSyncMaxBytes) {
+        this.fileSyncMaxBytes = fileSyncMaxBytes;
+    }
+
+    public int getFileSyncMaxDelay() {
+        return fileSyncMaxDelay;
+    }
+
+    public void setFileSyncMaxDelay(int fileSyncMaxDelay) {
+        this.fileSyncMaxDelay = fileSyncMaxDelay;
+    }
+
+    public int getNumberOfFramesMigrationPollInterval() {
+        return numberOfFramesMigrationPollInterval;
+    }
+
+    public void setNumberOfFramesMigrationPollInterval(int numberOfFramesMigrationPollInterval) {
+        this.numberOfFramesMigrationPollInterval = numberOfFramesMigrationPollInterval;
+    }
+
+    public int getNumberOfFramesMigrationBatchSize() {
+        return numberOfFramesMigrationBatchSize;
+    }
+
+    public void setNumberOfFramesMigrationBatchSize(int numberOfFramesMigrationBatchSize) {
+        this.numberOfFramesMigrationBatchSize = numberOfFramesMigrationBatchSize;
+    }
+
+    public int getPixQueryCacheStaleTimeout() {
+        return pixQueryCacheStaleTimeout;
+    }
+
+    public void setPixQueryCacheStaleTimeout(int pixQueryCacheStaleTimeout) {
+        this.pixQueryCacheStaleTimeout = pixQueryCacheStaleTimeout;
+    }
+
+    public int getPixQueryCacheMaxSize() {
+        return pixQueryCacheMaxSize;
+    }
+
+    public void setPixQueryCacheMaxSize(int pixQueryCacheMaxSize) {
+        this.pixQueryCacheMaxSize = pixQueryCacheMaxSize;
+    }
+
+    public int getPixMaxIdleConnections() {
+        return pixMaxIdleConnections;
+    }
+
+    public void setPixMaxIdleConnections(int pixMaxIdleConnections) {
+        this.pixMaxIdleConnections = pixMaxIdleConnections;
+    }
+
+    public int getStgCmtDigestVerificationValidity() {
+        return stgCmtDigestVerificationValidity;
+    }
+
+    public void setStgCmtDigestVerificationValidity(
+            int stgCmtDigestVerificationValidity) {
+        this.stgCmtDigestVerificationValidity = stgCmtDigestVerificationValidity;
+    }
+
+    public int getStgCmtMaxParallelDigestVerifications() {
+        return stgCmtMaxParallelDigestVerifications;
+    }
+
+    public void setStgCmtMaxParallelDigestVerifications(
+            int stgCmtMaxParallelDigestVerifications) {
+        this.stgCmtMaxParallelDigestVerifications = stgCmtMaxParallelDigestVerifications;
+    }
+
     public int getDataVolumePerDayAverageOnNDays() {
         return dataVolumePerDayAverageOnNDays;
     }
@@ -0,0 +1,225 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.conf;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.io.ContentHandlerAdapter;
+import org.dcm4che3.io.SAXTransformer.SetupTransformer;
+import org.dcm4che3.io.SAXWriter;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Applies XSLT attribute coercions like
+ * {@link org.dcm4che3.io.SAXTransformer#transform(Attributes, Templates,
+ * boolean, boolean, SetupTransformer)}, but reuses idle {@link Transformer}s
+ * created from the {@link Templates}, instead of creating a new one for each
+ * data set. Up to {@link #MAX_IDLE} idle transformers are pooled per
+ * {@link Templates} and not bound to container threads. Because each
+ * transformer references its {@link Templates}, they are only held by soft
+ * references, which the garbage collector may clear once the
+ * {@link Templates} is no longer cached, so the pool is eventually released.
+ *
+ * @author agent <agent@local>
+ */
+public final class CoercionTransformer {
+
+    static final int MAX_IDLE = 8;
+
+    private static final Map<Templates, IdlePool> idle =
+            new WeakHashMap<Templates, IdlePool>();
+
+    private CoercionTransformer() {}
+
+    public static Attributes transform(Attributes attrs, Templates templates,
+            SetupTransformer setup) throws TransformerException {
+        IdlePool pool = poolOf(templates);
+        Transformer tr = pool.poll();
+        if (tr == null)
+            tr = templates.newTransformer();
+        else
+            tr.reset();
+        if (setup != null)
+            setup.setup(tr);
+        Attributes result = new Attributes();
+        tr.transform(new SAXSource(new AttributesReader(attrs), new InputSource()),
+                new SAXResult(new ContentHandlerAdapter(result)));
+        pool.offer(tr);
+        return result;
+    }
+
+    private static IdlePool poolOf(Templates templates) {
+        synchronized (idle) {
+            IdlePool pool = idle.get(templates);
+            if (pool == null) {
+                pool = new IdlePool();
+                idle.put(templates, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Idle transformers of one {@link Templates}, held by soft references.
+     */
+    private static final class IdlePool {
+
+        private final ArrayDeque<SoftReference<Transformer>> refs =
+                new ArrayDeque<SoftReference<Transformer>>(MAX_IDLE);
+
+        synchronized Transformer poll() {
+            SoftReference<Transformer> ref;
+            while ((ref = refs.pollLast()) != null) {
+                Transformer tr = ref.get();
+                if (tr != null)
+                    return tr;
+            }
+            return null;
+        }
+
+        synchronized void offer(Transformer tr) {
+            if (refs.size() < MAX_IDLE)
+                refs.addLast(new SoftReference<Transformer>(tr));
+        }
+    }
+
+    /**
+     * Emits the data set as SAX events to the transformer.
+     */
+    private static final class AttributesReader implements XMLReader {
+
+        private final Attributes attrs;
+        private ContentHandler contentHandler;
+        private DTDHandler dtdHandler;
+        private EntityResolver entityResolver;
+        private ErrorHandler errorHandler;
+
+        AttributesReader(Attributes attrs) {
+            this.attrs = attrs;
+        }
+
+        @Override
+        public void parse(InputSource input) throws SAXException {
+            SAXWriter w = new SAXWriter(contentHandler);
+            w.setIncludeKeyword(false);
+            w.setIncludeNamespaceDeclaration(false);
+            w.write(attrs);
+        }
+
+        @Override
+        public void parse(String systemId) throws SAXException {
+            parse(new InputSource(systemId));
+        }
+
+        @Override
+        public boolean getFeature(String name) {
+            return false;
+        }
+
+        @Override
+        public void setFeature(String name, boolean value) {
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return null;
+        }
+
+        @Override
+        public void setProperty(String name, Object value) {
+        }
+
+        @Override
+        public void setEntityResolver(EntityResolver resolver) {
+            this.entityResolver = resolver;
+        }
+
+        @Override
+        public EntityResolver getEntityResolver() {
+            return entityResolver;
+        }
+
+        @Override
+        public void setDTDHandler(DTDHandler handler) {
+            this.dtdHandler = handler;
+        }
+
+        @Override
+        public DTDHandler getDTDHandler() {
+            return dtdHandler;
+        }
+
+        @Override
+        public void setContentHandler(ContentHandler handler) {
+            this.contentHandler = handler;
+        }
+
+        @Override
+        public ContentHandler getContentHandler() {
+            return contentHandler;
+        }
+
+        @Override
+        public void setErrorHandler(ErrorHandler handler) {
+            this.errorHandler = handler;
+        }
+
+        @Override
+        public ErrorHandler getErrorHandler() {
+            return errorHandler;
+        }
+    }
+}
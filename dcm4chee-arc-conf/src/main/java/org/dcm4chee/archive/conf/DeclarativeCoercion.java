@@ -0,0 +1,267 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.conf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.ElementDictionary;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.util.StringUtils;
+
+/**
+ * Attribute coercion applied directly on the data set, without XSLT.
+ * <p>
+ * Parsed from a list of operations separated by {@code ;}, each specifying
+ * the (top level) attribute by its hex tag or its keyword:
+ * <pre>
+ * set &lt;tag&gt; &lt;value&gt;[\&lt;value&gt;...]
+ * remove &lt;tag&gt;
+ * copy &lt;source tag&gt; &lt;destination tag&gt;
+ * map &lt;tag&gt; &lt;from&gt;=&lt;to&gt; [&lt;from&gt;=&lt;to&gt;...]
+ * </pre>
+ * e.g. {@code set InstitutionName ACME Hospital; remove 00100030;
+ * copy PatientID OtherPatientIDs; map Modality CR=DX DX=DX}.
+ *
+ * @author agent <agent@local>
+ */
+public final class DeclarativeCoercion {
+
+    private final Operation[] operations;
+
+    private DeclarativeCoercion(Operation[] operations) {
+        this.operations = operations;
+    }
+
+    public static DeclarativeCoercion valueOf(String s) {
+        List<Operation> ops = new ArrayList<Operation>();
+        for (String op : StringUtils.split(s, ';')) {
+            op = op.trim();
+            if (!op.isEmpty())
+                ops.add(parseOperation(op));
+        }
+        return new DeclarativeCoercion(ops.toArray(new Operation[ops.size()]));
+    }
+
+    /**
+     * Applies the operations on {@code attrs} in the specified order. Adds
+     * the original values of modified or removed attributes to
+     * {@code modified}, if not {@code null}.
+     */
+    public void coerce(Attributes attrs, Attributes modified) {
+        for (Operation op : operations)
+            op.apply(attrs, modified);
+    }
+
+    private static Operation parseOperation(String op) {
+        String[] ss = op.split("\\s+", 3);
+        String name = ss[0];
+        try {
+            if (name.equals("set") && ss.length == 3) {
+                int tag = toValueTag(ss[1]);
+                String[] values = StringUtils.split(ss[2], '\\');
+                setValues(new Attributes(1), tag, vrOf(tag), values);
+                return new SetValue(tag, values);
+            }
+            if (name.equals("remove") && ss.length == 2)
+                return new RemoveValue(toTag(ss[1]));
+            if (name.equals("copy") && ss.length == 3)
+                return new CopyValue(toValueTag(ss[1]), toValueTag(ss[2]));
+            if (name.equals("map") && ss.length == 3)
+                return new MapValue(toValueTag(ss[1]), toMap(ss[2]));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(op, e);
+        }
+        throw new IllegalArgumentException(op);
+    }
+
+    private static int toTag(String s) {
+        if (s.length() == 8) {
+            try {
+                return (int) Long.parseLong(s, 16);
+            } catch (NumberFormatException ignore) {}
+        }
+        int tag = ElementDictionary.tagForKeyword(s, null);
+        if (tag == -1)
+            throw new IllegalArgumentException(s);
+        return tag;
+    }
+
+    private static int toValueTag(String s) {
+        int tag = toTag(s);
+        if (vrOf(tag) == VR.SQ)
+            throw new IllegalArgumentException(s + " is a sequence");
+        return tag;
+    }
+
+    private static Map<String, String> toMap(String s) {
+        Map<String, String> map = new HashMap<String, String>();
+        for (String entry : s.trim().split("\\s+")) {
+            int index = entry.indexOf('=');
+            if (index <= 0)
+                throw new IllegalArgumentException(entry);
+            map.put(entry.substring(0, index), entry.substring(index + 1));
+        }
+        return map;
+    }
+
+    private static VR vrOf(int tag) {
+        return ElementDictionary.vrOf(tag, null);
+    }
+
+    private static void set(Attributes attrs, int tag, String[] values,
+            Attributes modified) {
+        if (Arrays.equals(values, attrs.getStrings(tag)))
+            return;
+        VR vr = attrs.getVR(tag);
+        if (vr == null || vr == VR.UN)
+            vr = vrOf(tag);
+        record(attrs, tag, modified);
+        setValues(attrs, tag, vr, values);
+    }
+
+    private static void setValues(Attributes attrs, int tag, VR vr,
+            String[] values) {
+        switch (vr) {
+        case SL:
+        case SS:
+        case UL:
+        case US:
+            int[] ints = new int[values.length];
+            for (int i = 0; i < values.length; i++)
+                ints[i] = (int) Long.parseLong(values[i].trim());
+            attrs.setInt(tag, vr, ints);
+            break;
+        case FL:
+        case FD:
+        case OF:
+            double[] ds = new double[values.length];
+            for (int i = 0; i < values.length; i++)
+                ds[i] = Double.parseDouble(values[i].trim());
+            attrs.setDouble(tag, vr, ds);
+            break;
+        default:
+            attrs.setString(tag, vr, values);
+        }
+    }
+
+    private static void record(Attributes attrs, int tag, Attributes modified) {
+        if (modified != null && attrs.contains(tag) && !modified.contains(tag))
+            modified.addSelected(attrs, tag);
+    }
+
+    private interface Operation {
+        void apply(Attributes attrs, Attributes modified);
+    }
+
+    private static final class SetValue implements Operation {
+        final int tag;
+        final String[] values;
+
+        SetValue(int tag, String[] values) {
+            this.tag = tag;
+            this.values = values;
+        }
+
+        @Override
+        public void apply(Attributes attrs, Attributes modified) {
+            set(attrs, tag, values, modified);
+        }
+    }
+
+    private static final class RemoveValue implements Operation {
+        final int tag;
+
+        RemoveValue(int tag) {
+            this.tag = tag;
+        }
+
+        @Override
+        public void apply(Attributes attrs, Attributes modified) {
+            record(attrs, tag, modified);
+            attrs.remove(tag);
+        }
+    }
+
+    private static final class CopyValue implements Operation {
+        final int srcTag;
+        final int destTag;
+
+        CopyValue(int srcTag, int destTag) {
+            this.srcTag = srcTag;
+            this.destTag = destTag;
+        }
+
+        @Override
+        public void apply(Attributes attrs, Attributes modified) {
+            String[] values = attrs.getStrings(srcTag);
+            if (values != null)
+                set(attrs, destTag, values, modified);
+        }
+    }
+
+    private static final class MapValue implements Operation {
+        final int tag;
+        final Map<String, String> map;
+
+        MapValue(int tag, Map<String, String> map) {
+            this.tag = tag;
+            this.map = map;
+        }
+
+        @Override
+        public void apply(Attributes attrs, Attributes modified) {
+            String[] values = attrs.getStrings(tag);
+            if (values == null)
+                return;
+
+            String[] mapped = new String[values.length];
+            for (int i = 0; i < values.length; i++) {
+                String value = map.get(values[i]);
+                mapped[i] = value != null ? value : values[i];
+            }
+            set(attrs, tag, mapped, modified);
+        }
+    }
+}
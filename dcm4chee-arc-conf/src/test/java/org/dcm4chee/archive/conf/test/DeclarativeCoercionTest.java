@@ -0,0 +1,134 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.conf.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4chee.archive.conf.DeclarativeCoercion;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class DeclarativeCoercionTest {
+
+    @Test
+    public void testCoerce() {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.InstitutionName, VR.LO, "Old Hospital");
+        attrs.setString(Tag.PatientBirthDate, VR.DA, "19700101");
+        attrs.setString(Tag.PatientID, VR.LO, "PID");
+        attrs.setString(Tag.Modality, VR.CS, "CR");
+        attrs.setString(Tag.StationName, VR.SH, "STATION");
+
+        Attributes modified = new Attributes();
+        DeclarativeCoercion.valueOf(
+                "set InstitutionName ACME Hospital; remove 00100030;"
+                + " copy PatientID OtherPatientIDs; map Modality CR=DX MR=MR;"
+                + " set 00081010 STATION; set ImageType ORIGINAL\\PRIMARY")
+                .coerce(attrs, modified);
+
+        assertEquals("ACME Hospital", attrs.getString(Tag.InstitutionName));
+        assertFalse(attrs.contains(Tag.PatientBirthDate));
+        assertEquals("PID", attrs.getString(Tag.OtherPatientIDs));
+        assertEquals("DX", attrs.getString(Tag.Modality));
+        assertEquals("STATION", attrs.getString(Tag.StationName));
+        assertArrayEquals(new String[] { "ORIGINAL", "PRIMARY" },
+                attrs.getStrings(Tag.ImageType));
+
+        assertEquals("Old Hospital", modified.getString(Tag.InstitutionName));
+        assertEquals("19700101", modified.getString(Tag.PatientBirthDate));
+        assertEquals("CR", modified.getString(Tag.Modality));
+        assertFalse(modified.contains(Tag.OtherPatientIDs));
+        assertFalse(modified.contains(Tag.StationName));
+    }
+
+    @Test
+    public void testMissingSource() {
+        Attributes attrs = new Attributes();
+        DeclarativeCoercion.valueOf("copy PatientID OtherPatientIDs; map Modality CR=DX")
+                .coerce(attrs, null);
+        assertNull(attrs.getString(Tag.OtherPatientIDs));
+        assertNull(attrs.getString(Tag.Modality));
+    }
+
+    @Test
+    public void testSetBinaryValue() {
+        Attributes attrs = new Attributes();
+        attrs.setInt(Tag.Rows, VR.US, 256);
+        Attributes modified = new Attributes();
+        DeclarativeCoercion.valueOf("set Rows 512; set SliceThickness 2.5;"
+                + " set ReferencedFrameNumber 1\\3")
+                .coerce(attrs, modified);
+
+        assertEquals(512, attrs.getInt(Tag.Rows, 0));
+        assertEquals(VR.US, attrs.getVR(Tag.Rows));
+        assertEquals(256, modified.getInt(Tag.Rows, 0));
+        assertEquals(2.5, attrs.getDouble(Tag.SliceThickness, 0), 0);
+        assertArrayEquals(new int[] { 1, 3 },
+                attrs.getInts(Tag.ReferencedFrameNumber));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBinaryValue() {
+        DeclarativeCoercion.valueOf("set Rows many");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSequence() {
+        DeclarativeCoercion.valueOf("set RequestAttributesSequence X");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownKeyword() {
+        DeclarativeCoercion.valueOf("remove NoSuchKeyword");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownOperation() {
+        DeclarativeCoercion.valueOf("rename PatientID OtherPatientIDs");
+    }
+}
@@ -58,6 +58,7 @@ import org.dcm4che3.net.Device;
 import org.dcm4chee.archive.ArchiveService;
 import org.dcm4chee.archive.rs.HostAECache;
 import org.dcm4chee.archive.rs.HttpSource;
+import org.dcm4chee.archive.store.StoreExecutorMetrics;
 import org.dcm4chee.storage.conf.StorageDeviceExtension;
 import org.dcm4chee.storage.conf.StorageSystem;
 import org.dcm4chee.storage.conf.StorageSystemGroup;
@@ -77,6 +78,9 @@ public class ArchiveCtrl {
     @Inject
     private ArchiveService service;
 
+    @Inject
+    private StoreExecutorMetrics storeExecutor;
+
     @Context
     private HttpServletRequest request;
 
@@ -129,6 +133,18 @@ public class ArchiveCtrl {
                     + "</div>").build();
     }
 
+    @GET
+    @Path("/storeexecutor")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String storeExecutorInfo() {
+        return "activeCount=" + storeExecutor.getActiveCount()
+                + "\npoolSize=" + storeExecutor.getPoolSize()
+                + "\nqueueSize=" + storeExecutor.getQueueSize()
+                + "\ncompletedTaskCount=" + storeExecutor.getCompletedTaskCount()
+                + "\nrejectedCount=" + storeExecutor.getRejectedCount()
+                + "\n";
+    }
+
     @POST
     @Path("/storageinfo/{GroupID}")
     @Produces(MediaType.TEXT_HTML)
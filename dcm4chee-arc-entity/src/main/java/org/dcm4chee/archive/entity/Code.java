@@ -41,6 +41,8 @@ package org.dcm4chee.archive.entity;
 import javax.persistence.*;
 
 import org.dcm4che3.data.Attributes;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 /**
  * @author Damien Evans <damien.daddy@gmail.com>
@@ -54,15 +56,20 @@ import org.dcm4che3.data.Attributes;
     query="SELECT c FROM Code c " +
           "WHERE c.codeValue = ?1 " +
             "AND c.codingSchemeDesignator = ?2 " +
-            "AND c.codingSchemeVersion IS NULL"),
+            "AND c.codingSchemeVersion IS NULL " +
+          "ORDER BY c.pk",
+    hints=@QueryHint(name="org.hibernate.cacheable", value="true")),
 @NamedQuery(
     name="Code.findByCodeValueWithSchemeVersion",
     query="SELECT c FROM Code c " +
           "WHERE c.codeValue = ?1 " +
             "AND c.codingSchemeDesignator = ?2 " +
-            "AND c.codingSchemeVersion = ?3")
+            "AND c.codingSchemeVersion = ?3 " +
+          "ORDER BY c.pk",
+    hints=@QueryHint(name="org.hibernate.cacheable", value="true"))
 })
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "code", uniqueConstraints =
         @UniqueConstraint(columnNames = {"code_value","code_designator","code_version"})
 )
@@ -0,0 +1,134 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.entity;
+
+import java.nio.ByteBuffer;
+
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Fragments;
+
+/**
+ * Byte offsets and lengths of the items of encapsulated Pixel Data, including
+ * the Basic Offset Table. Allows to read frames without parsing the file.
+ * Persisted encoded as {@link LocationFrameIndex#getFrameIndex()}.
+ *
+ * @author agent <agent@local>
+ */
+public class FrameIndex {
+
+    private final long[] offsets;
+    private final int[] lengths;
+
+    public FrameIndex(long[] offsets, int[] lengths) {
+        if (offsets.length != lengths.length)
+            throw new IllegalArgumentException("offsets.length: "
+                    + offsets.length + " != lengths.length: " + lengths.length);
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Returns the index of the items of {@code fragments}, read with
+     * {@code IncludeBulkData.URI}, or {@code null} if any item was read
+     * inline.
+     */
+    public static FrameIndex valueOf(Fragments fragments) {
+        int n = fragments.size();
+        long[] offsets = new long[n];
+        int[] lengths = new int[n];
+        for (int i = 0; i < n; i++) {
+            Object item = fragments.get(i);
+            if (item instanceof BulkData) {
+                BulkData bulkData = (BulkData) item;
+                offsets[i] = bulkData.offset();
+                lengths[i] = bulkData.length();
+            } else if (!(item instanceof byte[]) || ((byte[]) item).length > 0)
+                return null;
+        }
+        return new FrameIndex(offsets, lengths);
+    }
+
+    public static FrameIndex decode(byte[] b) {
+        ByteBuffer bb = ByteBuffer.wrap(b);
+        int n = bb.getInt();
+        long[] offsets = new long[n];
+        int[] lengths = new int[n];
+        for (int i = 0; i < n; i++) {
+            offsets[i] = bb.getLong();
+            lengths[i] = bb.getInt();
+        }
+        return new FrameIndex(offsets, lengths);
+    }
+
+    public byte[] encode() {
+        ByteBuffer bb = ByteBuffer.allocate(4 + offsets.length * 12);
+        bb.putInt(offsets.length);
+        for (int i = 0; i < offsets.length; i++) {
+            bb.putLong(offsets[i]);
+            bb.putInt(lengths[i]);
+        }
+        return bb.array();
+    }
+
+    public int size() {
+        return offsets.length;
+    }
+
+    public long offset(int i) {
+        return offsets[i];
+    }
+
+    public int length(int i) {
+        return lengths[i];
+    }
+
+    /**
+     * Adds the indexed items to {@code fragments} as bulk data referring to
+     * the file with the specified {@code uri}.
+     */
+    public void addTo(Fragments fragments, String uri) {
+        for (int i = 0; i < offsets.length; i++)
+            fragments.add(lengths[i] == 0
+                    ? new byte[0]
+                    : new BulkData(uri, offsets[i], lengths[i],
+                            fragments.bigEndian()));
+    }
+
+}
@@ -92,7 +92,21 @@ import java.util.GregorianCalendar;
 @NamedQuery(
     name=Instance.FIND_BY_SERIES_INSTANCE_UID,
     query="SELECT i FROM Instance i "
-            + "WHERE i.series.seriesInstanceUID = ?1")})
+            + "WHERE i.series.seriesInstanceUID = ?1"),
+@NamedQuery(
+    name=Instance.FIND_WITHOUT_NUMBER_OF_FRAMES,
+    query="SELECT i.pk, i.attributesBlob, se.pk, se.study.pk FROM Instance i "
+            + "JOIN i.series se "
+            + "WHERE i.numberOfFrames IS NULL AND i.pk > ?1 "
+            + "ORDER BY i.pk"),
+@NamedQuery(
+    name=Instance.FIND_MIN_PK_WITHOUT_NUMBER_OF_FRAMES,
+    query="SELECT MIN(i.pk) FROM Instance i "
+            + "WHERE i.numberOfFrames IS NULL"),
+@NamedQuery(
+    name=Instance.UPDATE_NUMBER_OF_FRAMES,
+    query="UPDATE Instance i SET i.numberOfFrames = :numberOfFrames "
+            + "WHERE i.pk IN (:pks)")})
 @Entity
 @Table(name = "instance")
 public class Instance implements Serializable {
@@ -105,6 +119,12 @@ public class Instance implements Serializable {
             "Instance.findBySOPInstanceUIDMany.eager";
     public static final String FIND_BY_SERIES_INSTANCE_UID =
             "Instance.findBySeriesInstanceUID";
+    public static final String FIND_WITHOUT_NUMBER_OF_FRAMES =
+            "Instance.findWithoutNumberOfFrames";
+    public static final String FIND_MIN_PK_WITHOUT_NUMBER_OF_FRAMES =
+            "Instance.findMinPkWithoutNumberOfFrames";
+    public static final String UPDATE_NUMBER_OF_FRAMES =
+            "Instance.updateNumberOfFrames";
 
     @Id
     @GeneratedValue(strategy=GenerationType.IDENTITY)
@@ -160,6 +180,9 @@ public class Instance implements Serializable {
     @Column(name = "inst_custom3")
     private String instanceCustomAttribute3;
 
+    @Column(name = "num_frames")
+    private Integer numberOfFrames;
+
     @Column(name = "retrieve_aets")
     private String retrieveAETs;
 
@@ -287,6 +310,19 @@ public class Instance implements Serializable {
         return verificationFlag;
     }
 
+    /**
+     * Returns the Number of Frames of the instance, as stored in its
+     * attributes blob, or {@code null} for instances stored before the
+     * column was introduced and not yet migrated.
+     */
+    public Integer getNumberOfFrames() {
+        return numberOfFrames;
+    }
+
+    public void setNumberOfFrames(Integer numberOfFrames) {
+        this.numberOfFrames = numberOfFrames;
+    }
+
     public String getInstanceCustomAttribute1() {
         return instanceCustomAttribute1;
     }
@@ -449,10 +485,12 @@ public class Instance implements Serializable {
         instanceCustomAttribute3 =
                 AttributeFilter.selectStringValue(attrs, filter.getCustomAttribute3(), nullValue);
 
+        Attributes blobAttrs = new Attributes(attrs, filter.getCompleteSelection(attrs));
+        numberOfFrames = blobAttrs.getInt(Tag.NumberOfFrames, 1);
         if (attributesBlob == null)
-                attributesBlob = new AttributesBlob(new Attributes(attrs, filter.getCompleteSelection(attrs)));
+            attributesBlob = new AttributesBlob(blobAttrs);
         else
-            attributesBlob.setAttributes(new Attributes(attrs, filter.getCompleteSelection(attrs)));
+            attributesBlob.setAttributes(blobAttrs);
     }
 
 }
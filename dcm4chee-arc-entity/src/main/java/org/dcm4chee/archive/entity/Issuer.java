@@ -41,6 +41,8 @@ package org.dcm4chee.archive.entity;
 import javax.persistence.*;
 
 import org.dcm4che3.data.Attributes;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 /**
  * @author Damien Evans <damien.daddy@gmail.com>
@@ -51,17 +53,21 @@ import org.dcm4che3.data.Attributes;
 @NamedQueries({
 @NamedQuery(
     name="Issuer.findByEntityID",
-    query="SELECT i FROM Issuer i WHERE i.localNamespaceEntityID = ?1"),
+    query="SELECT i FROM Issuer i WHERE i.localNamespaceEntityID = ?1",
+    hints=@QueryHint(name="org.hibernate.cacheable", value="true")),
 @NamedQuery(
     name="Issuer.findByEntityUID",
     query="SELECT i FROM Issuer i " +
-          "WHERE i.universalEntityID = ?1 AND i.universalEntityIDType = ?2"),
+          "WHERE i.universalEntityID = ?1 AND i.universalEntityIDType = ?2",
+    hints=@QueryHint(name="org.hibernate.cacheable", value="true")),
 @NamedQuery(
     name="Issuer.findByEntityIDorUID",
     query="SELECT i FROM Issuer i WHERE i.localNamespaceEntityID = ?1 " +
-          "OR (i.universalEntityID = ?2 AND i.universalEntityIDType = ?3)")
+          "OR (i.universalEntityID = ?2 AND i.universalEntityIDType = ?3)",
+    hints=@QueryHint(name="org.hibernate.cacheable", value="true"))
 })
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "id_issuer",
 uniqueConstraints = {
         @UniqueConstraint(columnNames = "entity_id"),
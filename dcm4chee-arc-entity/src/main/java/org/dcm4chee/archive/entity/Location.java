@@ -86,7 +86,19 @@ import javax.persistence.Table;
                 name = Location.CALCULATE_SUM_DATA_VOLUME_PER_DAY,
                 query = "SELECT SUM(l.size) FROM Location l "
                         + "WHERE l.storageSystemGroupID = ?1 "
-                        + "AND l.createdTime >= ?2")
+                        + "AND l.createdTime >= ?2"),
+        @NamedQuery(
+                name = Location.FIND_PK_BY_STORAGE_PATH,
+                query = "SELECT l.pk FROM Location l "
+                        + "WHERE l.storageSystemGroupID = ?1 "
+                        + "AND l.storageSystemID = ?2 "
+                        + "AND l.storagePath = ?3 "
+                        + "AND l.entryName IS NULL"),
+        @NamedQuery(
+                name = Location.UPDATE_DIGEST_VERIFIED_TIME,
+                query = "UPDATE Location l "
+                        + "SET l.digestVerifiedTime = :digestVerifiedTime "
+                        + "WHERE l.pk IN (:pks)")
 })
 @Entity
 @Table(name = "location")
@@ -102,6 +114,10 @@ public class Location implements Serializable {
 
     public static final String CALCULATE_SUM_DATA_VOLUME_PER_DAY = "Location.calculateAverageDataVolumePerDay";;
 
+    public static final String FIND_PK_BY_STORAGE_PATH = "Location.findPkByStoragePath";
+
+    public static final String UPDATE_DIGEST_VERIFIED_TIME = "Location.updateDigestVerifiedTime";
+
     public enum Status {
         OK, DELETE_FAILED, TO_ARCHIVE, ARCHIVED, ARCHIVE_FAILED, QUERY_FAILED, VERIFY_FAILED
     }
@@ -150,6 +166,10 @@ public class Location implements Serializable {
     @Basic(optional = true)
     @Column(name = "otherAttsDigest", updatable = false)
     private String otherAttsDigest;
+
+    @Basic(optional = true)
+    @Column(name = "digest_verified_time")
+    private Date digestVerifiedTime;
     
     @Basic(optional = false)
     @Enumerated(EnumType.ORDINAL)
@@ -305,6 +325,19 @@ public class Location implements Serializable {
         return otherAttsDigest;
     }
     
+    /**
+     * Returns the time of the last successful verification of the
+     * {@link #getDigest() digest} against the stored file, or {@code null}
+     * if it was never verified.
+     */
+    public Date getDigestVerifiedTime() {
+        return digestVerifiedTime;
+    }
+
+    public void setDigestVerifiedTime(Date digestVerifiedTime) {
+        this.digestVerifiedTime = digestVerifiedTime;
+    }
+
     public Status getStatus() {
         return status;
     }
@@ -0,0 +1,94 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.entity;
+
+import java.io.Serializable;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * The {@link FrameIndex} column of a {@link Location}, mapped separately so
+ * the blob is only read by {@code EntityManager.find} of this entity and
+ * never with the {@link Location} itself. Rows are inserted and deleted with
+ * their {@link Location}; this entity is only used to read and update the
+ * index.
+ *
+ * @author agent <agent@local>
+ */
+@Entity
+@Table(name = "location")
+public class LocationFrameIndex implements Serializable {
+
+    private static final long serialVersionUID = 4165128934409875912L;
+
+    @Id
+    @Column(name = "pk", insertable = false, updatable = false)
+    private long pk;
+
+    @Basic(optional = true)
+    @Column(name = "frame_index")
+    private byte[] frameIndex;
+
+    public long getPk() {
+        return pk;
+    }
+
+    /**
+     * Returns the index of encapsulated multi-frame Pixel Data of the file,
+     * or {@code null} if it was not yet created.
+     */
+    public FrameIndex getFrameIndex() {
+        return frameIndex != null ? FrameIndex.decode(frameIndex) : null;
+    }
+
+    public void setFrameIndex(FrameIndex frameIndex) {
+        this.frameIndex = frameIndex != null ? frameIndex.encode() : null;
+    }
+
+    @Override
+    public String toString() {
+        return "LocationFrameIndex[pk=" + pk
+                + ", size=" + (frameIndex != null ? frameIndex.length : -1)
+                + "]";
+    }
+}
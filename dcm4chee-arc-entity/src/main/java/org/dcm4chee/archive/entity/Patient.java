@@ -229,6 +229,7 @@ public class Patient implements Serializable {
 
         getAttributesBlob().getAttributes().setString(Tag.PatientBirthDate, VR.DA,
                 patientBirthDate);
+        invalidateEncodedStudyQueryAttributes();
     }
 
     public String getPatientSex() {
@@ -239,6 +240,7 @@ public class Patient implements Serializable {
         this.patientSex = patientSex;
 
         getAttributesBlob().getAttributes().setString(Tag.PatientSex, VR.CS, patientSex);
+        invalidateEncodedStudyQueryAttributes();
     }
 
     public String getPatientCustomAttribute1() {
@@ -282,6 +284,7 @@ public class Patient implements Serializable {
         
         if (charset.length > 0)
             getAttributesBlob().getAttributes().setSpecificCharacterSet(charset);
+        invalidateEncodedStudyQueryAttributes();
     }
 
     public void setMergedWith(Patient mergedWith) {
@@ -352,10 +355,14 @@ public class Patient implements Serializable {
         patientCustomAttribute3 = AttributeFilter.selectStringValue(attrs,
                 filter.getCustomAttribute3(), nullValue);
 
-        getAttributesBlob().setAttributes(new Attributes(attrs, filter.getCompleteSelection(attrs)));
+        Attributes blobAttrs = new Attributes(attrs, filter.getCompleteSelection(attrs));
+        if (attributesBlob != null && !blobAttrs.equals(attributesBlob.getAttributes()))
+            invalidateEncodedStudyQueryAttributes();
+        getAttributesBlob().setAttributes(blobAttrs);
     }
 
     public void updateOtherPatientIDs() {
+        invalidateEncodedStudyQueryAttributes();
         Attributes attrs = getAttributesBlob().getAttributes();
         IDWithIssuer pid0 = IDWithIssuer.pidOf(attrs);
         attrs.remove(Tag.IssuerOfPatientID);
@@ -387,6 +394,16 @@ public class Patient implements Serializable {
         getAttributesBlob().setAttributes(attrs);
     }
 
+    /**
+     * Marks the patient row as modified, so its version is incremented with
+     * the update. Merged attributes stored with the views of its studies refer
+     * to the patient version they were calculated for and are recalculated on
+     * the next query, without loading the studies of the patient here.
+     */
+    private void invalidateEncodedStudyQueryAttributes() {
+        updatedTime = new Date();
+    }
+
     private Collection<PatientID> getAllPatientIDs() {
         if (linkedPatientIDs == null || linkedPatientIDs.isEmpty())
             if (patientIDs == null)
@@ -76,6 +76,17 @@ public class PersonName implements Serializable {
     @Column(name = "name_prefix")
     private String namePrefix;
 
+    // upper case copies of the alphabetic name components, so
+    // case-insensitive matching does not depend on function-based indexes
+    @Column(name = "u_family_name")
+    private String upperFamilyName;
+
+    @Column(name = "u_given_name")
+    private String upperGivenName;
+
+    @Column(name = "u_middle_name")
+    private String upperMiddleName;
+
     @Column(name = "name_suffix")
     private String nameSuffix;
 
@@ -135,6 +146,9 @@ public class PersonName implements Serializable {
         phoneticMiddleName = pn.get(Group.Phonetic, Component.MiddleName);
         phoneticNamePrefix = pn.get(Group.Phonetic, Component.NamePrefix);
         phoneticNameSuffix = pn.get(Group.Phonetic, Component.NameSuffix);
+        upperFamilyName = Utils.upper(familyName);
+        upperGivenName = Utils.upper(givenName);
+        upperMiddleName = Utils.upper(middleName);
         createOrUpdateSoundexCodes(fuzzyStr, nullValueStr, familyName, givenName, middleName);
     }
 
@@ -221,6 +235,7 @@ public class PersonName implements Serializable {
 
     public void setFamilyName(String familyName, FuzzyStr fuzzy, String nullValue) {
         this.familyName = familyName;
+        this.upperFamilyName = Utils.upper(familyName);
         createOrUpdateSoundexCode(Component.FamilyName, familyName, fuzzy, nullValue);
     }
 
@@ -230,6 +245,7 @@ public class PersonName implements Serializable {
 
     public void setGivenName(String givenName, FuzzyStr fuzzy, String nullValue) {
         this.givenName = givenName;
+        this.upperGivenName = Utils.upper(givenName);
         createOrUpdateSoundexCode(Component.GivenName, givenName, fuzzy, nullValue);
     }
 
@@ -239,9 +255,22 @@ public class PersonName implements Serializable {
 
     public void setMiddleName(String middleName, FuzzyStr fuzzy, String nullValue) {
         this.middleName = middleName;
+        this.upperMiddleName = Utils.upper(middleName);
         createOrUpdateSoundexCode(Component.MiddleName, middleName, fuzzy, nullValue);
     }
 
+    public String getUpperFamilyName() {
+        return upperFamilyName;
+    }
+
+    public String getUpperGivenName() {
+        return upperGivenName;
+    }
+
+    public String getUpperMiddleName() {
+        return upperMiddleName;
+    }
+
     public String getNamePrefix() {
         return namePrefix;
     }
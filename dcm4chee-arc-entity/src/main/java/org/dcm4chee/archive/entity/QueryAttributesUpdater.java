@@ -0,0 +1,376 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.entity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dcm4che3.data.Tag;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.QueryRetrieveView;
+
+/**
+ * Keeps the derived fields of series and studies ({@link SeriesQueryAttributes},
+ * {@link StudyQueryAttributes}) up to date on changes of their instances,
+ * instead of removing them and letting the next query recalculate them from
+ * all instances of the series or study.
+ * <p>
+ * The derived fields of a view are only adjusted, if their new values can
+ * be deduced from the old values and the changed instance. Otherwise - e.g.
+ * if an instance which contributed to the retrieve AETs or the availability
+ * is removed from the view - the derived fields of the view are removed and
+ * will be recalculated by the next query.
+ * <p>
+ * Concurrent modifications of the derived fields are prevented by the
+ * version check of the series and the study, which is incremented by any
+ * change of one of its instances.
+ *
+ * @author agent <agent@local>
+ */
+public class QueryAttributesUpdater {
+
+    private enum Action { KEEP, RESET, REMOVE }
+
+    private final ArchiveDeviceExtension arcDev;
+
+    public QueryAttributesUpdater(ArchiveDeviceExtension arcDev) {
+        this.arcDev = arcDev;
+    }
+
+    /**
+     * Adds a new created instance to the derived fields of its series and
+     * study. Must be invoked after the instance was flushed, so its update
+     * time and retrieve AETs are final.
+     *
+     * @param inst the new created instance
+     * @param located {@code true} if the instance has (at least) one location
+     * @param newSeries {@code true} if the series of the instance was created
+     *                  together with the instance
+     */
+    public void addInstance(Instance inst, boolean located, boolean newSeries) {
+        Series series = inst.getSeries();
+        Study study = series.getStudy();
+        boolean visibleSOPClass = arcDev.isVisibleSOPClass(inst.getSopClassUID());
+        int numberOfFrames = visibleSOPClass ? numberOfFrames(inst) : 0;
+        if (located && visibleSOPClass && numberOfFrames < 1) {
+            // a visible series without visible images can't be tracked
+            series.clearQueryAttributes();
+            study.clearQueryAttributes();
+            return;
+        }
+
+        Map<String, SeriesQueryAttributes> seriesQueryAttrs =
+                seriesQueryAttributesByView(series);
+        Collection<StudyQueryAttributes> studyQueryAttrs = study.getQueryAttributes();
+        if (studyQueryAttrs != null) {
+            for (Iterator<StudyQueryAttributes> iter = studyQueryAttrs.iterator();
+                    iter.hasNext();) {
+                StudyQueryAttributes queryAttrs = iter.next();
+                String viewID = queryAttrs.getViewID();
+                QueryRetrieveView view = arcDev.getQueryRetrieveView(viewID);
+                if (view == null) {
+                    iter.remove();
+                    continue;
+                }
+                SeriesQueryAttributes seriesAttrs = seriesQueryAttrs.get(viewID);
+                if (seriesAttrs == null && newSeries) {
+                    seriesAttrs = new SeriesQueryAttributes();
+                    seriesAttrs.setViewID(viewID);
+                    series.addQueryAttributes(seriesAttrs);
+                    seriesQueryAttrs.put(viewID, seriesAttrs);
+                }
+                if (!located || !isVisible(inst, inst.getRejectionNoteCode(), view))
+                    continue;
+
+                if (seriesAttrs == null) {
+                    // unknown if the series already contributes to the study
+                    iter.remove();
+                    continue;
+                }
+                addInstance(queryAttrs, inst, series.getModality(), numberOfFrames,
+                        seriesAttrs.getNumberOfInstances() == 0,
+                        visibleSOPClass && seriesAttrs.getNumberOfVisibleInstances() == 0);
+            }
+        }
+
+        if (!located)
+            return;
+
+        for (SeriesQueryAttributes queryAttrs : seriesQueryAttrs.values()) {
+            QueryRetrieveView view = arcDev.getQueryRetrieveView(queryAttrs.getViewID());
+            if (isVisible(inst, inst.getRejectionNoteCode(), view))
+                addInstance(queryAttrs, inst, numberOfFrames);
+        }
+    }
+
+    /**
+     * Updates the derived fields of the series and studies of instances,
+     * after their rejection note code was changed.
+     *
+     * @param prevRejectionCodes the rejection note codes of the instances
+     *                           before the change
+     */
+    public void rejectionCodeChanged(Map<Instance, Code> prevRejectionCodes) {
+        update(prevRejectionCodes, false);
+    }
+
+    /**
+     * Updates the derived fields of the series and studies of instances,
+     * which are going to be deleted. Must be invoked before the locations of
+     * the instances are detached.
+     */
+    public void removeInstances(Collection<Instance> insts) {
+        Map<Instance, Code> rejectionCodes = new LinkedHashMap<Instance, Code>();
+        for (Instance inst : insts)
+            rejectionCodes.put(inst, inst.getRejectionNoteCode());
+        update(rejectionCodes, true);
+    }
+
+    private void update(Map<Instance, Code> prevRejectionCodes, boolean removed) {
+        Map<Series, List<Instance>> bySeries = new LinkedHashMap<Series, List<Instance>>();
+        Map<Study, List<Instance>> byStudy = new LinkedHashMap<Study, List<Instance>>();
+        for (Instance inst : prevRejectionCodes.keySet()) {
+            Series series = inst.getSeries();
+            add(bySeries, series, inst);
+            add(byStudy, series.getStudy(), inst);
+        }
+        for (Map.Entry<Series, List<Instance>> entry : bySeries.entrySet()) {
+            Collection<SeriesQueryAttributes> queryAttrs = entry.getKey().getQueryAttributes();
+            if (queryAttrs == null)
+                continue;
+
+            for (Iterator<SeriesQueryAttributes> iter = queryAttrs.iterator(); iter.hasNext();) {
+                SeriesQueryAttributes seriesAttrs = iter.next();
+                switch (actionFor(seriesAttrs.getViewID(), seriesAttrs.getNumberOfInstances(),
+                        entry.getValue(), prevRejectionCodes, removed)) {
+                case RESET:
+                    seriesAttrs.reset();
+                    break;
+                case REMOVE:
+                    iter.remove();
+                    break;
+                default:
+                }
+            }
+        }
+        for (Map.Entry<Study, List<Instance>> entry : byStudy.entrySet()) {
+            Collection<StudyQueryAttributes> queryAttrs = entry.getKey().getQueryAttributes();
+            if (queryAttrs == null)
+                continue;
+
+            for (Iterator<StudyQueryAttributes> iter = queryAttrs.iterator(); iter.hasNext();) {
+                StudyQueryAttributes studyAttrs = iter.next();
+                switch (actionFor(studyAttrs.getViewID(), studyAttrs.getNumberOfInstances(),
+                        entry.getValue(), prevRejectionCodes, removed)) {
+                case RESET:
+                    studyAttrs.reset();
+                    break;
+                case REMOVE:
+                    iter.remove();
+                    break;
+                default:
+                }
+            }
+        }
+    }
+
+    private Action actionFor(String viewID, int numberOfInstances,
+            List<Instance> insts, Map<Instance, Code> prevRejectionCodes,
+            boolean removed) {
+        QueryRetrieveView view = arcDev.getQueryRetrieveView(viewID);
+        if (view == null)
+            return Action.REMOVE;
+
+        int leaving = 0;
+        for (Instance inst : insts) {
+            boolean visibleBefore = isVisible(inst, prevRejectionCodes.get(inst), view);
+            boolean visibleAfter = !removed
+                    && isVisible(inst, inst.getRejectionNoteCode(), view);
+            if (!visibleBefore && !visibleAfter || !isLocated(inst))
+                continue;
+
+            // the update time of the instance changes with its rejection code
+            if (visibleAfter)
+                return Action.REMOVE;
+
+            leaving++;
+        }
+        return leaving == 0
+                ? Action.KEEP
+                : leaving == numberOfInstances
+                        ? Action.RESET
+                        : Action.REMOVE;
+    }
+
+    private static <K> void add(Map<K, List<Instance>> map, K key, Instance inst) {
+        List<Instance> list = map.get(key);
+        if (list == null)
+            map.put(key, list = new ArrayList<Instance>());
+        list.add(inst);
+    }
+
+    private Map<String, SeriesQueryAttributes> seriesQueryAttributesByView(Series series) {
+        Collection<SeriesQueryAttributes> queryAttrs = series.getQueryAttributes();
+        if (queryAttrs == null)
+            return new HashMap<String, SeriesQueryAttributes>();
+
+        Map<String, SeriesQueryAttributes> byView =
+                new HashMap<String, SeriesQueryAttributes>(queryAttrs.size() * 2);
+        for (Iterator<SeriesQueryAttributes> iter = queryAttrs.iterator(); iter.hasNext();) {
+            SeriesQueryAttributes seriesAttrs = iter.next();
+            if (arcDev.getQueryRetrieveView(seriesAttrs.getViewID()) == null)
+                iter.remove();
+            else
+                byView.put(seriesAttrs.getViewID(), seriesAttrs);
+        }
+        return byView;
+    }
+
+    private static void addInstance(SeriesQueryAttributes queryAttrs, Instance inst,
+            int numberOfFrames) {
+        int numberOfInstances = queryAttrs.getNumberOfInstances();
+        if (numberOfInstances == 0) {
+            queryAttrs.setRetrieveAETs(inst.getRetrieveAETs());
+            queryAttrs.setAvailability(inst.getAvailability());
+            queryAttrs.setLastUpdateTime(inst.getUpdatedTime());
+        } else {
+            queryAttrs.setRetrieveAETs(Utils.intersection(
+                    queryAttrs.getRetrieveAETs(), inst.getRetrieveAETs()));
+            if (queryAttrs.getAvailability().compareTo(inst.getAvailability()) < 0)
+                queryAttrs.setAvailability(inst.getAvailability());
+            if (inst.getUpdatedTime().after(queryAttrs.getLastUpdateTime()))
+                queryAttrs.setLastUpdateTime(inst.getUpdatedTime());
+        }
+        queryAttrs.setNumberOfInstances(numberOfInstances + 1);
+        queryAttrs.setNumberOfVisibleInstances(
+                queryAttrs.getNumberOfVisibleInstances() + numberOfFrames);
+    }
+
+    private static void addInstance(StudyQueryAttributes queryAttrs, Instance inst,
+            String modality, int numberOfFrames, boolean firstOfSeries,
+            boolean firstVisibleOfSeries) {
+        int numberOfInstances = queryAttrs.getNumberOfInstances();
+        if (numberOfInstances == 0) {
+            queryAttrs.setRetrieveAETs(inst.getRetrieveAETs());
+            queryAttrs.setAvailability(inst.getAvailability());
+            queryAttrs.setLastUpdateTime(inst.getUpdatedTime());
+        } else {
+            queryAttrs.setRetrieveAETs(Utils.intersection(
+                    queryAttrs.getRetrieveAETs(), inst.getRetrieveAETs()));
+            if (queryAttrs.getAvailability().compareTo(inst.getAvailability()) < 0)
+                queryAttrs.setAvailability(inst.getAvailability());
+            if (inst.getUpdatedTime().after(queryAttrs.getLastUpdateTime()))
+                queryAttrs.setLastUpdateTime(inst.getUpdatedTime());
+        }
+        queryAttrs.setNumberOfInstances(numberOfInstances + 1);
+        if (firstOfSeries) {
+            queryAttrs.setNumberOfSeries(queryAttrs.getNumberOfSeries() + 1);
+            if (modality != null)
+                queryAttrs.setModalitiesInStudy(
+                        addIfAbsent(queryAttrs.getModalitiesInStudy(), modality));
+        }
+        queryAttrs.setSOPClassesInStudy(
+                addIfAbsent(queryAttrs.getSOPClassesInStudy(), inst.getSopClassUID()));
+        queryAttrs.setNumberOfVisibleInstances(
+                queryAttrs.getNumberOfVisibleInstances() + numberOfFrames);
+        if (firstVisibleOfSeries)
+            queryAttrs.setNumberOfVisibleSeries(queryAttrs.getNumberOfVisibleSeries() + 1);
+    }
+
+    private static String[] addIfAbsent(String[] ss, String s) {
+        if (Utils.contains(ss, s))
+            return ss;
+
+        String[] result = new String[ss.length + 1];
+        System.arraycopy(ss, 0, result, 0, ss.length);
+        result[ss.length] = s;
+        return result;
+    }
+
+    private static boolean isLocated(Instance inst) {
+        Collection<Location> locations = inst.getLocations();
+        Collection<ExternalRetrieveLocation> externalLocations =
+                inst.getExternalRetrieveLocations();
+        return locations != null && !locations.isEmpty()
+                || externalLocations != null && !externalLocations.isEmpty();
+    }
+
+    private static int numberOfFrames(Instance inst) {
+        Integer numberOfFrames = inst.getNumberOfFrames();
+        return numberOfFrames != null
+                ? numberOfFrames
+                : inst.getAttributes().getInt(Tag.NumberOfFrames, 1);
+    }
+
+    /**
+     * Mirrors the restrictions of
+     * {@code QueryBuilder.hideRejectedInstance(QueryParam)} and
+     * {@code QueryBuilder.hideRejectionNote(QueryParam)}.
+     */
+    private static boolean isVisible(Instance inst, Code rejectionCode,
+            QueryRetrieveView view) {
+        if (rejectionCode == null) {
+            if (view.isHideNotRejectedInstances())
+                return false;
+        } else {
+            org.dcm4che3.data.Code[] codes = view.getShowInstancesRejectedByCodes();
+            if (codes.length == 0
+                    ? !view.isHideNotRejectedInstances()
+                    : !matches(codes, rejectionCode))
+                return false;
+        }
+        Code conceptNameCode = inst.getConceptNameCode();
+        return conceptNameCode == null
+                || !matches(view.getHideRejectionNotesWithCodes(), conceptNameCode);
+    }
+
+    private static boolean matches(org.dcm4che3.data.Code[] codes, Code code) {
+        for (org.dcm4che3.data.Code c : codes)
+            if (c.getCodeValue().equals(code.getCodeValue())
+                    && c.getCodingSchemeDesignator().equals(
+                            code.getCodingSchemeDesignator()))
+                return true;
+        return false;
+    }
+}
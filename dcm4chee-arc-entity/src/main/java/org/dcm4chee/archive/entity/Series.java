@@ -46,6 +46,7 @@ import org.dcm4chee.archive.conf.AttributeFilter;
 
 import javax.persistence.*;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
@@ -147,6 +148,10 @@ public class Series implements Serializable {
     @Column(name = "series_desc")
     private String seriesDescription;
 
+    // upper case copy of series_desc for case-insensitive matching
+    @Column(name = "u_series_desc")
+    private String upperSeriesDescription;
+
     //@Basic(optional = false)
     @Column(name = "modality")
     private String modality;
@@ -163,6 +168,10 @@ public class Series implements Serializable {
     @Column(name = "station_name")
     private String stationName;
 
+    // upper case copy of station_name for case-insensitive matching
+    @Column(name = "u_station_name")
+    private String upperStationName;
+
     //@Basic(optional = false)
     @Column(name = "body_part")
     private String bodyPartExamined;
@@ -315,6 +324,10 @@ public class Series implements Serializable {
         return seriesDescription;
     }
 
+    public String getUpperSeriesDescription() {
+        return upperSeriesDescription;
+    }
+
     public String getModality() {
         return modality;
     }
@@ -331,6 +344,10 @@ public class Series implements Serializable {
         return stationName;
     }
 
+    public String getUpperStationName() {
+        return upperStationName;
+    }
+
     public String getBodyPartExamined() {
         return bodyPartExamined;
     }
@@ -461,14 +478,23 @@ public class Series implements Serializable {
             queryAttributes.clear();
     }
 
+    public void addQueryAttributes(SeriesQueryAttributes queryAttrs) {
+        if (queryAttributes == null)
+            queryAttributes = new ArrayList<SeriesQueryAttributes>(1);
+        queryAttrs.setSeries(this);
+        queryAttributes.add(queryAttrs);
+    }
+
     public void setAttributes(Attributes attrs, AttributeFilter filter, FuzzyStr fuzzyStr, String nullValue) {
         seriesInstanceUID = attrs.getString(Tag.SeriesInstanceUID);
         seriesNumber = attrs.getString(Tag.SeriesNumber, nullValue);
         seriesDescription = attrs.getString(Tag.SeriesDescription, nullValue);
+        upperSeriesDescription = Utils.upper(seriesDescription);
         institutionName = attrs.getString(Tag.InstitutionName, nullValue);
         institutionalDepartmentName = attrs.getString(Tag.InstitutionalDepartmentName, nullValue);
         modality = Utils.upper(attrs.getString(Tag.Modality, nullValue));
         stationName = attrs.getString(Tag.StationName, nullValue);
+        upperStationName = Utils.upper(stationName);
         bodyPartExamined = Utils.upper(attrs.getString(Tag.BodyPartExamined, nullValue));
         laterality = Utils.upper(attrs.getString(Tag.Laterality, nullValue));
         Attributes refPPS = attrs.getNestedDataset(Tag.ReferencedPerformedProcedureStepSequence);
@@ -150,6 +150,17 @@ public class SeriesQueryAttributes {
         this.lastUpdateTime = lastUpdateTime;
     }
 
+    /**
+     * Resets the derived fields to the values of a series without instances.
+     */
+    public void reset() {
+        numberOfInstances = 0;
+        retrieveAETs = null;
+        availability = null;
+        numberOfVisibleInstances = 0;
+        lastUpdateTime = null;
+    }
+
     public Series getSeries() {
         return series;
     }
@@ -46,6 +46,7 @@ import org.dcm4chee.archive.conf.AttributeFilter;
 
 import javax.persistence.*;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
@@ -118,6 +119,10 @@ public class Study implements Serializable {
     @Column(name = "study_desc")
     private String studyDescription;
 
+    // upper case copy of study_desc for case-insensitive matching
+    @Column(name = "u_study_desc")
+    private String upperStudyDescription;
+
     //@Basic(optional = false)
     @Column(name = "study_custom1")
     private String studyCustomAttribute1;
@@ -241,6 +246,10 @@ public class Study implements Serializable {
         return studyDescription;
     }
 
+    public String getUpperStudyDescription() {
+        return upperStudyDescription;
+    }
+
     public String getStudyCustomAttribute1() {
         return studyCustomAttribute1;
     }
@@ -290,6 +299,8 @@ public class Study implements Serializable {
     }
 
     public void setPatient(Patient patient) {
+        if (this.patient != null && this.patient != patient)
+            clearEncodedQueryAttributes();
         this.patient = patient;
     }
 
@@ -305,6 +316,24 @@ public class Study implements Serializable {
         if (queryAttributes != null)
             queryAttributes.clear();
     }
+
+    /**
+     * Removes the merged study and patient attributes from the derived fields
+     * of all views, after the attributes of the study or of its patient were
+     * changed. They will be recalculated by the next query.
+     */
+    public void clearEncodedQueryAttributes() {
+        if (queryAttributes != null)
+            for (StudyQueryAttributes queryAttrs : queryAttributes)
+                queryAttrs.setEncodedAttributes(null);
+    }
+
+    public void addQueryAttributes(StudyQueryAttributes queryAttrs) {
+        if (queryAttributes == null)
+            queryAttributes = new ArrayList<StudyQueryAttributes>(1);
+        queryAttrs.setStudy(this);
+        queryAttributes.add(queryAttrs);
+    }
     
     public long getVersion() {
         return version;
@@ -318,6 +347,7 @@ public class Study implements Serializable {
         studyInstanceUID = attrs.getString(Tag.StudyInstanceUID);
         studyID = attrs.getString(Tag.StudyID, nullValue);
         studyDescription = attrs.getString(Tag.StudyDescription, nullValue);
+        upperStudyDescription = Utils.upper(studyDescription);
         Date dt = attrs.getDate(Tag.StudyDateAndTime,new DatePrecision(Calendar.SECOND));
         if (dt != null) {
             Calendar adjustedDateTimeCal = new GregorianCalendar();
@@ -333,10 +363,14 @@ public class Study implements Serializable {
         studyCustomAttribute3 =
             AttributeFilter.selectStringValue(attrs, filter.getCustomAttribute3(), nullValue);
 
+        Attributes blobAttrs = new Attributes(attrs, filter.getCompleteSelection(attrs));
         if (attributesBlob == null)
-            attributesBlob = new AttributesBlob(new Attributes(attrs, filter.getCompleteSelection(attrs)));
-        else
-            attributesBlob.setAttributes(new Attributes(attrs, filter.getCompleteSelection(attrs)));
+            attributesBlob = new AttributesBlob(blobAttrs);
+        else {
+            if (!blobAttrs.equals(attributesBlob.getAttributes()))
+                clearEncodedQueryAttributes();
+            attributesBlob.setAttributes(blobAttrs);
+        }
     }
 
 }
@@ -101,6 +101,24 @@ public class StudyQueryAttributes {
     @Column(name = "last_update_time")
     private Date lastUpdateTime;
 
+    /**
+     * Merged and normalized attributes of the study and its patient, as
+     * returned by a study level query. {@code null} if not yet calculated or
+     * if the attributes of the study were changed. Changes of the patient are
+     * detected by {@link #patientVersion}.
+     */
+    @Basic(optional = true)
+    @Column(name = "query_attrs")
+    private byte[] encodedAttributes;
+
+    /**
+     * Version of the patient whose attributes are included in
+     * {@link #encodedAttributes}.
+     */
+    @Basic(optional = true)
+    @Column(name = "pat_version")
+    private Long patientVersion;
+
     @ManyToOne(optional = false)
     @JoinColumn(name = "study_fk")
     private Study study;
@@ -201,6 +219,37 @@ public class StudyQueryAttributes {
         this.lastUpdateTime = lastUpdateTime;
     }
 
+    public byte[] getEncodedAttributes() {
+        return encodedAttributes;
+    }
+
+    public void setEncodedAttributes(byte[] encodedAttributes) {
+        this.encodedAttributes = encodedAttributes;
+    }
+
+    public Long getPatientVersion() {
+        return patientVersion;
+    }
+
+    public void setPatientVersion(Long patientVersion) {
+        this.patientVersion = patientVersion;
+    }
+
+    /**
+     * Resets the derived fields to the values of a study without instances.
+     */
+    public void reset() {
+        numberOfSeries = 0;
+        numberOfInstances = 0;
+        modalitiesInStudy = null;
+        sopClassesInStudy = null;
+        retrieveAETs = null;
+        availability = null;
+        numberOfVisibleInstances = 0;
+        numberOfVisibleSeries = 0;
+        lastUpdateTime = null;
+    }
+
     public Study getStudy() {
         return study;
     }
@@ -46,6 +46,7 @@ import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Locale;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.SpecificCharacterSet;
@@ -71,7 +72,7 @@ public class Utils {
         if (value == null)
             return null;
 
-        return value.toUpperCase();
+        return value.toUpperCase(Locale.ROOT);
     }
 
     public static byte[] encodeAttributes(Attributes attrs) {
@@ -0,0 +1,100 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.entity;
+
+import static org.junit.Assert.*;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class FrameIndexTest {
+
+    private static final String URI = "file:/archive/2016/1/1/ABCDEF";
+
+    @Test
+    public void testEncodeDecode() {
+        FrameIndex index = FrameIndex.valueOf(fragments());
+        FrameIndex decoded = FrameIndex.decode(index.encode());
+        assertEquals(4, decoded.size());
+        assertEquals(0, decoded.length(0));
+        for (int i = 1; i < 4; i++) {
+            assertEquals(index.offset(i), decoded.offset(i));
+            assertEquals(index.length(i), decoded.length(i));
+        }
+    }
+
+    @Test
+    public void testAddTo() {
+        FrameIndex index = FrameIndex.valueOf(fragments());
+        Fragments frags = new Attributes().newFragments(
+                Tag.PixelData, VR.OB, index.size());
+        index.addTo(frags, URI);
+        assertEquals(4, frags.size());
+        assertArrayEquals(new byte[0], (byte[]) frags.get(0));
+        BulkData frame2 = (BulkData) frags.get(2);
+        assertEquals(URI, frame2.uriWithoutQuery());
+        assertEquals(3000L, frame2.offset());
+        assertEquals(2000, frame2.length());
+    }
+
+    @Test
+    public void testInlineFragment() {
+        Fragments frags = fragments();
+        frags.set(3, new byte[] { 1, 2, 3, 4 });
+        assertNull(FrameIndex.valueOf(frags));
+    }
+
+    private static Fragments fragments() {
+        Fragments frags = new Attributes().newFragments(
+                Tag.PixelData, VR.OB, 4);
+        frags.add(new byte[0]);
+        frags.add(new BulkData(URI, 1000L, 1500, false));
+        frags.add(new BulkData(URI, 3000L, 2000, false));
+        frags.add(new BulkData(URI, 5008L, 1200, false));
+        return frags;
+    }
+}
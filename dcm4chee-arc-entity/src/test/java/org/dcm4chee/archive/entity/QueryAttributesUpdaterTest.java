@@ -0,0 +1,243 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.entity;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.LinkedHashMap;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.AttributeFilter;
+import org.dcm4chee.archive.conf.QueryRetrieveView;
+import org.dcm4chee.storage.conf.Availability;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class QueryAttributesUpdaterTest {
+
+    private static final String VIEW_ID = "TEST";
+
+    private static final AttributeFilter FILTER = new AttributeFilter(
+            Tag.SOPClassUID, Tag.SOPInstanceUID, Tag.SeriesInstanceUID,
+            Tag.Modality, Tag.NumberOfFrames);
+
+    private QueryAttributesUpdater updater;
+    private Study study;
+    private StudyQueryAttributes studyAttrs;
+
+    @Before
+    public void setUp() {
+        QueryRetrieveView view = new QueryRetrieveView();
+        view.setViewID(VIEW_ID);
+        ArchiveDeviceExtension arcDev = new ArchiveDeviceExtension();
+        arcDev.setQueryRetrieveViews(view);
+        updater = new QueryAttributesUpdater(arcDev);
+        study = new Study();
+        studyAttrs = new StudyQueryAttributes();
+        studyAttrs.setViewID(VIEW_ID);
+        study.addQueryAttributes(studyAttrs);
+    }
+
+    @Test
+    public void testAddInstances() {
+        Series ct = createSeries("1.1", "CT");
+        updater.addInstance(createInstance(ct, "1.1.1", UID.CTImageStorage, 1,
+                Availability.ONLINE, "AET1", "AET2"), true, true);
+        updater.addInstance(createInstance(ct, "1.1.2", UID.CTImageStorage, 1,
+                Availability.NEARLINE, "AET1"), true, false);
+        Series ko = createSeries("1.2", "KO");
+        updater.addInstance(createInstance(ko, "1.2.1",
+                UID.KeyObjectSelectionDocumentStorage, 1,
+                Availability.ONLINE, "AET1", "AET2"), true, true);
+
+        SeriesQueryAttributes ctAttrs = ct.getQueryAttributes().iterator().next();
+        assertEquals(2, ctAttrs.getNumberOfInstances());
+        assertEquals(2, ctAttrs.getNumberOfVisibleInstances());
+        assertArrayEquals(new String[] { "AET1" }, ctAttrs.getRetrieveAETs());
+        assertEquals(Availability.NEARLINE, ctAttrs.getAvailability());
+
+        assertEquals(3, studyAttrs.getNumberOfInstances());
+        assertEquals(2, studyAttrs.getNumberOfSeries());
+        assertEquals(2, studyAttrs.getNumberOfVisibleSeries());
+        assertEquals(new HashSet<String>(Arrays.asList("CT", "KO")),
+                new HashSet<String>(Arrays.asList(studyAttrs.getModalitiesInStudy())));
+        assertEquals(new HashSet<String>(Arrays.asList(UID.CTImageStorage,
+                        UID.KeyObjectSelectionDocumentStorage)),
+                new HashSet<String>(Arrays.asList(studyAttrs.getSOPClassesInStudy())));
+        assertArrayEquals(new String[] { "AET1" }, studyAttrs.getRetrieveAETs());
+        assertEquals(Availability.NEARLINE, studyAttrs.getAvailability());
+    }
+
+    @Test
+    public void testAddMultiFrameInstances() {
+        Series us = createSeries("1.1", "US");
+        Instance migrated = createInstance(us, "1.1.1",
+                UID.UltrasoundMultiFrameImageStorage, 3, Availability.ONLINE, "AET1");
+        assertEquals(Integer.valueOf(3), migrated.getNumberOfFrames());
+        updater.addInstance(migrated, true, true);
+        Instance notMigrated = createInstance(us, "1.1.2",
+                UID.UltrasoundMultiFrameImageStorage, 2, Availability.ONLINE, "AET1");
+        notMigrated.setNumberOfFrames(null);
+        updater.addInstance(notMigrated, true, false);
+
+        SeriesQueryAttributes usAttrs = us.getQueryAttributes().iterator().next();
+        assertEquals(2, usAttrs.getNumberOfInstances());
+        assertEquals(5, usAttrs.getNumberOfVisibleInstances());
+        assertEquals(5, studyAttrs.getNumberOfVisibleInstances());
+    }
+
+    @Test
+    public void testAddInstanceWithoutLocation() {
+        Series ct = createSeries("1.1", "CT");
+        updater.addInstance(createInstance(ct, "1.1.1", UID.CTImageStorage, 1,
+                Availability.ONLINE, "AET1"), false, true);
+
+        assertEquals(0, ct.getQueryAttributes().iterator().next().getNumberOfInstances());
+        assertEquals(0, studyAttrs.getNumberOfInstances());
+    }
+
+    @Test
+    public void testAddInstanceToSeriesWithoutQueryAttributes() {
+        Series ct = createSeries("1.1", "CT");
+        updater.addInstance(createInstance(ct, "1.1.1", UID.CTImageStorage, 1,
+                Availability.ONLINE, "AET1"), true, false);
+
+        assertTrue(study.getQueryAttributes().isEmpty());
+    }
+
+    @Test
+    public void testRejectAllInstances() {
+        Series ct = createSeries("1.1", "CT");
+        Instance inst1 = createInstance(ct, "1.1.1", UID.CTImageStorage, 1,
+                Availability.ONLINE, "AET1");
+        Instance inst2 = createInstance(ct, "1.1.2", UID.CTImageStorage, 1,
+                Availability.ONLINE, "AET1");
+        updater.addInstance(inst1, true, true);
+        updater.addInstance(inst2, true, false);
+
+        updater.rejectionCodeChanged(reject(inst1, inst2));
+
+        SeriesQueryAttributes ctAttrs = ct.getQueryAttributes().iterator().next();
+        assertEquals(0, ctAttrs.getNumberOfInstances());
+        assertNull(ctAttrs.getRawRetrieveAETs());
+        assertEquals(0, studyAttrs.getNumberOfInstances());
+        assertEquals(0, studyAttrs.getNumberOfSeries());
+        assertNull(studyAttrs.getRawModalitiesInStudy());
+    }
+
+    @Test
+    public void testRejectSomeInstances() {
+        Series ct = createSeries("1.1", "CT");
+        Instance inst1 = createInstance(ct, "1.1.1", UID.CTImageStorage, 1,
+                Availability.ONLINE, "AET1");
+        Instance inst2 = createInstance(ct, "1.1.2", UID.CTImageStorage, 1,
+                Availability.ONLINE, "AET1");
+        updater.addInstance(inst1, true, true);
+        updater.addInstance(inst2, true, false);
+
+        updater.rejectionCodeChanged(reject(inst1));
+
+        assertTrue(ct.getQueryAttributes().isEmpty());
+        assertTrue(study.getQueryAttributes().isEmpty());
+    }
+
+    @Test
+    public void testRemoveRejectedInstances() {
+        Series ct = createSeries("1.1", "CT");
+        Instance inst1 = createInstance(ct, "1.1.1", UID.CTImageStorage, 1,
+                Availability.ONLINE, "AET1");
+        Instance inst2 = createInstance(ct, "1.1.2", UID.CTImageStorage, 1,
+                Availability.ONLINE, "AET1");
+        updater.addInstance(inst1, true, true);
+        updater.addInstance(inst2, true, false);
+        inst2.setRejectionNoteCode(new Code("113001", "DCM", null, "Rejected for Quality Reasons"));
+
+        updater.removeInstances(Collections.singletonList(inst2));
+
+        assertEquals(2, ct.getQueryAttributes().iterator().next().getNumberOfInstances());
+        assertEquals(2, studyAttrs.getNumberOfInstances());
+    }
+
+    private Map<Instance, Code> reject(Instance... insts) {
+        Code rejectionCode = new Code("113001", "DCM", null, "Rejected for Quality Reasons");
+        Map<Instance, Code> prevRejectionCodes = new LinkedHashMap<Instance, Code>();
+        for (Instance inst : insts) {
+            prevRejectionCodes.put(inst, inst.getRejectionNoteCode());
+            inst.setRejectionNoteCode(rejectionCode);
+        }
+        return prevRejectionCodes;
+    }
+
+    private Series createSeries(String iuid, String modality) {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SeriesInstanceUID, VR.UI, iuid);
+        attrs.setString(Tag.Modality, VR.CS, modality);
+        Series series = new Series();
+        series.setStudy(study);
+        series.setAttributes(attrs, FILTER, null, null);
+        return series;
+    }
+
+    private Instance createInstance(Series series, String iuid, String cuid,
+            int numberOfFrames, Availability availability, String... retrieveAETs) {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SOPClassUID, VR.UI, cuid);
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, iuid);
+        attrs.setInt(Tag.NumberOfFrames, VR.IS, numberOfFrames);
+        Instance inst = new Instance();
+        inst.setSeries(series);
+        inst.setAttributes(attrs, FILTER, null, null);
+        inst.setAvailability(availability);
+        inst.setRetrieveAETs(retrieveAETs);
+        inst.setLocations(Collections.singletonList(new Location()));
+        inst.onPrePersist();
+        return inst;
+    }
+}
@@ -0,0 +1,118 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.entity;
+
+import static org.junit.Assert.*;
+
+import java.util.Locale;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4chee.archive.conf.AttributeFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the upper case copies of person name components and descriptions,
+ * which are matched by case-insensitive queries, as written by the entities.
+ *
+ * @author agent <agent@local>
+ */
+public class UpperCaseColumnsTest {
+
+    private static final AttributeFilter FILTER = new AttributeFilter(
+            Tag.StudyInstanceUID, Tag.SeriesInstanceUID, Tag.Modality);
+
+    private Locale defaultLocale;
+
+    @Before
+    public void setUp() {
+        defaultLocale = Locale.getDefault();
+        // dotted upper case I in the Turkish locale
+        Locale.setDefault(new Locale("tr", "TR"));
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(defaultLocale);
+    }
+
+    @Test
+    public void testPersonName() {
+        PersonName pn = new PersonName(
+                new org.dcm4che3.data.PersonName("Smith^Iris^Lisa"), null, null);
+        assertEquals("SMITH", pn.getUpperFamilyName());
+        assertEquals("IRIS", pn.getUpperGivenName());
+        assertEquals("LISA", pn.getUpperMiddleName());
+
+        pn.setFamilyName("Miller", null, null);
+        pn.setGivenName(null, null, null);
+        assertEquals("MILLER", pn.getUpperFamilyName());
+        assertNull(pn.getUpperGivenName());
+    }
+
+    @Test
+    public void testStudyDescription() {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.StudyInstanceUID, VR.UI, "1.2.3");
+        attrs.setString(Tag.StudyDescription, VR.LO, "Chest with contrast");
+        Study study = new Study();
+        study.setAttributes(attrs, FILTER, null, null);
+        assertEquals("CHEST WITH CONTRAST", study.getUpperStudyDescription());
+
+        attrs.remove(Tag.StudyDescription);
+        study.setAttributes(attrs, FILTER, null, "*");
+        assertEquals("*", study.getUpperStudyDescription());
+    }
+
+    @Test
+    public void testSeriesDescriptionAndStationName() {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SeriesInstanceUID, VR.UI, "1.2.3.4");
+        attrs.setString(Tag.Modality, VR.CS, "CT");
+        attrs.setString(Tag.SeriesDescription, VR.LO, "Axial thin");
+        attrs.setString(Tag.StationName, VR.SH, "ct_station1");
+        Series series = new Series();
+        series.setAttributes(attrs, FILTER, null, null);
+        assertEquals("AXIAL THIN", series.getUpperSeriesDescription());
+        assertEquals("CT_STATION1", series.getUpperStationName());
+    }
+}
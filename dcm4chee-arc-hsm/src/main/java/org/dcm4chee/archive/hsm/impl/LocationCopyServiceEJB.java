@@ -51,7 +51,6 @@ import javax.persistence.PersistenceContext;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.net.Device;
-import org.dcm4che3.util.AttributesFormat;
 import org.dcm4chee.archive.entity.Instance;
 import org.dcm4chee.archive.entity.Location;
 import org.dcm4chee.archive.entity.Location.Status;
@@ -60,6 +59,7 @@ import org.dcm4chee.archive.entity.Utils;
 import org.dcm4chee.archive.hsm.LocationCopyContext;
 import org.dcm4chee.archive.hsm.LocationsCopied;
 import org.dcm4chee.archive.locationmgmt.LocationMgmt;
+import org.dcm4chee.archive.store.StoragePathFormat;
 import org.dcm4chee.storage.ContainerEntry;
 import org.dcm4chee.storage.archiver.service.ArchiverContext;
 import org.dcm4chee.storage.archiver.service.ArchiverService;
@@ -243,7 +243,7 @@ public class LocationCopyServiceEJB {
     private String getTargetName(Attributes attrs, String groupID) {
         StorageSystemGroup grp = storageDeviceExtension().getStorageSystemGroup(groupID);
         String pattern = grp.getStorageFilePathFormat();
-        return AttributesFormat.valueOf(pattern).format(attrs);
+        return StoragePathFormat.format(pattern, attrs);
     }
 
     public void onContainerEntriesStored(ArchiverContext ctx) {
@@ -40,6 +40,8 @@ package org.dcm4chee.archive.ian.scu.impl;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Resource;
 import javax.enterprise.context.ApplicationScoped;
@@ -83,6 +85,7 @@ import org.dcm4chee.archive.ian.scu.IANSCU;
 import org.dcm4chee.archive.mpps.MPPSContext;
 import org.dcm4chee.archive.store.StoreContext;
 import org.dcm4chee.archive.store.StoreSession;
+import org.dcm4chee.archive.store.StoreSessionClosed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -115,6 +118,9 @@ public class IANSCUImpl implements IANSCU {
     @Inject
     private Device device;
 
+    @Inject
+    private IANSendQueue sendQueue;
+
     public void onMPPSReceive(MPPSContext context, Attributes attributes) {
         ApplicationEntity ae;
         try {
@@ -126,7 +132,7 @@ public class IANSCUImpl implements IANSCU {
                     && !isIncorrectWorklistEntrySelected(attributes)) {
                 IANBuilder builder = createIANBuilder(context.getMppsSopInstanceUID(), attributes);
                 if (builder.numberOfOutstandingInstances() == 0)
-                    scheduleSendIAN(ae.getAETitle(), arcAE.getIANDestinations(), builder.getIAN());
+                    scheduleSendIAN(ae.getAETitle(), arcAE, builder.getIAN());
             }
         } catch (Exception e) {
             LOG.error("Error while scheduling IAN", e);
@@ -151,10 +157,17 @@ public class IANSCUImpl implements IANSCU {
                         .getIncorrectWorklistEntrySelectedCode();
     }
 
-    private void scheduleSendIAN(String localAET, String[] remoteAETs,
+    private void scheduleSendIAN(String localAET, ArchiveAEExtension arcAE,
                                  Attributes ian) {
+        int coalescingPeriod = arcAE.getIANCoalescingPeriod();
+        if (coalescingPeriod > 0) {
+            for (String remoteAET : arcAE.getIANDestinations()) {
+                sendQueue.add(localAET, remoteAET, ian, coalescingPeriod);
+            }
+            return;
+        }
         String iuid = UIDUtils.createUID();
-        for (String remoteAET : remoteAETs) {
+        for (String remoteAET : arcAE.getIANDestinations()) {
             scheduleSendIAN(localAET, remoteAET, iuid, ian, 0, 0);
         }
     }
@@ -206,12 +219,36 @@ public class IANSCUImpl implements IANSCU {
         if (arcAE == null || arcAE.getIANDestinations().length == 0) return;
 
         MPPS mpps = (MPPS) storeContext.getProperty(MPPS.class.getName());
-        if (mpps != null
-                && mpps.getStatus() != MPPS.Status.IN_PROGRESS
+        if (mpps == null) {
+            if (arcAE.isIANOnStore()) {
+                try {
+                    addToStoreIAN(storeContext);
+                } catch (Exception e) {
+                    LOG.error("Error while collecting IAN", e);
+                }
+            }
+        } else if (mpps.getStatus() != MPPS.Status.IN_PROGRESS
                 && mpps.discontinuedForReason((Code) getIncorrectWorklistEntrySelectedCode()))
             scheduleIANForMPPS(storeContext, mpps);
     }
 
+    public void onStoreSessionClosed(@Observes @StoreSessionClosed StoreSession storeSession) {
+        StoreIAN storeIAN = (StoreIAN) storeSession.getProperty(StoreIAN.class.getName());
+        if (storeIAN != null)
+            storeIAN.flush();
+    }
+
+    private void addToStoreIAN(StoreContext storeContext) {
+        StoreSession storeSession = storeContext.getStoreSession();
+        StoreIAN storeIAN = (StoreIAN) storeSession.getProperty(StoreIAN.class.getName());
+        if (storeIAN == null) {
+            storeIAN = new StoreIAN(storeSession.getLocalAET(),
+                    storeSession.getArchiveAEExtension());
+            storeSession.setProperty(StoreIAN.class.getName(), storeIAN);
+        }
+        storeIAN.add(storeContext.getInstance());
+    }
+
     private void scheduleIANForMPPS(StoreContext storeContext, MPPS mpps) {
         StoreSession storeSession = storeContext.getStoreSession();
         IANBuilder builder = (IANBuilder) storeSession.getProperty(IANBuilder.class.getName());
@@ -233,10 +270,85 @@ public class IANSCUImpl implements IANSCU {
         }
         if (builder.numberOfOutstandingInstances() == 0)
             scheduleSendIAN(storeSession.getLocalAET(),
-                    storeSession.getArchiveAEExtension().getIANDestinations(),
+                    storeSession.getArchiveAEExtension(),
                     builder.getIAN());
     }
 
+    /**
+     * Collects the instances of one Study received on one Association which
+     * are not referenced by a MPPS. The IAN is scheduled on a change of the
+     * Study, on the release of the Association or - if configured - after
+     * no further instance was received for the quiet period.
+     */
+    private class StoreIAN implements Runnable {
+        private final String localAET;
+        private final ArchiveAEExtension arcAE;
+        private IANBuilder builder;
+        private String studyIUID;
+        private long lastStoreTime;
+        private ScheduledFuture<?> quietPeriodCheck;
+
+        StoreIAN(String localAET, ArchiveAEExtension arcAE) {
+            this.localAET = localAET;
+            this.arcAE = arcAE;
+        }
+
+        synchronized void add(Instance inst) {
+            Series series = inst.getSeries();
+            String studyIUID = series.getStudy().getStudyInstanceUID();
+            if (builder != null && !studyIUID.equals(this.studyIUID))
+                flush();
+            if (builder == null) {
+                builder = new IANBuilder();
+                this.studyIUID = studyIUID;
+            }
+            builder.addReferencedInstance(
+                    studyIUID,
+                    series.getSeriesInstanceUID(),
+                    inst.getSopInstanceUID(),
+                    inst.getSopClassUID(),
+                    inst.getAvailability(),
+                    inst.getAllRetrieveAETs());
+            lastStoreTime = System.currentTimeMillis();
+            int quietPeriod = arcAE.getIANStoreQuietPeriod();
+            if (quietPeriod > 0 && quietPeriodCheck == null)
+                quietPeriodCheck = device.schedule(this, quietPeriod, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public synchronized void run() {
+            quietPeriodCheck = null;
+            if (builder == null)
+                return;
+
+            long remaining = lastStoreTime
+                    + arcAE.getIANStoreQuietPeriod() * 1000L
+                    - System.currentTimeMillis();
+            if (remaining > 0)
+                quietPeriodCheck = device.schedule(this, remaining, TimeUnit.MILLISECONDS);
+            else
+                flush();
+        }
+
+        synchronized void flush() {
+            if (quietPeriodCheck != null) {
+                quietPeriodCheck.cancel(false);
+                quietPeriodCheck = null;
+            }
+            if (builder == null)
+                return;
+
+            Attributes ian = builder.getIAN();
+            builder = null;
+            studyIUID = null;
+            try {
+                scheduleSendIAN(localAET, arcAE, ian);
+            } catch (Exception e) {
+                LOG.error("Error while scheduling IAN", e);
+            }
+        }
+    }
+
 //    public void onRejectInstances(@Observes RejectionEvent event) {
 //        StoreContext storeContext = event.getStoreContext();
 //        StoreSession storeSession = storeContext.getStoreSession();
@@ -284,7 +396,7 @@ public class IANSCUImpl implements IANSCU {
 //        }
 //    }
 
-    private void scheduleSendIAN(String localAET, String remoteAET,
+    void scheduleSendIAN(String localAET, String remoteAET,
                                  String iuid, Attributes attrs, int retries, long delay) {
         try {
             Connection conn = connFactory.createConnection();
@@ -311,6 +423,14 @@ public class IANSCUImpl implements IANSCU {
     @Override
     public void sendIAN(String localAET, String remoteAET,
                         String iuid, Attributes attrs, int retries) {
+        if (retries == 0) {
+            attrs = sendQueue.coalesce(iuid, attrs);
+            if (attrs == null) {
+                LOG.debug("IAN[iuid={}] to {} already sent merged with other IANs",
+                        iuid, remoteAET);
+                return;
+            }
+        }
         ApplicationEntity localAE = device
                 .getApplicationEntity(localAET);
         if (localAE == null) {
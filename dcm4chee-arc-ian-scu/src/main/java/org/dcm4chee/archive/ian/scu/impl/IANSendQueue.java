@@ -0,0 +1,186 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.ian.scu.impl;
+
+import java.util.HashMap;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.util.UIDUtils;
+
+/**
+ * Coalesces IANs to the same destination for the same Study.
+ * <p>
+ * Each IAN is scheduled on the IAN SCU queue right away, delayed by the
+ * coalescing period, so it is not lost on a restart. The IANs are also
+ * merged in memory; the first of them delivered sends the merged IAN, the
+ * others delivered afterwards are dropped. Without the merged IAN - e.g.
+ * after a restart - each IAN is sent as it was scheduled.
+ *
+ * @author agent <agent@local>
+ */
+@ApplicationScoped
+public class IANSendQueue {
+
+    @Inject
+    private IANSCUImpl ianscu;
+
+    private final HashMap<String, Pending> pendingByStudy =
+            new HashMap<String, Pending>();
+
+    private final HashMap<String, Pending> pendingByIUID =
+            new HashMap<String, Pending>();
+
+    public void add(String localAET, String remoteAET, Attributes ian,
+            int coalescingPeriod) {
+        String iuid = UIDUtils.createUID();
+        ianscu.scheduleSendIAN(localAET, remoteAET, iuid, ian, 0,
+                coalescingPeriod * 1000L);
+        String key = localAET + '\\' + remoteAET + '\\'
+                + ian.getString(Tag.StudyInstanceUID);
+        synchronized (this) {
+            Pending pending = pendingByStudy.get(key);
+            if (pending == null) {
+                pending = new Pending(key, new Attributes(ian));
+                pendingByStudy.put(key, pending);
+            } else {
+                merge(pending.ian, ian);
+            }
+            pendingByIUID.put(iuid, pending);
+        }
+    }
+
+    /**
+     * Returns the IAN to send for the scheduled IAN with the specified SOP
+     * Instance UID: the merged IAN, if it was not already sent, {@code null}
+     * if it was, or {@code ian} itself, if it was not merged.
+     */
+    synchronized Attributes coalesce(String iuid, Attributes ian) {
+        Pending pending = pendingByIUID.remove(iuid);
+        if (pending == null)
+            return ian;
+
+        if (pending.sent)
+            return null;
+
+        pending.sent = true;
+        pendingByStudy.remove(pending.key);
+        return pending.ian;
+    }
+
+    static void merge(Attributes target, Attributes ian) {
+        Sequence targetRefPPSSeq = sequenceOf(target,
+                Tag.ReferencedPerformedProcedureStepSequence);
+        Sequence refPPSSeq = ian.getSequence(
+                Tag.ReferencedPerformedProcedureStepSequence);
+        if (refPPSSeq != null)
+            for (Attributes refPPS : refPPSSeq)
+                if (indexOf(targetRefPPSSeq, Tag.ReferencedSOPInstanceUID,
+                        refPPS.getString(Tag.ReferencedSOPInstanceUID)) < 0)
+                    targetRefPPSSeq.add(new Attributes(refPPS));
+
+        Sequence targetRefSeriesSeq = sequenceOf(target,
+                Tag.ReferencedSeriesSequence);
+        Sequence refSeriesSeq = ian.getSequence(Tag.ReferencedSeriesSequence);
+        if (refSeriesSeq != null)
+            for (Attributes refSeries : refSeriesSeq) {
+                int index = indexOf(targetRefSeriesSeq, Tag.SeriesInstanceUID,
+                        refSeries.getString(Tag.SeriesInstanceUID));
+                if (index < 0)
+                    targetRefSeriesSeq.add(new Attributes(refSeries));
+                else
+                    mergeRefSOPs(
+                            sequenceOf(targetRefSeriesSeq.get(index),
+                                    Tag.ReferencedSOPSequence),
+                            refSeries.getSequence(Tag.ReferencedSOPSequence));
+            }
+    }
+
+    private static void mergeRefSOPs(Sequence targetRefSOPSeq,
+            Sequence refSOPSeq) {
+        if (refSOPSeq == null)
+            return;
+
+        HashMap<String, Integer> indexOfIUID =
+                new HashMap<String, Integer>(targetRefSOPSeq.size() * 4 / 3 + 1);
+        for (int i = 0, n = targetRefSOPSeq.size(); i < n; i++)
+            indexOfIUID.put(targetRefSOPSeq.get(i)
+                    .getString(Tag.ReferencedSOPInstanceUID), i);
+
+        for (Attributes refSOP : refSOPSeq) {
+            String iuid = refSOP.getString(Tag.ReferencedSOPInstanceUID);
+            Integer index = indexOfIUID.get(iuid);
+            if (index != null) {
+                // later IAN reports current availability and retrieve AETs
+                targetRefSOPSeq.set(index, new Attributes(refSOP));
+            } else {
+                indexOfIUID.put(iuid, targetRefSOPSeq.size());
+                targetRefSOPSeq.add(new Attributes(refSOP));
+            }
+        }
+    }
+
+    private static Sequence sequenceOf(Attributes attrs, int tag) {
+        Sequence seq = attrs.getSequence(tag);
+        return seq != null ? seq : attrs.newSequence(tag, 1);
+    }
+
+    private static int indexOf(Sequence seq, int tag, String value) {
+        for (int i = 0, n = seq.size(); i < n; i++)
+            if (value.equals(seq.get(i).getString(tag)))
+                return i;
+        return -1;
+    }
+
+    private static final class Pending {
+        final String key;
+        final Attributes ian;
+        boolean sent;
+
+        Pending(String key, Attributes ian) {
+            this.key = key;
+            this.ian = ian;
+        }
+    }
+}
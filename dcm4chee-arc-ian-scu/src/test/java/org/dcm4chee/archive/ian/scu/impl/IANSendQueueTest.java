@@ -0,0 +1,173 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.ian.scu.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * @author agent <agent@local>
+ */
+public class IANSendQueueTest {
+
+    private static final String STUDY_IUID = "1.2.3";
+
+    @Test
+    public void testMergePPSAndSeries() {
+        Attributes target = ian("1.2.3.100", "1.2.3.1", "1.2.3.1.1", "ONLINE");
+        IANSendQueue.merge(target,
+                ian("1.2.3.200", "1.2.3.2", "1.2.3.2.1", "ONLINE"));
+        IANSendQueue.merge(target,
+                ian("1.2.3.100", "1.2.3.1", "1.2.3.1.2", "ONLINE"));
+
+        Sequence refPPSSeq = target.getSequence(
+                Tag.ReferencedPerformedProcedureStepSequence);
+        assertEquals(2, refPPSSeq.size());
+        assertEquals("1.2.3.100",
+                refPPSSeq.get(0).getString(Tag.ReferencedSOPInstanceUID));
+        assertEquals("1.2.3.200",
+                refPPSSeq.get(1).getString(Tag.ReferencedSOPInstanceUID));
+
+        Sequence refSeriesSeq = target.getSequence(Tag.ReferencedSeriesSequence);
+        assertEquals(2, refSeriesSeq.size());
+        Sequence refSOPSeq = refSeriesSeq.get(0)
+                .getSequence(Tag.ReferencedSOPSequence);
+        assertEquals(2, refSOPSeq.size());
+        assertEquals("1.2.3.1.1",
+                refSOPSeq.get(0).getString(Tag.ReferencedSOPInstanceUID));
+        assertEquals("1.2.3.1.2",
+                refSOPSeq.get(1).getString(Tag.ReferencedSOPInstanceUID));
+        assertEquals("1.2.3.2", refSeriesSeq.get(1)
+                .getString(Tag.SeriesInstanceUID));
+    }
+
+    @Test
+    public void testMergeReplacesDuplicateSOPReference() {
+        Attributes target = ian("1.2.3.100", "1.2.3.1", "1.2.3.1.1", "NEARLINE");
+        IANSendQueue.merge(target,
+                ian("1.2.3.100", "1.2.3.1", "1.2.3.1.1", "ONLINE"));
+
+        Sequence refSOPSeq = target.getNestedDataset(Tag.ReferencedSeriesSequence)
+                .getSequence(Tag.ReferencedSOPSequence);
+        assertEquals(1, refSOPSeq.size());
+        assertEquals("ONLINE",
+                refSOPSeq.get(0).getString(Tag.InstanceAvailability));
+        assertEquals(1, target.getSequence(
+                Tag.ReferencedPerformedProcedureStepSequence).size());
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        IANSCUImpl ianscu = mock(IANSCUImpl.class);
+        IANSendQueue queue = new IANSendQueue();
+        Field field = IANSendQueue.class.getDeclaredField("ianscu");
+        field.setAccessible(true);
+        field.set(queue, ianscu);
+
+        Attributes ian1 = ian("1.2.3.100", "1.2.3.1", "1.2.3.1.1", "ONLINE");
+        Attributes ian2 = ian("1.2.3.100", "1.2.3.1", "1.2.3.1.2", "ONLINE");
+        queue.add("ARCHIVE", "RIS", ian1, 10);
+        queue.add("ARCHIVE", "RIS", ian2, 10);
+
+        ArgumentCaptor<String> iuids = ArgumentCaptor.forClass(String.class);
+        verify(ianscu, times(2)).scheduleSendIAN(eq("ARCHIVE"), eq("RIS"),
+                iuids.capture(), any(Attributes.class), eq(0), eq(10000L));
+        List<String> scheduled = iuids.getAllValues();
+
+        Attributes merged = queue.coalesce(scheduled.get(1), ian2);
+        assertEquals(2, merged.getNestedDataset(Tag.ReferencedSeriesSequence)
+                .getSequence(Tag.ReferencedSOPSequence).size());
+        assertNull(queue.coalesce(scheduled.get(0), ian1));
+
+        // not merged, e.g. after restart
+        assertSame(ian1, queue.coalesce("1.2.3.999", ian1));
+
+        // a later IAN for the same Study is merged again
+        queue.add("ARCHIVE", "RIS", ian1, 10);
+        verify(ianscu, times(3)).scheduleSendIAN(anyString(), anyString(),
+                iuids.capture(), any(Attributes.class), anyInt(), anyLong());
+        String iuid = iuids.getValue();
+        assertEquals(1, queue.coalesce(iuid, ian1)
+                .getNestedDataset(Tag.ReferencedSeriesSequence)
+                .getSequence(Tag.ReferencedSOPSequence).size());
+    }
+
+    private static Attributes ian(String ppsIUID, String seriesIUID,
+            String sopIUID, String availability) {
+        Attributes ian = new Attributes(3);
+        Attributes refPPS = new Attributes(2);
+        refPPS.setString(Tag.ReferencedSOPClassUID, VR.UI,
+                UID.ModalityPerformedProcedureStepSOPClass);
+        refPPS.setString(Tag.ReferencedSOPInstanceUID, VR.UI, ppsIUID);
+        ian.newSequence(Tag.ReferencedPerformedProcedureStepSequence, 1)
+                .add(refPPS);
+        ian.setString(Tag.StudyInstanceUID, VR.UI, STUDY_IUID);
+        Attributes refSOP = new Attributes(4);
+        refSOP.setString(Tag.RetrieveAETitle, VR.AE, "ARCHIVE");
+        refSOP.setString(Tag.InstanceAvailability, VR.CS, availability);
+        refSOP.setString(Tag.ReferencedSOPClassUID, VR.UI,
+                UID.CTImageStorage);
+        refSOP.setString(Tag.ReferencedSOPInstanceUID, VR.UI, sopIUID);
+        Attributes refSeries = new Attributes(2);
+        refSeries.newSequence(Tag.ReferencedSOPSequence, 1).add(refSOP);
+        refSeries.setString(Tag.SeriesInstanceUID, VR.UI, seriesIUID);
+        ian.newSequence(Tag.ReferencedSeriesSequence, 1).add(refSeries);
+        return ian;
+    }
+}
@@ -54,4 +54,16 @@ public interface RejectionDeleteService {
     public Collection<Instance> findRejectedObjects(
             Code rejectionNote, Timestamp deadline, int maxDeletes);
 
+    /**
+     * Deletes instances rejected by {@code rejectionNote} before
+     * {@code deadline} in batches and schedules the deletion of their files
+     * once per batch. The batch size adapts to the time needed for previous
+     * batches.
+     *
+     * @param maxDeletes maximal number of deleted instances, or 0 for no limit
+     * @return number of deleted instances
+     */
+    public int deleteRejected(Code rejectionNote, Timestamp deadline,
+            int maxDeletes);
+
 }
@@ -57,4 +57,12 @@ public interface RejectionServiceDeleteBean {
     public Collection<Instance> findRejectedObjects(
             Code rejectionNote, Timestamp deadline, int maxDeletes);
 
+    /**
+     * Deletes up to {@code maxResults} instances rejected by
+     * {@code rejectionNote} before {@code deadline}, with a pk greater than
+     * {@code afterPk}, using bulk statements.
+     */
+    public RejectedObjectsBatch deleteRejected(Code rejectionNote,
+            Timestamp deadline, long afterPk, int maxResults);
+
 }
\ No newline at end of file
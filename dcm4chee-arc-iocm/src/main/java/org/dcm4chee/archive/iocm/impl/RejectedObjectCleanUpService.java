@@ -39,7 +39,6 @@
 package org.dcm4chee.archive.iocm.impl;
 
 import java.sql.Timestamp;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -56,7 +55,6 @@ import org.dcm4chee.archive.code.CodeService;
 import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.RejectionParam;
 import org.dcm4chee.archive.entity.Code;
-import org.dcm4chee.archive.entity.Instance;
 import org.dcm4chee.archive.event.StartStopReloadEvent;
 import org.dcm4chee.archive.iocm.RejectionDeleteService;
 import org.slf4j.Logger;
@@ -86,7 +84,7 @@ public class RejectedObjectCleanUpService {
         @Override
         public void run() {
 
-            ArrayList<Instance> rejectedObjects = new ArrayList<Instance>();
+            int remaining = getMaxNumberOfDeletes();
             for(RejectionParam rn : rejectionNotes) {
                 if(rn.getRetentionTime() > 0) {
                 Date now = new Date();
@@ -95,12 +93,18 @@ public class RejectedObjectCleanUpService {
                         TimeUnit.MILLISECONDS.convert(
                                 rn.getRetentionTime(), rn.getRetentionTimeUnit()));
 
-                rejectedObjects.addAll(rejectionServiceDeleteEJB.findRejectedObjects(
-                       codeService.findOrCreate(
-                               new Code(rn.getRejectionNoteTitle())), retentionUnitsAgo, getMaxNumberOfDeletes()));
+                try {
+                    int deleted = rejectionServiceDeleteEJB.deleteRejected(
+                            codeService.findOrCreate(new Code(rn.getRejectionNoteTitle())),
+                            retentionUnitsAgo, remaining);
+                    if (remaining > 0 && (remaining -= deleted) <= 0)
+                        return;
+                } catch (Exception e) {
+                    LOG.error("Failed to delete objects rejected by {}",
+                            rn.getRejectionNoteTitle(), e);
+                }
                 }
             }
-            rejectionServiceDeleteEJB.deleteRejected(cleanUpTask, rejectedObjects);
         }
     };
 
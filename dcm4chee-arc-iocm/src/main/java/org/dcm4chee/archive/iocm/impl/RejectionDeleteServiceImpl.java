@@ -37,9 +37,12 @@
  * ***** END LICENSE BLOCK ***** */
 package org.dcm4chee.archive.iocm.impl;
 
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.entity.Code;
 import org.dcm4chee.archive.entity.Instance;
 import org.dcm4chee.archive.entity.Location;
+import org.dcm4chee.archive.iocm.RejectedObjectsBatch;
 import org.dcm4chee.archive.iocm.RejectionDeleteService;
 import org.dcm4chee.archive.iocm.RejectionServiceDeleteBean;
 import org.dcm4chee.archive.locationmgmt.LocationMgmt;
@@ -50,6 +53,8 @@ import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import java.sql.Timestamp;
 import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author Hesham Elbadawi <bsdreko@gmail.com>
@@ -67,6 +72,16 @@ public class RejectionDeleteServiceImpl implements RejectionDeleteService{
     @Inject
     private LocationMgmt fileManager;
 
+    @Inject
+    private Device device;
+
+    /**
+     * Batch size for the next run by pk of the rejection note code, as the
+     * costs of deleting instances differ between rejection notes.
+     */
+    private final ConcurrentMap<Long, Integer> batchSizes =
+            new ConcurrentHashMap<Long, Integer>();
+
     @Override
     public void deleteRejected(Object source, Collection<Instance> instances) {
         Collection<Location> tosScheduleForDelete = rejectionServiceDeleter.deleteRejected(source, instances);
@@ -83,4 +98,56 @@ public class RejectionDeleteServiceImpl implements RejectionDeleteService{
         return rejectionServiceDeleter.findRejectedObjects(rejectionNote, deadline, maxDeletes);
     }
 
+    @Override
+    public int deleteRejected(Code rejectionNote, Timestamp deadline,
+            int maxDeletes) {
+        ArchiveDeviceExtension arcDev =
+                device.getDeviceExtension(ArchiveDeviceExtension.class);
+        int maxBatchSize = Math.max(1, arcDev.getRejectedObjectsCleanUpBatchSize());
+        int maxBatchDuration = arcDev.getRejectedObjectsCleanUpMaxBatchDuration();
+        Integer prevBatchSize = batchSizes.get(rejectionNote.getPk());
+        int nextBatchSize = prevBatchSize != null
+                ? Math.min(prevBatchSize, maxBatchSize)
+                : maxBatchSize;
+        int deleted = 0;
+        long afterPk = 0L;
+        try {
+            for (;;) {
+                int batchSize = nextBatchSize;
+                if (maxDeletes > 0)
+                    batchSize = Math.min(batchSize, maxDeletes - deleted);
+                long start = System.currentTimeMillis();
+                RejectedObjectsBatch batch = rejectionServiceDeleter.deleteRejected(
+                        rejectionNote, deadline, afterPk, batchSize);
+                long duration = System.currentTimeMillis() - start;
+                int n = batch.getNumberOfInstances();
+                if (n > 0)
+                    scheduleDelete(batch.getLocationPks());
+                deleted += n;
+                afterPk = batch.getLastPk();
+                if (n < batchSize || maxDeletes > 0 && deleted >= maxDeletes)
+                    return deleted;
+                if (maxBatchDuration > 0 && duration > maxBatchDuration) {
+                    // database under load: continue with smaller batches on next poll
+                    nextBatchSize = Math.max(1, batchSize / 2);
+                    LOG.info("Deletion of {} rejected instances took {} ms - reduce batch size to {}",
+                            n, duration, nextBatchSize);
+                    return deleted;
+                }
+                if (duration < maxBatchDuration / 2)
+                    nextBatchSize = Math.min(maxBatchSize, batchSize * 2);
+            }
+        } finally {
+            batchSizes.put(rejectionNote.getPk(), nextBatchSize);
+        }
+    }
+
+    private void scheduleDelete(Collection<Long> locationPks) {
+        try {
+            fileManager.scheduleDeleteByPks(locationPks, 0, false);
+        } catch (Exception e) {
+            LOG.error("Unable to schedule Locations {} for deletion", locationPks, e);
+        }
+    }
+
 }
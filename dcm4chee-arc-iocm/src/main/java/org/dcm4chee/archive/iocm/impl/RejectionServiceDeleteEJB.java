@@ -42,22 +42,27 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 import javax.ejb.EJBException;
 import javax.ejb.Stateless;
+import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.TypedQuery;
 
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.entity.Code;
 import org.dcm4chee.archive.entity.Location;
 import org.dcm4chee.archive.entity.Instance;
-import org.dcm4chee.archive.entity.Series;
-import org.dcm4chee.archive.entity.SeriesQueryAttributes;
-import org.dcm4chee.archive.entity.Study;
-import org.dcm4chee.archive.entity.StudyQueryAttributes;
+import org.dcm4chee.archive.entity.QueryAttributesUpdater;
+import org.dcm4chee.archive.entity.VerifyingObserver;
+import org.dcm4chee.archive.iocm.RejectedObjectsBatch;
 import org.dcm4chee.archive.iocm.RejectionServiceDeleteBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -72,28 +77,26 @@ public class RejectionServiceDeleteEJB implements RejectionServiceDeleteBean {
 
     @PersistenceContext(name = "dcm4chee-arc", unitName = "dcm4chee-arc")
     public EntityManager em;
+
+    @Inject
+    private Device device;
     
     @Override
     public Collection<Location> deleteRejected(Object source, Collection<Instance> instances) {
         try {
             Collection<Location> toBeDeleted = new HashSet<Location>();
-            Study study = null;
-            Series series = null;
+            Collection<Instance> rejected = new ArrayList<Instance>(instances.size());
             for (Instance inst : instances) {
                 inst = em.find(Instance.class, inst.getPk());
-                if (isRejected(inst)) {
-                    if(series != inst.getSeries()) {
-                        series = inst.getSeries();
-                        em.createNamedQuery(SeriesQueryAttributes.CLEAN_FOR_SERIES).setParameter(1, series.getPk()).executeUpdate();
-                    }
-                    if(study != inst.getSeries().getStudy()) {
-                        study = inst.getSeries().getStudy();
-                        em.createNamedQuery(StudyQueryAttributes.CLEAN_FOR_STUDY).setParameter(1, study.getPk()).executeUpdate();
-                    }
-                    toBeDeleted.addAll(detachReferences(inst));
-                    em.remove(inst);
-                    LOG.info("Removing {} and Scheduling delete for associated file references", inst);
-                }
+                if (isRejected(inst))
+                    rejected.add(inst);
+            }
+            new QueryAttributesUpdater(device.getDeviceExtension(ArchiveDeviceExtension.class))
+                .removeInstances(rejected);
+            for (Instance inst : rejected) {
+                toBeDeleted.addAll(detachReferences(inst));
+                em.remove(inst);
+                LOG.info("Removing {} and Scheduling delete for associated file references", inst);
             }
 
             return toBeDeleted;
@@ -141,4 +144,88 @@ public class RejectionServiceDeleteEJB implements RejectionServiceDeleteBean {
             return Collections.emptyList();
         }
     }
+
+    @Override
+    public RejectedObjectsBatch deleteRejected(Code rejectionNote,
+            Timestamp deadline, long afterPk, int maxResults) {
+        List<Object[]> rows = em.createQuery(
+                "SELECT i.pk, i.attributesBlob.pk, se.pk, se.study.pk "
+                + "FROM Instance i JOIN i.series se "
+                + "WHERE i.rejectionNoteCode = ?1 AND i.updatedTime < ?2 AND i.pk > ?3 "
+                + "ORDER BY i.pk", Object[].class)
+                .setParameter(1, rejectionNote)
+                .setParameter(2, deadline)
+                .setParameter(3, afterPk)
+                .setMaxResults(maxResults)
+                .getResultList();
+        if (rows.isEmpty())
+            return new RejectedObjectsBatch(afterPk, 0, Collections.<Long>emptyList());
+
+        List<Long> instPks = new ArrayList<Long>(rows.size());
+        List<Long> blobPks = new ArrayList<Long>(rows.size());
+        Set<Long> seriesPks = new HashSet<Long>();
+        Set<Long> studyPks = new HashSet<Long>();
+        for (Object[] row : rows) {
+            instPks.add((Long) row[0]);
+            blobPks.add((Long) row[1]);
+            seriesPks.add((Long) row[2]);
+            studyPks.add((Long) row[3]);
+        }
+
+        // update the derived fields of the affected series and studies
+        // incrementally, as for the deletion of single instances
+        new QueryAttributesUpdater(device.getDeviceExtension(ArchiveDeviceExtension.class))
+            .removeInstances(em.createQuery(
+                "SELECT i FROM Instance i JOIN FETCH i.series se JOIN FETCH se.study "
+                + "WHERE i.pk IN (:pks)", Instance.class)
+                .setParameter("pks", instPks)
+                .getResultList());
+
+        // removed as entities to cascade the deletion to their names
+        for (VerifyingObserver observer : em.createQuery(
+                "SELECT vo FROM VerifyingObserver vo WHERE vo.instance.pk IN (:pks)",
+                VerifyingObserver.class)
+                .setParameter("pks", instPks)
+                .getResultList())
+            em.remove(observer);
+        em.flush();
+
+        List<Long> locationPks = em.createQuery(
+                "SELECT DISTINCT l.pk FROM Location l JOIN l.instances i WHERE i.pk IN (:pks)",
+                Long.class)
+                .setParameter("pks", instPks)
+                .getResultList();
+        bulkUpdate("DELETE FROM ContentItem c WHERE c.instance.pk IN (:pks)", instPks);
+        bulkUpdate("DELETE FROM ExternalRetrieveLocation l WHERE l.instance.pk IN (:pks)", instPks);
+        em.createNativeQuery("DELETE FROM rel_instance_location WHERE instance_fk IN (:pks)")
+                .setParameter("pks", instPks)
+                .executeUpdate();
+        bulkUpdate("DELETE FROM Instance i WHERE i.pk IN (:pks)", instPks);
+        bulkUpdate("DELETE FROM AttributesBlob b WHERE b.pk IN (:pks)", blobPks);
+        // increase the versions, as Instance.onPreRemove() does for single deletions
+        Date now = new Date();
+        em.createQuery("UPDATE VERSIONED Series se SET se.updatedTime = :now WHERE se.pk IN (:pks)")
+                .setParameter("now", now)
+                .setParameter("pks", seriesPks)
+                .executeUpdate();
+        em.createQuery("UPDATE VERSIONED Study st SET st.updatedTime = :now WHERE st.pk IN (:pks)")
+                .setParameter("now", now)
+                .setParameter("pks", studyPks)
+                .executeUpdate();
+
+        if (!locationPks.isEmpty())
+            locationPks = em.createQuery(
+                    "SELECT l.pk FROM Location l WHERE l.pk IN (:pks) AND l.instances IS EMPTY",
+                    Long.class)
+                    .setParameter("pks", locationPks)
+                    .getResultList();
+        LOG.info("Removed {} rejected instances of {} series - {} locations to delete",
+                instPks.size(), seriesPks.size(), locationPks.size());
+        return new RejectedObjectsBatch(instPks.get(instPks.size() - 1),
+                instPks.size(), locationPks);
+    }
+
+    private int bulkUpdate(String jpql, Collection<Long> pks) {
+        return em.createQuery(jpql).setParameter("pks", pks).executeUpdate();
+    }
 }
\ No newline at end of file
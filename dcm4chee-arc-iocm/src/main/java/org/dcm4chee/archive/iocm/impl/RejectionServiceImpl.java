@@ -38,14 +38,21 @@
 
 package org.dcm4chee.archive.iocm.impl;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
 
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.entity.Code;
 import org.dcm4chee.archive.entity.Instance;
-import org.dcm4chee.archive.entity.Series;
-import org.dcm4chee.archive.entity.Study;
+import org.dcm4chee.archive.entity.QueryAttributesUpdater;
+import org.dcm4chee.archive.event.InstancesInvalidatedEvent;
 import org.dcm4chee.archive.iocm.InstanceAlreadyRejectedException;
 import org.dcm4chee.archive.iocm.RejectionService;
 
@@ -60,42 +67,57 @@ public class RejectionServiceImpl implements RejectionService {
 
     private static Logger LOG = LoggerFactory.getLogger(RejectionServiceImpl.class);
 
+    @Inject
+    private Device device;
+
+    @Inject
+    private Event<InstancesInvalidatedEvent> instancesInvalidated;
+
     @Override
     public int reject(Object source, Collection<Instance> instances,
             Code rejectionCode, org.dcm4che3.data.Code[] prevRejectionCodes) {
-        int count = 0;
-        for (Instance inst : instances) {
-            Code prevRejectionCode = inst.getRejectionNoteCode();
-            if (rejectionCode.equals(prevRejectionCode))
-                continue;
-
-            if (!canOverwritePrevRejectionCode(prevRejectionCode, prevRejectionCodes))
-                throw new InstanceAlreadyRejectedException(inst);
-
-            LOG.debug("{}: Apply rejection {} to {}", source, rejectionCode, inst);
-            updateInstance(inst, rejectionCode);
-            count++;
+        Map<Instance, Code> updated = new LinkedHashMap<Instance, Code>();
+        try {
+            for (Instance inst : instances) {
+                Code prevRejectionCode = inst.getRejectionNoteCode();
+                if (rejectionCode.equals(prevRejectionCode))
+                    continue;
+
+                if (!canOverwritePrevRejectionCode(prevRejectionCode, prevRejectionCodes))
+                    throw new InstanceAlreadyRejectedException(inst);
+
+                LOG.debug("{}: Apply rejection {} to {}", source, rejectionCode, inst);
+                inst.setRejectionNoteCode(rejectionCode);
+                updated.put(inst, prevRejectionCode);
+            }
+        } finally {
+            updateQueryAttributes(updated);
+            fireInstancesInvalidated(updated.keySet());
         }
-        return count;
+        return updated.size();
     }
 
     @Override
     public int restore(Object source, Collection<Instance> instances,
             org.dcm4che3.data.Code[] prevRejectionCodes) {
-        int count = 0;
-        for (Instance inst : instances) {
-            Code prevRejectionCode = inst.getRejectionNoteCode();
-            if (prevRejectionCode == null)
-                continue;
-
-            if (!canOverwritePrevRejectionCode(prevRejectionCode, prevRejectionCodes))
-                throw new InstanceAlreadyRejectedException(inst);
-
-            LOG.debug("{}: Revoke rejection {} of {}", source, prevRejectionCode, inst);
-            updateInstance(inst, null);
-            count++;
+        Map<Instance, Code> updated = new LinkedHashMap<Instance, Code>();
+        try {
+            for (Instance inst : instances) {
+                Code prevRejectionCode = inst.getRejectionNoteCode();
+                if (prevRejectionCode == null)
+                    continue;
+
+                if (!canOverwritePrevRejectionCode(prevRejectionCode, prevRejectionCodes))
+                    throw new InstanceAlreadyRejectedException(inst);
+
+                LOG.debug("{}: Revoke rejection {} of {}", source, prevRejectionCode, inst);
+                inst.setRejectionNoteCode(null);
+                updated.put(inst, prevRejectionCode);
+            }
+        } finally {
+            updateQueryAttributes(updated);
         }
-        return count;
+        return updated.size();
     }
 
     
@@ -112,12 +134,20 @@ public class RejectionServiceImpl implements RejectionService {
         return false;
     }
 
-    private void updateInstance(Instance inst, Code rejectionCode) {
-        inst.setRejectionNoteCode(rejectionCode);
-        Series series = inst.getSeries();
-        Study study = series.getStudy();
-        series.clearQueryAttributes();
-        study.clearQueryAttributes();
+    private void fireInstancesInvalidated(Collection<Instance> insts) {
+        if (insts.isEmpty())
+            return;
+
+        Collection<String> iuids = new ArrayList<String>(insts.size());
+        for (Instance inst : insts)
+            iuids.add(inst.getSopInstanceUID());
+        instancesInvalidated.fire(new InstancesInvalidatedEvent(iuids));
     }
-    
+
+    private void updateQueryAttributes(Map<Instance, Code> prevRejectionCodes) {
+        if (!prevRejectionCodes.isEmpty())
+            new QueryAttributesUpdater(device.getDeviceExtension(ArchiveDeviceExtension.class))
+                .rejectionCodeChanged(prevRejectionCodes);
+    }
+
 }
@@ -38,6 +38,10 @@
 
 package org.dcm4chee.archive.issuer.impl;
 
+import java.sql.SQLException;
+
+import javax.ejb.EJB;
+import javax.ejb.EJBException;
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -46,6 +50,8 @@ import javax.persistence.TypedQuery;
 
 import org.dcm4chee.archive.entity.Issuer;
 import org.dcm4chee.archive.issuer.IssuerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -54,20 +60,36 @@ import org.dcm4chee.archive.issuer.IssuerService;
 @Stateless
 public class IssuerServiceEJB implements IssuerService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(IssuerServiceEJB.class);
+
     @PersistenceContext(name = "dcm4chee-arc", unitName="dcm4chee-arc")
     private EntityManager em;
 
+    @EJB
+    private IssuerCreatorEJB creator;
+
     @Override
     public Issuer findOrCreate(Issuer issuer) {
         try {
-            return find(issuer);
+            return find(em, issuer);
         } catch (NoResultException e) {
-            em.persist(issuer);
-            return issuer;
+            long pk;
+            try {
+                pk = creator.create(issuer);
+            } catch (EJBException e2) {
+                if (!isConstraintViolation(e2))
+                    throw e2;
+                // created by concurrent transaction in the meantime
+                LOG.info("Failed to create {} - retry find", issuer, e2);
+                pk = creator.find(issuer);
+            }
+            // the new row may not be visible to the caller's transaction
+            Issuer created = em.find(Issuer.class, pk);
+            return created != null ? created : em.getReference(Issuer.class, pk);
         }
     }
 
-    private Issuer find(Issuer issuer) {
+    static Issuer find(EntityManager em, Issuer issuer) {
         String entityID = issuer.getLocalNamespaceEntityID();
         String entityUID = issuer.getUniversalEntityID();
         String entityUIDType = issuer.getUniversalEntityIDType();
@@ -88,4 +110,15 @@ public class IssuerServiceEJB implements IssuerService {
         return query.getSingleResult();
     }
 
+    private static boolean isConstraintViolation(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause())
+            if (cause instanceof SQLException) {
+                // SQL state class 23: integrity constraint violation
+                String sqlState = ((SQLException) cause).getSQLState();
+                if (sqlState != null && sqlState.startsWith("23"))
+                    return true;
+            }
+        return false;
+    }
+
 }
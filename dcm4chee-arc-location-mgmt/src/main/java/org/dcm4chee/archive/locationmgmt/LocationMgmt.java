@@ -44,6 +44,7 @@ import java.util.List;
 import javax.jms.JMSException;
 import javax.persistence.NoResultException;
 
+import org.dcm4chee.archive.entity.FrameIndex;
 import org.dcm4chee.archive.entity.Instance;
 import org.dcm4chee.archive.entity.Location;
 import org.dcm4chee.archive.entity.Study;
@@ -69,6 +70,16 @@ public interface LocationMgmt {
 
     Location getLocation(Long pk);
 
+    /**
+     * Returns the frame index of the file at {@code storagePath} on the
+     * storage system, or {@code null} if it was not yet created.
+     */
+    FrameIndex getFrameIndex(String groupID, String systemID,
+            String storagePath);
+
+    void updateFrameIndex(String groupID, String systemID,
+            String storagePath, FrameIndex frameIndex);
+
     void findOrCreateStudyOnStorageGroup(Study study, String groupID);
 
     void findOrCreateStudyOnStorageGroup(String studyUID,
@@ -78,6 +89,14 @@ public interface LocationMgmt {
             String studyRetentionUnit, String groupID, String studyInstanceUID,
             String seriesInstanceUID);
 
+    /**
+     * Returns up to {@code maxResults} studies on the group which are due for
+     * deletion, ordered by access time, following the study {@code after}.
+     */
+    List<StudyDueDelete> findStudiesDueDelete(int studyRetention,
+            String studyRetentionUnit, String groupID, StudyDueDelete after,
+            int maxResults);
+
     long calculateDataVolumePerDayInBytes(String groupID, 
             int dvdAverageOnNDays);
 
@@ -370,21 +370,24 @@ public class LocationDeleteServiceImpl implements DeleterService {
             int minTimeToKeepStudy = rule.getMinTimeStudyNotAccessed();
             String minTimeToKeppStudyUnit = rule
                     .getMinTimeStudyNotAccessedUnit();
-            List<Instance> allInstancesDueDeleteOnGroup =
-                    locationManager.findInstancesDueDelete(minTimeToKeepStudy
-                            , minTimeToKeppStudyUnit, rule.getStorageSystemGroupID(), null, null);
-
-            Map<String, List<Instance>> mapInstancesFoundOnGroupToStudy =
-                    getInstancesOnGroupPerStudyMap(allInstancesDueDeleteOnGroup, rule);
-            for (String studyUID : mapInstancesFoundOnGroupToStudy
-                    .keySet()) {
+            StudiesDueDeleteIterator studiesDueDelete = new StudiesDueDeleteIterator(
+                    locationManager, minTimeToKeepStudy, minTimeToKeppStudyUnit,
+                    rule.getStorageSystemGroupID(), deleteServiceFetchSize());
+            while (studiesDueDelete.hasNext()) {
                 if (!rule.isDeleteAsMuchAsPossible()
                         && !needsFreeSpace(rule.getStorageSystemGroupID(), calculateExpectedDataVolumePerDay(rule)))
                     break;
+                String studyUID = studiesDueDelete.next().getStudyInstanceUID();
+                if (activeProcessingService.isStudyUnderProcessingByServices(studyUID, ACTIVE_ARCHIVE_OR_DELETER_SERVICES))
+                    continue;
+                List<Instance> instancesDueDeleteOnGroup = getInstancesOnGroup(
+                        locationManager.findInstancesDueDelete(minTimeToKeepStudy,
+                                minTimeToKeppStudyUnit, rule.getStorageSystemGroupID(), studyUID, null),
+                        rule);
                 markCorrespondingStudyAndScheduleForDeletion(
                         studyUID,
                         rule,
-                        filterCopiesExist(mapInstancesFoundOnGroupToStudy.get(studyUID), rule));
+                        filterCopiesExist(instancesDueDeleteOnGroup, rule));
             }
             handleFailedToDeleteLocations(rule.getStorageSystemGroupID());
         }
@@ -509,40 +512,16 @@ public class LocationDeleteServiceImpl implements DeleterService {
                 && system.getAvailability() != Availability.UNAVAILABLE;
     }
 
-    private Map<String,List<Instance>> getInstancesOnGroupPerStudyMap(
-            List<Instance> allInstancesDueDelete
-            , DeletionRule rule) {
-
-        Map<String,List<Instance>> instancesOnGroupPerStudyMap = new HashMap<String, List<Instance>>();
-        
-        if(allInstancesDueDelete == null)
-            return instancesOnGroupPerStudyMap;
-        
-        for(Instance inst : allInstancesDueDelete) {
-            
-            String studyUID = inst.getSeries().getStudy().getStudyInstanceUID();
-            if(!instancesOnGroupPerStudyMap.containsKey(studyUID))
-                instancesOnGroupPerStudyMap.put(studyUID, new ArrayList<Instance>());
-            for(Location loc : inst.getLocations()) {
-                if(loc.getStorageSystemGroupID().compareTo(rule.getStorageSystemGroupID()) == 0)
-                    instancesOnGroupPerStudyMap.get(studyUID).add(inst);
-            }
-        }
-        return removePendingArchivingOrDeletion(instancesOnGroupPerStudyMap);
-    }
-
-    private Map<String, List<Instance>> removePendingArchivingOrDeletion(
-            Map<String, List<Instance>> instancesOnGroupPerStudyMap) {
-        Map<String, List<Instance>> adjustedInstancesOnGroupPerStudyMap = 
-                new HashMap<String, List<Instance>>();
-        for(String studyUID : instancesOnGroupPerStudyMap.keySet()) {
-            if (!activeProcessingService.isStudyUnderProcessingByServices(studyUID, ACTIVE_ARCHIVE_OR_DELETER_SERVICES)) {
-                adjustedInstancesOnGroupPerStudyMap.put(studyUID, 
-                        instancesOnGroupPerStudyMap.get(studyUID));
+    private List<Instance> getInstancesOnGroup(List<Instance> instancesDueDelete,
+            DeletionRule rule) {
+        Set<Instance> instancesOnGroup = new LinkedHashSet<Instance>();
+        for (Instance inst : instancesDueDelete) {
+            for (Location loc : inst.getLocations()) {
+                if (loc.getStorageSystemGroupID().compareTo(rule.getStorageSystemGroupID()) == 0)
+                    instancesOnGroup.add(inst);
             }
         }
-        
-        return adjustedInstancesOnGroupPerStudyMap;
+        return new ArrayList<Instance>(instancesOnGroup);
     }
 
     private List<Instance> removePendingArchivingOrDeletion(String studyIUID, List<Instance>instancesOnGroup) {
@@ -751,6 +730,12 @@ public class LocationDeleteServiceImpl implements DeleterService {
             return value;
     }
 
+    private int deleteServiceFetchSize() {
+        ArchiveDeviceExtension arcExt = device
+                .getDeviceExtension(ArchiveDeviceExtension.class);
+        return Math.max(1, arcExt.getDeleteServiceFetchSize());
+    }
+
     private String deleteServiceAllowedInterval() {
         ArchiveDeviceExtension arcExt = device
                 .getDeviceExtension(ArchiveDeviceExtension.class);
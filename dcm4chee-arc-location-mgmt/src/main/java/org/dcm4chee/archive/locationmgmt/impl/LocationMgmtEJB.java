@@ -48,6 +48,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -61,6 +62,7 @@ import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 import javax.ejb.TransactionManagement;
 import javax.ejb.TransactionManagementType;
+import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.jms.*;
 import javax.persistence.EntityManager;
@@ -74,7 +76,9 @@ import com.mysema.query.jpa.impl.JPAQuery;
 import org.dcm4che3.net.Device;
 import org.dcm4chee.archive.dto.ActiveService;
 import org.dcm4chee.archive.entity.*;
+import org.dcm4chee.archive.event.InstancesInvalidatedEvent;
 import org.dcm4chee.archive.locationmgmt.LocationMgmt;
+import org.dcm4chee.archive.locationmgmt.StudyDueDelete;
 import org.dcm4chee.archive.processing.ActiveProcessingService;
 import org.dcm4chee.storage.ObjectNotFoundException;
 import org.dcm4chee.storage.StorageContext;
@@ -125,6 +129,9 @@ public class LocationMgmtEJB implements LocationMgmt {
     @Inject
     private ActiveProcessingService activeProcessingService;
 
+    @Inject
+    private Event<InstancesInvalidatedEvent> instancesInvalidated;
+
     @Inject
     private javax.enterprise.inject.Instance<StorageSystemProvider> storageSystemProviders;
 
@@ -287,6 +294,38 @@ public class LocationMgmtEJB implements LocationMgmt {
         return em.merge(l);
     }
 
+    @Override
+    public FrameIndex getFrameIndex(String groupID, String systemID,
+            String storagePath) {
+        for (Long pk : findPksByStoragePath(groupID, systemID, storagePath)) {
+            LocationFrameIndex frameIndex = em.find(LocationFrameIndex.class, pk);
+            if (frameIndex != null)
+                return frameIndex.getFrameIndex();
+        }
+        return null;
+    }
+
+    @Override
+    public void updateFrameIndex(String groupID, String systemID,
+            String storagePath, FrameIndex frameIndex) {
+        for (Long pk : findPksByStoragePath(groupID, systemID, storagePath)) {
+            LocationFrameIndex locationFrameIndex =
+                    em.find(LocationFrameIndex.class, pk);
+            if (locationFrameIndex != null)
+                locationFrameIndex.setFrameIndex(frameIndex);
+        }
+    }
+
+    private List<Long> findPksByStoragePath(String groupID, String systemID,
+            String storagePath) {
+        return em.createNamedQuery(Location.FIND_PK_BY_STORAGE_PATH,
+                Long.class)
+                .setParameter(1, groupID)
+                .setParameter(2, systemID)
+                .setParameter(3, storagePath)
+                .getResultList();
+    }
+
 
     @Override
     public void findOrCreateStudyOnStorageGroup(String studyUID, String groupID) {
@@ -372,13 +411,42 @@ public class LocationMgmtEJB implements LocationMgmt {
         
         query.orderBy(QStudyOnStorageSystemGroup.studyOnStorageSystemGroup.accessTime.asc());
         List<Tuple> tuples = query.list(QInstance.instance, QStudyOnStorageSystemGroup.studyOnStorageSystemGroup);
-        List<Instance> locationsToDelete = new ArrayList<>();
+        Set<Instance> locationsToDelete = new LinkedHashSet<>();
         for(Tuple tuple: tuples) {
-            tuple.get(QInstance.instance).getExternalRetrieveLocations().size();
-            if(!locationsToDelete.contains(tuple.get(QInstance.instance)))
-            locationsToDelete.add(tuple.get(QInstance.instance));
+            if (locationsToDelete.add(tuple.get(QInstance.instance)))
+                tuple.get(QInstance.instance).getExternalRetrieveLocations().size();
         }
-        return locationsToDelete;
+        return new ArrayList<>(locationsToDelete);
+    }
+
+    @Override
+    public List<StudyDueDelete> findStudiesDueDelete(int studyRetention,
+            String studyRetentionUnit, String groupID, StudyDueDelete after,
+            int maxResults) {
+        Timestamp studyDueDate = new Timestamp(getStudyDueDate(studyRetention, studyRetentionUnit).getTimeInMillis());
+        QStudyOnStorageSystemGroup studyOnGroup = QStudyOnStorageSystemGroup.studyOnStorageSystemGroup;
+
+        JPAQuery query = new JPAQuery(em).from(studyOnGroup)
+                .where(studyOnGroup.markedForDeletion.isFalse())
+                .where(studyOnGroup.accessTime.before(studyDueDate))
+                .where(studyOnGroup.storageSystemGroupID.eq(groupID));
+        if (after != null)
+            query.where(studyOnGroup.accessTime.after(after.getAccessTime())
+                    .or(studyOnGroup.accessTime.eq(after.getAccessTime())
+                            .and(studyOnGroup.pk.gt(after.getPk()))));
+
+        List<Tuple> tuples = query
+                .orderBy(studyOnGroup.accessTime.asc(), studyOnGroup.pk.asc())
+                .limit(maxResults)
+                .list(studyOnGroup.pk, studyOnGroup.accessTime,
+                        studyOnGroup.study.studyInstanceUID);
+        List<StudyDueDelete> studies = new ArrayList<StudyDueDelete>(tuples.size());
+        for (Tuple tuple : tuples)
+            studies.add(new StudyDueDelete(
+                    tuple.get(studyOnGroup.pk),
+                    tuple.get(studyOnGroup.accessTime),
+                    tuple.get(studyOnGroup.study.studyInstanceUID)));
+        return studies;
     }
 
     @SuppressWarnings("unchecked")
@@ -459,7 +527,12 @@ public class LocationMgmtEJB implements LocationMgmt {
     private boolean removeDeadFileRef(Location ref) {
 
         try {
+            Collection<String> iuids = new ArrayList<String>();
+            for (Instance inst : ref.getInstances())
+                iuids.add(inst.getSopInstanceUID());
             em.remove(ref);
+            if (!iuids.isEmpty())
+                instancesInvalidated.fire(new InstancesInvalidatedEvent(iuids));
             return true;
         } catch (Exception e) {
             LOG.error("Failed to remove File Ref {} - reason {}", ref.toString(), e);
@@ -527,6 +600,7 @@ public class LocationMgmtEJB implements LocationMgmt {
         query.setParameter("pks", refPks);
         List<Location> refs = query.getResultList();
         Collection<Long> filteredLocations = new ArrayList<Long>();
+        Collection<String> detachedIUIDs = new ArrayList<String>();
         for (Iterator<Location> iterLoc = refs.iterator(); iterLoc.hasNext(); ) {
             Location loc = iterLoc.next();
             for (Iterator<Instance> iterInst = loc.getInstances().iterator(); iterInst.hasNext(); ) {
@@ -536,6 +610,7 @@ public class LocationMgmtEJB implements LocationMgmt {
                     //or loc is tied to many and won't be deleted then is kept
                     iterInst.remove();
                     inst.getLocations().remove(loc);
+                    detachedIUIDs.add(inst.getSopInstanceUID());
                     //remove active process
                     activeProcessingService.deleteActiveProcessBySOPInstanceUIDandService(inst.getSopInstanceUID(), ActiveService.DELETER_SERVICE);
                     //unset marked for deletion to compensate for other instances to be deleted when the current delete fails
@@ -554,6 +629,8 @@ public class LocationMgmtEJB implements LocationMgmt {
                 filteredLocations.add(loc.getPk());
         }
         em.flush();
+        if (!detachedIUIDs.isEmpty())
+            instancesInvalidated.fire(new InstancesInvalidatedEvent(detachedIUIDs));
         
         return filteredLocations;
     }
@@ -0,0 +1,104 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.locationmgmt.impl;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.dcm4chee.archive.locationmgmt.LocationMgmt;
+import org.dcm4chee.archive.locationmgmt.StudyDueDelete;
+
+/**
+ * Iterates over the studies on a storage system group which are due for
+ * deletion, in order of their access time. The studies are fetched in pages
+ * of limited size, each page following the last study of the previous page,
+ * so the iteration is not affected by studies which were deleted or accessed
+ * meanwhile.
+ *
+ * @author agent <agent@local>
+ */
+class StudiesDueDeleteIterator implements Iterator<StudyDueDelete> {
+
+    private final LocationMgmt locationManager;
+    private final int studyRetention;
+    private final String studyRetentionUnit;
+    private final String groupID;
+    private final int pageSize;
+    private Iterator<StudyDueDelete> page;
+    private StudyDueDelete last;
+    private boolean lastPage;
+
+    StudiesDueDeleteIterator(LocationMgmt locationManager, int studyRetention,
+            String studyRetentionUnit, String groupID, int pageSize) {
+        this.locationManager = locationManager;
+        this.studyRetention = studyRetention;
+        this.studyRetentionUnit = studyRetentionUnit;
+        this.groupID = groupID;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (page != null && page.hasNext())
+            return true;
+
+        if (lastPage)
+            return false;
+
+        List<StudyDueDelete> studies = locationManager.findStudiesDueDelete(
+                studyRetention, studyRetentionUnit, groupID, last, pageSize);
+        lastPage = studies.size() < pageSize;
+        page = studies.iterator();
+        return page.hasNext();
+    }
+
+    @Override
+    public StudyDueDelete next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        return last = page.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
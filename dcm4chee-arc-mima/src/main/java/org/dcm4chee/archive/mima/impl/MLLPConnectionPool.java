@@ -0,0 +1,151 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.mima.impl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.dcm4che3.hl7.MLLPConnection;
+import org.dcm4che3.net.Connection;
+
+/**
+ * Keeps up to a maximal number of idle MLLP connections per remote HL7
+ * application for reuse. Idle connections are closed after the Idle Timeout
+ * of their local network connection, on the next borrow or by
+ * {@link #closeExpired()}.
+ *
+ * @author agent <agent@local>
+ */
+class MLLPConnectionPool {
+
+    private final Map<String, Deque<IdleConnection>> idleConnections =
+            new HashMap<String, Deque<IdleConnection>>();
+
+    /**
+     * Returns the most recently released idle connection to the specified
+     * remote HL7 application, or {@code null} if there is none.
+     */
+    public synchronized MLLPConnection borrow(String remoteApp) {
+        Deque<IdleConnection> deque = idleConnections.get(remoteApp);
+        if (deque == null)
+            return null;
+
+        closeExpired(deque, System.currentTimeMillis());
+        IdleConnection idle = deque.pollFirst();
+        return idle != null ? idle.mllpConn : null;
+    }
+
+    /**
+     * Keeps the connection for reuse, closing the least recently released
+     * idle connections to the remote HL7 application exceeding
+     * {@code maxIdle}.
+     */
+    public synchronized void release(String remoteApp, Connection conn,
+            MLLPConnection mllpConn, int maxIdle) {
+        Deque<IdleConnection> deque = idleConnections.get(remoteApp);
+        if (deque == null)
+            idleConnections.put(remoteApp, deque = new ArrayDeque<IdleConnection>());
+        deque.addFirst(new IdleConnection(conn, mllpConn));
+        while (deque.size() > maxIdle)
+            deque.pollLast().close();
+    }
+
+    /**
+     * Closes idle connections which exceeded their Idle Timeout or were
+     * closed by the remote HL7 application.
+     *
+     * @return number of closed connections
+     */
+    public synchronized int closeExpired() {
+        int count = 0;
+        long now = System.currentTimeMillis();
+        for (Iterator<Deque<IdleConnection>> iter =
+                idleConnections.values().iterator(); iter.hasNext();) {
+            Deque<IdleConnection> deque = iter.next();
+            count += closeExpired(deque, now);
+            if (deque.isEmpty())
+                iter.remove();
+        }
+        return count;
+    }
+
+    public synchronized void closeAll() {
+        for (Deque<IdleConnection> deque : idleConnections.values())
+            for (IdleConnection idle : deque)
+                idle.close();
+        idleConnections.clear();
+    }
+
+    private static int closeExpired(Deque<IdleConnection> deque, long now) {
+        int count = 0;
+        for (Iterator<IdleConnection> iter = deque.descendingIterator(); iter.hasNext();) {
+            IdleConnection idle = iter.next();
+            if (!idle.isExpired(now))
+                break;
+            iter.remove();
+            idle.close();
+            count++;
+        }
+        return count;
+    }
+
+    private static final class IdleConnection {
+        final Connection conn;
+        final MLLPConnection mllpConn;
+        final long expires;
+
+        IdleConnection(Connection conn, MLLPConnection mllpConn) {
+            this.conn = conn;
+            this.mllpConn = mllpConn;
+            this.expires = System.currentTimeMillis() + conn.getIdleTimeout();
+        }
+
+        boolean isExpired(long now) {
+            return now > expires || mllpConn.getSocket().isClosed();
+        }
+
+        void close() {
+            conn.close(mllpConn.getSocket());
+        }
+    }
+}
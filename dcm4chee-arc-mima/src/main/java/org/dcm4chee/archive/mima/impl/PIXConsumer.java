@@ -38,12 +38,19 @@
 
 package org.dcm4chee.archive.mima.impl;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Event;
+import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 
 import org.dcm4che3.conf.core.api.ConfigurationException;
@@ -58,8 +65,13 @@ import org.dcm4che3.net.Device;
 import org.dcm4che3.net.IncompatibleConnectionException;
 import org.dcm4che3.net.hl7.HL7Application;
 import org.dcm4che3.net.hl7.HL7DeviceExtension;
+import org.dcm4chee.archive.ArchiveServiceStarted;
+import org.dcm4chee.archive.ArchiveServiceStopped;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.dto.GenericParticipant;
+import org.dcm4chee.archive.event.StartStopReloadEvent;
+import org.dcm4chee.archive.patient.PatientMergeEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -70,6 +82,8 @@ import org.slf4j.LoggerFactory;
 public class PIXConsumer {
 
     private static Logger LOG = LoggerFactory.getLogger(PIXConsumer.class);
+
+    private static final int CLOSE_EXPIRED_CONNECTIONS_INTERVAL = 10;
     
     @Inject
     private IHL7ApplicationCache hl7ApplicationCache; 
@@ -77,51 +91,104 @@ public class PIXConsumer {
     @Inject
     private Event<PixQueryEvent> pixQueryEvent;
     
-    public IDWithIssuer[] pixQuery(ArchiveAEExtension aeExt, IDWithIssuer pid) {
+    private final PIXQueryCache cache = new PIXQueryCache();
+
+    private final MLLPConnectionPool connectionPool = new MLLPConnectionPool();
+
+    private ScheduledFuture<?> closeExpiredConnections;
+
+    public IDWithIssuer[] pixQuery(ArchiveAEExtension aeExt, final IDWithIssuer pid) {
         if (pid == null)
             return IDWithIssuer.EMPTY;
 
-        String pixConsumer = aeExt.getLocalPIXConsumerApplication();
-        String pixManager = aeExt.getRemotePIXManagerApplication();
+        final String pixConsumer = aeExt.getLocalPIXConsumerApplication();
+        final String pixManager = aeExt.getRemotePIXManagerApplication();
         if (pixConsumer == null || pixManager == null
                 || containsWildcard(pid.getID()) || pid.getIssuer() == null)
             return new IDWithIssuer[] { pid };
-        
-        ArrayList<IDWithIssuer> pids = new ArrayList<IDWithIssuer>();
-        pids.add(pid);
+
+        final Device dev = aeExt.getApplicationEntity().getDevice();
+        final ArchiveDeviceExtension arcDev =
+                dev.getDeviceExtension(ArchiveDeviceExtension.class);
+        int staleTimeout = arcDev.getPixQueryCacheStaleTimeout();
         try {
-            Device dev = aeExt.getApplicationEntity().getDevice();
-            HL7DeviceExtension hl7 = dev.getDeviceExtension(HL7DeviceExtension.class);
-            HL7Application pixConsumerApp = hl7.getHL7Application(pixConsumer);
-            if (pixConsumerApp == null)
-                throw new ConfigurationException(
-                        "Unknown HL7 Application: " + pixConsumer);
-            HL7Application pixManagerApp = 
-                    hl7ApplicationCache.findHL7Application(pixManager);
-            HL7Message qbp = HL7Message.makePixQuery(pid.toString());
-            HL7Segment msh = qbp.get(0);
-            msh.setSendingApplicationWithFacility(pixConsumer);
-            msh.setReceivingApplicationWithFacility(pixManagerApp.getApplicationName());
-            msh.setField(17, pixConsumerApp.getHL7DefaultCharacterSet());
-            LOG.info("Perform PIX Query for PID: {}", pid);
-            HL7Message rsp = pixQuery(pixConsumerApp, pixManagerApp, qbp, pid);
-            HL7Segment pidSeg = rsp.getSegment("PID");
-            if (pidSeg != null) {
-                String[] pidCXs = HL7Segment.split(pidSeg.getField(3, ""),
-                        pidSeg.getRepetitionSeparator());
-                if (pidCXs.length == 0)
-                    LOG.info("No other PIDs found for PID: {}", pid);
-                for (String pidCX : pidCXs) {
-                    LOG.info("Found other PID {} for PID: {}", pidCX, pid);
-                    pids.add(new IDWithIssuer(pidCX));
+            if (staleTimeout <= 0)
+                return pixQuery(new PixQuery(dev, pixConsumer, pixManager, pid),
+                        arcDev.getPixMaxIdleConnections());
+
+            return cache.query(pixManager, pid,
+                    new Callable<IDWithIssuer[]>() {
+                @Override
+                public IDWithIssuer[] call() throws Exception {
+                    return pixQuery(
+                            new PixQuery(dev, pixConsumer, pixManager, pid),
+                            arcDev.getPixMaxIdleConnections());
                 }
-            } else {
-                LOG.info("No other PIDs found for PID: {}", pid);
-            }
+            }, staleTimeout, arcDev.getPixQueryCacheMaxSize());
         } catch (Exception e) {
             LOG.info("PIX Query failed: ", e);
+            return new IDWithIssuer[] { pid };
+        }
+    }
+
+    public void onPatientMerge(@Observes PatientMergeEvent event) {
+        Set<IDWithIssuer> pids = new HashSet<IDWithIssuer>(event.getPatientIDs());
+        pids.addAll(event.getPriorPatientIDs());
+        int count = cache.invalidate(pids);
+        if (count > 0)
+            LOG.info("Removed {} cached PIX Query results on {}", count, event);
+    }
+
+    public synchronized void onArchiveServiceStarted(
+            @Observes @ArchiveServiceStarted StartStopReloadEvent start) {
+        if (closeExpiredConnections != null)
+            return;
+
+        closeExpiredConnections = start.getDevice().scheduleWithFixedDelay(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        int count = connectionPool.closeExpired();
+                        if (count > 0)
+                            LOG.debug("Closed {} idle connections to PIX Managers",
+                                    count);
+                    }
+                },
+                CLOSE_EXPIRED_CONNECTIONS_INTERVAL,
+                CLOSE_EXPIRED_CONNECTIONS_INTERVAL,
+                TimeUnit.SECONDS);
+    }
+
+    public synchronized void onArchiveServiceStopped(
+            @Observes @ArchiveServiceStopped StartStopReloadEvent stop) {
+        if (closeExpiredConnections != null) {
+            closeExpiredConnections.cancel(false);
+            closeExpiredConnections = null;
+        }
+        cache.clear();
+        connectionPool.closeAll();
+    }
+
+    private IDWithIssuer[] pixQuery(PixQuery query, int maxIdle)
+            throws Exception {
+        IDWithIssuer pid = query.pid;
+        ArrayList<IDWithIssuer> pids = new ArrayList<IDWithIssuer>();
+        pids.add(pid);
+        LOG.info("Perform PIX Query for PID: {}", pid);
+        HL7Message rsp = exchange(query, maxIdle);
+        HL7Segment pidSeg = rsp.getSegment("PID");
+        if (pidSeg != null) {
+            String[] pidCXs = HL7Segment.split(pidSeg.getField(3, ""),
+                    pidSeg.getRepetitionSeparator());
+            if (pidCXs.length == 0)
+                LOG.info("No other PIDs found for PID: {}", pid);
+            for (String pidCX : pidCXs) {
+                LOG.info("Found other PID {} for PID: {}", pidCX, pid);
+                pids.add(new IDWithIssuer(pidCX));
+            }
+        } else {
+            LOG.info("No other PIDs found for PID: {}", pid);
         }
-        
         return pids.toArray(new IDWithIssuer[pids.size()]);
     }
 
@@ -129,26 +196,101 @@ public class PIXConsumer {
         return s.indexOf('*') >= 0 || s.indexOf('?') >= 0;
     }
 
-    private HL7Message pixQuery(HL7Application pixConsumerApp,
-            HL7Application pixManagerApp, HL7Message qbp, IDWithIssuer pid)
-            throws IncompatibleConnectionException, IOException, GeneralSecurityException {
-        CompatibleConnection cc = pixConsumerApp.findCompatibelConnection(pixManagerApp);
+    private HL7Message exchange(PixQuery query, int maxIdle)
+            throws IncompatibleConnectionException, IOException,
+            GeneralSecurityException {
+        HL7Application pixConsumerApp = query.pixConsumerApp;
+        CompatibleConnection cc = query.cc;
+        HL7Message qbp = query.qbp;
         Connection conn = cc.getLocalConnection();
-        MLLPConnection mllpConn = pixConsumerApp.connect(conn, cc.getRemoteConnection());
         String charset = pixConsumerApp.getHL7DefaultCharacterSet();
+        // keep the connection open for further queries within the Idle Timeout
+        boolean reuse = conn.getIdleTimeout() > 0 && maxIdle > 0;
+        String remoteApp = query.pixManagerApp.getApplicationName();
+        MLLPConnection mllpConn = reuse ? connectionPool.borrow(remoteApp) : null;
+        boolean release = false;
         try {
-            mllpConn.writeMessage(qbp.getBytes(charset));
-            HL7Message rsp = HL7Message.parse(mllpConn.readMessage(), charset);
+            HL7Message rsp;
+            if (mllpConn != null) {
+                try {
+                    rsp = exchange(mllpConn, qbp, charset);
+                } catch (IOException e) {
+                    LOG.debug("Reused connection to {} failed - reconnect", remoteApp, e);
+                    conn.close(mllpConn.getSocket());
+                    mllpConn = null;
+                    mllpConn = pixConsumerApp.connect(conn, cc.getRemoteConnection());
+                    rsp = exchange(mllpConn, qbp, charset);
+                }
+            } else {
+                mllpConn = pixConsumerApp.connect(conn, cc.getRemoteConnection());
+                rsp = exchange(mllpConn, qbp, charset);
+            }
+            release = reuse;
             return rsp;
         } finally {
-            conn.close(mllpConn.getSocket());
+            if (mllpConn != null) {
+                if (release)
+                    connectionPool.release(remoteApp, conn, mllpConn, maxIdle);
+                else
+                    conn.close(mllpConn.getSocket());
+            }
+            fireEvent(query);
+        }
+    }
+
+    private void fireEvent(PixQuery query) {
+        HL7Segment msh = query.qbp.getSegment("MSH");
+        try {
             pixQueryEvent.fire(new PixQueryEvent(
-                    new GenericParticipant(cc.getRemoteConnection().getHostname(), 
-                            qbp.getSegment("MSH").getReceivingApplicationWithFacility()),
-                            pid, 
-                            qbp.getSegment("MSH").getField(9, ""), //message control id
-                            qbp.getBytes(charset),
-                            pixConsumerApp.getDevice()));
+                    new GenericParticipant(
+                            query.cc.getRemoteConnection().getHostname(),
+                            msh.getReceivingApplicationWithFacility()),
+                    query.pid,
+                    msh.getField(9, ""), //message control id
+                    query.qbp.getBytes(
+                            query.pixConsumerApp.getHL7DefaultCharacterSet()),
+                    query.pixConsumerApp.getDevice()));
+        } catch (Exception e) {
+            LOG.warn("Failed to audit PIX Query for PID: {}", query.pid, e);
+        }
+    }
+
+    private static HL7Message exchange(MLLPConnection mllpConn, HL7Message qbp,
+            String charset) throws IOException {
+        mllpConn.writeMessage(qbp.getBytes(charset));
+        byte[] rsp = mllpConn.readMessage();
+        if (rsp == null)
+            throw new EOFException("Connection closed by PIX Manager");
+        return HL7Message.parse(rsp, charset);
+    }
+
+    /**
+     * PIX Query for one Patient ID, only created if it is not answered from
+     * the cache.
+     */
+    private final class PixQuery {
+        final IDWithIssuer pid;
+        final HL7Application pixConsumerApp;
+        final HL7Application pixManagerApp;
+        final CompatibleConnection cc;
+        final HL7Message qbp;
+
+        PixQuery(Device dev, String pixConsumer, String pixManager,
+                IDWithIssuer pid) throws Exception {
+            HL7DeviceExtension hl7 = dev.getDeviceExtension(HL7DeviceExtension.class);
+            this.pid = pid;
+            this.pixConsumerApp = hl7.getHL7Application(pixConsumer);
+            if (pixConsumerApp == null)
+                throw new ConfigurationException(
+                        "Unknown HL7 Application: " + pixConsumer);
+            this.pixManagerApp =
+                    hl7ApplicationCache.findHL7Application(pixManager);
+            this.cc = pixConsumerApp.findCompatibelConnection(pixManagerApp);
+            this.qbp = HL7Message.makePixQuery(pid.toString());
+            HL7Segment msh = qbp.get(0);
+            msh.setSendingApplicationWithFacility(pixConsumer);
+            msh.setReceivingApplicationWithFacility(pixManagerApp.getApplicationName());
+            msh.setField(17, pixConsumerApp.getHL7DefaultCharacterSet());
         }
     }
 }
@@ -0,0 +1,159 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.mima.impl;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.dcm4che3.data.IDWithIssuer;
+
+/**
+ * Caches results of PIX Queries for a configurable period. Concurrent queries
+ * for the same Patient ID to the same PIX Manager are collapsed into one
+ * query, whose result is returned to all callers. Failed queries are not
+ * cached.
+ *
+ * @author agent <agent@local>
+ */
+class PIXQueryCache {
+
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    public IDWithIssuer[] query(String pixManager, IDWithIssuer pid,
+            Callable<IDWithIssuer[]> query, int staleTimeout, int maxSize)
+            throws Exception {
+        String key = pixManager + '|' + pid;
+        Entry entry;
+        boolean perform = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null || entry.isStale(System.currentTimeMillis())) {
+                entry = new Entry(pid, query);
+                entries.put(key, entry);
+                perform = true;
+                evict(maxSize);
+            }
+        }
+        if (perform) {
+            entry.task.run();
+            entry.staleTime = System.currentTimeMillis() + staleTimeout * 1000L;
+        }
+        try {
+            return entry.task.get().clone();
+        } catch (ExecutionException e) {
+            synchronized (this) {
+                if (entries.get(key) == entry)
+                    entries.remove(key);
+            }
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Removes cached results for or containing one of the specified
+     * Patient IDs, and results of queries still in progress.
+     *
+     * @param pids Patient IDs
+     * @return number of removed results
+     */
+    public synchronized int invalidate(Collection<IDWithIssuer> pids) {
+        int count = 0;
+        for (Iterator<Entry> iter = entries.values().iterator(); iter.hasNext();) {
+            if (iter.next().matches(pids)) {
+                iter.remove();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private void evict(int maxSize) {
+        for (Iterator<Entry> iter = entries.values().iterator();
+                entries.size() > maxSize && iter.hasNext();) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    private static boolean matches(IDWithIssuer pid, Collection<IDWithIssuer> pids) {
+        for (IDWithIssuer other : pids)
+            if (pid.matches(other))
+                return true;
+        return false;
+    }
+
+    private static final class Entry {
+        final IDWithIssuer pid;
+        final FutureTask<IDWithIssuer[]> task;
+        volatile long staleTime = Long.MAX_VALUE;
+
+        Entry(IDWithIssuer pid, Callable<IDWithIssuer[]> query) {
+            this.pid = pid;
+            this.task = new FutureTask<IDWithIssuer[]>(query);
+        }
+
+        boolean isStale(long now) {
+            return task.isDone() && now > staleTime;
+        }
+
+        boolean matches(Collection<IDWithIssuer> pids) {
+            if (PIXQueryCache.matches(pid, pids))
+                return true;
+            if (!task.isDone())
+                return true; // result may precede the invalidation
+            try {
+                for (IDWithIssuer otherPid : task.get())
+                    if (PIXQueryCache.matches(otherPid, pids))
+                        return true;
+            } catch (Exception ignore) {}
+            return false;
+        }
+    }
+}
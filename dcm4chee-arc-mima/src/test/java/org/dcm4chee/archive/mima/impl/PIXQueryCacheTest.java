@@ -0,0 +1,133 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.mima.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcm4che3.data.IDWithIssuer;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class PIXQueryCacheTest {
+
+    private static final String PIX_MANAGER = "PIXMGR|DCM4CHEE";
+
+    private final PIXQueryCache cache = new PIXQueryCache();
+    private final AtomicInteger performed = new AtomicInteger();
+
+    @Test
+    public void testStaleTimeout() throws Exception {
+        IDWithIssuer pid = pid("1");
+        assertArrayEquals(result(pid), query(pid, 1, 10));
+        assertArrayEquals(result(pid), query(pid, 1, 10));
+        assertEquals(1, performed.get());
+
+        Thread.sleep(1100);
+        assertArrayEquals(result(pid), query(pid, 1, 10));
+        assertEquals(2, performed.get());
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        query(pid("1"), 60, 2);
+        query(pid("2"), 60, 2);
+        query(pid("1"), 60, 2); // 1 is now the most recently used result
+        assertEquals(2, performed.get());
+
+        query(pid("3"), 60, 2); // evicts 2
+        query(pid("1"), 60, 2);
+        assertEquals(3, performed.get());
+
+        query(pid("2"), 60, 2);
+        assertEquals(4, performed.get());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        IDWithIssuer pid = pid("1");
+        query(pid, 60, 10);
+        assertEquals(1, cache.invalidate(
+                Collections.singleton(new IDWithIssuer("OTHER-1^^^OTHER"))));
+        query(pid, 60, 10);
+        assertEquals(2, performed.get());
+    }
+
+    @Test
+    public void testFailedQueryNotCached() throws Exception {
+        IDWithIssuer pid = pid("1");
+        try {
+            cache.query(PIX_MANAGER, pid, new Callable<IDWithIssuer[]>() {
+                @Override
+                public IDWithIssuer[] call() throws Exception {
+                    performed.incrementAndGet();
+                    throw new Exception("PIX Manager not available");
+                }
+            }, 60, 10);
+        } catch (Exception expected) {}
+        query(pid, 60, 10);
+        assertEquals(2, performed.get());
+    }
+
+    private IDWithIssuer[] query(final IDWithIssuer pid, int staleTimeout,
+            int maxSize) throws Exception {
+        return cache.query(PIX_MANAGER, pid, new Callable<IDWithIssuer[]>() {
+            @Override
+            public IDWithIssuer[] call() {
+                performed.incrementAndGet();
+                return result(pid);
+            }
+        }, staleTimeout, maxSize);
+    }
+
+    private static IDWithIssuer pid(String id) {
+        return new IDWithIssuer(id + "^^^DCM4CHEE");
+    }
+
+    private static IDWithIssuer[] result(IDWithIssuer pid) {
+        return new IDWithIssuer[] { pid,
+                new IDWithIssuer("OTHER-" + pid.getID() + "^^^OTHER") };
+    }
+}
@@ -0,0 +1,129 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.performance;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4chee.archive.entity.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the encoding and decoding of the attributes blobs of the
+ * Patient, Study, Series and Instance entities by {@link Utils}, and the
+ * merge of the attributes of the four levels.
+ *
+ * @author agent <agent@local>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttributesCodecBenchmark {
+
+    /**
+     * Specific Character Set of the Patient attributes; the other levels
+     * use ISO_IR 100, so {@code ISO_IR 192} forces the conversion to UTF-8.
+     */
+    @Param({ "ISO_IR 100", "ISO_IR 192" })
+    public String patientCharacterSet;
+
+    private Attributes instance;
+    private byte[] encoded;
+    private Attributes patient;
+    private Attributes study;
+    private Attributes series;
+    private Attributes inst;
+
+    @Setup
+    public void setup() {
+        instance = SampleData.ctImage(1, 1, 1, 0, 0);
+        encoded = Utils.encodeAttributes(instance);
+        patient = SampleData.select(instance, SampleData.PATIENT_ATTRS);
+        patient.setString(Tag.SpecificCharacterSet, VR.CS, patientCharacterSet);
+        study = SampleData.select(instance, SampleData.STUDY_ATTRS);
+        series = SampleData.select(instance, SampleData.SERIES_ATTRS);
+        inst = SampleData.select(instance, SampleData.INSTANCE_ATTRS);
+    }
+
+    @Benchmark
+    public byte[] encodeAttributes() {
+        return Utils.encodeAttributes(instance);
+    }
+
+    @Benchmark
+    public Attributes decodeAttributes() {
+        return Utils.decodeAttributes(encoded);
+    }
+
+    @Benchmark
+    public Attributes decodeAttributesInto() {
+        Attributes attrs = new Attributes();
+        Utils.decodeAttributes(attrs, encoded);
+        return attrs;
+    }
+
+    /**
+     * {@link Utils#mergeAndNormalize} may convert its arguments to UTF-8, so
+     * each invocation works on copies; the copies are included in the score.
+     */
+    @Benchmark
+    public Attributes mergeAndNormalize() {
+        return Utils.mergeAndNormalize(
+                new Attributes(patient),
+                new Attributes(study),
+                new Attributes(series),
+                new Attributes(inst));
+    }
+}
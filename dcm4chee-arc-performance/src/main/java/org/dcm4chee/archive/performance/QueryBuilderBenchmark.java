@@ -0,0 +1,207 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.performance;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.IDWithIssuer;
+import org.dcm4che3.data.Issuer;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.soundex.ESoundex;
+import org.dcm4chee.archive.conf.AttributeFilter;
+import org.dcm4chee.archive.conf.Entity;
+import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.entity.Patient;
+import org.dcm4chee.archive.entity.QPatient;
+import org.dcm4chee.archive.entity.QStudy;
+import org.dcm4chee.archive.entity.Study;
+import org.dcm4chee.archive.query.util.QueryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mysema.query.BooleanBuilder;
+import com.mysema.query.jpa.impl.JPAQuery;
+
+/**
+ * Benchmark of the construction of the query predicates by
+ * {@link QueryBuilder}, and of a Study level query executed against an
+ * embedded H2 database.
+ *
+ * @author agent <agent@local>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBuilderBenchmark {
+
+    private QueryParam queryParam;
+    private IDWithIssuer[] pids;
+    private Attributes keys;
+
+    @Setup
+    public void setup() {
+        queryParam = SampleData.createQueryParam();
+        pids = new IDWithIssuer[] {
+                new IDWithIssuer("P1", new Issuer("PERFORMANCE", null, null)) };
+        keys = new Attributes();
+        keys.setString(Tag.PatientName, VR.PN, "Doe*");
+        keys.setString(Tag.PatientSex, VR.CS, "M");
+        keys.setString(Tag.StudyDate, VR.DA, "20150101-20150131");
+        keys.setString(Tag.StudyDescription, VR.LO, "CT*");
+        keys.setString(Tag.AccessionNumber, VR.SH, "A1");
+        keys.setString(Tag.Modality, VR.CS, "CT");
+        keys.setString(Tag.SeriesDescription, VR.LO, "*1mm");
+        keys.setString(Tag.BodyPartExamined, VR.CS, "CHEST");
+        keys.setString(Tag.SOPClassUID, VR.UI, "1.2.840.10008.5.1.4.1.1.2");
+        keys.setString(Tag.ContentDate, VR.DA, "20150101-");
+    }
+
+    @Benchmark
+    public BooleanBuilder studyLevelPredicates() {
+        BooleanBuilder builder = new BooleanBuilder();
+        QueryBuilder.addPatientLevelPredicates(builder, pids, keys, queryParam);
+        QueryBuilder.addStudyLevelPredicates(builder, keys, queryParam);
+        return builder;
+    }
+
+    @Benchmark
+    public BooleanBuilder instanceLevelPredicates() {
+        BooleanBuilder builder = new BooleanBuilder();
+        QueryBuilder.addPatientLevelPredicates(builder, pids, keys, queryParam);
+        QueryBuilder.addStudyLevelPredicates(builder, keys, queryParam);
+        QueryBuilder.addSeriesLevelPredicates(builder, keys, queryParam);
+        QueryBuilder.addInstanceLevelPredicates(builder, keys, queryParam);
+        return builder;
+    }
+
+    @Benchmark
+    public List<Long> queryStudies(Database db) {
+        BooleanBuilder builder = new BooleanBuilder();
+        QueryBuilder.addStudyLevelPredicates(builder, db.keys, queryParam);
+        List<Long> pks = new JPAQuery(db.em)
+                .from(QStudy.study)
+                .innerJoin(QStudy.study.patient, QPatient.patient)
+                .where(builder)
+                .limit(100)
+                .list(QStudy.study.pk);
+        db.em.clear();
+        return pks;
+    }
+
+    /**
+     * In-memory H2 database with {@link #studies} studies, one per day
+     * starting at 2015-01-01, so the Study Date range of {@link #keys}
+     * matches 31 of them.
+     */
+    @State(Scope.Benchmark)
+    public static class Database {
+
+        @Param({ "1000" })
+        public int studies;
+
+        EntityManagerFactory emf;
+        EntityManager em;
+        Attributes keys;
+
+        @Setup
+        public void setup() {
+            emf = Persistence.createEntityManagerFactory("dcm4chee-arc-performance");
+            em = emf.createEntityManager();
+            populate();
+            keys = new Attributes();
+            keys.setString(Tag.StudyDate, VR.DA, "20150101-20150131");
+            keys.setString(Tag.StudyDescription, VR.LO, "CT*");
+        }
+
+        private void populate() {
+            Map<Entity, AttributeFilter> filters = SampleData.createAttributeFilters();
+            ESoundex fuzzyStr = new ESoundex();
+            Calendar cal = new GregorianCalendar(2015, Calendar.JANUARY, 1);
+            em.getTransaction().begin();
+            for (int i = 1; i <= studies; i++) {
+                Attributes attrs = SampleData.ctImage(i, 1, 1, 0, 0);
+                attrs.setDate(Tag.StudyDate, VR.DA, cal.getTime());
+                cal.add(Calendar.DATE, 1);
+                Patient patient = new Patient();
+                patient.setAttributes(attrs, filters.get(Entity.Patient), fuzzyStr, null);
+                em.persist(patient);
+                Study study = new Study();
+                study.setPatient(patient);
+                study.setAttributes(attrs, filters.get(Entity.Study), fuzzyStr, null);
+                em.persist(study);
+                if (i % 100 == 0) {
+                    em.flush();
+                    em.clear();
+                }
+            }
+            em.getTransaction().commit();
+            em.clear();
+        }
+
+        @TearDown
+        public void tearDown() {
+            em.close();
+            emf.close();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.performance;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.soundex.ESoundex;
+import org.dcm4chee.archive.conf.AttributeFilter;
+import org.dcm4chee.archive.conf.Entity;
+import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.conf.QueryRetrieveView;
+
+/**
+ * Synthetic data sets and configuration shared by the benchmarks, so results
+ * of different builds are comparable.
+ *
+ * @author agent <agent@local>
+ */
+public abstract class SampleData {
+
+    public static final String UID_ROOT = "1.2.40.0.13.1.1.99.";
+
+    public static final String STORAGE_FILE_PATH_FORMAT =
+            "{now,date,yyyy/MM/dd}/{0020000D,hash}/{0020000E,hash}/{00080018,hash}";
+
+    public static final int[] PATIENT_ATTRS = {
+        Tag.SpecificCharacterSet,
+        Tag.PatientName,
+        Tag.PatientID,
+        Tag.IssuerOfPatientID,
+        Tag.PatientBirthDate,
+        Tag.PatientSex,
+        Tag.OtherPatientIDsSequence,
+        Tag.PatientComments
+    };
+
+    public static final int[] STUDY_ATTRS = {
+        Tag.SpecificCharacterSet,
+        Tag.StudyDate,
+        Tag.StudyTime,
+        Tag.AccessionNumber,
+        Tag.ReferringPhysicianName,
+        Tag.StudyDescription,
+        Tag.ProcedureCodeSequence,
+        Tag.PatientAge,
+        Tag.PatientSize,
+        Tag.PatientWeight,
+        Tag.StudyInstanceUID,
+        Tag.StudyID
+    };
+
+    public static final int[] SERIES_ATTRS = {
+        Tag.SpecificCharacterSet,
+        Tag.Modality,
+        Tag.Manufacturer,
+        Tag.InstitutionName,
+        Tag.StationName,
+        Tag.SeriesDescription,
+        Tag.InstitutionalDepartmentName,
+        Tag.PerformingPhysicianName,
+        Tag.ManufacturerModelName,
+        Tag.BodyPartExamined,
+        Tag.SeriesInstanceUID,
+        Tag.SeriesNumber,
+        Tag.Laterality,
+        Tag.PerformedProcedureStepStartDate,
+        Tag.PerformedProcedureStepStartTime,
+        Tag.RequestAttributesSequence
+    };
+
+    public static final int[] INSTANCE_ATTRS = {
+        Tag.SpecificCharacterSet,
+        Tag.ImageType,
+        Tag.SOPClassUID,
+        Tag.SOPInstanceUID,
+        Tag.ContentDate,
+        Tag.ContentTime,
+        Tag.InstanceNumber,
+        Tag.NumberOfFrames,
+        Tag.Rows,
+        Tag.Columns,
+        Tag.BitsAllocated
+    };
+
+    public static Map<Entity, AttributeFilter> createAttributeFilters() {
+        Map<Entity, AttributeFilter> filters =
+                new EnumMap<Entity, AttributeFilter>(Entity.class);
+        filters.put(Entity.Patient, new AttributeFilter(PATIENT_ATTRS));
+        filters.put(Entity.Study, new AttributeFilter(STUDY_ATTRS));
+        filters.put(Entity.Series, new AttributeFilter(SERIES_ATTRS));
+        filters.put(Entity.Instance, new AttributeFilter(INSTANCE_ATTRS));
+        return filters;
+    }
+
+    public static QueryParam createQueryParam() {
+        QueryParam queryParam = new QueryParam();
+        queryParam.setAttributeFilters(createAttributeFilters());
+        queryParam.setFuzzyStr(new ESoundex());
+        QueryRetrieveView view = new QueryRetrieveView();
+        view.setViewID("REGULAR_USE");
+        queryParam.setQueryRetrieveView(view);
+        return queryParam;
+    }
+
+    public static String studyUID(int study) {
+        return UID_ROOT + study;
+    }
+
+    public static String seriesUID(int study, int series) {
+        return UID_ROOT + study + '.' + series;
+    }
+
+    public static String sopInstanceUID(int study, int series, int inst) {
+        return UID_ROOT + study + '.' + series + '.' + inst;
+    }
+
+    /**
+     * Returns the data set of a CT image, with {@code rows} x {@code columns}
+     * 16 bit pixels, or without Pixel Data if {@code rows} is 0.
+     */
+    public static Attributes ctImage(int study, int series, int inst,
+            int rows, int columns) {
+        Attributes attrs = new Attributes(64);
+        attrs.setString(Tag.SpecificCharacterSet, VR.CS, "ISO_IR 100");
+        attrs.setString(Tag.ImageType, VR.CS, "ORIGINAL", "PRIMARY", "AXIAL");
+        attrs.setString(Tag.SOPClassUID, VR.UI, UID.CTImageStorage);
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, sopInstanceUID(study, series, inst));
+        attrs.setString(Tag.StudyDate, VR.DA, "20150612");
+        attrs.setString(Tag.ContentDate, VR.DA, "20150612");
+        attrs.setString(Tag.StudyTime, VR.TM, "101520");
+        attrs.setString(Tag.ContentTime, VR.TM, "101545.123");
+        attrs.setString(Tag.AccessionNumber, VR.SH, "A" + study);
+        attrs.setString(Tag.Modality, VR.CS, "CT");
+        attrs.setString(Tag.Manufacturer, VR.LO, "ACME");
+        attrs.setString(Tag.InstitutionName, VR.LO, "General Hospital");
+        attrs.setString(Tag.ReferringPhysicianName, VR.PN, "Referring^Ralph");
+        attrs.setString(Tag.StationName, VR.SH, "CT01");
+        attrs.setString(Tag.StudyDescription, VR.LO, "CT Thorax " + study);
+        attrs.setString(Tag.SeriesDescription, VR.LO, "Axial 1mm");
+        attrs.setString(Tag.InstitutionalDepartmentName, VR.LO, "Radiology");
+        attrs.setString(Tag.PerformingPhysicianName, VR.PN, "Performing^Paula");
+        attrs.setString(Tag.ManufacturerModelName, VR.LO, "Scanner 3000");
+        attrs.setString(Tag.PatientName, VR.PN, "Doe^John^" + study);
+        attrs.setString(Tag.PatientID, VR.LO, "P" + study);
+        attrs.setString(Tag.IssuerOfPatientID, VR.LO, "PERFORMANCE");
+        attrs.setString(Tag.PatientBirthDate, VR.DA, "19600101");
+        attrs.setString(Tag.PatientSex, VR.CS, "M");
+        attrs.setString(Tag.PatientAge, VR.AS, "055Y");
+        attrs.setString(Tag.PatientWeight, VR.DS, "80");
+        attrs.setString(Tag.BodyPartExamined, VR.CS, "CHEST");
+        attrs.setString(Tag.SliceThickness, VR.DS, "1.0");
+        attrs.setString(Tag.KVP, VR.DS, "120");
+        attrs.setString(Tag.StudyInstanceUID, VR.UI, studyUID(study));
+        attrs.setString(Tag.SeriesInstanceUID, VR.UI, seriesUID(study, series));
+        attrs.setString(Tag.StudyID, VR.SH, String.valueOf(study));
+        attrs.setInt(Tag.SeriesNumber, VR.IS, series);
+        attrs.setInt(Tag.InstanceNumber, VR.IS, inst);
+        attrs.setString(Tag.ImagePositionPatient, VR.DS, "-250", "-250", String.valueOf(inst));
+        attrs.setString(Tag.ImageOrientationPatient, VR.DS, "1", "0", "0", "0", "1", "0");
+        attrs.setString(Tag.FrameOfReferenceUID, VR.UI, UID_ROOT + study + ".0");
+        attrs.setString(Tag.PerformedProcedureStepStartDate, VR.DA, "20150612");
+        attrs.setString(Tag.PerformedProcedureStepStartTime, VR.TM, "101500");
+        Attributes request = new Attributes(3);
+        request.setString(Tag.RequestedProcedureID, VR.SH, "RP" + study);
+        request.setString(Tag.ScheduledProcedureStepID, VR.SH, "SPS" + study);
+        request.setString(Tag.AccessionNumber, VR.SH, "A" + study);
+        attrs.newSequence(Tag.RequestAttributesSequence, 1).add(request);
+        Attributes code = new Attributes(3);
+        code.setString(Tag.CodeValue, VR.SH, "CTCHEST");
+        code.setString(Tag.CodingSchemeDesignator, VR.SH, "99PERF");
+        code.setString(Tag.CodeMeaning, VR.LO, "CT Chest");
+        attrs.newSequence(Tag.ProcedureCodeSequence, 1).add(code);
+        attrs.setInt(Tag.SamplesPerPixel, VR.US, 1);
+        attrs.setString(Tag.PhotometricInterpretation, VR.CS, "MONOCHROME2");
+        attrs.setInt(Tag.Rows, VR.US, rows);
+        attrs.setInt(Tag.Columns, VR.US, columns);
+        attrs.setInt(Tag.BitsAllocated, VR.US, 16);
+        attrs.setInt(Tag.BitsStored, VR.US, 12);
+        attrs.setInt(Tag.HighBit, VR.US, 11);
+        attrs.setInt(Tag.PixelRepresentation, VR.US, 0);
+        attrs.setString(Tag.WindowCenter, VR.DS, "40");
+        attrs.setString(Tag.WindowWidth, VR.DS, "400");
+        if (rows > 0)
+            attrs.setBytes(Tag.PixelData, VR.OW, new byte[rows * columns * 2]);
+        return attrs;
+    }
+
+    /**
+     * Returns the subset of {@code attrs} selected by {@code selection}, as
+     * stored in the attributes blob of the corresponding entity.
+     */
+    public static Attributes select(Attributes attrs, int[] selection) {
+        int[] sorted = selection.clone();
+        Arrays.sort(sorted);
+        return new Attributes(attrs, sorted);
+    }
+}
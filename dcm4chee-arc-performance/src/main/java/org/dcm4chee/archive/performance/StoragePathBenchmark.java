@@ -0,0 +1,119 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.performance;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4chee.archive.store.impl.StoreServiceImpl;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.conf.StorageSystemGroup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the calculation of the path of stored objects from the
+ * Storage File Path Format of the Storage System Group, by one and by
+ * concurrent threads sharing the same format.
+ *
+ * @author agent <agent@local>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoragePathBenchmark {
+
+    private StoreServiceImpl storeService;
+    private StorageSystem storageSystem;
+    private Method calculatePath;
+
+    @State(Scope.Thread)
+    public static class ThreadData {
+
+        private static final AtomicInteger THREADS = new AtomicInteger();
+
+        Attributes attrs;
+
+        @Setup
+        public void setup() {
+            attrs = SampleData.ctImage(THREADS.incrementAndGet(), 1, 1, 0, 0);
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        storeService = new StoreServiceImpl();
+        storageSystem = new StorageSystem();
+        storageSystem.setStorageSystemID("performance");
+        StorageSystemGroup group = new StorageSystemGroup();
+        group.setGroupID("performance");
+        group.setStorageFilePathFormat(SampleData.STORAGE_FILE_PATH_FORMAT);
+        group.addStorageSystem(storageSystem);
+        calculatePath = StoreServiceImpl.class.getDeclaredMethod(
+                "calculatePath", StorageSystem.class, Attributes.class);
+        calculatePath.setAccessible(true);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object calculatePath(ThreadData data) throws Exception {
+        return calculatePath.invoke(storeService, storageSystem, data.attrs);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object calculatePathConcurrent(ThreadData data) throws Exception {
+        return calculatePath.invoke(storeService, storageSystem, data.attrs);
+    }
+}
@@ -0,0 +1,220 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.performance;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4chee.archive.store.impl.FileSpooler;
+import org.dcm4chee.archive.store.impl.MemoryOrFileSpooler;
+import org.dcm4chee.archive.store.impl.NullOutputStream;
+import org.dcm4chee.archive.store.impl.StoreContextImpl;
+import org.dcm4chee.archive.store.impl.StoreServiceImpl;
+import org.dcm4chee.archive.store.impl.StoreSessionImpl;
+import org.dcm4chee.storage.StorageContext;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.conf.StorageSystemGroup;
+import org.dcm4chee.storage.service.StorageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the spooling of received objects by {@link MemoryOrFileSpooler}
+ * and the writing of the metadata of stored objects by
+ * {@link StoreServiceImpl#storeMetaData}.
+ * <p>
+ * The services are instantiated without CDI container; the
+ * {@link StorageService} is replaced by a stub which discards the written
+ * metadata, so only the archive's own processing is measured. Spool files
+ * are written to a temporary directory.
+ *
+ * @author agent <agent@local>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoreBenchmark {
+
+    /**
+     * Rows and Columns of the received image with 16 bit pixels.
+     */
+    @Param({ "512" })
+    public int imageSize;
+
+    /**
+     * Objects larger than the cutoff length are spooled to file. With the
+     * default image size the object is spooled to file with the first value,
+     * and kept in memory with the second value.
+     */
+    @Param({ "65536", "1048576" })
+    public int spoolingCutoffLength;
+
+    private Path spoolDirectory;
+    private MemoryOrFileSpooler spooler;
+    private StoreServiceImpl storeService;
+    private StoreSessionImpl session;
+    private Attributes fmi;
+    private byte[] dataset;
+    private StoreContextImpl metadataContext;
+
+    @Setup
+    public void setup() throws Exception {
+        StorageService storageService = storageServiceStub();
+        FileSpooler fileSpooler = new FileSpooler();
+        inject(fileSpooler, "storageService", storageService);
+        spooler = new MemoryOrFileSpooler();
+        inject(spooler, "storageService", storageService);
+        inject(spooler, "fileSpooler", fileSpooler);
+        storeService = new StoreServiceImpl();
+        inject(storeService, "storageService", storageService);
+
+        StorageSystem storageSystem = new StorageSystem();
+        storageSystem.setStorageSystemID("performance");
+        storageSystem.setSpoolingCutoffLength(spoolingCutoffLength);
+        StorageSystemGroup group = new StorageSystemGroup();
+        group.setGroupID("performance");
+        group.setStorageFilePathFormat(SampleData.STORAGE_FILE_PATH_FORMAT);
+        group.addStorageSystem(storageSystem);
+
+        spoolDirectory = Files.createTempDirectory("dcm4chee-arc-performance");
+        session = new StoreSessionImpl(storeService);
+        session.setStorageSystem(storageSystem);
+        session.setSpoolStorageSystem(storageSystem);
+        session.setMetaDataStorageSystem(storageSystem);
+        session.setSpoolDirectory(spoolDirectory);
+        session.setMessageDigest(MessageDigest.getInstance("MD5"));
+
+        Attributes attrs = SampleData.ctImage(1, 1, 1, imageSize, imageSize);
+        fmi = attrs.createFileMetaInformation(UID.ExplicitVRLittleEndian);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DicomOutputStream dos = new DicomOutputStream(out,
+                UID.ExplicitVRLittleEndian)) {
+            dos.writeDataset(null, attrs);
+        }
+        dataset = out.toByteArray();
+
+        metadataContext = new StoreContextImpl(session);
+        metadataContext.setOriginalAttributes(attrs);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(spoolDirectory)) {
+            for (Path file : dir)
+                Files.delete(file);
+        }
+        Files.delete(spoolDirectory);
+    }
+
+    @Benchmark
+    public StoreContextImpl spool() throws Exception {
+        StoreContextImpl context = new StoreContextImpl(session);
+        context.setFileMetainfo(fmi);
+        context.setInputStream(new ByteArrayInputStream(dataset));
+        spooler.spool(context, true);
+        Path spoolFile = context.getSpoolingContext().getFilePath();
+        if (spoolFile != null)
+            Files.delete(spoolFile);
+        return context;
+    }
+
+    @Benchmark
+    public StorageContext storeMetaData() throws Exception {
+        return storeService.storeMetaData(metadataContext);
+    }
+
+    static void inject(Object target, String name, Object value)
+            throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private static StorageService storageServiceStub() {
+        return (StorageService) Proxy.newProxyInstance(
+                StorageService.class.getClassLoader(),
+                new Class<?>[] { StorageService.class },
+                new InvocationHandler() {
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        switch (method.getName()) {
+                        case "createStorageContext":
+                            return new StorageContext();
+                        case "openOutputStream":
+                            return new NullOutputStream();
+                        case "toString":
+                            return "StorageServiceStub";
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
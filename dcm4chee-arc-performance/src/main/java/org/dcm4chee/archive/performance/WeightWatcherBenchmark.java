@@ -0,0 +1,150 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.performance;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcm4chee.archive.conf.WeightWatcherConfiguration;
+import org.dcm4chee.archive.task.impl.WeightWatcherImpl;
+import org.dcm4chee.task.ImageProcessingTaskTypes;
+import org.dcm4chee.task.MemoryConsumingTask;
+import org.dcm4chee.task.TaskType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of {@link WeightWatcherImpl} with 8 threads
+ * executing short tasks of two task types, which compete for the managed
+ * memory and for the concurrency limit.
+ *
+ * @author agent <agent@local>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeightWatcherBenchmark {
+
+    private static final long TOTAL_SYSTEM_MEMORY = 64L << 20;
+
+    /**
+     * Total number of tasks allowed to run concurrently; 0 means no limit.
+     */
+    @Param({ "0", "4" })
+    public int totalConcurrentTasksLimit;
+
+    /**
+     * Estimated weight of each task in MB; with a managed memory of 38.4 MB,
+     * 8 MB tasks are limited to 4 concurrently running tasks.
+     */
+    @Param({ "1", "8" })
+    public int taskWeight;
+
+    /**
+     * Amount of work performed by each task, in {@link Blackhole#consumeCPU}
+     * tokens.
+     */
+    @Param({ "1000" })
+    public int taskTokens;
+
+    private WeightWatcherImpl weightWatcher;
+
+    @State(Scope.Thread)
+    public static class ThreadData {
+
+        private static final AtomicInteger THREADS = new AtomicInteger();
+
+        TaskType taskType;
+
+        @Setup
+        public void setup() {
+            taskType = (THREADS.incrementAndGet() & 1) == 0
+                    ? ImageProcessingTaskTypes.TRANSCODE_INCOMING
+                    : ImageProcessingTaskTypes.TRANSCODE_OUTGOING;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        WeightWatcherConfiguration config = new WeightWatcherConfiguration();
+        config.setTotalConcurrentTasksLimit(totalConcurrentTasksLimit);
+        config.setMemoryUsageFactor(0.6);
+        weightWatcher = new WeightWatcherImpl(config, TOTAL_SYSTEM_MEMORY);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Integer execute(final ThreadData data) throws Exception {
+        final long weight = (long) taskWeight << 20;
+        final int tokens = taskTokens;
+        return weightWatcher.execute(new MemoryConsumingTask<Integer>() {
+
+            @Override
+            public TaskType getTaskType() {
+                return data.taskType;
+            }
+
+            @Override
+            public long getEstimatedWeight() {
+                return weight;
+            }
+
+            @Override
+            public Integer call() {
+                Blackhole.consumeCPU(tokens);
+                return tokens;
+            }
+        });
+    }
+}
@@ -87,8 +87,6 @@ import org.dcm4chee.archive.entity.Issuer;
 import org.dcm4chee.archive.entity.Location;
 import org.dcm4chee.archive.entity.Patient;
 import org.dcm4chee.archive.entity.PatientID;
-import org.dcm4chee.archive.entity.SeriesQueryAttributes;
-import org.dcm4chee.archive.entity.StudyQueryAttributes;
 import org.dcm4chee.archive.entity.history.*;
 import org.dcm4chee.archive.entity.history.ActionHistory;
 import org.dcm4chee.archive.entity.history.ActionHistory.HierarchyLevel;
@@ -904,7 +902,6 @@ public class StructuralChangeServiceImpl implements StructuralChangeService
             deletedUIDs.add(new InstanceIdentifierImpl(study.getStudyInstanceUID(), series.getSeriesInstanceUID(), inst.getSopInstanceUID()));
         }
 
-        em.createNamedQuery(StudyQueryAttributes.CLEAN_FOR_STUDY).setParameter(1, study.getPk()).executeUpdate();
         LOG.info("{}:  QC info[Delete] info - Rejected series instances {} "
                 + "- scheduled for delete",qcSource, seriesInstanceUID);
         Instance rejNote = createAndStoreRejectionNote(qcRejectionCode, insts);
@@ -939,8 +936,6 @@ public class StructuralChangeServiceImpl implements StructuralChangeService
         checkIfQCPermittedForStudy(study);
         
         LOG.info("{}:  QC info[Delete] info - Rejected instance {} - scheduled for delete", qcSource, sopInstanceUID);
-        em.createNamedQuery(SeriesQueryAttributes.CLEAN_FOR_SERIES).setParameter(1, series.getPk()).executeUpdate();
-        em.createNamedQuery(StudyQueryAttributes.CLEAN_FOR_STUDY).setParameter(1, study.getPk()).executeUpdate();
         
         List<InstanceIdentifier> deletedUIDs = new ArrayList<>();
         for(Instance inst : deletedInstances) {
@@ -39,11 +39,13 @@ package org.dcm4chee.archive.qido;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import javax.inject.Inject;
 import javax.json.Json;
@@ -90,7 +92,6 @@ import org.dcm4chee.archive.query.util.QueryBuilder;
 import org.dcm4chee.archive.rs.HostAECache;
 import org.dcm4chee.archive.rs.HttpSource;
 import org.dcm4chee.archive.web.QidoRS;
-import org.jboss.resteasy.plugins.providers.multipart.MultipartRelatedOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -109,6 +110,13 @@ public class DefaultQidoRS implements QidoRS {
     private static final int STATUS_OK = 200;
     private static final int STATUS_PARTIAL_CONTENT = 206;
 
+    private static final String MULTIPART_RELATED_DICOM_XML =
+            "multipart/related;type=application/dicom+xml";
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private static final int FLUSH_INTERVAL = 100;
+
     private static final Logger LOG = LoggerFactory.getLogger(DefaultQidoRS.class);
 
     private static ElementDictionary DICT =
@@ -186,6 +194,14 @@ public class DefaultQidoRS implements QidoRS {
     @javax.ws.rs.QueryParam("limit")
     private int limit;
 
+    /**
+     * Primary key of the last match of the previous page, returned in the
+     * <code>Link</code> header of a limited response, if there are further
+     * matches. Only effective without <code>orderby</code>.
+     */
+    @javax.ws.rs.QueryParam("after")
+    private long after;
+
     @javax.ws.rs.QueryParam("includefield")
     private List<String> includefield;
 
@@ -315,42 +331,66 @@ public class DefaultQidoRS implements QidoRS {
                 includetags);
 
         Query query = QueryServiceUtils.createQuery(queryService, qrlevel, queryContext);
+        boolean streaming = false;
         try {
             query.initQuery();
             int status = STATUS_OK;
             int maxResults = arcAE.getQIDOMaxNumberOfResults();
             int offset = Math.max(this.offset, 0);
             int limit = Math.max(this.limit, 0);
+            boolean limitedByConfig = false;
             if (maxResults > 0 && (limit == 0 || limit >  maxResults)) {
-                int numResults = (int) (query.count() - offset);
-                if (numResults == 0)
-                    return Response.ok().build();
-    
-                if (numResults > maxResults) {
-                    limit = maxResults;
-                    status = STATUS_PARTIAL_CONTENT;
-                }
+                limit = maxResults;
+                limitedByConfig = true;
             }
+
+            // the next page continues after the last match of this page, in
+            // the requested order followed by the primary key
+            boolean seek = limit > 0 || after > 0;
+            if (seek)
+                query.seekAfter(after);
+            if (orderSpecifiers != null)
+                query.orderBy(orderSpecifiers);
+
             if (offset > 0)
                 query.offset(offset);
-            
+
+            // fetch one more match than returned, instead of counting all
+            // matches in advance, to detect if the result is truncated
+            boolean moreMatches = false;
             if (limit > 0)
-                query.limit(limit);
-    
-            if (orderSpecifiers != null)
-                query.orderBy(orderSpecifiers);
-    
-            query.executeQuery();
+                moreMatches = query.executeQuery(limit);
+            else
+                query.executeQuery();
             if (!query.hasMoreMatches())
                 return Response.ok().build();
-    
-            return Response.status(status).entity(
-                    output.entity(this, query, qrlevel)).build();
+
+            if (moreMatches && limitedByConfig)
+                status = STATUS_PARTIAL_CONTENT;
+
+            // matches are fetched while the entity is written, which closes
+            // the query when finished
+            Response.ResponseBuilder builder =
+                    output.response(this, query, qrlevel, status);
+            if (moreMatches && seek)
+                builder.header("Link", "<" + nextPage(query.lastPk())
+                        + ">; rel=\"next\"");
+            Response response = builder.build();
+            streaming = true;
+            return response;
         } finally {
-            query.close();
+            if (!streaming)
+                query.close();
         }
     }
 
+    private String nextPage(long lastPk) {
+        return uriInfo.getRequestUriBuilder()
+                .replaceQueryParam("offset")
+                .replaceQueryParam("after", lastPk)
+                .build().toString();
+    }
+
     /**
      * Initializes query options and parameters
      * 
@@ -444,6 +484,8 @@ public class DefaultQidoRS implements QidoRS {
 
     private static boolean isDicomAttribute(String name) {
         switch (name.charAt(0)) {
+        case 'a':
+            return !name.equals("after");
         case 'd':
             return !name.equals("datetimematching");
         case 'f':
@@ -554,78 +596,107 @@ public class DefaultQidoRS implements QidoRS {
     private enum Output {
         DICOM_XML {
             @Override
-            Object entity(DefaultQidoRS service, Query query, QueryRetrieveLevel qrlevel) {
-                return service.writeXML(query, qrlevel);
+            Response.ResponseBuilder response(DefaultQidoRS service, Query query,
+                    QueryRetrieveLevel qrlevel, int status) {
+                String boundary = UUID.randomUUID().toString();
+                return Response.status(status)
+                        .entity(service.writeXML(query, qrlevel, boundary))
+                        .type(MULTIPART_RELATED_DICOM_XML + ";boundary=" + boundary);
             }
         },
         JSON {
             @Override
-            Object entity(DefaultQidoRS service, Query query, QueryRetrieveLevel qrlevel) {
-                return service.writeJSON(query, qrlevel);
+            Response.ResponseBuilder response(DefaultQidoRS service, Query query,
+                    QueryRetrieveLevel qrlevel, int status) {
+                return Response.status(status)
+                        .entity(service.writeJSON(query, qrlevel));
             }
         };
         
-        abstract Object entity(DefaultQidoRS service, Query query, QueryRetrieveLevel qrlevel);
-    }
-
-    private Object writeXML(Query query, QueryRetrieveLevel qrlevel) {
-        MultipartRelatedOutput output = new MultipartRelatedOutput();
-        int count = 0;
-        while (query.hasMoreMatches()) {
-            Attributes tmp = query.nextMatch();
-            if (tmp == null)
-                continue;
-            final Attributes match = adjust(tmp, qrlevel, query);
-            LOG.debug("{}: Match #{}:\n{}", new Object[]{method, ++count, match});
-            output.addPart(new StreamingOutput() {
-
-                @Override
-                public void write(OutputStream out) throws IOException,
-                        WebApplicationException {
-                    try {
+        abstract Response.ResponseBuilder response(DefaultQidoRS service, Query query,
+                QueryRetrieveLevel qrlevel, int status);
+    }
+
+    /**
+     * Writes each match as one part of a multipart/related response as soon
+     * as it is fetched from the query, instead of collecting all parts first.
+     */
+    private StreamingOutput writeXML(final Query query,
+            final QueryRetrieveLevel qrlevel, final String boundary) {
+        return new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream out) throws IOException,
+                    WebApplicationException {
+                byte[] delimiter = ("--" + boundary + "\r\n"
+                        + "Content-Type: " + MediaTypes.APPLICATION_DICOM_XML
+                        + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+                int count = 0;
+                try {
+                    while (query.hasMoreMatches()) {
+                        Attributes tmp = query.nextMatch();
+                        if (tmp == null)
+                            continue;
+                        Attributes match = adjust(tmp, qrlevel, query);
+                        LOG.debug("{}: Match #{}:\n{}", new Object[]{method, ++count, match});
+                        out.write(delimiter);
                         SAXTransformer.getSAXWriter(new StreamResult(out)).write(match);
-                    } catch (Exception e) {
-                        throw new WebApplicationException(e);
+                        out.write(CRLF);
+                        if (count % FLUSH_INTERVAL == 0)
+                            out.flush();
                     }
-                }},
-                MediaTypes.APPLICATION_DICOM_XML_TYPE);
-        }
-        LOG.info("{}: {} Matches", method, count);
-        return output;
-    }
-
-    private Object writeJSON(Query query, QueryRetrieveLevel qrlevel) {
-        final ArrayList<Attributes> matches = new ArrayList<Attributes>();
-        int count = 0;
-        while (query.hasMoreMatches()) {
-            Attributes tmp = query.nextMatch();
-            if (tmp == null)
-                continue;
-            Attributes match = adjust(tmp, qrlevel, query);
-            LOG.debug("{}: Match #{}:\n{}", new Object[]{method, ++count, match});
-            matches.add(match);
-        }
-        LOG.info("{}: {} Matches", method, count);
-        StreamingOutput output = new StreamingOutput(){
+                    out.write(("--" + boundary + "--")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                } catch (IOException | WebApplicationException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new WebApplicationException(e);
+                } finally {
+                    query.close();
+                }
+                LOG.info("{}: {} Matches", method, count);
+            }
+        };
+    }
+
+    /**
+     * Writes each match to the JSON array as soon as it is fetched from the
+     * query, instead of collecting all matches first.
+     */
+    private StreamingOutput writeJSON(final Query query,
+            final QueryRetrieveLevel qrlevel) {
+        return new StreamingOutput() {
 
             @Override
             public void write(OutputStream out) throws IOException {
+                int count = 0;
                 try {
                     JsonGenerator gen = Json.createGenerator(out);
                     JSONWriter writer = new JSONWriter(gen);
                     gen.writeStartArray();
-                    for (int i = 0, n=matches.size(); i < n; i++) {
-                            Attributes match = matches.get(i);
-                            writer.write(match);
+                    while (query.hasMoreMatches()) {
+                        Attributes tmp = query.nextMatch();
+                        if (tmp == null)
+                            continue;
+                        Attributes match = adjust(tmp, qrlevel, query);
+                        LOG.debug("{}: Match #{}:\n{}", new Object[]{method, ++count, match});
+                        writer.write(match);
+                        if (count % FLUSH_INTERVAL == 0)
+                            gen.flush();
                     }
                     gen.writeEnd();
                     gen.flush();
+                } catch (WebApplicationException e) {
+                    throw e;
                 } catch (Exception e) {
                     throw new WebApplicationException(e);
+                } finally {
+                    query.close();
                 }
+                LOG.info("{}: {} Matches", method, count);
             }
         };
-        return output;
     }
 
     private Attributes adjust(Attributes match, QueryRetrieveLevel qrlevel, Query query) {
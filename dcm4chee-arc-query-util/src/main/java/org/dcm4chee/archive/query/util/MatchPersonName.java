@@ -83,11 +83,8 @@ class MatchPersonName {
          BooleanBuilder builder = new BooleanBuilder();
          if (!pn.contains(PersonName.Group.Ideographic)
                 && !pn.contains(PersonName.Group.Phonetic)) {
-             builder.or(match(
-                     qpn.familyName,
-                     qpn.givenName,
-                     qpn.middleName, 
-                     pn, PersonName.Group.Alphabetic, true, nullValue));
+             builder.or(matchIgnoreCase(qpn,
+                     pn, PersonName.Group.Alphabetic, nullValue));
              builder.or(match(
                      qpn.ideographicFamilyName,
                      qpn.ideographicGivenName,
@@ -99,11 +96,8 @@ class MatchPersonName {
                      qpn.phoneticMiddleName,
                      pn, PersonName.Group.Alphabetic, false, nullValue));
         } else {
-            builder.and(match(
-                    qpn.familyName,
-                    qpn.givenName,
-                    qpn.middleName, 
-                    pn, PersonName.Group.Alphabetic, true, nullValue));
+            builder.and(matchIgnoreCase(qpn,
+                    pn, PersonName.Group.Alphabetic, nullValue));
             builder.and(match(
                     qpn.ideographicFamilyName,
                     qpn.ideographicGivenName,
@@ -134,6 +128,21 @@ class MatchPersonName {
         return builder;
     }
 
+    private static Predicate matchIgnoreCase(QPersonName qpn,
+            PersonName pn, PersonName.Group group, String nullValue) {
+        if (!pn.contains(group))
+            return null;
+
+        BooleanBuilder builder = new BooleanBuilder();
+        builder.and(QueryBuilder.wildCard(qpn.familyName, qpn.upperFamilyName,
+                pn.get(group, PersonName.Component.FamilyName), false, nullValue));
+        builder.and(QueryBuilder.wildCard(qpn.givenName, qpn.upperGivenName,
+                pn.get(group, PersonName.Component.GivenName), false, nullValue));
+        builder.and(QueryBuilder.wildCard(qpn.middleName, qpn.upperMiddleName,
+                pn.get(group, PersonName.Component.MiddleName), false, nullValue));
+        return builder;
+    }
+
     private static Predicate fuzzyMatch(QPersonName qpn,
             PersonName pn, QueryParam param) {
         BooleanBuilder builder = new BooleanBuilder();
@@ -272,7 +272,8 @@ public class QueryBuilder {
                     QueryBuilder.referringPhysicianName,
                     keys.getString(Tag.ReferringPhysicianName, nullValue), queryParam, nullValue));
             builder.and(wildCard(QStudy.study.studyDescription,
-                    keys.getString(Tag.StudyDescription, nullValue), matchUnknown, true, nullValue));
+                    QStudy.study.upperStudyDescription,
+                    keys.getString(Tag.StudyDescription, nullValue), matchUnknown, nullValue));
             String accNo = keys.getString(Tag.AccessionNumber, nullValue);
             if (!same(accNo, nullValue)) {
                 Issuer issuer = Issuer.valueOf(keys
@@ -339,9 +340,11 @@ public class QueryBuilder {
                     QueryBuilder.performingPhysicianName,
                     keys.getString(Tag.PerformingPhysicianName, nullValue), queryParam, nullValue));
             builder.and(wildCard(QSeries.series.seriesDescription,
-                    keys.getString(Tag.SeriesDescription, nullValue), matchUnknown, true, nullValue));
+                    QSeries.series.upperSeriesDescription,
+                    keys.getString(Tag.SeriesDescription, nullValue), matchUnknown, nullValue));
             builder.and(wildCard(QSeries.series.stationName,
-                    keys.getString(Tag.StationName, nullValue), matchUnknown, true, nullValue));
+                    QSeries.series.upperStationName,
+                    keys.getString(Tag.StationName, nullValue), matchUnknown, nullValue));
             builder.and(wildCard(QSeries.series.institutionName,
                     keys.getString(Tag.InstitutionalDepartmentName, nullValue), matchUnknown, true, nullValue));
             builder.and(wildCard(QSeries.series.institutionalDepartmentName,
@@ -570,9 +573,34 @@ public class QueryBuilder {
         if (isUniversalMatching(value))
             return null;
 
-        Predicate predicate;
         StringExpression expr = ignoreCase && StringUtils.isUpperCase(value) ? path
                 .toUpperCase() : path;
+        Predicate predicate = likeOrEq(expr, value);
+        return predicate != null
+                ? matchUnknown(predicate, path, matchUnknown, nullValue)
+                : null;
+    }
+
+    /**
+     * Case-insensitive matching against an upper case copy of the column,
+     * which - in contrast to <code>upper(column)</code> - can be served by
+     * a plain index.
+     */
+    static Predicate wildCard(StringPath path, StringPath upperPath,
+            String value, boolean matchUnknown, String nullValue) {
+
+        if (isUniversalMatching(value))
+            return null;
+
+        StringExpression expr = StringUtils.isUpperCase(value) ? upperPath : path;
+        Predicate predicate = likeOrEq(expr, value);
+        return predicate != null
+                ? matchUnknown(predicate, path, matchUnknown, nullValue)
+                : null;
+    }
+
+    private static Predicate likeOrEq(StringExpression expr, String value) {
+        Predicate predicate;
         if (containsWildcard(value)) {
             String pattern = toLikePattern(value);
             if (pattern.equals("%"))
@@ -582,7 +610,7 @@ public class QueryBuilder {
         } else
             predicate = expr.eq(value);
 
-        return matchUnknown(predicate, path, matchUnknown, nullValue);
+        return predicate;
     }
 
     static boolean containsWildcard(String s) {
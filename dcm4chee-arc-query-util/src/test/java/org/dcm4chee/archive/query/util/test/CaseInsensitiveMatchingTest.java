@@ -0,0 +1,192 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.query.util.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.operation.DatabaseOperation;
+import org.dcm4chee.archive.entity.QPersonName;
+import org.dcm4chee.archive.entity.QSeries;
+import org.dcm4chee.archive.entity.QStudy;
+import org.dcm4chee.archive.junit.rules.EntityManagerFactoryRule;
+import org.dcm4chee.archive.junit.rules.EntityManagerRule;
+import org.dcm4chee.archive.junit.rules.IDatabaseConnectionRule;
+import org.dcm4chee.archive.junit.rules.IDatasetRule;
+import org.dcm4chee.archive.query.util.QueryBuilder;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+
+import com.mysema.query.jpa.impl.JPAQuery;
+import com.mysema.query.types.EntityPath;
+import com.mysema.query.types.Predicate;
+import com.mysema.query.types.path.NumberPath;
+import com.mysema.query.types.path.StringPath;
+
+/**
+ * Case-insensitive matching against the upper case columns must return the
+ * same entities as matching against <code>upper(column)</code>.
+ *
+ * @author agent <agent@local>
+ */
+public class CaseInsensitiveMatchingTest {
+
+    public static final EntityManagerFactoryRule ENTITY_MANAGER_FACTORY_RULE = new EntityManagerFactoryRule(
+            "query-test");
+    public static final EntityManagerRule ENTITY_MANAGER_RULE = new EntityManagerRule(
+            ENTITY_MANAGER_FACTORY_RULE);
+
+    public static final IDatabaseConnectionRule DATABASE_CONNECTION_RULE = new IDatabaseConnectionRule(
+            ENTITY_MANAGER_RULE);
+
+    @ClassRule
+    public static TestRule TEST_RULE = RuleChain
+            .outerRule(ENTITY_MANAGER_FACTORY_RULE).around(ENTITY_MANAGER_RULE)
+            .around(DATABASE_CONNECTION_RULE);
+
+    @ClassRule
+    public static final IDatasetRule DATASET_RULE = new IDatasetRule(
+            "case-insensitive-dataset.xml");
+
+    private static final String[] NAMES = {
+        "SMITH", "Smith", "smith", "SMITH*", "smith*", "Sm?th", "SM?TH*",
+        "*ERS", "DOE", "JOHN", "john", "S_1%", "s_1%", "*", "MAX" };
+
+    private static final String[] DESCRIPTIONS = {
+        "BRAIN CT", "Brain CT", "brain ct", "BRAIN*", "Brain*", "brain*",
+        "*MR", "BRAIN?CT", "BRAINSTEM", "*" };
+
+    private static final String[] STATION_NAMES = {
+        "CT01", "ct01", "CT0?", "ct*", "CT*", "MR-*", "Mr-*", "*" };
+
+    static IDatabaseConnection iDatabaseConnection;
+
+    static IDataSet iDataSet;
+
+    static EntityManager entityManager;
+
+    static Method ignoreCaseByFunction;
+
+    static Method ignoreCaseByColumn;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        iDataSet = DATASET_RULE.getiDataSet();
+        entityManager = ENTITY_MANAGER_RULE.getEntityManager();
+        iDatabaseConnection = DATABASE_CONNECTION_RULE
+                .getiDatabaseConnection();
+        ignoreCaseByFunction = QueryBuilder.class.getDeclaredMethod("wildCard",
+                StringPath.class, String.class, boolean.class, boolean.class, String.class);
+        ignoreCaseByFunction.setAccessible(true);
+        ignoreCaseByColumn = QueryBuilder.class.getDeclaredMethod("wildCard",
+                StringPath.class, StringPath.class, String.class, boolean.class, String.class);
+        ignoreCaseByColumn.setAccessible(true);
+    }
+
+    @Before
+    public void before() throws Exception {
+        DatabaseOperation.CLEAN_INSERT.execute(iDatabaseConnection, iDataSet);
+    }
+
+    @Test
+    public void testPersonName() throws Exception {
+        QPersonName pn = QPersonName.personName;
+        for (String value : NAMES) {
+            assertSameMatches(pn, pn.pk, pn.familyName, pn.upperFamilyName, value);
+            assertSameMatches(pn, pn.pk, pn.givenName, pn.upperGivenName, value);
+            assertSameMatches(pn, pn.pk, pn.middleName, pn.upperMiddleName, value);
+        }
+        assertFalse(select(pn, pn.pk, match(pn.familyName, pn.upperFamilyName,
+                "SMITH", false)).isEmpty());
+    }
+
+    @Test
+    public void testStudyDescription() throws Exception {
+        QStudy study = QStudy.study;
+        for (String value : DESCRIPTIONS)
+            assertSameMatches(study, study.pk, study.studyDescription,
+                    study.upperStudyDescription, value);
+    }
+
+    @Test
+    public void testStationName() throws Exception {
+        QSeries series = QSeries.series;
+        for (String value : STATION_NAMES)
+            assertSameMatches(series, series.pk, series.stationName,
+                    series.upperStationName, value);
+    }
+
+    private void assertSameMatches(EntityPath<?> from, NumberPath<Long> pk,
+            StringPath path, StringPath upperPath, String value) throws Exception {
+        for (boolean matchUnknown : new boolean[] { false, true }) {
+            Predicate expected = (Predicate) ignoreCaseByFunction.invoke(null,
+                    path, value, matchUnknown, true, null);
+            Predicate actual = match(path, upperPath, value, matchUnknown);
+            assertEquals(path + " matching " + value + ", matchUnknown=" + matchUnknown,
+                    select(from, pk, expected), select(from, pk, actual));
+        }
+    }
+
+    private static Predicate match(StringPath path, StringPath upperPath,
+            String value, boolean matchUnknown) throws Exception {
+        return (Predicate) ignoreCaseByColumn.invoke(null,
+                path, upperPath, value, matchUnknown, null);
+    }
+
+    private static Set<Long> select(EntityPath<?> from, NumberPath<Long> pk,
+            Predicate predicate) {
+        JPAQuery query = new JPAQuery(entityManager).from(from);
+        if (predicate != null)
+            query = query.where(predicate);
+        return new HashSet<Long>(query.list(pk));
+    }
+}
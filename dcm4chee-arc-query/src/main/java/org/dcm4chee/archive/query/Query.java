@@ -52,14 +52,40 @@ public interface Query {
 
     void executeQuery();
 
+    /**
+     * Executes the query returning at most <code>limit</code> matches.
+     *
+     * @return <code>true</code> if there are further matches after the
+     *         returned ones
+     */
+    boolean executeQuery(long limit);
+
     long count();
 
     void limit(long limit);
 
     void offset(long offset);
 
+    /**
+     * Orders matches by the specified order, followed by the primary key
+     * to order matches with equal values.
+     */
     void orderBy(OrderSpecifier<?>... orderSpecifiers);
 
+    /**
+     * Returns only matches after the entity with the specified primary key,
+     * if it is greater than 0, in the order specified by {@link #orderBy},
+     * or by primary key if no order is specified. Allows to page through
+     * matches without skipping previous pages by {@link #offset}.
+     */
+    void seekAfter(long afterPk);
+
+    /**
+     * Returns the primary key of the last match returned by
+     * {@link #executeQuery(long)}, if there are further matches, otherwise -1.
+     */
+    long lastPk();
+
     boolean optionalKeysNotSupported();
 
     boolean hasMoreMatches();
@@ -38,20 +38,42 @@
 
 package org.dcm4chee.archive.query.impl;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.query.Query;
 import org.dcm4chee.archive.query.QueryContext;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
 import org.hibernate.StatelessSession;
+import org.hibernate.dialect.DB2Dialect;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.dialect.Oracle8iDialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.mysema.query.Tuple;
 import com.mysema.query.jpa.hibernate.HibernateQuery;
+import com.mysema.query.types.ConstantImpl;
 import com.mysema.query.types.EntityPath;
 import com.mysema.query.types.Expression;
+import com.mysema.query.types.ExpressionUtils;
+import com.mysema.query.types.Ops;
 import com.mysema.query.types.OrderSpecifier;
 import com.mysema.query.types.Predicate;
+import com.mysema.query.types.PredicateOperation;
+import com.mysema.query.types.path.NumberPath;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -59,6 +81,8 @@ import com.mysema.query.types.Predicate;
  */
 public abstract class AbstractQuery<E> implements Query {
 
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractQuery.class);
+
     protected final QueryContext context;
 
     protected final StatelessSession session;
@@ -68,16 +92,33 @@ public abstract class AbstractQuery<E> implements Query {
     protected HibernateQuery query;
 
     private boolean hasMoreMatches;
- 
+
+    private long lastPk = -1L;
+
+    private long afterPk;
+
+    private boolean seek;
+
+    private boolean seekApplied;
+
+    private OrderSpecifier<?>[] orderSpecifiers = {};
+
+    private Iterator<Attributes> page;
+
     private boolean optionalKeyNotSupported;
 
     private final EntityPath<E> entityPath;
 
+    private final NumberPath<Long> pk;
+
+    private Connection autoCommitDisabled;
+
     public AbstractQuery(QueryContext context, StatelessSession session,
-            EntityPath<E> entityPath) {
+            EntityPath<E> entityPath, NumberPath<Long> pk) {
         this.context = context;
         this.session = session;
         this.entityPath = entityPath;
+        this.pk = pk;
     }
 
     @Override
@@ -102,13 +143,176 @@ public abstract class AbstractQuery<E> implements Query {
 
     @Override
     public void executeQuery() {
-        results = query.scroll(ScrollMode.SCROLL_SENSITIVE, select());
+        checkQuery();
+        applySeek();
+        applyOrder(query);
+        applyFetchSize();
+        results = query.scroll(ScrollMode.FORWARD_ONLY, select());
         hasMoreMatches = results.next();
     }
 
+    /**
+     * Fetches at most <code>limit</code> matches and one more, which is only
+     * used to detect if there are further matches, instead of counting all
+     * matches. The matches of the page are read at once, so the primary key
+     * of the last returned match is known before the first is returned.
+     */
+    @Override
+    public boolean executeQuery(long limit) {
+        checkQuery();
+        applySeek();
+        applyOrder(query);
+        query.limit(limit + 1);
+        Expression<?>[] select = select();
+        Expression<?>[] selectWithPk = Arrays.copyOf(select, select.length + 1);
+        selectWithPk[select.length] = pk;
+        results = query.scroll(ScrollMode.FORWARD_ONLY, selectWithPk);
+        List<Attributes> matches = new ArrayList<Attributes>();
+        long pkOfLastMatch = -1L;
+        while (matches.size() < limit && results.next()) {
+            matches.add(toAttributes(results, context));
+            pkOfLastMatch = results.getLong(select.length);
+        }
+        boolean more = results.next();
+        results.close();
+        results = null;
+        if (more && limit > 0)
+            lastPk = pkOfLastMatch;
+        page = matches.iterator();
+        hasMoreMatches = page.hasNext();
+        return more;
+    }
+
+    /**
+     * Applies the requested order, followed by the primary key as tiebreaker,
+     * so pages of a limited result do not overlap and can be continued by
+     * {@link #seekAfter}. Without requested order, matches are only ordered
+     * by primary key after {@link #seekAfter}.
+     */
+    private void applyOrder(HibernateQuery q) {
+        if (orderSpecifiers.length > 0) {
+            q.orderBy(orderSpecifiers);
+            q.orderBy(pk.asc());
+        } else if (seek) {
+            q.orderBy(pk.asc());
+        }
+    }
+
+    private void applySeek() {
+        if (seekApplied || afterPk <= 0)
+            return;
+
+        query.where(seekPredicate());
+        seekApplied = true;
+    }
+
+    /**
+     * Returns the condition for matches following the entity with primary
+     * key {@link #afterPk} in the requested order: a greater value of the
+     * first order key, or an equal value of the first and a greater value of
+     * the second order key, and so on, and finally a greater primary key.
+     * The values of the order keys of that entity are looked up by its
+     * primary key, so a page at any depth is found by the index of the
+     * order keys, without skipping the matches of the previous pages.
+     */
+    private Predicate seekPredicate() {
+        if (orderSpecifiers.length == 0)
+            return pk.gt(afterPk);
+
+        Expression<?>[] keys = new Expression<?>[orderSpecifiers.length];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = orderSpecifiers[i].getTarget();
+        HibernateQuery q = applyJoins(new HibernateQuery(session).from(entityPath));
+        List<Tuple> tuples = q.where(pk.eq(afterPk)).limit(1).list(keys);
+        if (tuples.isEmpty())
+            throw new IllegalArgumentException("No match with pk=" + afterPk);
+
+        Tuple tuple = tuples.get(0);
+        boolean nullsLargest = nullsLargest();
+        Predicate after = pk.gt(afterPk);
+        for (int i = keys.length; --i >= 0;) {
+            Object value = tuple.get(i, Object.class);
+            Predicate sameKey = value == null
+                    ? ExpressionUtils.isNull(keys[i])
+                    : PredicateOperation.create(Ops.EQ, keys[i],
+                            ConstantImpl.create(value));
+            after = ExpressionUtils.and(sameKey, after);
+            boolean ascending = orderSpecifiers[i].isAscending();
+            Predicate nextKey = nextKey(keys[i], value, ascending,
+                    ascending == nullsLargest);
+            if (nextKey != null)
+                after = ExpressionUtils.or(nextKey, after);
+        }
+        return after;
+    }
+
+    /**
+     * Returns the condition for values of the order key following
+     * <code>value</code> in the order of the key, or <code>null</code> if no
+     * value can follow.
+     */
+    private static Predicate nextKey(Expression<?> key, Object value,
+            boolean ascending, boolean nullsLast) {
+        if (value == null)
+            return nullsLast ? null : ExpressionUtils.isNotNull(key);
+
+        Predicate next = PredicateOperation.create(
+                ascending ? Ops.GT : Ops.LT, key, ConstantImpl.create(value));
+        return nullsLast ? ExpressionUtils.or(next, ExpressionUtils.isNull(key)) : next;
+    }
+
+    /**
+     * Returns <code>true</code> if the database sorts NULL after all values
+     * in ascending order.
+     */
+    private boolean nullsLargest() {
+        Dialect dialect = ((SessionFactoryImplementor) session.getSessionFactory())
+                .getDialect();
+        return dialect instanceof PostgreSQL81Dialect
+                || dialect instanceof Oracle8iDialect
+                || dialect instanceof DB2Dialect;
+    }
+
+    /**
+     * Lets the JDBC driver fetch the rows of a forward only result in chunks
+     * instead of reading all matches at once. MySQL Connector/J only streams
+     * rows with a fetch size of <code>Integer.MIN_VALUE</code>; PostgreSQL
+     * only uses a cursor if auto-commit is disabled.
+     */
+    private void applyFetchSize() {
+        Dialect dialect = ((SessionFactoryImplementor) session.getSessionFactory())
+                .getDialect();
+        if (dialect instanceof MySQLDialect) {
+            query.setFetchSize(Integer.MIN_VALUE);
+            return;
+        }
+        int fetchSize = context.getArchiveAEExtension().getApplicationEntity()
+                .getDevice().getDeviceExtension(ArchiveDeviceExtension.class)
+                .getQueryFetchSize();
+        if (fetchSize <= 0)
+            return;
+
+        query.setFetchSize(fetchSize);
+        if (dialect instanceof PostgreSQL81Dialect)
+            disableAutoCommit();
+    }
+
+    private void disableAutoCommit() {
+        Connection conn = ((SessionImplementor) session).connection();
+        try {
+            if (conn.getAutoCommit()) {
+                conn.setAutoCommit(false);
+                autoCommitDisabled = conn;
+            }
+        } catch (SQLException e) {
+            LOG.warn("Failed to disable auto-commit, query results are not fetched in chunks", e);
+        }
+    }
+
     @Override
     public long count() {
         checkQuery();
+        applySeek();
         return query.count();
     }
 
@@ -127,7 +331,19 @@ public abstract class AbstractQuery<E> implements Query {
     @Override
     public void orderBy(OrderSpecifier<?>... orderSpecifiers) {
         checkQuery();
-        query.orderBy(orderSpecifiers);
+        this.orderSpecifiers = orderSpecifiers;
+    }
+
+    @Override
+    public void seekAfter(long afterPk) {
+        checkQuery();
+        this.seek = true;
+        this.afterPk = afterPk;
+    }
+
+    @Override
+    public long lastPk() {
+        return lastPk;
     }
 
     @Override
@@ -144,6 +360,11 @@ public abstract class AbstractQuery<E> implements Query {
     public Attributes nextMatch() {
         if (!hasMoreMatches)
             throw new NoSuchElementException();
+        if (page != null) {
+            Attributes attrs = page.next();
+            hasMoreMatches = page.hasNext();
+            return attrs;
+        }
         Attributes attrs = toAttributes(results, context);
         hasMoreMatches = results.next();
         return attrs;
@@ -156,6 +377,16 @@ public abstract class AbstractQuery<E> implements Query {
 
     @Override
     public void close() {
+        if (autoCommitDisabled != null) {
+            try {
+                // the query was read-only, so enabling auto-commit again
+                // only ends the transaction of the cursor
+                autoCommitDisabled.setAutoCommit(true);
+            } catch (SQLException e) {
+                LOG.warn("Failed to enable auto-commit", e);
+            }
+            autoCommitDisabled = null;
+        }
         session.close();
     }
 
@@ -51,6 +51,7 @@ import org.dcm4chee.archive.entity.Utils;
 import org.dcm4chee.archive.query.DerivedSeriesFields;
 import org.dcm4chee.storage.conf.Availability;
 
+import java.util.Arrays;
 import java.util.Date;
 
 /**
@@ -61,6 +62,7 @@ import java.util.Date;
 public class DefaultDerivedSeriesFields implements DerivedSeriesFields {
 
     private final Device device;
+    private final boolean numberOfFramesMigrated;
 
     private int numberOfInstances;
     private String[] retrieveAETs;
@@ -69,16 +71,36 @@ public class DefaultDerivedSeriesFields implements DerivedSeriesFields {
     private int numberOfVisibleImages;
 
     public DefaultDerivedSeriesFields(Device device) {
+        this(device, false);
+    }
+
+    /**
+     * @param numberOfFramesMigrated {@code false}, if there may be instances
+     *        without Number of Frames column, whose Number of Frames has to
+     *        be read from their attributes blob
+     */
+    public DefaultDerivedSeriesFields(Device device, boolean numberOfFramesMigrated) {
         this.device = device;
+        this.numberOfFramesMigrated = numberOfFramesMigrated;
     }
 
     @Override
     public Expression<?>[] fields() {
+        if (!numberOfFramesMigrated) {
+            Expression<?>[] fields = migratedFields();
+            fields = Arrays.copyOf(fields, fields.length + 1);
+            fields[fields.length - 1] = QInstance.instance.attributesBlob;
+            return fields;
+        }
+        return migratedFields();
+    }
+
+    private Expression<?>[] migratedFields() {
         return new Expression<?>[]{
                 QInstance.instance.retrieveAETs,
                 QInstance.instance.availability,
                 QInstance.instance.updatedTime,
-                QInstance.instance.attributesBlob,
+                QInstance.instance.numberOfFrames,
                 QInstance.instance.sopClassUID
         };
     }
@@ -129,13 +151,23 @@ public class DefaultDerivedSeriesFields implements DerivedSeriesFields {
         if (lastUpdateTime == null || instanceUpdateTime.after(lastUpdateTime))
             lastUpdateTime = instanceUpdateTime;
 
-        AttributesBlob blob = result.get(QInstance.instance.attributesBlob);
+        Integer numberOfFrames = result.get(QInstance.instance.numberOfFrames);
         String sopClass = result.get(QInstance.instance.sopClassUID);
 
         if (device.getDeviceExtension(ArchiveDeviceExtension.class).isVisibleSOPClass(sopClass)) {
-            int numberOfVisibleImagesInInstance = blob != null ? blob.getAttributes().getInt(Tag.NumberOfFrames, 1) : 1;
+            int numberOfVisibleImagesInInstance = numberOfFrames != null
+                    ? numberOfFrames
+                    : numberOfFramesFromBlob(result);
             numberOfVisibleImages += numberOfVisibleImagesInInstance;
         }
     }
 
+    private int numberOfFramesFromBlob(Tuple result) {
+        if (numberOfFramesMigrated)
+            return 1;
+
+        AttributesBlob blob = result.get(QInstance.instance.attributesBlob);
+        return blob != null ? blob.getAttributes().getInt(Tag.NumberOfFrames, 1) : 1;
+    }
+
 }
@@ -52,6 +52,7 @@ import org.dcm4chee.archive.entity.Utils;
 import org.dcm4chee.archive.query.DerivedStudyFields;
 import org.dcm4chee.storage.conf.Availability;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
@@ -64,6 +65,7 @@ import java.util.Set;
 public class DefaultDerivedStudyFields implements DerivedStudyFields {
 
     private final Device device;
+    private final boolean numberOfFramesMigrated;
 
     private int numberOfInstances;
     private String[] retrieveAETs;
@@ -77,11 +79,31 @@ public class DefaultDerivedStudyFields implements DerivedStudyFields {
     private final Set<String> visibleSeriesUIDs = new HashSet<String>();
 
     public DefaultDerivedStudyFields(Device device) {
+        this(device, false);
+    }
+
+    /**
+     * @param numberOfFramesMigrated {@code false}, if there may be instances
+     *        without Number of Frames column, whose Number of Frames has to
+     *        be read from their attributes blob
+     */
+    public DefaultDerivedStudyFields(Device device, boolean numberOfFramesMigrated) {
         this.device = device;
+        this.numberOfFramesMigrated = numberOfFramesMigrated;
     }
 
     @Override
     public Expression<?>[] fields() {
+        if (!numberOfFramesMigrated) {
+            Expression<?>[] fields = migratedFields();
+            fields = Arrays.copyOf(fields, fields.length + 1);
+            fields[fields.length - 1] = QInstance.instance.attributesBlob;
+            return fields;
+        }
+        return migratedFields();
+    }
+
+    private Expression<?>[] migratedFields() {
         return new Expression<?>[]{
                 QSeries.series.pk,
                 QSeries.series.modality,
@@ -89,7 +111,7 @@ public class DefaultDerivedStudyFields implements DerivedStudyFields {
                 QInstance.instance.retrieveAETs,
                 QInstance.instance.availability,
                 QInstance.instance.updatedTime,
-                QInstance.instance.attributesBlob,
+                QInstance.instance.numberOfFrames,
                 QSeries.series.seriesInstanceUID
         };
     }
@@ -170,11 +192,21 @@ public class DefaultDerivedStudyFields implements DerivedStudyFields {
 
         if (device.getDeviceExtension(ArchiveDeviceExtension.class).isVisibleSOPClass(sopClass)) {
             String seriesUID = result.get(QSeries.series.seriesInstanceUID);
-            AttributesBlob blob = result.get(QInstance.instance.attributesBlob);
+            Integer numberOfFrames = result.get(QInstance.instance.numberOfFrames);
             visibleSeriesUIDs.add(seriesUID);
-            int numberOfVisibleImagesInInstance = blob != null ? blob.getAttributes().getInt(Tag.NumberOfFrames, 1) : 1;
+            int numberOfVisibleImagesInInstance = numberOfFrames != null
+                    ? numberOfFrames
+                    : numberOfFramesFromBlob(result);
             numberOfVisibleImages += numberOfVisibleImagesInInstance;
         }
     }
 
+    private int numberOfFramesFromBlob(Tuple result) {
+        if (numberOfFramesMigrated)
+            return 1;
+
+        AttributesBlob blob = result.get(QInstance.instance.attributesBlob);
+        return blob != null ? blob.getAttributes().getInt(Tag.NumberOfFrames, 1) : 1;
+    }
+
 }
@@ -70,6 +70,11 @@ public class EmptyQuery implements Query {
         // empty
     }
 
+    @Override
+    public boolean executeQuery(long limit) {
+        return false;
+    }
+
     @Override
     public long count() {
         return 0;
@@ -90,6 +95,16 @@ public class EmptyQuery implements Query {
         // empty
     }
 
+    @Override
+    public void seekAfter(long afterPk) {
+        // empty
+    }
+
+    @Override
+    public long lastPk() {
+        return -1L;
+    }
+
     @Override
     public boolean optionalKeysNotSupported() {
         return false;
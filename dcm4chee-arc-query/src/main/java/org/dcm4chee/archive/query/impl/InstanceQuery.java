@@ -70,7 +70,7 @@ class InstanceQuery extends AbstractQuery<Instance> {
     private Attributes seriesAttrs;
 
     public InstanceQuery(QueryContext context, StatelessSession session) {
-        super(context, session, QInstance.instance);
+        super(context, session, QInstance.instance, QInstance.instance.pk);
     }
 
     @Override
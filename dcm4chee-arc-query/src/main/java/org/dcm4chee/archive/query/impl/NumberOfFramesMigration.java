@@ -0,0 +1,173 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.query.impl;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.ArchiveServiceReloaded;
+import org.dcm4chee.archive.ArchiveServiceStarted;
+import org.dcm4chee.archive.ArchiveServiceStopped;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.event.StartStopReloadEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Backfills the Number of Frames column of instances stored by a previous
+ * version in batches, so the calculation of the derived Number of Study/Series
+ * Related Instances does not need to load their attributes blobs. Stops
+ * polling, after all instances are migrated. Until then, the calculation
+ * reads the Number of Frames of not migrated instances from their blobs.
+ * <p>
+ * The progress is not stored, but derived from the data: the first poll
+ * after start resumes at the lowest pk of not migrated instances, or
+ * completes at once, if there is none.
+ *
+ * @author agent <agent@local>
+ */
+@ApplicationScoped
+public class NumberOfFramesMigration {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(NumberOfFramesMigration.class);
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private NumberOfFramesMigrationEJB ejb;
+
+    private int currentPollInterval;
+    private ScheduledFuture<?> polling;
+    private volatile long lastPk = -1L;
+    private volatile boolean completed;
+
+    public void onArchiveServiceStarted(
+            @Observes @ArchiveServiceStarted StartStopReloadEvent start) {
+        startPolling(pollInterval());
+    }
+
+    public void onArchiveServiceStopped(
+            @Observes @ArchiveServiceStopped StartStopReloadEvent stop) {
+        stopPolling();
+    }
+
+    public void onArchiveServiceReloaded(
+            @Observes @ArchiveServiceReloaded StartStopReloadEvent reload) {
+        int pollInterval = pollInterval();
+        if (currentPollInterval != pollInterval) {
+            stopPolling();
+            startPolling(pollInterval);
+        }
+    }
+
+    /**
+     * Returns {@code true}, if all instances have a value in the Number of
+     * Frames column.
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    private ArchiveDeviceExtension arcDev() {
+        return device.getDeviceExtension(ArchiveDeviceExtension.class);
+    }
+
+    private int pollInterval() {
+        return arcDev().getNumberOfFramesMigrationPollInterval();
+    }
+
+    private synchronized void startPolling(int pollInterval) {
+        if (polling == null && pollInterval > 0 && !completed) {
+            polling = device.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    migrate();
+                }
+            }, 0, pollInterval, TimeUnit.SECONDS);
+            currentPollInterval = pollInterval;
+            LOG.info("Number of Frames Migration: start polling with interval {}s",
+                    pollInterval);
+        }
+    }
+
+    private synchronized void stopPolling() {
+        if (polling != null) {
+            polling.cancel(false);
+            polling = null;
+            LOG.info("Number of Frames Migration: stop polling");
+        }
+    }
+
+    private void migrate() {
+        try {
+            if (lastPk < 0L) {
+                Long firstPk = ejb.findFirstPkToMigrate();
+                if (firstPk == null) {
+                    complete();
+                    return;
+                }
+                lastPk = firstPk - 1;
+            }
+            long pk = ejb.migrate(lastPk,
+                    arcDev().getNumberOfFramesMigrationBatchSize());
+            if (pk == 0L) {
+                complete();
+                return;
+            }
+            lastPk = pk;
+        } catch (Exception e) {
+            LOG.error("Number of Frames Migration: failed to migrate instances after pk={}",
+                    lastPk, e);
+        }
+    }
+
+    private void complete() {
+        LOG.info("Number of Frames Migration: completed");
+        completed = true;
+        stopPolling();
+    }
+}
@@ -0,0 +1,146 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.query.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.ejb.Stateless;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.dcm4che3.data.Tag;
+import org.dcm4chee.archive.entity.AttributesBlob;
+import org.dcm4chee.archive.entity.Instance;
+import org.dcm4chee.archive.entity.SeriesQueryAttributes;
+import org.dcm4chee.archive.entity.StudyQueryAttributes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies the Number of Frames of instances stored by a previous version from
+ * their attributes blob into {@link Instance#getNumberOfFrames()}.
+ * <p>
+ * Uses bulk updates, so the update time of migrated instances, which is
+ * reported as derived field, is not touched. The cached query attributes of
+ * series and studies containing multi-frame instances are removed, because
+ * they were calculated counting such instances as one image.
+ *
+ * @author agent <agent@local>
+ */
+@Stateless
+public class NumberOfFramesMigrationEJB {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(NumberOfFramesMigrationEJB.class);
+
+    @PersistenceContext(name = "dcm4chee-arc", unitName = "dcm4chee-arc")
+    private EntityManager em;
+
+    /**
+     * Returns the lowest pk of instances without Number of Frames, so a
+     * restarted migration resumes there instead of scanning from pk 0.
+     *
+     * @return lowest pk of not migrated instances or {@code null}, if all
+     *         instances are migrated
+     */
+    public Long findFirstPkToMigrate() {
+        return em.createNamedQuery(
+                Instance.FIND_MIN_PK_WITHOUT_NUMBER_OF_FRAMES, Long.class)
+                .getSingleResult();
+    }
+
+    /**
+     * Migrates the next batch of instances.
+     *
+     * @param afterPk pk of the last instance migrated by the previous
+     *                invocation or 0
+     * @param maxResults maximal number of migrated instances
+     * @return pk of the last migrated instance or 0, if there was no
+     *         instance left to migrate
+     */
+    public long migrate(long afterPk, int maxResults) {
+        List<Object[]> rows = em.createNamedQuery(
+                Instance.FIND_WITHOUT_NUMBER_OF_FRAMES, Object[].class)
+                .setParameter(1, afterPk)
+                .setMaxResults(maxResults)
+                .getResultList();
+        if (rows.isEmpty())
+            return 0L;
+
+        Map<Integer, List<Long>> pksByNumberOfFrames = new HashMap<Integer, List<Long>>();
+        Set<Long> seriesPks = new HashSet<Long>();
+        Set<Long> studyPks = new HashSet<Long>();
+        long lastPk = 0L;
+        for (Object[] row : rows) {
+            lastPk = (Long) row[0];
+            int numberOfFrames = ((AttributesBlob) row[1]).getAttributes()
+                    .getInt(Tag.NumberOfFrames, 1);
+            List<Long> pks = pksByNumberOfFrames.get(numberOfFrames);
+            if (pks == null)
+                pksByNumberOfFrames.put(numberOfFrames, pks = new ArrayList<Long>());
+            pks.add(lastPk);
+            if (numberOfFrames != 1) {
+                seriesPks.add((Long) row[2]);
+                studyPks.add((Long) row[3]);
+            }
+        }
+        for (Map.Entry<Integer, List<Long>> entry : pksByNumberOfFrames.entrySet())
+            em.createNamedQuery(Instance.UPDATE_NUMBER_OF_FRAMES)
+                    .setParameter("numberOfFrames", entry.getKey())
+                    .setParameter("pks", entry.getValue())
+                    .executeUpdate();
+        for (Long seriesPk : seriesPks)
+            em.createNamedQuery(SeriesQueryAttributes.CLEAN_FOR_SERIES)
+                    .setParameter(1, seriesPk)
+                    .executeUpdate();
+        for (Long studyPk : studyPks)
+            em.createNamedQuery(StudyQueryAttributes.CLEAN_FOR_STUDY)
+                    .setParameter(1, studyPk)
+                    .executeUpdate();
+        LOG.debug("Migrated Number of Frames of {} instances - reset query attributes of {} series",
+                rows.size(), seriesPks.size());
+        return lastPk;
+    }
+}
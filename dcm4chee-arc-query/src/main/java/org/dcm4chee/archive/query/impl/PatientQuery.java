@@ -63,7 +63,7 @@ class PatientQuery extends AbstractQuery<Patient> {
     };
 
     public PatientQuery(QueryContext context, StatelessSession session) {
-        super(context, session, QPatient.patient);
+        super(context, session, QPatient.patient, QPatient.patient.pk);
     }
 
     @Override
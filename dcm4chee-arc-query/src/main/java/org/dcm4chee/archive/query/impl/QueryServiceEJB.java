@@ -38,7 +38,9 @@
 
 package org.dcm4chee.archive.query.impl;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
 
 import javax.ejb.EJB;
 import javax.ejb.EJBTransactionRolledbackException;
@@ -54,6 +56,7 @@ import org.dcm4che3.data.Attributes;
 import org.dcm4che3.net.Device;
 import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.entity.Patient;
 import org.dcm4chee.archive.entity.QInstance;
 import org.dcm4chee.archive.entity.QPatient;
 import org.dcm4chee.archive.entity.QSeries;
@@ -117,6 +120,9 @@ public class QueryServiceEJB {
     @Inject
     private DetachedHibernateQueryFactory queryFactory;
 
+    @Inject
+    private NumberOfFramesMigration numberOfFramesMigration;
+
     public Attributes getSeriesAttributes(Long seriesPk, QueryContext context) {
         String viewID = context.getQueryParam().getQueryRetrieveView().getViewID();
         Tuple result = queryFactory.query(em.unwrap(Session.class))
@@ -230,7 +236,8 @@ public class QueryServiceEJB {
     public StudyQueryAttributes calculateStudyQueryAttributes(
             Long studyPk, QueryParam queryParam) {
 
-        DerivedStudyFields studyDerivedFields = new DefaultDerivedStudyFields(device);
+        DerivedStudyFields studyDerivedFields = new DefaultDerivedStudyFields(device,
+                numberOfFramesMigration.isCompleted());
 
         Study study = em.find(Study.class, studyPk);
         if(study == null) {
@@ -257,6 +264,12 @@ public class QueryServiceEJB {
         queryAttrs.setViewID(queryParam.getQueryRetrieveView().getViewID());
         queryAttrs.setStudy(study);
         populateStudyQueryAttributes(studyDerivedFields, queryAttrs);
+        Patient patient = study.getPatient();
+        queryAttrs.setPatientVersion(patient.getVersion());
+        queryAttrs.setEncodedAttributes(Utils.encodeAttributes(
+                Utils.mergeAndNormalize(
+                        new Attributes(patient.getAttributes()),
+                        new Attributes(study.getAttributes()))));
 
         try {
             // should run in own transaction
@@ -277,7 +290,13 @@ public class QueryServiceEJB {
             long version = study.getVersion();
 
             // somebody might have changed the study in between (while we were calculating), then we must not save the results
-            if (calculatedForVersion == version) {
+            // the same applies to the patient, whose attributes are stored merged with the study attributes
+            Patient patient = em.find(Patient.class, study.getPatient().getPk(), LockModeType.PESSIMISTIC_READ);
+            if (calculatedForVersion == version && patient != null
+                    && queryAttrs.getPatientVersion() == patient.getVersion()) {
+                // replace a previous view whose encoded attributes were
+                // invalidated by a patient or study update
+                removeStudyQueryAttributes(study, queryAttrs.getViewID());
                 queryAttrs.setStudy(study);
                 em.persist(queryAttrs);
             } else {
@@ -286,6 +305,24 @@ public class QueryServiceEJB {
         }
     }
 
+    private void removeStudyQueryAttributes(Study study, String viewID) {
+        Collection<StudyQueryAttributes> queryAttributes = study.getQueryAttributes();
+        if (queryAttributes == null)
+            return;
+
+        boolean removed = false;
+        for (Iterator<StudyQueryAttributes> it = queryAttributes.iterator(); it.hasNext();) {
+            StudyQueryAttributes prev = it.next();
+            if (viewID.equals(prev.getViewID())) {
+                it.remove();
+                em.remove(prev);
+                removed = true;
+            }
+        }
+        if (removed)
+            em.flush();
+    }
+
     private void populateStudyQueryAttributes(DerivedStudyFields studyDerivedFields, StudyQueryAttributes queryAttrs) {
         queryAttrs.setNumberOfInstances(studyDerivedFields.getNumberOfInstances());
         if (studyDerivedFields.getNumberOfInstances() > 0) {
@@ -312,7 +349,8 @@ public class QueryServiceEJB {
     public SeriesQueryAttributes calculateSeriesQueryAttributes(
             Long seriesPk, QueryParam queryParam) {
 
-        DerivedSeriesFields seriesDerivedFields = new DefaultDerivedSeriesFields(device);
+        DerivedSeriesFields seriesDerivedFields = new DefaultDerivedSeriesFields(device,
+                numberOfFramesMigration.isCompleted());
 
         Series series = em.find(Series.class, seriesPk);
         if(series == null) {
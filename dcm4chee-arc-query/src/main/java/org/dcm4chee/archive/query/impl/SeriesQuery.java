@@ -90,7 +90,7 @@ class SeriesQuery extends AbstractQuery<Series> {
     private Attributes studyAttrs;
 
     public SeriesQuery(QueryContext context, StatelessSession session) {
-        super(context, session, QSeries.series);
+        super(context, session, QSeries.series, QSeries.series.pk);
     }
 
     @Override
@@ -41,6 +41,7 @@ package org.dcm4chee.archive.query.impl;
 import org.dcm4che3.data.Attributes;
 import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
 import org.dcm4chee.archive.conf.PrivateTag;
+import org.dcm4chee.archive.entity.QPatient;
 import org.dcm4chee.archive.entity.QStudy;
 import org.dcm4chee.archive.entity.QStudyQueryAttributes;
 import org.dcm4chee.archive.entity.Study;
@@ -74,12 +75,13 @@ class StudyQuery extends AbstractQuery<Study> {
         QStudyQueryAttributes.studyQueryAttributes.availability,         // (6)
         QStudyQueryAttributes.studyQueryAttributes.numberOfVisibleInstances,// (7)
         QStudyQueryAttributes.studyQueryAttributes.lastUpdateTime,       // (8)
-        QueryBuilder.studyAttributesBlob.encodedAttributes,              // (9)
-        QueryBuilder.patientAttributesBlob.encodedAttributes             // (10)
+        QStudyQueryAttributes.studyQueryAttributes.encodedAttributes,    // (9)
+        QStudyQueryAttributes.studyQueryAttributes.patientVersion,       // (10)
+        QPatient.patient.version                                         // (11)
     };
 
     public StudyQuery(QueryContext context, StatelessSession session) {
-        super(context, session, QStudy.study);
+        super(context, session, QStudy.study, QStudy.study.pk);
     }
 
     @Override
@@ -123,7 +125,12 @@ class StudyQuery extends AbstractQuery<Study> {
         Availability availability;
         int numberOfStudyVisibleInstances;
         Date studyLastUpdateTime;
-        if (numberOfInstancesI != null) {
+        // merged attributes calculated for a previous version of the patient
+        // are ignored and recalculated with the study view
+        byte[] encodedAttributes = numberOfInstancesI != null
+                && results.getLong(11).equals(results.getLong(10))
+                ? results.getBinary(9) : null;
+        if (encodedAttributes != null) {
             numberOfStudyRelatedInstances = numberOfInstancesI;
             if (numberOfStudyRelatedInstances == 0)
                 return null;
@@ -136,8 +143,14 @@ class StudyQuery extends AbstractQuery<Study> {
             numberOfStudyVisibleInstances = results.getInteger(7);
             studyLastUpdateTime = results.getDate(8);
         } else {
+            if (numberOfInstancesI != null && numberOfInstancesI == 0)
+                return null;
+
             StudyQueryAttributes studyView = context.getQueryService()
                     .createStudyView(studyPk,  context.getQueryParam());
+            if (studyView == null)
+                return null;
+
             numberOfStudyRelatedInstances = studyView.getNumberOfInstances();
             if (numberOfStudyRelatedInstances == 0)
                 return null;
@@ -149,15 +162,12 @@ class StudyQuery extends AbstractQuery<Study> {
             availability = studyView.getAvailability();
             numberOfStudyVisibleInstances = studyView.getNumberOfVisibleInstances();
             studyLastUpdateTime = studyView.getLastUpdateTime();
+            encodedAttributes = studyView.getEncodedAttributes();
         }
 
-        byte[] studyByteAttributes = results.getBinary(9);
-        byte[] patientByteAttributes = results.getBinary(10);
-        Attributes patientAttrs = new Attributes();
-        Attributes studyAttrs = new Attributes();
-        Utils.decodeAttributes(patientAttrs, patientByteAttributes);
-        Utils.decodeAttributes(studyAttrs, studyByteAttributes);
-        Attributes attrs = Utils.mergeAndNormalize(patientAttrs, studyAttrs);
+        // patient and study attributes are stored pre-merged and normalized
+        // with the study view, so no blob of the joined entities is decoded
+        Attributes attrs = Utils.decodeAttributes(encodedAttributes);
         ArchiveDeviceExtension ade = context.getArchiveAEExtension()
                 .getApplicationEntity().getDevice().getDeviceExtension
                         (ArchiveDeviceExtension.class);
@@ -43,6 +43,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.TreeSet;
 
 import javax.annotation.Resource;
@@ -63,6 +64,7 @@ import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.VR;
 import org.dcm4che3.net.service.QueryRetrieveLevel;
 import org.dcm4chee.archive.conf.QueryParam;
+import org.dcm4chee.archive.entity.QPatient;
 import org.dcm4chee.archive.patient.PatientService;
 import org.dcm4chee.archive.query.Query;
 import org.dcm4chee.archive.query.QueryContext;
@@ -202,6 +204,65 @@ public class QueryServiceIT {
         assertArrayEquals(new String[] { "DOB_20010101", "DOB_20020202",
                 "DOB_NONE" }, matches(query, Tag.PatientID));
     }
+
+    @Test
+    public void testFindPatientByPatientIDPaged() {
+        Query firstPage = createPatientIDQuery("DOB*");
+        firstPage.seekAfter(0L);
+        assertTrue(firstPage.executeQuery(2));
+        long lastPk = firstPage.lastPk();
+        String[] firstMatches = matches(firstPage, Tag.PatientID);
+        firstPage.close();
+        assertEquals(2, firstMatches.length);
+
+        query = createPatientIDQuery("DOB*");
+        query.seekAfter(lastPk);
+        assertFalse(query.executeQuery(2));
+        String[] secondMatches = matches(query, Tag.PatientID);
+        assertEquals(1, secondMatches.length);
+
+        TreeSet<String> all = new TreeSet<String>();
+        all.addAll(Arrays.asList(firstMatches));
+        all.addAll(Arrays.asList(secondMatches));
+        assertArrayEquals(new String[] { "DOB_20010101", "DOB_20020202",
+                "DOB_NONE" }, all.toArray(new String[all.size()]));
+    }
+
+    @Test
+    public void testFindPatientByPatientIDPagedOrdered() {
+        Query firstPage = createPatientIDQuery("DOB*");
+        firstPage.seekAfter(0L);
+        firstPage.orderBy(QPatient.patient.createdTime.desc());
+        assertTrue(firstPage.executeQuery(2));
+        long lastPk = firstPage.lastPk();
+        String[] firstMatches = matches(firstPage, Tag.PatientID);
+        firstPage.close();
+        assertEquals(2, firstMatches.length);
+
+        query = createPatientIDQuery("DOB*");
+        query.seekAfter(lastPk);
+        query.orderBy(QPatient.patient.createdTime.desc());
+        assertFalse(query.executeQuery(2));
+        String[] secondMatches = matches(query, Tag.PatientID);
+        assertEquals(1, secondMatches.length);
+
+        TreeSet<String> all = new TreeSet<String>();
+        all.addAll(Arrays.asList(firstMatches));
+        all.addAll(Arrays.asList(secondMatches));
+        assertArrayEquals(new String[] { "DOB_20010101", "DOB_20020202",
+                "DOB_NONE" }, all.toArray(new String[all.size()]));
+    }
+
+    private Query createPatientIDQuery(String pid) {
+        QueryContext ctx = queryService.createQueryContext(queryService);
+        ctx.setKeys(new Attributes());
+        ctx.setQueryParam(ParamFactory.createQueryParam());
+        Query q = QueryServiceUtils.createQuery(queryService, QueryRetrieveLevel.PATIENT, ctx);
+        ctx.setPatientIDs(new IDWithIssuer[] { new IDWithIssuer(pid) });
+        q.initQuery();
+        return q;
+    }
+
     @Test
     public void testFindPatientWithMultiplePatientID() {
         QueryParam queryParam = ParamFactory.createQueryParam();
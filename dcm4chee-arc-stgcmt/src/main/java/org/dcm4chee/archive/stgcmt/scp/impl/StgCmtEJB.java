@@ -39,6 +39,7 @@
 package org.dcm4chee.archive.stgcmt.scp.impl;
 
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 
@@ -52,6 +53,7 @@ import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.VR;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.util.StringUtils;
+import org.dcm4chee.archive.entity.Location;
 import org.dcm4chee.archive.entity.QInstance;
 import org.dcm4chee.archive.entity.QLocation;
 import org.dcm4chee.archive.entity.Utils;
@@ -67,6 +69,8 @@ import com.mysema.query.jpa.hibernate.HibernateQuery;
 @Stateless
 public class StgCmtEJB  {
 
+    private static final int MAX_PKS_PER_UPDATE = 1000;
+
     @PersistenceContext(name = "dcm4chee-arc", unitName="dcm4chee-arc")
     private EntityManager em;
 
@@ -90,10 +94,22 @@ public class StgCmtEJB  {
                 QLocation.location.digest,
                 QLocation.location.storagePath,
                 QLocation.location.storageSystemID,
-                QLocation.location.storageSystemGroupID);
+                QLocation.location.storageSystemGroupID,
+                QLocation.location.pk,
+                QLocation.location.digestVerifiedTime);
         return list;
     }
 
+    public void updateDigestVerifiedTime(List<Long> locationPks, Date verifiedTime) {
+        for (int from = 0, size = locationPks.size(); from < size; from += MAX_PKS_PER_UPDATE) {
+            em.createNamedQuery(Location.UPDATE_DIGEST_VERIFIED_TIME)
+                .setParameter("digestVerifiedTime", verifiedTime)
+                .setParameter("pks", locationPks.subList(from,
+                        Math.min(from + MAX_PKS_PER_UPDATE, size)))
+                .executeUpdate();
+        }
+    }
+
     public Attributes calculateResult(List<Tuple> list, Attributes actionInfo) {
         Sequence requestSeq = actionInfo.getSequence(Tag.ReferencedSOPSequence);
         int size = requestSeq.size();
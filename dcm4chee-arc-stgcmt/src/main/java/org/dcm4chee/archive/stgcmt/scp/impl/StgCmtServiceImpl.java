@@ -39,7 +39,11 @@
 package org.dcm4chee.archive.stgcmt.scp.impl;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.Resource;
 import javax.enterprise.context.ApplicationScoped;
@@ -62,7 +66,6 @@ import org.dcm4che3.data.Sequence;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
 import org.dcm4che3.data.VR;
-import org.dcm4che3.io.SAXTransformer;
 import org.dcm4che3.io.SAXTransformer.SetupTransformer;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Association;
@@ -79,6 +82,9 @@ import org.dcm4che3.net.pdu.RoleSelection;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.util.DateUtils;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.CoercionTransformer;
+import org.dcm4chee.archive.conf.DeclarativeCoercion;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.stgcmt.scp.CommitEvent;
 import org.dcm4chee.archive.stgcmt.scp.StgCmtService;
@@ -143,40 +149,82 @@ public class StgCmtServiceImpl implements StgCmtService {
 
     private List<Tuple> checkForDigestAndAdjust(List<Tuple> foundMatches) throws IOException {
 
-        Map<StorageSystem, List<String>> committed = new HashMap<>();
-
-        for (java.util.Iterator<Tuple> iter = foundMatches.iterator(); iter
-                .hasNext();) {
-            Tuple tuple = iter.next();
-
+        ArchiveDeviceExtension arcDev = device
+                .getDeviceExtension(ArchiveDeviceExtension.class);
+        StorageDeviceExtension devExt = device
+                .getDeviceExtension(StorageDeviceExtension.class);
+        int validity = arcDev.getStgCmtDigestVerificationValidity();
+        long verifiedAfter = System.currentTimeMillis() - validity * 1000L;
+        int size = foundMatches.size();
+        DigestCheck[] checks = new DigestCheck[size];
+        Map<StorageSystem, DigestVerifier> verifiers = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            Tuple tuple = foundMatches.get(i);
             String digest = tuple.get(3, String.class);
             String filePath = tuple.get(4, String.class);
             String storageSystemID = tuple.get(5, String.class);
             String storageGroupID = tuple.get(6, String.class);
-            StorageDeviceExtension devExt = device
-                    .getDeviceExtension(StorageDeviceExtension.class);
+            Date verifiedTime = tuple.get(8, Date.class);
             StorageSystem storageSystem = devExt.getStorageSystem(
                     storageGroupID, storageSystemID);
-            RetrieveContext ctx = storageRetrieveService
-                    .createRetrieveContext(storageSystem);
-            try {
-                if (!storageRetrieveService.calculateDigestAndMatch(ctx, digest, filePath)) {
-                    iter.remove();
-                }
-                else {
-                    if (committed.get(storageSystem) == null)
-                        committed.put(storageSystem,new ArrayList<String>());
-                    committed.get(storageSystem).add(filePath);
-                }
-            } catch (IOException e) {
+            DigestCheck check = new DigestCheck(storageSystem, digest, filePath);
+            if (validity > 0 && verifiedTime != null
+                    && verifiedTime.getTime() > verifiedAfter) {
+                check.match = true;
+            } else {
+                DigestVerifier verifier = verifiers.get(storageSystem);
+                if (verifier == null)
+                    verifiers.put(storageSystem,
+                            verifier = new DigestVerifier(storageSystem));
+                verifier.add(check);
+            }
+            checks[i] = check;
+        }
+        verifyDigests(verifiers.values(),
+                arcDev.getStgCmtMaxParallelDigestVerifications());
+
+        Map<StorageSystem, List<String>> committed = new HashMap<>();
+        List<Long> verifiedPks = new ArrayList<>();
+        boolean digestCheckFailed = false;
+        int i = 0;
+        for (java.util.Iterator<Tuple> iter = foundMatches.iterator(); iter
+                .hasNext(); i++) {
+            Tuple tuple = iter.next();
+            DigestCheck check = checks[i];
+            if (check.failure instanceof IOException) {
                 LOG.error(
                         "Failed to calculate digest on storage commitment request"
-                                + ", no digest check is performed, {}", e);
-                return foundMatches;
+                                + ", no digest check is performed, {}", check.failure);
+                digestCheckFailed = true;
+                break;
+            }
+            if (check.failure != null)
+                throw (RuntimeException) check.failure;
 
+            if (!check.match) {
+                iter.remove();
+            }
+            else {
+                if (committed.get(check.storageSystem) == null)
+                    committed.put(check.storageSystem,new ArrayList<String>());
+                committed.get(check.storageSystem).add(check.filePath);
+                if (check.verified)
+                    verifiedPks.add(tuple.get(7, Long.class));
+            }
+        }
+
+        if (validity > 0 && !verifiedPks.isEmpty()) {
+            try {
+                stgCmtEJB.updateDigestVerifiedTime(verifiedPks, new Date());
+            } catch (Exception e) {
+                LOG.warn("Failed to record digest verification of {} locations: {}",
+                        verifiedPks.size(), e);
             }
         }
 
+        if (digestCheckFailed)
+            return foundMatches;
+
         //sync if configured
         for (StorageSystem storageSystem : committed.keySet()) {
             if (storageSystem.getSyncPolicy().equals(SyncPolicy.ON_STORAGE_COMMITMENT)) {
@@ -188,6 +236,108 @@ public class StgCmtServiceImpl implements StgCmtService {
 
     }
 
+    /**
+     * Runs up to {@code maxParallel} workers per storage system, each reusing
+     * one retrieve context for all files it verifies. One worker is run by
+     * the calling thread, which returns after all workers completed.
+     */
+    private void verifyDigests(Collection<DigestVerifier> verifiers,
+            int maxParallel) throws IOException {
+        List<Runnable> workers = new ArrayList<>();
+        for (DigestVerifier verifier : verifiers) {
+            int n = Math.min(Math.max(maxParallel, 1), verifier.numberOfChecks());
+            for (int i = 0; i < n; i++)
+                workers.add(verifier);
+        }
+        if (workers.isEmpty())
+            return;
+
+        final CountDownLatch done = new CountDownLatch(workers.size());
+        int last = workers.size() - 1;
+        for (int i = 0; i < last; i++) {
+            final Runnable worker = workers.get(i);
+            Runnable task = new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        worker.run();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            try {
+                device.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        }
+        try {
+            workers.get(last).run();
+        } finally {
+            done.countDown();
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while waiting for digest verification");
+        }
+    }
+
+    private static class DigestCheck {
+        final StorageSystem storageSystem;
+        final String digest;
+        final String filePath;
+        boolean match;
+        boolean verified;
+        Exception failure;
+
+        DigestCheck(StorageSystem storageSystem, String digest, String filePath) {
+            this.storageSystem = storageSystem;
+            this.digest = digest;
+            this.filePath = filePath;
+        }
+    }
+
+    private class DigestVerifier implements Runnable {
+        private final StorageSystem storageSystem;
+        private final ConcurrentLinkedQueue<DigestCheck> checks =
+                new ConcurrentLinkedQueue<DigestCheck>();
+
+        DigestVerifier(StorageSystem storageSystem) {
+            this.storageSystem = storageSystem;
+        }
+
+        void add(DigestCheck check) {
+            checks.add(check);
+        }
+
+        int numberOfChecks() {
+            return checks.size();
+        }
+
+        @Override
+        public void run() {
+            RetrieveContext ctx = null;
+            DigestCheck check;
+            while ((check = checks.poll()) != null) {
+                try {
+                    if (ctx == null)
+                        ctx = storageRetrieveService
+                                .createRetrieveContext(storageSystem);
+                    check.match = storageRetrieveService.calculateDigestAndMatch(
+                            ctx, check.digest, check.filePath);
+                    check.verified = check.match;
+                } catch (Exception e) {
+                    check.failure = e;
+                }
+            }
+        }
+    }
+
     @Override
     public void scheduleNEventReport(String localAET, String remoteAET,
             Attributes eventInfo, int retries, long delay) {
@@ -377,14 +527,24 @@ public class StgCmtServiceImpl implements StgCmtService {
     public void coerceAttributes(Attributes attrs, final String remoteAET,
             final ArchiveAEExtension arcAE, Role role)
             throws DicomServiceException {
+        if (remoteAET == null)
+            return;
+
         try {
             Attributes modified = new Attributes();
-            Templates tpl = remoteAET != null ? arcAE
-                    .getAttributeCoercionTemplates(
-                            attrs.getString(Tag.SOPClassUID),
-                            Dimse.N_EVENT_REPORT_RQ, role, remoteAET) : null;
+            DeclarativeCoercion coercion = arcAE.getDeclarativeAttributeCoercion(
+                    attrs.getString(Tag.SOPClassUID),
+                    Dimse.N_EVENT_REPORT_RQ, role, remoteAET);
+            if (coercion != null) {
+                coercion.coerce(attrs, modified);
+                return;
+            }
+
+            Templates tpl = arcAE.getAttributeCoercionTemplates(
+                    attrs.getString(Tag.SOPClassUID),
+                    Dimse.N_EVENT_REPORT_RQ, role, remoteAET);
             if (tpl != null) {
-                attrs.update(SAXTransformer.transform(attrs, tpl, false, false,
+                attrs.update(CoercionTransformer.transform(attrs, tpl,
                         new SetupTransformer() {
 
                             @Override
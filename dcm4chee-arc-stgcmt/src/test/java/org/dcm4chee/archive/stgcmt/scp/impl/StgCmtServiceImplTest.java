@@ -0,0 +1,238 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.stgcmt.scp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.storage.RetrieveContext;
+import org.dcm4chee.storage.conf.StorageDeviceExtension;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.conf.SyncPolicy;
+import org.dcm4chee.storage.service.RetrieveService;
+import org.dcm4chee.storage.service.StorageService;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.mysema.query.Tuple;
+
+/**
+ * Checks that verifying the digests of a storage commitment request by
+ * several workers removes and commits the same matches as verifying them
+ * one after the other.
+ *
+ * @author agent <agent@local>
+ */
+public class StgCmtServiceImplTest {
+
+    private static final int NUM_FILES = 20;
+
+    private final ArchiveDeviceExtension arcDev = new ArchiveDeviceExtension();
+    private final StorageSystem fs1 = mockStorageSystem();
+    private final StorageSystem fs2 = mockStorageSystem();
+    private final Map<String, Object> digestResults = new TreeMap<String, Object>();
+
+    private StgCmtEJB stgCmtEJB;
+    private StorageService storageService;
+    private StgCmtServiceImpl service;
+
+    @Before
+    public void setUp() throws Exception {
+        StorageDeviceExtension storageDevExt = mock(StorageDeviceExtension.class);
+        when(storageDevExt.getStorageSystem("GROUP", "fs1")).thenReturn(fs1);
+        when(storageDevExt.getStorageSystem("GROUP", "fs2")).thenReturn(fs2);
+
+        Device device = mock(Device.class);
+        when(device.getDeviceExtension(ArchiveDeviceExtension.class))
+                .thenReturn(arcDev);
+        when(device.getDeviceExtension(StorageDeviceExtension.class))
+                .thenReturn(storageDevExt);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                new Thread((Runnable) invocation.getArguments()[0]).start();
+                return null;
+            }
+        }).when(device).execute(any(Runnable.class));
+
+        RetrieveService retrieveService = mock(RetrieveService.class);
+        when(retrieveService.createRetrieveContext(any(StorageSystem.class)))
+                .thenReturn(mock(RetrieveContext.class));
+        when(retrieveService.calculateDigestAndMatch(
+                any(RetrieveContext.class), anyString(), anyString()))
+                .thenAnswer(new Answer<Boolean>() {
+                    @Override
+                    public Boolean answer(InvocationOnMock invocation)
+                            throws Throwable {
+                        Object result = digestResults.get(
+                                invocation.getArguments()[2]);
+                        if (result instanceof IOException)
+                            throw (IOException) result;
+                        return (Boolean) result;
+                    }
+                });
+
+        stgCmtEJB = mock(StgCmtEJB.class);
+        storageService = mock(StorageService.class);
+
+        service = new StgCmtServiceImpl();
+        inject("device", device);
+        inject("stgCmtEJB", stgCmtEJB);
+        inject("storageRetrieveService", retrieveService);
+        inject("storageService", storageService);
+    }
+
+    @Test
+    public void testSameMatchesAsSerial() throws Exception {
+        for (int i = 0; i < NUM_FILES; i++)
+            digestResults.put(filePath(i), i % 3 != 0);
+
+        List<String> serial = verifyDigests(1);
+        List<String> parallel = verifyDigests(4);
+
+        assertEquals(serial, parallel);
+        assertEquals(expectedFiles(NUM_FILES), parallel);
+        verify(storageService, times(2)).syncFiles(eq(fs1), eq(expectedFiles(fs1)));
+        verify(storageService, times(2)).syncFiles(eq(fs2), eq(expectedFiles(fs2)));
+    }
+
+    @Test
+    public void testIOExceptionSkipsDigestCheck() throws Exception {
+        int failed = 10;
+        for (int i = 0; i < NUM_FILES; i++)
+            digestResults.put(filePath(i), i % 3 != 0);
+        digestResults.put(filePath(failed), new IOException("disk failure"));
+
+        List<String> serial = verifyDigests(1);
+        List<String> parallel = verifyDigests(4);
+
+        assertEquals(serial, parallel);
+        // matches before the failed file are checked, all others are kept
+        List<String> expected = expectedFiles(failed);
+        for (int i = failed; i < NUM_FILES; i++)
+            expected.add(filePath(i));
+        assertEquals(expected, parallel);
+        verify(storageService, never()).syncFiles(
+                any(StorageSystem.class), any(List.class));
+    }
+
+    private List<String> verifyDigests(int maxParallel) throws Exception {
+        arcDev.setStgCmtMaxParallelDigestVerifications(maxParallel);
+        List<Tuple> matches = new ArrayList<Tuple>();
+        for (int i = 0; i < NUM_FILES; i++)
+            matches.add(mockTuple(i));
+        Attributes actionInfo = new Attributes();
+        when(stgCmtEJB.lookupMatches(actionInfo)).thenReturn(matches);
+
+        service.calculateResult(actionInfo);
+
+        List<String> files = new ArrayList<String>(matches.size());
+        for (Tuple tuple : matches)
+            files.add(tuple.get(4, String.class));
+        return files;
+    }
+
+    private static List<String> expectedFiles(int limit) {
+        List<String> files = new ArrayList<String>();
+        for (int i = 0; i < limit; i++)
+            if (i % 3 != 0)
+                files.add(filePath(i));
+        return files;
+    }
+
+    private List<String> expectedFiles(StorageSystem storageSystem) {
+        List<String> files = new ArrayList<String>();
+        for (String filePath : expectedFiles(NUM_FILES))
+            if (storageSystemOf(filePath) == storageSystem)
+                files.add(filePath);
+        return files;
+    }
+
+    private StorageSystem storageSystemOf(String filePath) {
+        return filePath.startsWith("fs1") ? fs1 : fs2;
+    }
+
+    private static String filePath(int i) {
+        return String.format("fs%d/%02d", i % 2 + 1, i);
+    }
+
+    private static Tuple mockTuple(int i) {
+        String filePath = filePath(i);
+        Tuple tuple = mock(Tuple.class);
+        when(tuple.get(3, String.class)).thenReturn("digest" + i);
+        when(tuple.get(4, String.class)).thenReturn(filePath);
+        when(tuple.get(5, String.class)).thenReturn(filePath.substring(0, 3));
+        when(tuple.get(6, String.class)).thenReturn("GROUP");
+        when(tuple.get(7, Long.class)).thenReturn(Long.valueOf(i));
+        return tuple;
+    }
+
+    private static StorageSystem mockStorageSystem() {
+        StorageSystem storageSystem = mock(StorageSystem.class);
+        when(storageSystem.getSyncPolicy())
+                .thenReturn(SyncPolicy.ON_STORAGE_COMMITMENT);
+        return storageSystem;
+    }
+
+    private void inject(String name, Object value) throws Exception {
+        Field field = StgCmtServiceImpl.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(service, value);
+    }
+}
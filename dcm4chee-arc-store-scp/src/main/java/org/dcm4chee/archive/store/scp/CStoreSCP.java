@@ -39,6 +39,9 @@
 package org.dcm4chee.archive.store.scp;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Typed;
@@ -49,6 +52,7 @@ import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.VR;
 import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Commands;
 import org.dcm4che3.net.Dimse;
 import org.dcm4che3.net.PDVInputStream;
 import org.dcm4che3.net.Status;
@@ -62,6 +66,8 @@ import org.dcm4chee.archive.monitoring.api.MonitoredService;
 import org.dcm4chee.archive.store.StoreContext;
 import org.dcm4chee.archive.store.StoreService;
 import org.dcm4chee.archive.store.StoreSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -71,6 +77,8 @@ import org.dcm4chee.archive.store.StoreSession;
 @Typed(DicomService.class)
 public class CStoreSCP extends BasicCStoreSCP {
 
+    private static final Logger LOG = LoggerFactory.getLogger(CStoreSCP.class);
+
     @Inject
     private StoreService storeService;
 
@@ -81,47 +89,101 @@ public class CStoreSCP extends BasicCStoreSCP {
     @MonitoredService(name = { "dicom", "service", "dimse", "CStoreSCP" })
     public void onDimseRQ(Association as, PresentationContext pc, Dimse dimse,
             Attributes rq, PDVInputStream data) throws IOException {
-    	super.onDimseRQ(as, pc, dimse, rq, data);
+        if (dimse == Dimse.C_STORE_RQ && isDeferredResponse(as))
+            storeAndDeferResponse(as, pc, rq, data);
+        else
+            super.onDimseRQ(as, pc, dimse, rq, data);
     }
-    
+
+    /**
+     * Responses are only deferred if the received instances may be committed
+     * in groups and the SCU may send further requests before it received the
+     * response of the previous one.
+     */
+    private boolean isDeferredResponse(Association as) {
+        return as.getMaxOpsPerformed() != 1
+                && as.getApplicationEntity().getAEExtension(ArchiveAEExtension.class)
+                    .isStoreGroupCommit();
+    }
+
+    private void storeAndDeferResponse(final Association as,
+            final PresentationContext pc, final Attributes rq,
+            PDVInputStream data) throws IOException {
+        final Attributes rsp = Commands.mkCStoreRSP(rq, Status.Success);
+        final StoreContext context;
+        try {
+            // the data has to be read by the association thread
+            context = spool(as, pc, rq, data);
+        } catch (DicomServiceException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new DicomServiceException(Status.ProcessingFailure, e);
+        }
+        final DeferredResponses deferred = deferredResponses(as);
+        // blocks reading further requests of the association as long as
+        // the maximal number of responses is outstanding
+        deferred.acquire();
+        try {
+            as.getApplicationEntity().getDevice().execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        storeDeferred(as, pc, rq, context, rsp);
+                    } finally {
+                        deferred.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            deferred.release();
+            throw new DicomServiceException(Status.OutOfResources, e);
+        }
+    }
+
+    private void storeDeferred(Association as, PresentationContext pc,
+            Attributes rq, StoreContext context, Attributes rsp) {
+        if (!as.isReadyForDataTransfer()) {
+            // association was aborted, the spooled data is removed with
+            // the spool directory of the store session
+            LOG.info("{}: skip processing of C-STORE-RQ after association was closed", as);
+            return;
+        }
+        try {
+            store(context, rsp);
+            as.tryWriteDimseRSP(pc, rsp);
+        } catch (DicomServiceException e) {
+            LOG.info("{}: processing C-STORE-RQ failed:", as, e);
+            as.tryWriteDimseRSP(pc, e.mkRSP(Dimse.C_STORE_RSP.commandField(),
+                    rq.getInt(Tag.MessageID, 0)), e.getDataset());
+        } catch (Exception e) {
+            LOG.info("{}: processing C-STORE-RQ failed:", as, e);
+            as.tryWriteDimseRSP(pc, new DicomServiceException(Status.ProcessingFailure, e)
+                    .mkRSP(Dimse.C_STORE_RSP.commandField(), rq.getInt(Tag.MessageID, 0)));
+        }
+    }
+
+    private static DeferredResponses deferredResponses(Association as) {
+        DeferredResponses deferred = (DeferredResponses)
+                as.getProperty(DeferredResponses.class.getName());
+        if (deferred == null) {
+            int maxOutstanding = as.getMaxOpsPerformed();
+            if (maxOutstanding <= 0)
+                maxOutstanding = as.getApplicationEntity()
+                        .getAEExtension(ArchiveAEExtension.class)
+                        .getStoreGroupCommitMaxInstances();
+            deferred = new DeferredResponses(Math.max(1, maxOutstanding));
+            as.setProperty(DeferredResponses.class.getName(), deferred);
+        }
+        return deferred;
+    }
+
     @Override
     protected void store(Association as, PresentationContext pc, Attributes rq,
             PDVInputStream data, Attributes rsp) throws IOException {
 
         try {
-            StoreSession session =
-                    (StoreSession) as.getProperty(StoreSession.class.getName());
-            if (session == null) {
-                ArchiveAEExtension arcAE = as.getApplicationEntity()
-                        .getAEExtension(ArchiveAEExtension.class);
-                session = storeService.createStoreSession(storeService);
-                session.setSource(new LocalAssociationParticipant(as));
-                session.setRemoteAET(as.getRemoteAET());
-                session.setRemoteApplicationEntity(aeCache.get(as.getRemoteAET()));
-                session.setArchiveAEExtension(arcAE);
-                storeService.init(session);
-                as.setProperty(StoreSession.class.getName(), session);
-            }
-            Attributes fmi = as.createFileMetaInformation(
-                  rq.getString(Tag.AffectedSOPInstanceUID),
-                  rq.getString(Tag.AffectedSOPClassUID),
-                  pc.getTransferSyntax());
-
-            StoreContext context = storeService.createStoreContext(session);
-            context.setTransferSyntax(pc.getTransferSyntax());
-            context.setFileMetainfo(fmi);
-            context.setInputStream(data);
-
-            storeService.spool(context);
-            storeService.store(context);
-
-            Attributes coercedAttrs = context.getCoercedOriginalAttributes();
-            if (!coercedAttrs.isEmpty() 
-                    && !session.getArchiveAEExtension()
-                        .isSuppressWarningCoercionOfDataElements()) {
-                rsp.setInt(Tag.Status, VR.US, Status.CoercionOfDataElements);
-                rsp.setInt(Tag.OffendingElement, VR.AT, coercedAttrs.tags());
-            }
+            store(spool(as, pc, rq, data), rsp);
         } catch (DicomServiceException e) {
             throw e;
         } catch (Exception e) {
@@ -129,11 +191,95 @@ public class CStoreSCP extends BasicCStoreSCP {
         }
     }
 
+    private StoreContext spool(Association as, PresentationContext pc,
+            Attributes rq, PDVInputStream data) throws Exception {
+        StoreSession session =
+                (StoreSession) as.getProperty(StoreSession.class.getName());
+        if (session == null) {
+            ArchiveAEExtension arcAE = as.getApplicationEntity()
+                    .getAEExtension(ArchiveAEExtension.class);
+            session = storeService.createStoreSession(storeService);
+            session.setSource(new LocalAssociationParticipant(as));
+            session.setRemoteAET(as.getRemoteAET());
+            session.setRemoteApplicationEntity(aeCache.get(as.getRemoteAET()));
+            session.setArchiveAEExtension(arcAE);
+            storeService.init(session);
+            as.setProperty(StoreSession.class.getName(), session);
+        }
+        Attributes fmi = as.createFileMetaInformation(
+              rq.getString(Tag.AffectedSOPInstanceUID),
+              rq.getString(Tag.AffectedSOPClassUID),
+              pc.getTransferSyntax());
+
+        StoreContext context = storeService.createStoreContext(session);
+        context.setTransferSyntax(pc.getTransferSyntax());
+        context.setFileMetainfo(fmi);
+        context.setInputStream(data);
+
+        storeService.spool(context);
+        return context;
+    }
+
+    private void store(StoreContext context, Attributes rsp)
+            throws DicomServiceException {
+        StoreSession session = context.getStoreSession();
+        storeService.store(context);
+
+        Attributes coercedAttrs = context.getCoercedOriginalAttributes();
+        if (!coercedAttrs.isEmpty()
+                && !session.getArchiveAEExtension()
+                    .isSuppressWarningCoercionOfDataElements()) {
+            rsp.setInt(Tag.Status, VR.US, Status.CoercionOfDataElements);
+            rsp.setInt(Tag.OffendingElement, VR.AT, coercedAttrs.tags());
+        }
+    }
+
     @Override
     public void onClose(Association as) {
+        // the store session must not be closed while deferred stores are
+        // still in progress, which may happen if the association was aborted.
+        // On A-RELEASE-RQ, the association itself waits for the outstanding
+        // responses before it sends the A-RELEASE-RP.
+        DeferredResponses deferred = (DeferredResponses)
+                as.getProperty(DeferredResponses.class.getName());
+        if (deferred != null)
+            deferred.drain();
         StoreSession session = as.getProperty(StoreSession.class);
         if (session != null)
             storeService.onClose(session);
     }
 
+    /**
+     * Limits the number of C-STORE-RQs of one association, whose processing
+     * is deferred to the device executor and whose responses are outstanding.
+     */
+    private static final class DeferredResponses {
+
+        private final int maxOutstanding;
+        private final Semaphore permits;
+
+        DeferredResponses(int maxOutstanding) {
+            this.maxOutstanding = maxOutstanding;
+            this.permits = new Semaphore(maxOutstanding);
+        }
+
+        void acquire() throws InterruptedIOException {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        void release() {
+            permits.release();
+        }
+
+        void drain() {
+            permits.acquireUninterruptibly(maxOutstanding);
+            permits.release(maxOutstanding);
+        }
+    }
+
 }
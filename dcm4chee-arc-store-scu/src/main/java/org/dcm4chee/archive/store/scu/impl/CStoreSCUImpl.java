@@ -41,9 +41,17 @@ package org.dcm4chee.archive.store.scu.impl;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.DatasetWithFMI;
@@ -57,9 +65,14 @@ import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Association;
 import org.dcm4che3.net.DataWriter;
 import org.dcm4che3.net.DataWriterAdapter;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.DimseRSPHandler;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.TransferCapability;
 import org.dcm4che3.net.TransferCapability.Role;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.ExtendedNegotiation;
+import org.dcm4che3.net.pdu.PresentationContext;
 import org.dcm4che3.net.service.BasicCStoreSCU;
 import org.dcm4che3.net.service.BasicCStoreSCUResp;
 import org.dcm4che3.net.service.CStoreSCU;
@@ -95,6 +108,8 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
 
     private boolean withoutBulkData;
 
+    private volatile ParallelStore parallelStore;
+
     public CStoreSCUImpl(ApplicationEntity localAE, ApplicationEntity remoteAE, ServiceType service,
                          CStoreSCUService storeSCUService, WeightWatcher weightWatcher) {
         super();
@@ -157,6 +172,24 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
 
     @Override
     protected void storeInstance(Association storeas, ArchiveInstanceLocator instanceLocator) throws IOException, InterruptedException {
+        ParallelStore parallelStore = this.parallelStore;
+        if (parallelStore != null) {
+            parallelStore.dispatch(instanceLocator);
+            return;
+        }
+        StoreSCUTask task = prepare(storeas, instanceLocator);
+        if (task != null)
+            send(task);
+    }
+
+    /**
+     * Reads the instance and selects the transfer syntax for sending it over
+     * the given association.
+     *
+     * @return the task sending the instance, or {@code null} if the instance
+     *         is suppressed or failed to be read
+     */
+    private StoreSCUTask prepare(Association storeas, ArchiveInstanceLocator instanceLocator) {
         String tsuid;
         DatasetWithFMI datasetWithFMI = null;
         Attributes attrs;
@@ -185,7 +218,7 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
                 // check if eliminated by sop class
                 if (service.isSOPClassSuppressed(inst, context)) {
                     LOG.info("Not sending instance {} because its SOPClass is suppressed", inst.iuid);
-                    return;
+                    return null;
                 }
             }
 
@@ -196,7 +229,7 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
                 if (templateURI != null) {
                     if(service.isInstanceSuppressed(inst, attrs, templateURI, context)) {
                         LOG.info("Not sending instance {} because it is suppressed", inst.iuid);
-                        return;
+                        return null;
                     }
                 }
             }
@@ -219,12 +252,16 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
             LOG.info("Unable to store {}/{} to {}",
                     UID.nameOf(instanceLocator.cuid), UID.nameOf(instanceLocator.tsuid),
                     storeas.getRemoteAET(), e);
-            failed.add(instanceLocator);
-            return;
+            addFailed(instanceLocator);
+            return null;
         }
 
+        return new StoreSCUTask(this, storeas, inst, attrs, tsuid);
+    }
+
+    private void send(StoreSCUTask task) throws IOException, InterruptedException {
         try {
-            weightWatcher.execute(new StoreSCUTask(this, storeas, inst, attrs, tsuid));
+            weightWatcher.execute(task);
         } catch (Exception e) {
             if (e instanceof IOException)
                 throw (IOException) e;
@@ -368,7 +405,325 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
     }
 
     private BasicCStoreSCUResp pushInstances(ArrayList<ArchiveInstanceLocator> instances, Association storeas, int priority) {
-        return super.cstore(instances, storeas, priority);
+        int parallelAssociations = context.getRemoteAE() != null
+                ? context.getArchiveAEExtension().getStoreSCUParallelAssociations(
+                        storeas.getRemoteAET())
+                : 1;
+        if (parallelAssociations <= 1 || instances.size() <= 1)
+            return super.cstore(instances, storeas, priority);
+
+        parallelStore = new ParallelStore(storeas, instances, parallelAssociations, priority);
+        try {
+            return super.cstore(instances, storeas, priority);
+        } finally {
+            parallelStore.finish();
+            parallelStore = null;
+        }
+    }
+
+    private void addFailed(ArchiveInstanceLocator inst) {
+        synchronized (failed) {
+            failed.add(inst);
+        }
+    }
+
+    /**
+     * Sends the instance. In parallel mode, responses are received by the
+     * reader threads of several associations, so they are accounted by
+     * {@link ParallelCStoreRSPHandler} instead of the inherited handler.
+     */
+    private void cstoreInstance(Association storeas, ArchiveInstanceLocator inst,
+            String tsuid, DataWriter dataWriter)
+            throws IOException, InterruptedException {
+        ParallelStore parallelStore = this.parallelStore;
+        if (parallelStore == null) {
+            cstore(storeas, inst, tsuid, dataWriter);
+            return;
+        }
+        storeas.cstore(inst.cuid, inst.iuid, parallelStore.priority,
+                dataWriter, tsuid,
+                new ParallelCStoreRSPHandler(storeas.nextMessageID(), inst));
+    }
+
+    /**
+     * Updates the counts of completed, warning and failed sub-operations
+     * while holding the lock on {@link #failed}, which also guards
+     * {@link #addFailed}.
+     */
+    private final class ParallelCStoreRSPHandler extends DimseRSPHandler {
+
+        private final ArchiveInstanceLocator inst;
+
+        ParallelCStoreRSPHandler(int msgId, ArchiveInstanceLocator inst) {
+            super(msgId);
+            this.inst = inst;
+        }
+
+        @Override
+        public void onDimseRSP(Association as, Attributes cmd, Attributes data) {
+            super.onDimseRSP(as, cmd, data);
+            int storeStatus = cmd.getInt(Tag.Status, -1);
+            synchronized (failed) {
+                if (storeStatus == Status.Success)
+                    completed++;
+                else if ((storeStatus & 0xB000) == 0xB000)
+                    warning++;
+                else
+                    failed.add(inst);
+                setChanged();
+                notifyObservers();
+            }
+        }
+    }
+
+    private Association openAssociation(Association storeas) {
+        AAssociateRQ rq = storeas.getAAssociateRQ();
+        AAssociateRQ aarq = new AAssociateRQ();
+        aarq.setCallingAET(rq.getCallingAET());
+        aarq.setCalledAET(rq.getCalledAET());
+        for (PresentationContext pc : rq.getPresentationContexts())
+            aarq.addPresentationContext(pc);
+        for (ExtendedNegotiation extNeg : rq.getExtendedNegotiations())
+            aarq.addExtendedNegotiation(extNeg);
+        try {
+            return context.getLocalAE().connect(context.getRemoteAE(), aarq);
+        } catch (Exception e) {
+            LOG.info("Failed to open additional association to {}",
+                    rq.getCalledAET(), e);
+            return null;
+        }
+    }
+
+    private static <E> E take(BlockingQueue<E> queue) {
+        boolean interrupted = false;
+        try {
+            for (;;) {
+                try {
+                    return queue.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <E> void put(BlockingQueue<E> queue, E e) {
+        boolean interrupted = false;
+        try {
+            for (;;) {
+                try {
+                    queue.put(e);
+                    return;
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Spreads the instances passed to one {@link #cstore} over several
+     * associations to the same destination. The instances of one series are
+     * sent over the same association. Each association is served by one
+     * thread reading and preparing the instances and one thread sending them,
+     * connected by a queue bounded by the configured read-ahead. Responses
+     * are accounted by {@link ParallelCStoreRSPHandler}, so pending C-MOVE
+     * responses report the aggregated counts of all associations.
+     */
+    private final class ParallelStore {
+
+        private final List<Lane> lanes = new ArrayList<Lane>();
+        private final Map<String, Lane> laneBySeries = new HashMap<String, Lane>();
+        private final int size;
+        private final int priority;
+        private int dispatched;
+        private boolean finished;
+
+        ParallelStore(Association storeas, List<ArchiveInstanceLocator> instances,
+                int parallelAssociations, int priority) {
+            this.priority = priority;
+            int readAhead = Math.max(1, context.getArchiveAEExtension().getStoreSCUReadAhead());
+            lanes.add(new Lane(storeas, false, readAhead));
+            while (lanes.size() < parallelAssociations) {
+                Association as = openAssociation(storeas);
+                if (as == null)
+                    break;
+                lanes.add(new Lane(as, true, readAhead));
+            }
+            this.size = instances.size();
+            assignSeries(instances);
+            LOG.info("Send {} instances over {} associations to {}",
+                    size, lanes.size(), storeas.getRemoteAET());
+            for (Lane lane : lanes)
+                lane.start();
+        }
+
+        /**
+         * Assigns the largest series first to the lane with the fewest
+         * instances.
+         */
+        private void assignSeries(List<ArchiveInstanceLocator> instances) {
+            final Map<String, Integer> seriesSize = new HashMap<String, Integer>();
+            for (ArchiveInstanceLocator inst : instances) {
+                String key = seriesKey(inst);
+                Integer count = seriesSize.get(key);
+                seriesSize.put(key, count == null ? 1 : count + 1);
+            }
+            List<String> series = new ArrayList<String>(seriesSize.keySet());
+            Collections.sort(series, new Comparator<String>() {
+                @Override
+                public int compare(String o1, String o2) {
+                    return seriesSize.get(o2) - seriesSize.get(o1);
+                }
+            });
+            for (String key : series) {
+                Lane lane = lanes.get(0);
+                for (Lane other : lanes)
+                    if (other.assigned < lane.assigned)
+                        lane = other;
+                lane.assigned += seriesSize.get(key);
+                laneBySeries.put(key, lane);
+            }
+        }
+
+        private String seriesKey(ArchiveInstanceLocator inst) {
+            String seriesIUID = inst.getSeriesInstanceUID();
+            return seriesIUID != null ? seriesIUID : inst.iuid;
+        }
+
+        void dispatch(ArchiveInstanceLocator inst) {
+            Lane lane = laneBySeries.get(seriesKey(inst));
+            put(lane.instances, (Object) inst);
+            if (++dispatched == size)
+                finish();
+        }
+
+        /**
+         * Waits until all dispatched instances are sent and releases the
+         * additionally opened associations.
+         */
+        void finish() {
+            if (finished)
+                return;
+
+            finished = true;
+            for (Lane lane : lanes)
+                put(lane.instances, END);
+            for (Lane lane : lanes)
+                lane.await();
+            for (Lane lane : lanes)
+                lane.release();
+        }
+    }
+
+    private static final Object END = new Object();
+
+    private final class Lane {
+
+        final Association as;
+        final boolean opened;
+        final BlockingQueue<Object> instances = new LinkedBlockingQueue<Object>();
+        final BlockingQueue<Object> prepared;
+        final CountDownLatch done = new CountDownLatch(2);
+        volatile boolean broken;
+        int assigned;
+
+        Lane(Association as, boolean opened, int readAhead) {
+            this.as = as;
+            this.opened = opened;
+            this.prepared = new ArrayBlockingQueue<Object>(readAhead);
+        }
+
+        void start() {
+            Device device = context.getLocalAE().getDevice();
+            device.execute(new Runnable() {
+                @Override
+                public void run() {
+                    read();
+                }
+            });
+            device.execute(new Runnable() {
+                @Override
+                public void run() {
+                    send();
+                }
+            });
+        }
+
+        private void read() {
+            try {
+                Object next;
+                while ((next = take(instances)) != END) {
+                    ArchiveInstanceLocator inst = (ArchiveInstanceLocator) next;
+                    if (status != Status.Pending)
+                        continue;
+                    if (broken) {
+                        addFailed(inst);
+                        continue;
+                    }
+                    StoreSCUTask task = prepare(as, inst);
+                    if (task != null)
+                        put(prepared, (Object) task);
+                }
+            } finally {
+                put(prepared, END);
+                done.countDown();
+            }
+        }
+
+        private void send() {
+            try {
+                Object next;
+                while ((next = take(prepared)) != END) {
+                    StoreSCUTask task = (StoreSCUTask) next;
+                    if (broken) {
+                        addFailed(task.inst);
+                        continue;
+                    }
+                    try {
+                        CStoreSCUImpl.this.send(task);
+                    } catch (Exception e) {
+                        LOG.warn("Failed to send {} to {}", task.inst, as.getRemoteAET(), e);
+                        broken = true;
+                        addFailed(task.inst);
+                    }
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+
+        void await() {
+            boolean interrupted = false;
+            for (;;) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        void release() {
+            if (!opened)
+                return;
+
+            try {
+                as.waitForOutstandingRSP();
+                as.release();
+            } catch (Exception e) {
+                LOG.info("Failed to release association to {}", as.getRemoteAET(), e);
+            }
+        }
     }
 
     private static class StoreSCUTask implements MemoryConsumingTask<Void> {
@@ -416,7 +771,7 @@ public class CStoreSCUImpl extends BasicCStoreSCU<ArchiveInstanceLocator>
                 }
 
                 DataWriter dataWriter = new DataWriterAdapter(attrs);
-                storeSCU.cstore(storeas, inst, targetTransferSyntaxUID, dataWriter);
+                storeSCU.cstoreInstance(storeas, inst, targetTransferSyntaxUID, dataWriter);
 
                 // nullify pixeldata so that memory can be freed before the task ends
                 attrs.setNull(Tag.PixelData, VR.OW);
@@ -57,6 +57,8 @@ import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.net.service.InstanceLocator;
 import org.dcm4che3.util.DateUtils;
 import org.dcm4che3.util.StringUtils;
+import org.dcm4chee.archive.conf.CoercionTransformer;
+import org.dcm4chee.archive.conf.DeclarativeCoercion;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.dto.ServiceQualifier;
 import org.dcm4chee.archive.fetch.forward.FetchForwardService;
@@ -223,12 +225,21 @@ public class CStoreSCUServiceImpl implements CStoreSCUService {
             throws DicomServiceException {
         try {
             if (context.getRemoteAE()!=null) {
+                DeclarativeCoercion coercion = context.getArchiveAEExtension()
+                        .getDeclarativeAttributeCoercion(
+                                attrs.getString(Tag.SOPClassUID), Dimse.C_STORE_RQ,
+                                Role.SCU, context.getRemoteAE().getAETitle());
+                if (coercion != null) {
+                    coercion.coerce(attrs, null);
+                    return;
+                }
+
                 Templates tpl = context.getArchiveAEExtension()
                         .getAttributeCoercionTemplates(
                                 attrs.getString(Tag.SOPClassUID), Dimse.C_STORE_RQ,
                                 Role.SCU, context.getRemoteAE().getAETitle());
                 if (tpl != null)
-                    attrs.addAll(SAXTransformer.transform(attrs, tpl, false, false,
+                    attrs.addAll(CoercionTransformer.transform(attrs, tpl,
                             new CStoreSCUSetupTransformer(context.getLocalAE()
                                     .getAETitle(), context.getRemoteAE()
                                     .getAETitle())));
@@ -0,0 +1,105 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.store;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.util.AttributesFormat;
+
+/**
+ * Formats storage paths according to the Storage File Path Format of a
+ * Storage System Group.
+ * <p>
+ * {@code AttributesFormat} is not thread-safe, so the instance shared by
+ * {@link AttributesFormat#valueOf(String)} may only be used while holding
+ * its monitor, which serializes all storing threads. Instead, the parsed
+ * formats of each configured pattern are kept in a pool, from which each
+ * formatting thread borrows one. The pool only grows up to the number of
+ * threads formatting paths with the same pattern concurrently.
+ *
+ * @author agent <agent@local>
+ */
+public final class StoragePathFormat {
+
+    private static final ConcurrentMap<String, StoragePathFormat> FORMATS =
+            new ConcurrentHashMap<String, StoragePathFormat>();
+
+    private final String pattern;
+    private final ConcurrentLinkedQueue<AttributesFormat> idle =
+            new ConcurrentLinkedQueue<AttributesFormat>();
+
+    private StoragePathFormat(String pattern) {
+        this.pattern = pattern;
+    }
+
+    public static StoragePathFormat valueOf(String pattern) {
+        StoragePathFormat format = FORMATS.get(pattern);
+        if (format == null) {
+            StoragePathFormat prev = FORMATS.putIfAbsent(pattern,
+                    format = new StoragePathFormat(pattern));
+            if (prev != null)
+                format = prev;
+        }
+        return format;
+    }
+
+    public static String format(String pattern, Attributes attrs) {
+        return valueOf(pattern).format(attrs);
+    }
+
+    public String format(Attributes attrs) {
+        AttributesFormat format = idle.poll();
+        if (format == null)
+            format = new AttributesFormat(pattern);
+        try {
+            return format.format(attrs);
+        } finally {
+            idle.offer(format);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
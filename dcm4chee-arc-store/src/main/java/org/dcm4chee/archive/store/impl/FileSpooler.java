@@ -1,9 +1,12 @@
 package org.dcm4chee.archive.store.impl;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.DigestOutputStream;
@@ -39,17 +42,17 @@ public class FileSpooler implements Spooler {
     private StorageService storageService;
 
     /**
-     * Flushes to file the passed byte array, and then keeps spooling.
+     * Flushes to file the already buffered bytes, and then keeps spooling.
      */
-    public void flushNspool(StoreContext context, byte[] toFlush, boolean parse) throws DicomServiceException {
-        spool(context, toFlush, parse);
+    void flushNspool(StoreContext context, SpoolBuffer buffered, boolean parse) throws DicomServiceException {
+        spool(context, buffered.toInputStream(), parse);
     }
 
     public void spool(StoreContext context, boolean parse) throws DicomServiceException {
         spool(context, null, parse);
     }
 
-    private void spool(StoreContext context, byte[] toFlush, boolean parse) throws DicomServiceException {
+    private void spool(StoreContext context, InputStream buffered, boolean parse) throws DicomServiceException {
         StoreSession session = context.getStoreSession();
         StorageSystem spoolingStorage = session.getSpoolStorageSystem();
         if (spoolingStorage == null)
@@ -60,6 +63,8 @@ public class FileSpooler implements Spooler {
         MessageDigest digest = session.getMessageDigest();
         Attributes fmi = context.getFileMetainfo();
         InputStream in = context.getInputStream();
+        if (buffered != null)
+            in = in != null ? new SequenceInputStream(buffered, in) : buffered;
 
         OutputStream out = null;
         Path spoolingPath;
@@ -76,40 +81,44 @@ public class FileSpooler implements Spooler {
 
             out = new BufferedOutputStream(out, bufferLength);
 
-            if (fmi != null) {
-
-                @SuppressWarnings("resource")
-                DicomOutputStream dout = new DicomOutputStream(out,
-                        UID.ExplicitVRLittleEndian);
-
-                //if the context is already containing the Attributes,
-                //then those are stored
-                if (context.getOriginalAttributes() == null)
-                    dout.writeFileMetaInformation(fmi);
-                else
-                    dout.writeDataset(fmi, context.getOriginalAttributes());
-
-                out = dout;
-            }
-
-            if (toFlush != null) {
-                out.write(toFlush);
-            }
+            if (in != null && parse && context.getOriginalAttributes() == null) {
+                // parse the object while it is written to the file
+                if (fmi != null)
+                    in = new SequenceInputStream(
+                            new ByteArrayInputStream(encodeFileMetaInformation(fmi)), in);
+                parse(context, new TeeInputStream(in, out), spoolingPath);
+            } else {
+                if (fmi != null) {
+
+                    @SuppressWarnings("resource")
+                    DicomOutputStream dout = new DicomOutputStream(out,
+                            UID.ExplicitVRLittleEndian);
+
+                    //if the context is already containing the Attributes,
+                    //then those are stored
+                    if (context.getOriginalAttributes() == null)
+                        dout.writeFileMetaInformation(fmi);
+                    else
+                        dout.writeDataset(fmi, context.getOriginalAttributes());
+
+                    out = dout;
+                }
 
-            if (in != null) {
-                if (in instanceof PDVInputStream)
-                    ((PDVInputStream) in).copyTo(out);
-                else StreamUtils.copy(in, out);
-
-                if (parse) {
-                	out.flush();
-                    try (DicomInputStream dis = new DicomInputStream(spoolingPath.toFile())) {
-                        dis.setIncludeBulkData(DicomInputStream.IncludeBulkData.URI);
-                        Attributes data = dis.readDataset(-1, -1);
-                        context.setOriginalAttributes(data);
-                        Attributes dsFMI = dis.readFileMetaInformation();
-                        context.setTransferSyntax(dsFMI != null ? dsFMI.getString(Tag.TransferSyntaxUID) : 
-                                fmi != null ? fmi.getString(Tag.TransferSyntaxUID) : UID.ImplicitVRLittleEndian);
+                if (in != null) {
+                    if (in instanceof PDVInputStream)
+                        ((PDVInputStream) in).copyTo(out);
+                    else StreamUtils.copy(in, out);
+
+                    if (parse) {
+                        out.flush();
+                        try (DicomInputStream dis = new DicomInputStream(spoolingPath.toFile())) {
+                            dis.setIncludeBulkData(DicomInputStream.IncludeBulkData.URI);
+                            Attributes data = dis.readDataset(-1, -1);
+                            context.setOriginalAttributes(data);
+                            Attributes dsFMI = dis.readFileMetaInformation();
+                            context.setTransferSyntax(dsFMI != null ? dsFMI.getString(Tag.TransferSyntaxUID) :
+                                    fmi != null ? fmi.getString(Tag.TransferSyntaxUID) : UID.ImplicitVRLittleEndian);
+                        }
                     }
                 }
             }
@@ -135,4 +144,31 @@ public class FileSpooler implements Spooler {
 
         context.setSpoolingContext(spoolingContext);
     }
+
+    /**
+     * Parses the data set from {@code tee}, referencing bulk data by its
+     * offset in the spool file to which {@code tee} writes.
+     */
+    private static void parse(StoreContext context, TeeInputStream tee,
+            Path spoolingPath) throws IOException {
+        Attributes fmi = context.getFileMetainfo();
+        @SuppressWarnings("resource") // does not close the received stream
+        DicomInputStream dis = new DicomInputStream(tee);
+        dis.setURI(spoolingPath.toFile().toURI().toString());
+        dis.setIncludeBulkData(DicomInputStream.IncludeBulkData.URI);
+        Attributes data = dis.readDataset(-1, -1);
+        tee.drain();
+        context.setOriginalAttributes(data);
+        Attributes dsFMI = dis.readFileMetaInformation();
+        context.setTransferSyntax(dsFMI != null ? dsFMI.getString(Tag.TransferSyntaxUID) :
+                fmi != null ? fmi.getString(Tag.TransferSyntaxUID) : UID.ImplicitVRLittleEndian);
+    }
+
+    private static byte[] encodeFileMetaInformation(Attributes fmi) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        try (DicomOutputStream dout = new DicomOutputStream(out, UID.ExplicitVRLittleEndian)) {
+            dout.writeFileMetaInformation(fmi);
+        }
+        return out.toByteArray();
+    }
 }
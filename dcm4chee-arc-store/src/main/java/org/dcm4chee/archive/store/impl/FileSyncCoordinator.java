@@ -0,0 +1,248 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.store.impl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.service.StorageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Syncs stored files of all Store Sessions in batches per Storage System.
+ * <p>
+ * A batch is synced if it contains
+ * {@link ArchiveDeviceExtension#getFileSyncMaxFiles()} files or
+ * {@link ArchiveDeviceExtension#getFileSyncMaxBytes()} bytes, or
+ * {@link ArchiveDeviceExtension#getFileSyncMaxDelay()} ms after its first
+ * file was added, or if there is no other store in progress which could add
+ * a file to the batch. After the files, their parent directories are synced.
+ * The {@code Future} returned by {@link #sync} completes after the batch
+ * containing the file was synced; whether and when the Store Service waits
+ * for it, depends on the {@code SyncPolicy} of the Storage System.
+ *
+ * @author agent <agent@local>
+ */
+@ApplicationScoped
+public class FileSyncCoordinator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileSyncCoordinator.class);
+
+    @Inject
+    private Device device;
+
+    @Inject
+    private StorageService storageService;
+
+    @Inject
+    private StoreExecutor executor;
+
+    private final Map<String, Batch> batches = new HashMap<String, Batch>();
+    private final AtomicInteger storesInProgress = new AtomicInteger();
+
+    public Future<Void> sync(StorageSystem system, String path, long size) {
+        ArchiveDeviceExtension arcDev =
+                device.getDeviceExtension(ArchiveDeviceExtension.class);
+        int maxDelay = arcDev.getFileSyncMaxDelay();
+        long maxBytes = arcDev.getFileSyncMaxBytes();
+        int maxFiles = arcDev.getFileSyncMaxFiles();
+        String key = system.getStorageSystemGroup().getGroupID()
+                + '/' + system.getStorageSystemID();
+        Batch batch;
+        boolean full;
+        synchronized (batches) {
+            batch = batches.get(key);
+            if (batch == null) {
+                batch = new Batch(key, system);
+                if (maxDelay > 0) {
+                    batches.put(key, batch);
+                    batch.timeout = device.schedule(
+                            batch.onTimeout(), maxDelay, TimeUnit.MILLISECONDS);
+                }
+            }
+            batch.paths.add(path);
+            batch.bytes += size;
+            full = maxDelay <= 0
+                    || storesInProgress.get() <= 1
+                    || batch.paths.size() >= maxFiles
+                    || maxBytes > 0 && batch.bytes >= maxBytes;
+            if (full && batches.remove(key) != null)
+                batch.timeout.cancel(false);
+        }
+        if (full)
+            executor.execute(batch.future);
+        return batch.future;
+    }
+
+    /**
+     * Called when a store begins, so a batch is only kept open for further
+     * files while other stores are in progress.
+     */
+    public void beginStore() {
+        storesInProgress.incrementAndGet();
+    }
+
+    /**
+     * Called when a store ends, before it waits for the sync of its file.
+     * Syncs the open batches if no other store is in progress.
+     */
+    public void endStore() {
+        if (storesInProgress.decrementAndGet() > 0)
+            return;
+
+        List<Batch> pending;
+        synchronized (batches) {
+            if (batches.isEmpty())
+                return;
+            pending = new ArrayList<Batch>(batches.values());
+            batches.clear();
+        }
+        for (Batch batch : pending) {
+            batch.timeout.cancel(false);
+            executor.execute(batch.future);
+        }
+    }
+
+    /**
+     * Syncs the batches collected so far.
+     */
+    @PreDestroy
+    public void shutdown() {
+        List<Batch> pending;
+        synchronized (batches) {
+            pending = new ArrayList<Batch>(batches.values());
+            batches.clear();
+        }
+        for (Batch batch : pending) {
+            batch.timeout.cancel(false);
+            batch.future.run();
+        }
+    }
+
+    private void syncDirectories(StorageSystem system, List<String> paths) {
+        String basePath = system.getStorageSystemPath();
+        if (basePath == null)
+            return;
+
+        Set<Path> dirs = new LinkedHashSet<Path>();
+        try {
+            for (String path : paths)
+                dirs.add(Paths.get(basePath, path).getParent());
+        } catch (InvalidPathException e) {
+            return; // not a file system
+        }
+        for (Path dir : dirs) {
+            if (!Files.isDirectory(dir))
+                continue;
+            try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException e) {
+                // not supported on all platforms
+                LOG.debug("Failed to sync directory {}:", dir, e);
+            }
+        }
+    }
+
+    private final class Batch implements Callable<Void> {
+
+        final String key;
+        final StorageSystem system;
+        final List<String> paths = new ArrayList<String>();
+        final FutureTask<Void> future = new FutureTask<Void>(this);
+        long bytes;
+        ScheduledFuture<?> timeout;
+
+        Batch(String key, StorageSystem system) {
+            this.key = key;
+            this.system = system;
+        }
+
+        Runnable onTimeout() {
+            return new Runnable() {
+
+                @Override
+                public void run() {
+                    synchronized (batches) {
+                        if (batches.get(key) != Batch.this)
+                            return;
+                        batches.remove(key);
+                    }
+                    // not by the store executor, which runs the task in the
+                    // calling thread if it is saturated, and so would block
+                    // the scheduler of the device
+                    device.execute(future);
+                }
+            };
+        }
+
+        @Override
+        public Void call() throws IOException {
+            LOG.debug("Sync {} files [{} bytes] on {}", paths.size(), bytes, key);
+            storageService.syncFiles(system, paths);
+            syncDirectories(system, paths);
+            return null;
+        }
+    }
+}
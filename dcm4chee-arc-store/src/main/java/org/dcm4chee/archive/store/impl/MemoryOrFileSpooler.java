@@ -7,7 +7,6 @@ import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomOutputStream;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.service.DicomServiceException;
-import org.dcm4che3.util.SafeClose;
 import org.dcm4che3.util.TagUtils;
 import org.dcm4chee.archive.store.Spooler;
 import org.dcm4chee.archive.store.StoreContext;
@@ -40,8 +39,6 @@ public class MemoryOrFileSpooler implements Spooler {
     @Inject
     private FileSpooler fileSpooler;
 
-    private static final int DEFAULT_READ_SIZE = 1024 * 2;
-
     public void spool(StoreContext context, boolean parse) throws DicomServiceException {
 
         StoreSession session = context.getStoreSession();
@@ -52,38 +49,23 @@ public class MemoryOrFileSpooler implements Spooler {
         InputStream in = context.getInputStream();
 
         int cutoffLength = spoolingStorage.getSpoolingCutoffLength();
-        ByteArrayOutputStream bufferOS = new ByteArrayOutputStream(cutoffLength);
-        boolean spoolToFile = false;
+        SpoolBuffer buffer = new SpoolBuffer(cutoffLength);
+        boolean spoolToFile;
 
         try {
-            int nRead;
-            long readBytes = 0;
-            byte[] data = new byte[DEFAULT_READ_SIZE];
-
-            while ((nRead = in.read(data, 0, data.length)) != -1) {
-
-                bufferOS.write(data, 0, nRead);
-                readBytes+=nRead;
-
-                if ((readBytes+DEFAULT_READ_SIZE)>cutoffLength) {
-                    spoolToFile = true;
-                    break;
-                }
-            }
-
+            spoolToFile = !buffer.readFrom(in);
         } catch (IOException e) {
             throw new DicomServiceException(Status.UnableToProcess, e);
         }
 
         if (spoolToFile) {
-            fileSpooler.flushNspool(context, bufferOS.toByteArray(),parse);
-            SafeClose.close(bufferOS);
+            fileSpooler.flushNspool(context, buffer, parse);
         }
         else {
             if (parse) {
                 try {
                     DicomInputStream dis;
-                    ByteArrayInputStream bais = new ByteArrayInputStream(bufferOS.toByteArray());
+                    InputStream bais = buffer.toInputStream();
                     if (fmi!=null && fmi.getString(Tag.TransferSyntaxUID)!=null)
                         dis = new DicomInputStream(bais, fmi.getString(Tag.TransferSyntaxUID));
                     else
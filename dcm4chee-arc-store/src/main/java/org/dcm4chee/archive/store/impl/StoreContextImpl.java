@@ -47,7 +47,9 @@ import org.dcm4chee.archive.store.StoreSession;
 import org.dcm4chee.storage.StorageContext;
 
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.TimeZone;
 import java.util.concurrent.Future;
 
@@ -68,7 +70,9 @@ public class StoreContextImpl implements StoreContext {
     private Instance instance;
     private Location fileRef;
     private Throwable throwable;
-    private HashMap<String,Object> properties = new HashMap<>();
+    // also accessed by the thread processing the file
+    private Map<String,Object> properties =
+            Collections.synchronizedMap(new HashMap<String,Object>());
     private TimeZone sourceTimeZone;
     private boolean fetch;
     private Attributes fileMetainfo;
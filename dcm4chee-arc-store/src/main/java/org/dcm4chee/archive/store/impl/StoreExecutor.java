@@ -0,0 +1,222 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.store.impl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.ArchiveServiceReloaded;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.event.StartStopReloadEvent;
+import org.dcm4chee.archive.store.StoreExecutorMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded thread pool executing the background work of the Store Service:
+ * processing of received files, storage of metadata and deferred syncing of
+ * stored files.
+ * <p>
+ * The pool size and the queue capacity are configured by
+ * {@link ArchiveDeviceExtension#getStoreExecutorCorePoolSize()},
+ * {@link ArchiveDeviceExtension#getStoreExecutorMaxPoolSize()} and
+ * {@link ArchiveDeviceExtension#getStoreExecutorQueueSize()}. If all threads
+ * are busy and the queue is full, the task is executed by the submitting
+ * thread, which throttles the association receiving the objects.
+ *
+ * @author agent <agent@local>
+ */
+@ApplicationScoped
+public class StoreExecutor implements StoreExecutorMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StoreExecutor.class);
+
+    private static final long KEEP_ALIVE_TIME = 60L;
+    private static final long SHUTDOWN_TIMEOUT = 30000L;
+
+    @Inject
+    private Device device;
+
+    private ThreadPoolExecutor executor;
+    private final AtomicLong rejected = new AtomicLong();
+
+    public <T> Future<T> submit(Callable<T> task) {
+        return executor().submit(task);
+    }
+
+    public void execute(Runnable task) {
+        executor().execute(task);
+    }
+
+    @Override
+    public int getActiveCount() {
+        ThreadPoolExecutor executor = this.executor;
+        return executor != null ? executor.getActiveCount() : 0;
+    }
+
+    @Override
+    public int getPoolSize() {
+        ThreadPoolExecutor executor = this.executor;
+        return executor != null ? executor.getPoolSize() : 0;
+    }
+
+    @Override
+    public int getQueueSize() {
+        ThreadPoolExecutor executor = this.executor;
+        return executor != null ? executor.getQueue().size() : 0;
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        ThreadPoolExecutor executor = this.executor;
+        return executor != null ? executor.getCompletedTaskCount() : 0L;
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private synchronized ThreadPoolExecutor executor() {
+        if (executor == null) {
+            ArchiveDeviceExtension arcDev =
+                    device.getDeviceExtension(ArchiveDeviceExtension.class);
+            int corePoolSize = Math.max(1, arcDev.getStoreExecutorCorePoolSize());
+            int maxPoolSize = Math.max(corePoolSize, arcDev.getStoreExecutorMaxPoolSize());
+            int queueSize = Math.max(1, arcDev.getStoreExecutorQueueSize());
+            executor = new ThreadPoolExecutor(corePoolSize, maxPoolSize,
+                    KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize),
+                    new StoreThreadFactory(),
+                    new CallerRunsPolicy());
+            LOG.info("Started store executor [corePoolSize={}, maxPoolSize={}, queueSize={}]",
+                    corePoolSize, maxPoolSize, queueSize);
+        }
+        return executor;
+    }
+
+    /**
+     * Applies changed pool sizes to a running executor. A changed queue
+     * size takes effect on the next start of the application.
+     */
+    public synchronized void onArchiveServiceReloaded(
+            @Observes @ArchiveServiceReloaded StartStopReloadEvent reload) {
+        if (executor == null)
+            return;
+
+        ArchiveDeviceExtension arcDev = reload.getDevice()
+                .getDeviceExtension(ArchiveDeviceExtension.class);
+        int corePoolSize = Math.max(1, arcDev.getStoreExecutorCorePoolSize());
+        int maxPoolSize = Math.max(corePoolSize, arcDev.getStoreExecutorMaxPoolSize());
+        if (corePoolSize == executor.getCorePoolSize()
+                && maxPoolSize == executor.getMaximumPoolSize())
+            return;
+
+        if (maxPoolSize < executor.getCorePoolSize()) {
+            executor.setCorePoolSize(corePoolSize);
+            executor.setMaximumPoolSize(maxPoolSize);
+        } else {
+            executor.setMaximumPoolSize(maxPoolSize);
+            executor.setCorePoolSize(corePoolSize);
+        }
+        LOG.info("Reconfigured store executor [corePoolSize={}, maxPoolSize={}]",
+                corePoolSize, maxPoolSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ThreadPoolExecutor executor;
+        synchronized (this) {
+            executor = this.executor;
+        }
+        if (executor == null)
+            return;
+
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS))
+                LOG.warn("{} store tasks not completed on shutdown",
+                        executor.shutdownNow().size());
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class CallerRunsPolicy extends ThreadPoolExecutor.CallerRunsPolicy {
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+            if (e.isShutdown())
+                throw new RejectedExecutionException("Store executor shut down");
+
+            long count = rejected.incrementAndGet();
+            if (count == 1 || count % 100 == 0)
+                LOG.info("Store executor saturated - {} tasks executed by the caller",
+                        count);
+            super.rejectedExecution(r, e);
+        }
+    }
+
+    private static class StoreThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "store-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.store.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4chee.archive.conf.StoreAction;
+import org.dcm4chee.archive.entity.Instance;
+import org.dcm4chee.archive.entity.Location;
+import org.dcm4chee.archive.store.StoreContext;
+
+/**
+ * Collects the instances of one {@link org.dcm4chee.archive.store.StoreSession}
+ * which are ready to be written to the database, so they can be committed in
+ * one transaction.
+ * <p>
+ * The first instance joining a group waits until the group contains
+ * {@code maxInstances} instances, until {@code maxDelay} ms passed, or until
+ * there is no other store of the session in progress which could still join
+ * the group. Then the group is committed by the thread of that first instance,
+ * while the threads of the other instances wait for the outcome. If the
+ * commit of the group fails, each thread commits its instance separately, so
+ * a failure is only reported for the instance which caused it. Before, the
+ * state of its {@link StoreContext} is reset to the state before the group
+ * commit, because the rolled back transaction may have already changed it.
+ *
+ * @author agent <agent@local>
+ */
+class StoreGroupCommit {
+
+    interface Committer {
+        void commit(List<StoreContext> contexts) throws DicomServiceException;
+    }
+
+    /**
+     * State of a {@link StoreContext} which is changed by writing the
+     * instance to the database.
+     */
+    static final class ContextState {
+        private final Attributes attributes;
+        private final Attributes coercedOriginalAttributes;
+        private final StoreAction storeAction;
+        private final Instance instance;
+        private final Location fileRef;
+
+        ContextState(StoreContext context) {
+            this.attributes = copyOf(context.getAttributes());
+            this.coercedOriginalAttributes =
+                    copyOf(context.getCoercedOriginalAttributes());
+            this.storeAction = context.getStoreAction();
+            this.instance = context.getInstance();
+            this.fileRef = context.getFileRef();
+        }
+
+        void restore(StoreContext context) {
+            context.setAttributesForDatabase(copyOf(attributes));
+            context.setCoercedOriginalAttributes(
+                    copyOf(coercedOriginalAttributes));
+            context.setStoreAction(storeAction);
+            context.setInstance(instance);
+            context.setFileRef(fileRef);
+        }
+
+        private static Attributes copyOf(Attributes attrs) {
+            return attrs != null ? new Attributes(attrs) : null;
+        }
+    }
+
+    private static final class Group {
+        final List<StoreContext> contexts = new ArrayList<>();
+        boolean done;
+        DicomServiceException failure;
+    }
+
+    private final int maxInstances;
+    private final long maxDelay;
+    private int storesInProgress;
+    private Group open;
+
+    StoreGroupCommit(int maxInstances, long maxDelay) {
+        this.maxInstances = maxInstances;
+        this.maxDelay = maxDelay;
+    }
+
+    synchronized void beginStore() {
+        storesInProgress++;
+    }
+
+    synchronized void endStore() {
+        storesInProgress--;
+        notifyAll();
+    }
+
+    void commit(StoreContext context, Committer committer)
+            throws DicomServiceException {
+        ContextState state = new ContextState(context);
+        Group group;
+        boolean leader;
+        synchronized (this) {
+            leader = open == null;
+            if (leader)
+                open = new Group();
+            group = open;
+            group.contexts.add(context);
+            notifyAll();
+            if (leader) {
+                awaitGroupComplete(group);
+                open = null;
+            } else {
+                awaitGroupDone(group);
+            }
+        }
+        if (leader)
+            commitGroup(group, committer);
+        if (group.failure != null) {
+            if (group.contexts.size() == 1)
+                throw group.failure;
+            state.restore(context);
+            committer.commit(Collections.singletonList(context));
+        }
+    }
+
+    private void awaitGroupComplete(Group group) {
+        long end = System.currentTimeMillis() + maxDelay;
+        long remaining;
+        while (group.contexts.size() < maxInstances
+                && group.contexts.size() < storesInProgress
+                && (remaining = end - System.currentTimeMillis()) > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    private void awaitGroupDone(Group group) throws DicomServiceException {
+        while (!group.done) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DicomServiceException(Status.UnableToProcess, e);
+            }
+        }
+    }
+
+    private void commitGroup(Group group, Committer committer) {
+        try {
+            committer.commit(group.contexts);
+        } catch (DicomServiceException e) {
+            group.failure = e;
+        } catch (RuntimeException e) {
+            group.failure = new DicomServiceException(Status.UnableToProcess, e);
+        } finally {
+            synchronized (this) {
+                group.done = true;
+                notifyAll();
+            }
+        }
+    }
+}
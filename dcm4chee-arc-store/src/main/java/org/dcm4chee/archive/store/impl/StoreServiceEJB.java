@@ -83,6 +83,9 @@ public class StoreServiceEJB {
 
     static Logger LOG = LoggerFactory.getLogger(StoreServiceEJB.class);
 
+    private static final String SERIES_CREATED = StoreServiceEJB.class.getName() + ".seriesCreated";
+    private static final String SERIES_UPDATED = StoreServiceEJB.class.getName() + ".seriesUpdated";
+
     @PersistenceContext(name = "dcm4chee-arc", unitName="dcm4chee-arc")
     private EntityManager em;
 
@@ -112,43 +115,103 @@ public class StoreServiceEJB {
     public void updateDB(StoreContext context)
             throws DicomServiceException {
 
-        StoreSession session = context.getStoreSession();
-        StoreService service = session.getStoreService();
-        Instance instance = service.findOrCreateInstance(em, context);
-        context.setInstance(instance);
+        findOrCreateInstance(context);
+        boolean located = updateLocations(context);
+        calculateImplicitlyCoercedAttributes(context);
 
-        // flush and then clean derived study/series fields, to make sure that it happens "after" in the transaction
+        // flush and then update derived study/series fields, to make sure that it happens "after" in the transaction
         // (otherwise there was a race-condition that a concurrent calculation of derived fields using an old state was able to persist)
         em.flush();
-        em.createNamedQuery(SeriesQueryAttributes.CLEAN_FOR_SERIES).setParameter(1, instance.getSeries().getPk()).executeUpdate();
-        em.createNamedQuery(StudyQueryAttributes.CLEAN_FOR_STUDY).setParameter(1, instance.getSeries().getStudy().getPk()).executeUpdate();
+        updateQueryAttributes(context, located);
+    }
 
-        if (context.getStoreAction() != StoreAction.IGNORE &&
-                context.getStoreAction() != StoreAction.UPDATEDB) {
-            try {
-                findOrCreateStudyOnStorageGroup(context);
-                Future<StorageContext> metadataContextFuture = context.getMetadataContext();
-                if (metadataContextFuture != null && metadataContextFuture.get() != null) {
-                    Location metadata = createMetadataLocation(context);
-                    metadata.addInstance(instance);
-                }
+    /**
+     * Writes the instances of a group of received objects in one transaction.
+     * The derived study/series fields are updated after all instances of the
+     * group were flushed.
+     */
+    public void updateDB(Collection<StoreContext> contexts)
+            throws DicomServiceException {
 
-                Future<StorageContext> bulkdataContextFuture = context.getBulkdataContext();
-                if (bulkdataContextFuture != null && bulkdataContextFuture.get() != null) {
-                    Location bulkdata = createBulkdataLocation(context);
-                    bulkdata.addInstance(instance);
-                    context.setFileRef(bulkdata);
+        boolean[] located = new boolean[contexts.size()];
+        int i = 0;
+        for (StoreContext context : contexts) {
+            findOrCreateInstance(context);
+            located[i++] = updateLocations(context);
+            calculateImplicitlyCoercedAttributes(context);
+        }
 
-                    updateRetrieveAETs(session, instance);
-                    updateAvailability(session, instance);
-                }
+        em.flush();
+        i = 0;
+        for (StoreContext context : contexts)
+            updateQueryAttributes(context, located[i++]);
+    }
 
-            } catch (Exception e) {
-                throw new DicomServiceException(Status.UnableToProcess, e);
-            }
+    private Instance findOrCreateInstance(StoreContext context)
+            throws DicomServiceException {
+        // reset flags of a previous, rolled back attempt
+        context.removeProperty(SERIES_CREATED);
+        context.removeProperty(SERIES_UPDATED);
+        StoreService service = context.getStoreSession().getStoreService();
+        Instance instance = service.findOrCreateInstance(em, context);
+        context.setInstance(instance);
+        return instance;
+    }
+
+    /**
+     * Adds a new received instance to the derived fields of its series and
+     * study. Replaced or updated instances, and instances which changed the
+     * attributes of an existing series, clean the derived fields, which are
+     * then recalculated by the next query.
+     */
+    private void updateQueryAttributes(StoreContext context, boolean located) {
+        Instance instance = context.getInstance();
+        Series series = instance.getSeries();
+        if (context.getStoreAction() == StoreAction.STORE
+                && context.getProperty(SERIES_UPDATED) == null) {
+            new QueryAttributesUpdater(
+                    device.getDeviceExtension(ArchiveDeviceExtension.class))
+                .addInstance(instance, located,
+                        context.getProperty(SERIES_CREATED) != null);
+        } else {
+            series.clearQueryAttributes();
+            series.getStudy().clearQueryAttributes();
         }
+    }
 
-        calculateImplicitlyCoercedAttributes(context);
+    private boolean updateLocations(StoreContext context)
+            throws DicomServiceException {
+        if (context.getStoreAction() == StoreAction.IGNORE
+                || context.getStoreAction() == StoreAction.UPDATEDB)
+            return false;
+
+        StoreSession session = context.getStoreSession();
+        Instance instance = context.getInstance();
+        boolean located = false;
+        try {
+            findOrCreateStudyOnStorageGroup(context);
+            Future<StorageContext> metadataContextFuture = context.getMetadataContext();
+            if (metadataContextFuture != null && metadataContextFuture.get() != null) {
+                Location metadata = createMetadataLocation(context);
+                metadata.addInstance(instance);
+                located = true;
+            }
+
+            Future<StorageContext> bulkdataContextFuture = context.getBulkdataContext();
+            if (bulkdataContextFuture != null && bulkdataContextFuture.get() != null) {
+                Location bulkdata = createBulkdataLocation(context);
+                bulkdata.addInstance(instance);
+                context.setFileRef(bulkdata);
+                located = true;
+
+                updateRetrieveAETs(session, instance);
+                updateAvailability(session, instance);
+            }
+
+        } catch (Exception e) {
+            throw new DicomServiceException(Status.UnableToProcess, e);
+        }
+        return located;
     }
 
     private void calculateImplicitlyCoercedAttributes(StoreContext context) {
@@ -219,6 +282,7 @@ public class StoreServiceEJB {
         //update time on db
         updateSeriesTime(series, device, context);
         em.persist(series);
+        context.setProperty(SERIES_CREATED, Boolean.TRUE);
         LOG.info("{}: Create {}", session, series);
         return series;
     }
@@ -422,6 +486,7 @@ public class StoreServiceEJB {
         if (isRejected(series)) {
             em.remove(series.getAttributesBlob());
             series.setAttributes(new Attributes(attrs), seriesFilter, fuzzyStr, nullValue);
+            context.setProperty(SERIES_UPDATED, Boolean.TRUE);
         } else {
             if (!isFetch(context, session)) {
 
@@ -430,6 +495,7 @@ public class StoreServiceEJB {
 
                 if (attrs_updated) {
                     series.setAttributes(seriesAttrs, seriesFilter, fuzzyStr, nullValue);
+                    context.setProperty(SERIES_UPDATED, Boolean.TRUE);
                     boolean deident = storeParam.isDeIdentifyLogs();
                     LOG.info("{}: Update {}:\n{}\nmodified:\n{}", session, series,
                             deident ? seriesAttrs.toString(ArchiveDeidentifier.DEFAULT) : seriesAttrs,
@@ -49,13 +49,12 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -73,7 +72,6 @@ import org.dcm4che3.io.BulkDataDescriptor;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
 import org.dcm4che3.io.DicomOutputStream;
-import org.dcm4che3.io.SAXTransformer;
 import org.dcm4che3.io.SAXTransformer.SetupTransformer;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Device;
@@ -81,11 +79,12 @@ import org.dcm4che3.net.Dimse;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.TransferCapability;
 import org.dcm4che3.net.service.DicomServiceException;
-import org.dcm4che3.util.AttributesFormat;
 import org.dcm4che3.util.DateUtils;
 import org.dcm4che3.util.SafeClose;
 import org.dcm4chee.archive.conf.ArchiveAEExtension;
 import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.conf.CoercionTransformer;
+import org.dcm4chee.archive.conf.DeclarativeCoercion;
 import org.dcm4chee.archive.conf.Entity;
 import org.dcm4chee.archive.conf.StoreAction;
 import org.dcm4chee.archive.entity.Instance;
@@ -98,6 +97,7 @@ import org.dcm4chee.archive.locationmgmt.LocationMgmt;
 import org.dcm4chee.archive.monitoring.api.Monitored;
 import org.dcm4chee.archive.patient.PatientSelectorFactory;
 import org.dcm4chee.archive.patient.PatientService;
+import org.dcm4chee.archive.store.StoragePathFormat;
 import org.dcm4chee.archive.store.StoreContext;
 import org.dcm4chee.archive.store.StoreService;
 import org.dcm4chee.archive.store.StoreSession;
@@ -124,11 +124,17 @@ public class StoreServiceImpl implements StoreService {
 
     static Logger LOG = LoggerFactory.getLogger(StoreServiceImpl.class);
 
-    static ExecutorService executor = Executors.newCachedThreadPool();
+    private static final String NO_DB_ATTRIBUTES = StoreServiceImpl.class.getName() + ".noDBAttributes";
 
     @Inject
     private StoreServiceEJB storeServiceEJB;
 
+    @Inject
+    private StoreExecutor executor;
+
+    @Inject
+    private FileSyncCoordinator fileSync;
+
     @Inject
     private StorageService storageService;
 
@@ -171,6 +177,30 @@ public class StoreServiceImpl implements StoreService {
         initBulkdataStorage(session);
         initMetadataStorage(session);
         initSpoolingStorage(session);
+        initGroupCommit(session);
+        initFileSync(session);
+    }
+
+    private void initFileSync(StoreSession session) {
+        session.setProperty(FileSyncCoordinator.class.getName(),
+                Collections.synchronizedList(new ArrayList<Future<Void>>()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Future<Void>> getPendingSyncs(StoreSession session) {
+        return (List<Future<Void>>) session.getProperty(FileSyncCoordinator.class.getName());
+    }
+
+    private void initGroupCommit(StoreSession session) {
+        ArchiveAEExtension arcAE = session.getArchiveAEExtension();
+        if (arcAE.isStoreGroupCommit())
+            session.setProperty(StoreGroupCommit.class.getName(),
+                    new StoreGroupCommit(arcAE.getStoreGroupCommitMaxInstances(),
+                            arcAE.getStoreGroupCommitMaxDelay()));
+    }
+
+    private static StoreGroupCommit getGroupCommit(StoreSession session) {
+        return (StoreGroupCommit) session.getProperty(StoreGroupCommit.class.getName());
     }
 
     private void initBulkdataStorage(StoreSession session)
@@ -372,8 +402,12 @@ public class StoreServiceImpl implements StoreService {
     public void store(StoreContext context) throws DicomServiceException {
         StoreSession session = context.getStoreSession();
         StoreService service = session.getStoreService();
+        StoreGroupCommit groupCommit = getGroupCommit(session);
         updateFetchStatus(context);
 
+        if (groupCommit != null)
+            groupCommit.beginStore();
+        fileSync.beginStore();
         try {
             // spools either in memory or file
             //service.spool(context);
@@ -395,6 +429,9 @@ public class StoreServiceImpl implements StoreService {
             context.setThrowable(e);
             throw e;
         } finally {
+            if (groupCommit != null)
+                groupCommit.endStore();
+            fileSync.endStore();
             syncFilesOnStore(session);
             service.fireStoreEvent(context);
             service.cleanup(context);
@@ -432,15 +469,24 @@ public class StoreServiceImpl implements StoreService {
         final StoreSession session = context.getStoreSession();
         ArchiveAEExtension arcAE = session.getArchiveAEExtension();
         Attributes attrs = context.getAttributes();
+        if (session.getRemoteAET() == null)
+            return;
+
         try {
             Attributes modified = context.getCoercedOriginalAttributes();
-            Templates tpl = session.getRemoteAET() != null ? arcAE
-                    .getAttributeCoercionTemplates(
-                            attrs.getString(Tag.SOPClassUID), Dimse.C_STORE_RQ,
-                            TransferCapability.Role.SCP, session.getRemoteAET())
-                    : null;
+            DeclarativeCoercion coercion = arcAE.getDeclarativeAttributeCoercion(
+                    attrs.getString(Tag.SOPClassUID), Dimse.C_STORE_RQ,
+                    TransferCapability.Role.SCP, session.getRemoteAET());
+            if (coercion != null) {
+                coercion.coerce(attrs, modified);
+                return;
+            }
+
+            Templates tpl = arcAE.getAttributeCoercionTemplates(
+                    attrs.getString(Tag.SOPClassUID), Dimse.C_STORE_RQ,
+                    TransferCapability.Role.SCP, session.getRemoteAET());
             if (tpl != null) {
-                attrs.update(SAXTransformer.transform(attrs, tpl, false, false,
+                attrs.update(CoercionTransformer.transform(attrs, tpl,
                         new SetupTransformer() {
 
                             @Override
@@ -510,6 +556,14 @@ public class StoreServiceImpl implements StoreService {
                 out = new BufferedOutputStream(out, bufferLength);
                 out = new DicomOutputStream(out, UID.ExplicitVRLittleEndian);
                 ((DicomOutputStream) out).writeDataset(fmi, originalAttributes);
+
+                // the stored object is just the encoding of the received
+                // attributes, so select the non-db attributes from them to
+                // spare the re-read of the file by noDBAttsDigest
+                if (context.getStoreSession().getArchiveAEExtension()
+                        .isCheckNonDBAttributesOnStorage())
+                    context.setProperty(NO_DB_ATTRIBUTES,
+                            selectNoDBAtts(originalAttributes));
             } catch (Exception e) {
                 throw new DicomServiceException(Status.UnableToProcess, e);
             } finally {
@@ -518,6 +572,8 @@ public class StoreServiceImpl implements StoreService {
                     bulkdataContext.setFilePath(Paths.get(bulkdataPath));
                     bulkdataContext.setFileSize(Files.size(Paths.get(bulkdataStorageSystem.getStorageSystemPath(), bulkdataPath)));
                     context.getStoreSession().addStoredFile(bulkdataPath);
+                    scheduleSync(context.getStoreSession(), bulkdataStorageSystem,
+                            bulkdataPath, bulkdataContext.getFileSize());
                 } catch (IOException e) {
                     throw new DicomServiceException(Status.UnableToProcess, e);
                 }
@@ -530,16 +586,50 @@ public class StoreServiceImpl implements StoreService {
     @Override
     public void updateDB(final StoreContext context) throws DicomServiceException {
 
+        StoreGroupCommit groupCommit = getGroupCommit(context.getStoreSession());
+        if (groupCommit != null) {
+            groupCommit.commit(context, new StoreGroupCommit.Committer() {
+                @Override
+                public void commit(List<StoreContext> contexts) throws DicomServiceException {
+                    updateDB(contexts);
+                }
+            });
+        } else {
+            // try to call updateDB, eventually retries
+            retry.retry(new RetryBean.Retryable<Void, DicomServiceException>() {
+                @Override
+                public Void call() throws DicomServiceException {
+                    storeServiceEJB.updateDB(context);
+                    return null;
+                }
+            });
+        }
+
+        logCoercedAttributes(context);
+    }
+
+    private void updateDB(final List<StoreContext> contexts) throws DicomServiceException {
+
+        final List<StoreGroupCommit.ContextState> states =
+                new ArrayList<StoreGroupCommit.ContextState>(contexts.size());
+        for (StoreContext context : contexts)
+            states.add(new StoreGroupCommit.ContextState(context));
+
         // try to call updateDB, eventually retries
         retry.retry(new RetryBean.Retryable<Void, DicomServiceException>() {
+            boolean retried;
+
             @Override
             public Void call() throws DicomServiceException {
-                storeServiceEJB.updateDB(context);
+                // a retry must not see the changes of the rolled back attempt
+                if (retried)
+                    for (int i = 0; i < contexts.size(); i++)
+                        states.get(i).restore(contexts.get(i));
+                retried = true;
+                storeServiceEJB.updateDB(contexts);
                 return null;
             }
         });
-
-        logCoercedAttributes(context);
     }
 
     private void logCoercedAttributes(StoreContext context) {
@@ -590,7 +680,7 @@ public class StoreServiceImpl implements StoreService {
             if (context.getStoreSession().getArchiveAEExtension().isCheckNonDBAttributesOnStorage()) {
                 String nodbAttrsDigest;
                 try {
-                    nodbAttrsDigest = noDBAttsDigest(bulkdataContext.getFilePath(), context.getStoreSession());
+                    nodbAttrsDigest = noDBAttsDigest(bulkdataContext.getFilePath(), context);
                 } catch (IOException e) {
                     throw new DicomServiceException(Status.UnableToProcess, e);
                 }
@@ -610,10 +700,7 @@ public class StoreServiceImpl implements StoreService {
 
     private String calculatePath(StorageSystem system, Attributes attributes) {
         String pattern = system.getStorageSystemGroup().getStorageFilePathFormat();
-        AttributesFormat format = AttributesFormat.valueOf(pattern);
-        synchronized (format) {
-            return format.format(attributes);
-        }
+        return StoragePathFormat.format(pattern, attributes);
     }
 
     private boolean hasSameSourceAET(Instance instance, String remoteAET) {
@@ -864,25 +951,29 @@ public class StoreServiceImpl implements StoreService {
     }
 
     /**
-     * Given a reference to a stored object, retrieves it and calculates the
-     * digest of all the attributes (including bulk data), not stored in the
-     * database. This step is optionally skipped by configuration.
+     * Calculates the digest of all the attributes (including bulk data) of
+     * the stored object, not stored in the database. Uses the attributes
+     * selected by {@link #processFile} if available, otherwise retrieves
+     * and parses the stored object. This step is optionally skipped by
+     * configuration.
      */
-    private String noDBAttsDigest(Path path, StoreSession session) throws IOException {
+    String noDBAttsDigest(Path path, StoreContext context) throws IOException {
 
+        StoreSession session = context.getStoreSession();
         if (session.getArchiveAEExtension().isCheckNonDBAttributesOnStorage()) {
 
-            // retrieves and parses the object
-            RetrieveContext retrieveContext = retrieveService.createRetrieveContext(session.getStorageSystem());
-            InputStream stream = retrieveService.openInputStream(retrieveContext, path.toString());
-            DicomInputStream dstream = new DicomInputStream(stream);
-            dstream.setIncludeBulkData(IncludeBulkData.URI);
-            Attributes attrs = dstream.readDataset(-1, -1);
-            dstream.close();
-
-            // selects attributes non stored in the db
-            Attributes noDBAtts = new Attributes();
-            noDBAtts.addNotSelected(attrs, getStoreFilters(attrs));
+            Attributes noDBAtts = (Attributes) context.removeProperty(NO_DB_ATTRIBUTES);
+            if (noDBAtts == null) {
+                // retrieves and parses the object
+                RetrieveContext retrieveContext = retrieveService.createRetrieveContext(session.getStorageSystem());
+                InputStream stream = retrieveService.openInputStream(retrieveContext, path.toString());
+                DicomInputStream dstream = new DicomInputStream(stream);
+                dstream.setIncludeBulkData(IncludeBulkData.URI);
+                Attributes attrs = dstream.readDataset(-1, -1);
+                dstream.close();
+
+                noDBAtts = selectNoDBAtts(attrs);
+            }
 
             return Utils.digestAttributes(noDBAtts, session.getMessageDigest());
         } else {
@@ -890,6 +981,15 @@ public class StoreServiceImpl implements StoreService {
         }
     }
 
+    /**
+     * Selects the attributes non stored in the db.
+     */
+    Attributes selectNoDBAtts(Attributes attrs) {
+        Attributes noDBAtts = new Attributes();
+        noDBAtts.addNotSelected(attrs, getStoreFilters(attrs));
+        return noDBAtts;
+    }
+
     @Override
     public void beginProcessFile(final StoreContext context) {
 
@@ -937,44 +1037,70 @@ public class StoreServiceImpl implements StoreService {
         syncFiles(session, false);
     }
 
-    private void syncFiles(StoreSession session, boolean onClose) {
-        final List<String> storedFiles = session.getStoredFiles();
-        final StorageSystem system = session.getStorageSystem();
+    private void scheduleSync(StoreSession session, StorageSystem system,
+            String path, long size) {
+        List<Future<Void>> pendingSyncs = getPendingSyncs(session);
+        if (pendingSyncs == null)
+            return;
+
+        switch (system.getSyncPolicy()) {
+            case AFTER_STORE_RSP:
+                fileSync.sync(system, path, size);
+                break;
+            case ALWAYS:
+            case EVERY_5_STORE:
+            case EVERY_25_STORE:
+            case ON_ASSOCIATION_CLOSE:
+                pendingSyncs.add(fileSync.sync(system, path, size));
+                break;
+            default:
+                // synced on Storage Commitment
+        }
+    }
 
-        if (storedFiles.size() == 0)
+    /**
+     * Waits until the files stored by the session are synced, if required by
+     * the Sync Policy of the storage system.
+     */
+    private void syncFiles(StoreSession session, boolean onClose) {
+        List<Future<Void>> pendingSyncs = getPendingSyncs(session);
+        StorageSystem system = session.getStorageSystem();
+        if (pendingSyncs == null || system == null)
             return;
 
-        try {
-            switch (session.getStorageSystem().getSyncPolicy()) {
-                case ALWAYS:
-                    storageService. syncFiles(system, storedFiles);
-                    break;
-                case AFTER_STORE_RSP:
-                    Executors.newSingleThreadExecutor().execute(new Runnable() {
-                        public void run() {
-                            try {
-                                storageService.syncFiles(system,storedFiles);
-                            } catch (IOException e) {
-                                LOG.error("File syncing failed:", e);
-                            }
-                        }
-                    });
-                    break;
+        List<Future<Void>> awaited;
+        synchronized (pendingSyncs) {
+            if (pendingSyncs.isEmpty())
+                return;
+
+            switch (system.getSyncPolicy()) {
                 case EVERY_5_STORE:
-                    if (storedFiles.size()>=5 || onClose)
-                        storageService.syncFiles(system, storedFiles);
+                    if (pendingSyncs.size() < 5 && !onClose)
+                        return;
                     break;
                 case EVERY_25_STORE:
-                    if (storedFiles.size()>=25 || onClose)
-                        storageService.syncFiles(system, storedFiles);
+                    if (pendingSyncs.size() < 25 && !onClose)
+                        return;
                     break;
                 case ON_ASSOCIATION_CLOSE:
-                    if (onClose)
-                        storageService.syncFiles(system,storedFiles);
+                    if (!onClose)
+                        return;
+                    break;
+                default:
                     break;
             }
-        } catch (IOException e) {
-            LOG.error("File syncing failed:", e);
+            awaited = new ArrayList<Future<Void>>(pendingSyncs);
+            pendingSyncs.clear();
+        }
+        for (Future<Void> synced : awaited) {
+            try {
+                synced.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                LOG.error("File syncing failed:", e.getCause());
+            }
         }
     }
 }
@@ -0,0 +1,131 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.store;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.util.AttributesFormat;
+import org.dcm4che3.util.UIDUtils;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class StoragePathFormatTest {
+
+    private static final String[] PATTERNS = {
+        "{00080020,date,yyyy/MM/dd}/{0020000D,hash}/{0020000E,hash}/{00080018,hash}",
+        "{00100020}/{0020000D}/{00080018}.dcm"
+    };
+
+    private static final int THREADS = 16;
+    private static final int INSTANCES = 500;
+
+    @Test
+    public void testFormat() {
+        Attributes attrs = createAttributes(0);
+        for (String pattern : PATTERNS)
+            assertEquals(new AttributesFormat(pattern).format(attrs),
+                    StoragePathFormat.format(pattern, attrs));
+    }
+
+    @Test
+    public void testConcurrentFormat() throws Exception {
+        final Attributes[] attrs = new Attributes[INSTANCES];
+        final String[][] expected = new String[PATTERNS.length][INSTANCES];
+        for (int j = 0; j < PATTERNS.length; j++) {
+            AttributesFormat format = new AttributesFormat(PATTERNS[j]);
+            for (int i = 0; i < INSTANCES; i++) {
+                if (j == 0)
+                    attrs[i] = createAttributes(i);
+                expected[j][i] = format.format(attrs[i]);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>(THREADS);
+            for (int t = 0; t < THREADS; t++) {
+                final int offset = t;
+                results.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() {
+                        for (int k = 0; k < INSTANCES; k++) {
+                            int i = (k + offset * 31) % INSTANCES;
+                            for (int j = 0; j < PATTERNS.length; j++)
+                                assertEquals(expected[j][i],
+                                        StoragePathFormat.format(PATTERNS[j], attrs[i]));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results)
+                result.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Attributes createAttributes(int i) {
+        Attributes attrs = new Attributes();
+        Calendar studyDate = new GregorianCalendar(2015, Calendar.JANUARY, 1);
+        studyDate.add(Calendar.DAY_OF_YEAR, i);
+        attrs.setDate(Tag.StudyDate, VR.DA, studyDate.getTime());
+        attrs.setString(Tag.PatientID, VR.LO, "PID-" + i % 7);
+        attrs.setString(Tag.StudyInstanceUID, VR.UI, UIDUtils.createUID());
+        attrs.setString(Tag.SeriesInstanceUID, VR.UI, UIDUtils.createUID());
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, UIDUtils.createUID());
+        return attrs;
+    }
+}
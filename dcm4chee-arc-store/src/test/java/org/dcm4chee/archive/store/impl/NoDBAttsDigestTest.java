@@ -0,0 +1,328 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4chee.archive.store.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.util.UIDUtils;
+import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.store.StoreSession;
+import org.dcm4chee.storage.RetrieveContext;
+import org.dcm4chee.storage.StorageContext;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.conf.StorageSystemGroup;
+import org.dcm4chee.storage.service.RetrieveService;
+import org.dcm4chee.storage.service.StorageService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Stores received datasets by {@link StoreServiceImpl#processFile} and
+ * verifies that {@link StoreServiceImpl#noDBAttsDigest} returns the same
+ * digest from the non-db attributes selected on storage as from the re-read
+ * stored object, for different transfer syntaxes.
+ *
+ * @author agent <agent@local>
+ */
+public class NoDBAttsDigestTest {
+
+    private static final String PRIVATE_CREATOR = "DCM4CHEE TEST 1.0";
+
+    private static final int[] DB_TAGS = {
+        Tag.SOPClassUID,
+        Tag.SOPInstanceUID,
+        Tag.StudyDate,
+        Tag.Modality,
+        Tag.PatientName,
+        Tag.PatientID,
+        Tag.StudyInstanceUID,
+        Tag.SeriesInstanceUID
+    };
+
+    static {
+        Arrays.sort(DB_TAGS);
+    }
+
+    private Path dir;
+    private StoreSession session;
+    private RetrieveService retrieveService;
+    private StoreServiceImpl service;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("NoDBAttsDigestTest");
+
+        StorageSystemGroup group = mock(StorageSystemGroup.class);
+        when(group.getStorageFilePathFormat()).thenReturn("{00080018}");
+        StorageSystem storageSystem = mock(StorageSystem.class);
+        when(storageSystem.getStorageSystemGroup()).thenReturn(group);
+        when(storageSystem.getStorageSystemPath()).thenReturn(dir.toString());
+        when(storageSystem.getBufferedOutputLength()).thenReturn(8192);
+
+        ArchiveAEExtension arcAE = new ArchiveAEExtension();
+        arcAE.setCheckNonDBAttributesOnStorage(true);
+        session = mock(StoreSession.class);
+        when(session.getStorageSystem()).thenReturn(storageSystem);
+        when(session.getArchiveAEExtension()).thenReturn(arcAE);
+        when(session.getMessageDigest()).thenAnswer(new Answer<MessageDigest>() {
+            @Override
+            public MessageDigest answer(InvocationOnMock invocation)
+                    throws Exception {
+                return MessageDigest.getInstance("MD5");
+            }
+        });
+
+        StorageService storageService = mock(StorageService.class);
+        when(storageService.createStorageContext(any(StorageSystem.class)))
+                .thenReturn(new StorageContext());
+        when(storageService.openOutputStream(
+                any(StorageContext.class), anyString()))
+                .thenAnswer(new Answer<OutputStream>() {
+                    @Override
+                    public OutputStream answer(InvocationOnMock invocation)
+                            throws IOException {
+                        return Files.newOutputStream(
+                                dir.resolve((String) invocation.getArguments()[1]));
+                    }
+                });
+
+        retrieveService = mock(RetrieveService.class);
+        when(retrieveService.createRetrieveContext(any(StorageSystem.class)))
+                .thenReturn(mock(RetrieveContext.class));
+        when(retrieveService.openInputStream(
+                any(RetrieveContext.class), anyString()))
+                .thenAnswer(new Answer<InputStream>() {
+                    @Override
+                    public InputStream answer(InvocationOnMock invocation)
+                            throws IOException {
+                        return Files.newInputStream(
+                                dir.resolve((String) invocation.getArguments()[1]));
+                    }
+                });
+
+        service = new StoreServiceImpl();
+        inject("storageService", storageService);
+        inject("retrieveService", retrieveService);
+        inject("storeFilters", DB_TAGS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files)
+                Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testImplicitVRLittleEndian() throws Exception {
+        assertSameDigest(createDataset(false), UID.ImplicitVRLittleEndian);
+    }
+
+    @Test
+    public void testExplicitVRLittleEndian() throws Exception {
+        assertSameDigest(createDataset(false), UID.ExplicitVRLittleEndian);
+    }
+
+    @Test
+    public void testExplicitVRBigEndian() throws Exception {
+        assertSameDigest(createDataset(false), UID.ExplicitVRBigEndianRetired);
+    }
+
+    @Test
+    public void testJPEGBaseline() throws Exception {
+        assertSameDigest(createDataset(true), UID.JPEGBaseline1);
+    }
+
+    @Test
+    public void testWithoutPixelData() throws Exception {
+        Attributes dataset = createDataset(false);
+        dataset.remove(Tag.PixelData);
+        assertSameDigest(dataset, UID.ImplicitVRLittleEndian);
+    }
+
+    @Test
+    public void testSelectNoDBAtts() throws Exception {
+        Attributes noDBAtts = service.selectNoDBAtts(createDataset(false));
+        for (int tag : DB_TAGS)
+            assertNull(noDBAtts.getValue(tag));
+        assertNotNull(noDBAtts.getValue(Tag.PixelData));
+        assertNotNull(noDBAtts.getValue(PRIVATE_CREATOR, 0x00091010));
+    }
+
+    private void assertSameDigest(Attributes dataset, String tsuid)
+            throws Exception {
+        // as parsed by MemoryOrFileSpooler
+        Attributes received = parse(encode(dataset, tsuid), tsuid);
+
+        StoreContextImpl context = new StoreContextImpl(session);
+        context.setFileMetainfo(received.createFileMetaInformation(tsuid));
+        context.setOriginalAttributes(received);
+        context.setSpoolingContext(new StorageContext());
+        Path path = service.processFile(context).getFilePath();
+
+        String fromReceived = service.noDBAttsDigest(path, context);
+        verify(retrieveService, never()).openInputStream(
+                any(RetrieveContext.class), anyString());
+
+        // the selected attributes are consumed, so the stored object is re-read
+        String fromStored = service.noDBAttsDigest(path, context);
+        verify(retrieveService).openInputStream(
+                any(RetrieveContext.class), anyString());
+
+        assertEquals(fromStored, fromReceived);
+    }
+
+    private static Attributes createDataset(boolean encapsulated) {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SpecificCharacterSet, VR.CS, "ISO_IR 100");
+        attrs.setString(Tag.ImageType, VR.CS, "ORIGINAL", "PRIMARY", "AXIAL");
+        attrs.setString(Tag.SOPClassUID, VR.UI, UID.CTImageStorage);
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, UIDUtils.createUID());
+        attrs.setString(Tag.StudyDate, VR.DA, "20150101");
+        attrs.setString(Tag.Modality, VR.CS, "CT");
+        attrs.setString(Tag.PatientName, VR.PN, "Müller^Hans");
+        attrs.setString(Tag.PatientID, VR.LO, "NO_DB_ATTS_DIGEST_TEST");
+        attrs.setString(Tag.StudyInstanceUID, VR.UI, UIDUtils.createUID());
+        attrs.setString(Tag.SeriesInstanceUID, VR.UI, UIDUtils.createUID());
+        attrs.setString(Tag.ImageComments, VR.LT, "odd");
+        attrs.setDouble(Tag.SliceThickness, VR.DS, 1.25);
+        attrs.setFloat(Tag.RecommendedDisplayFrameRateInFloat, VR.FL, 25.0f);
+        attrs.setInt(Tag.SamplesPerPixel, VR.US, 1);
+        attrs.setString(Tag.PhotometricInterpretation, VR.CS, "MONOCHROME2");
+        attrs.setInt(Tag.Rows, VR.US, 16);
+        attrs.setInt(Tag.Columns, VR.US, 16);
+        attrs.setInt(Tag.BitsAllocated, VR.US, encapsulated ? 8 : 16);
+        attrs.setInt(Tag.BitsStored, VR.US, encapsulated ? 8 : 12);
+        attrs.setInt(Tag.HighBit, VR.US, encapsulated ? 7 : 11);
+        attrs.setInt(Tag.PixelRepresentation, VR.US, 0);
+        attrs.setDouble(Tag.PixelSpacing, VR.DS, 0.5, 0.5);
+        attrs.setInt(Tag.SmallestImagePixelValue, VR.US, 0);
+
+        Sequence refImages = attrs.newSequence(Tag.ReferencedImageSequence, 2);
+        for (int i = 0; i < 2; i++) {
+            Attributes item = new Attributes(2);
+            item.setString(Tag.ReferencedSOPClassUID, VR.UI, UID.CTImageStorage);
+            item.setString(Tag.ReferencedSOPInstanceUID, VR.UI, UIDUtils.createUID());
+            refImages.add(item);
+        }
+
+        attrs.setString(PRIVATE_CREATOR, 0x00091010, VR.LO, "private value");
+        attrs.setInt(PRIVATE_CREATOR, 0x00091011, VR.UL, 42);
+        attrs.setBytes(PRIVATE_CREATOR, 0x00091012, VR.OB, bytes(1024, 3));
+        Sequence privateSeq = attrs.newSequence(PRIVATE_CREATOR, 0x00091013, 1);
+        Attributes privateItem = new Attributes(1);
+        privateItem.setString(Tag.CodeValue, VR.SH, "4711");
+        privateSeq.add(privateItem);
+
+        if (encapsulated) {
+            Fragments frags = attrs.newFragments(Tag.PixelData, VR.OB, 3);
+            frags.add(new byte[0]);
+            frags.add(bytes(128, 5));
+            frags.add(bytes(130, 7));
+        } else {
+            attrs.setBytes(Tag.PixelData, VR.OW, bytes(16 * 16 * 2, 11));
+        }
+        return attrs;
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++)
+            b[i] = (byte) (i * seed);
+        return b;
+    }
+
+    private static byte[] encode(Attributes dataset, String tsuid)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DicomOutputStream dout = new DicomOutputStream(out, tsuid)) {
+            dout.writeDataset(null, dataset);
+        }
+        return out.toByteArray();
+    }
+
+    private static Attributes parse(byte[] b, String tsuid) throws IOException {
+        try (DicomInputStream in = new DicomInputStream(
+                new ByteArrayInputStream(b), tsuid)) {
+            in.setIncludeBulkData(IncludeBulkData.YES);
+            return in.readDataset(-1, -1);
+        }
+    }
+
+    private void inject(String name, Object value) throws Exception {
+        Field field = StoreServiceImpl.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(service, value);
+    }
+}
@@ -0,0 +1,211 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.store.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.io.SAXReader;
+import org.dcm4che3.net.Device;
+import org.dcm4chee.archive.conf.ArchiveAEExtension;
+import org.dcm4chee.archive.dto.GenericParticipant;
+import org.dcm4chee.archive.entity.Code;
+import org.dcm4chee.archive.entity.Instance;
+import org.dcm4chee.archive.entity.Series;
+import org.dcm4chee.archive.entity.Study;
+import org.dcm4chee.archive.store.StoreContext;
+import org.dcm4chee.archive.store.StoreService;
+import org.dcm4chee.archive.store.StoreSession;
+import org.dcm4chee.archive.store.impl.StoreServiceEJB;
+import org.dcm4chee.storage.conf.StorageSystem;
+import org.dcm4chee.storage.conf.StorageSystemGroup;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.EmptyAsset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Verifies that committing the instances of one association in one
+ * transaction results in the same database rows as committing each instance
+ * separately.
+ *
+ * @author agent <agent@local>
+ */
+@RunWith(Arquillian.class)
+public class GroupCommitIT extends BaseStoreIT {
+
+    private static final String SOURCE_AET = "SOURCE_AET";
+
+    private static final String[] INSTANCES = {
+        "testdata/store-ct-1.xml",
+        "testdata/store-ct-2.xml",
+        "testdata/store-pr-1.xml" };
+
+    private static final String[] PIDS = new String[]{"STORE_SERVICE_TEST"};
+    private static final String[] ISSUERS = new String[]{"DCM4CHEE_TESTDATA"};
+
+    @Inject
+    StoreService storeService;
+
+    @Inject
+    StoreServiceEJB storeServiceEJB;
+
+    @Inject
+    private Device device;
+
+    @Deployment
+    public static WebArchive createDeployment() {
+        WebArchive war = ShrinkWrap.create(WebArchive.class, "test.war");
+        ITHelper.addDefaultDependenciesToWebArchive(war);
+
+        JavaArchive jar = ShrinkWrap.create(JavaArchive.class, "test.jar");
+        jar.addClass(BaseStoreIT.class);
+        jar.addClass(GroupCommitIT.class);
+        jar.addClass(ParamFactory.class);
+        for (String resourceName : INSTANCES)
+            jar.addAsResource(resourceName);
+        jar.addAsManifestResource(EmptyAsset.INSTANCE, "beans.xml");
+
+        war.addAsLibrary(jar);
+        return war;
+    }
+
+    @After
+    public void terminate() throws Exception {
+        clearData();
+    }
+
+    @Test
+    public void testGroupCommitMatchesPerInstanceCommit() throws Exception {
+        StoreSession session = createStoreSession();
+        for (String resourceName : INSTANCES)
+            storeServiceEJB.updateDB(createStoreContext(session, resourceName));
+        Map<String, Object[]> perInstance = selectRows();
+
+        clearData();
+
+        session = createStoreSession();
+        List<StoreContext> contexts = new ArrayList<>();
+        for (String resourceName : INSTANCES)
+            contexts.add(createStoreContext(session, resourceName));
+        storeServiceEJB.updateDB(contexts);
+        Map<String, Object[]> grouped = selectRows();
+
+        assertEquals(perInstance.keySet(), grouped.keySet());
+        for (Map.Entry<String, Object[]> entry : perInstance.entrySet())
+            assertArrayEquals(entry.getKey(), entry.getValue(),
+                    grouped.get(entry.getKey()));
+    }
+
+    private void clearData() throws Exception {
+        utx.begin();
+        super.clearTestData(PIDS, ISSUERS, new Code[0]);
+        utx.commit();
+        em.clear();
+    }
+
+    private Map<String, Object[]> selectRows() throws Exception {
+        Map<String, Object[]> rows = new LinkedHashMap<>();
+        utx.begin();
+        for (String resourceName : INSTANCES) {
+            String iuid = load(resourceName).getString(Tag.SOPInstanceUID);
+            Instance inst = em.createNamedQuery(
+                    Instance.FIND_BY_SOP_INSTANCE_UID_EAGER, Instance.class)
+                    .setParameter(1, iuid)
+                    .getSingleResult();
+            Series series = inst.getSeries();
+            Study study = series.getStudy();
+            rows.put(iuid, new Object[] {
+                    inst.getAttributes(),
+                    inst.getEncodedRetrieveAETs(),
+                    inst.getAvailability(),
+                    series.getSeriesInstanceUID(),
+                    series.getAttributes(),
+                    series.getSourceAET(),
+                    study.getStudyInstanceUID(),
+                    study.getAttributes(),
+                    study.getPatient().getAttributes() });
+        }
+        utx.commit();
+        em.clear();
+        return rows;
+    }
+
+    private StoreSession createStoreSession() throws Exception {
+        StoreSession session = storeService.createStoreSession(storeService);
+        StorageSystem storageSystem = new StorageSystem();
+        storageSystem.setStorageSystemID("test_storage_system");
+        StorageSystemGroup grp = new StorageSystemGroup();
+        grp.setGroupID("test_grp");
+        grp.addStorageSystem(storageSystem);
+        session.setStorageSystem(storageSystem);
+        session.setSource(new GenericParticipant("localhost", "testidentity"));
+        session.setRemoteAET(SOURCE_AET);
+        session.setArchiveAEExtension(device.getApplicationEntity("DCM4CHEE")
+                .getAEExtension(ArchiveAEExtension.class));
+        session.setStoreParam(ParamFactory.createStoreParam());
+        return session;
+    }
+
+    private StoreContext createStoreContext(StoreSession session,
+            String resourceName) throws Exception {
+        StoreContext storeContext = storeService.createStoreContext(session);
+        storeContext.setAttributesForDatabase(load(resourceName));
+        return storeContext;
+    }
+
+    private Attributes load(String name) throws Exception {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        return SAXReader.parse(cl.getResource(name).toString());
+    }
+}
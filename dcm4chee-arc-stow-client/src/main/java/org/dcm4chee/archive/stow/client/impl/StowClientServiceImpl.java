@@ -58,13 +58,14 @@ import javax.xml.transform.Transformer;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
-import org.dcm4che3.io.SAXTransformer;
 import org.dcm4che3.io.SAXTransformer.SetupTransformer;
 import org.dcm4che3.net.Dimse;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.TransferCapability.Role;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.util.DateUtils;
+import org.dcm4chee.archive.conf.CoercionTransformer;
+import org.dcm4chee.archive.conf.DeclarativeCoercion;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.dto.Service;
 import org.dcm4chee.archive.dto.ServiceQualifier;
@@ -145,13 +146,22 @@ public class StowClientServiceImpl implements StowClientService {
             , final StowContext context)
             throws DicomServiceException {
         try {
+            DeclarativeCoercion coercion = context.getArchiveAEExtension()
+                    .getDeclarativeAttributeCoercion(
+                            attrs.getString(Tag.SOPClassUID), Dimse.C_STORE_RQ,
+                            Role.SCU, context.getRemoteAE().getAETitle());
+            if (coercion != null) {
+                coercion.coerce(attrs, null);
+                return;
+            }
+
             Templates tpl = context.getArchiveAEExtension()
                     .getAttributeCoercionTemplates(
                             attrs.getString(Tag.SOPClassUID), Dimse.C_STORE_RQ,
                             Role.SCU, context.getRemoteAE().getAETitle());
             
             if (tpl != null) {
-                attrs.addAll(SAXTransformer.transform(attrs, tpl, false, false,
+                attrs.addAll(CoercionTransformer.transform(attrs, tpl,
                         new SetupTransformer() {
 
                             @Override
@@ -92,8 +92,10 @@ import org.dcm4che3.ws.rs.MediaTypes;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
 import org.dcm4chee.archive.dto.GenericParticipant;
 import org.dcm4chee.archive.dto.ServiceType;
+import org.dcm4chee.archive.entity.FrameIndex;
 import org.dcm4chee.archive.fetch.forward.FetchForwardCallBack;
 import org.dcm4chee.archive.fetch.forward.FetchForwardService;
+import org.dcm4chee.archive.locationmgmt.LocationMgmt;
 import org.dcm4chee.archive.retrieve.impl.RetrieveAfterSendEvent;
 import org.dcm4chee.archive.rs.HostAECache;
 import org.dcm4chee.archive.rs.HttpSource;
@@ -130,6 +132,12 @@ public class DefaultWadoRS extends Wado implements WadoRS {
     @Inject
     private WeightWatcher weightWatcher;
 
+    @Inject
+    private LocationMgmt locationManager;
+
+    @Inject
+    private FrameIndexCache frameIndexCache;
+
     private static final int STATUS_OK = 200;
     private static final int STATUS_PARTIAL_CONTENT = 206;
     private static final int STATUS_NOT_ACCEPTABLE = 406;
@@ -582,7 +590,7 @@ public class DefaultWadoRS extends Wado implements WadoRS {
             }
         } else {
             for (ArchiveInstanceLocator ref : refs) {
-                if (addPixelDataTo(ref.getStorageSystem().getStorageSystemGroup(), ref.uri, output) != STATUS_OK) {
+                if (addPixelDataTo(ref, ref.getStorageSystem().getStorageSystemGroup(), ref.uri, output) != STATUS_OK) {
                     instsfailed.add((ArchiveInstanceLocator) ref);
                 } else {
                     instscompleted.add((ArchiveInstanceLocator) ref);
@@ -653,14 +661,14 @@ public class DefaultWadoRS extends Wado implements WadoRS {
 
         ArrayList<ArchiveInstanceLocator> failedToFetchForward = new ArrayList<ArchiveInstanceLocator>();
         if(!locations.isEmpty()) {
-            status.add(addPixelDataTo(inst.getStorageSystem().getStorageSystemGroup(), fileURI, output, frames));
+            status.add(addPixelDataTo(inst, inst.getStorageSystem().getStorageSystemGroup(), fileURI, output, frames));
         }
         if(!external.isEmpty()) {
             FetchForwardCallBack fetchCallBack = new FetchForwardCallBack() {
                 @Override
                 public void onFetch(Collection<ArchiveInstanceLocator> instances,
                         BasicCStoreSCUResp resp) {
-                    status.add(addPixelDataTo(inst.getStorageSystem().getStorageSystemGroup(), fileURI, output, frames));
+                    status.add(addPixelDataTo(inst, inst.getStorageSystem().getStorageSystemGroup(), fileURI, output, frames));
                 }
             };
             failedToFetchForward = fetchForwardService.fetchForward(aetitle, external, fetchCallBack, fetchCallBack);
@@ -677,7 +685,7 @@ public class DefaultWadoRS extends Wado implements WadoRS {
 
     private Response retrievePixelDataFromFile(StorageSystemGroup storageSystemGroup, String fileURI) {
         MultipartRelatedOutput output = new MultipartRelatedOutput();
-        int status = addPixelDataTo(storageSystemGroup, fileURI, output, new int[]{});
+        int status = addPixelDataTo(null, storageSystemGroup, fileURI, output, new int[]{});
 
         if (output.getParts().isEmpty())
             throw new WebApplicationException(Status.NOT_ACCEPTABLE);
@@ -784,15 +792,32 @@ public class DefaultWadoRS extends Wado implements WadoRS {
         return true;
     }
 
-    private int addPixelDataTo(StorageSystemGroup storageSystemGroup, String fileURI, MultipartRelatedOutput output, int... frameList) {
+    /**
+     * @param inst
+     *            locator of the instance, used to look up or create the
+     *            {@link FrameIndex} of its file on frame retrieval; may be
+     *            {@code null}
+     */
+    private int addPixelDataTo(ArchiveInstanceLocator inst, StorageSystemGroup storageSystemGroup, String fileURI, MultipartRelatedOutput output, int... frameList) {
         try {
             LOG.info("Add Pixel Data [file={}]",fileURI);
 
+            boolean indexable = frameList.length > 0 && inst != null
+                    && inst.getEntryName() == null;
+            FrameIndex frameIndex = indexable ? getFrameIndex(inst, fileURI) : null;
             DatasetWithFMI datasetWithFMI;
             String transferSyntaxUID;
-            try (DicomInputStream din = new DicomInputStream(new File(new URI(fileURI)))) {
+            File file = new File(new URI(fileURI));
+            try (DicomInputStream din = new DicomInputStream(file)) {
                 din.setIncludeBulkData(IncludeBulkData.URI);
-                datasetWithFMI = din.readDatasetWithFMI();
+                if (frameIndex != null) {
+                    // skip parsing the Pixel Data items
+                    datasetWithFMI = din.readDatasetWithFMI(-1, Tag.PixelData);
+                    frameIndex.addTo(datasetWithFMI.getDataset().newFragments(
+                            Tag.PixelData, VR.OB, frameIndex.size()),
+                            file.toURI().toString());
+                } else
+                    datasetWithFMI = din.readDatasetWithFMI();
                 transferSyntaxUID = din.getTransferSyntax();
             }
 
@@ -828,6 +853,8 @@ public class DefaultWadoRS extends Wado implements WadoRS {
             String bulkDataURI = toBulkDataURI(fileURI);
             if (pixeldata instanceof Fragments) {
                 Fragments bulkData = (Fragments) pixeldata;
+                if (indexable && frameIndex == null && frames > 1)
+                    updateFrameIndex(inst, fileURI, FrameIndex.valueOf(bulkData));
                 if (mediaType == MediaType.APPLICATION_OCTET_STREAM_TYPE) {
                     addDecompressedPixelDataTo(datasetWithFMI.getDataset(), transferSyntaxUID, adjustedFrameList, output, bulkDataURI, uncoercedIuid);
                 } else {
@@ -851,6 +878,42 @@ public class DefaultWadoRS extends Wado implements WadoRS {
         }
     }
 
+    private FrameIndex getFrameIndex(ArchiveInstanceLocator inst,
+            String fileURI) {
+        FrameIndex frameIndex = frameIndexCache.get(fileURI);
+        if (frameIndex != null)
+            return frameIndex;
+
+        try {
+            frameIndex = locationManager.getFrameIndex(
+                    inst.getStorageSystem().getStorageSystemGroup().getGroupID(),
+                    inst.getStorageSystem().getStorageSystemID(),
+                    inst.getFilePath());
+            if (frameIndex != null)
+                frameIndexCache.put(inst.iuid, fileURI, frameIndex);
+            return frameIndex;
+        } catch (Exception e) {
+            LOG.warn("{}: Failed to load Frame Index of {}", method, inst.uri, e);
+            return null;
+        }
+    }
+
+    private void updateFrameIndex(ArchiveInstanceLocator inst,
+            String fileURI, FrameIndex frameIndex) {
+        if (frameIndex == null)
+            return;
+
+        frameIndexCache.put(inst.iuid, fileURI, frameIndex);
+        try {
+            locationManager.updateFrameIndex(
+                    inst.getStorageSystem().getStorageSystemGroup().getGroupID(),
+                    inst.getStorageSystem().getStorageSystemID(),
+                    inst.getFilePath(), frameIndex);
+        } catch (Exception e) {
+            LOG.warn("{}: Failed to store Frame Index of {}", method, inst.uri, e);
+        }
+    }
+
     private int[] adjustFrameList(String iuid, int[] frameList, int frames) {
         int n = 0;
         for (int i = 0; i < frameList.length; i++) {
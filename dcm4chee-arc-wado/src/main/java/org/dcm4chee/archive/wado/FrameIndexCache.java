@@ -0,0 +1,105 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+
+import org.dcm4chee.archive.entity.FrameIndex;
+import org.dcm4chee.archive.event.InstancesInvalidatedEvent;
+
+/**
+ * In-memory LRU cache of the {@link FrameIndex}es of recently retrieved
+ * files. WADO-RS requests for further frames of the same object then neither
+ * query nor update the database.
+ * <p>
+ * Entries are keyed by file URI and evicted in least recently used order
+ * once more than {@value #MAX_ENTRIES} files are indexed.
+ *
+ * @author agent <agent@local>
+ */
+@ApplicationScoped
+public class FrameIndexCache {
+
+    static final int MAX_ENTRIES = 1000;
+
+    private static final class Entry {
+        final String iuid;
+        final FrameIndex frameIndex;
+
+        Entry(String iuid, FrameIndex frameIndex) {
+            this.iuid = iuid;
+            this.frameIndex = frameIndex;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    public synchronized FrameIndex get(String fileURI) {
+        Entry entry = entries.get(fileURI);
+        return entry != null ? entry.frameIndex : null;
+    }
+
+    public synchronized void put(String iuid, String fileURI,
+            FrameIndex frameIndex) {
+        entries.put(fileURI, new Entry(iuid, frameIndex));
+    }
+
+    public void onInstancesInvalidated(@Observes InstancesInvalidatedEvent event) {
+        synchronized (this) {
+            for (Iterator<Entry> iter = entries.values().iterator(); iter.hasNext();)
+                if (event.getSOPInstanceUIDs().contains(iter.next().iuid))
+                    iter.remove();
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.archive.wado;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.dcm4che3.net.Device;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.StringUtils;
+import org.dcm4che3.util.TagUtils;
+import org.dcm4chee.archive.conf.ArchiveDeviceExtension;
+import org.dcm4chee.archive.event.InstancesInvalidatedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded on-disk cache of images rendered by WADO-URI.
+ * <p>
+ * Entries are kept in
+ * {@code <directory>/rendered-image-cache/<SOPInstanceUID>/<hash of key>}
+ * and indexed in memory in least recently used order. Entries left over from
+ * a previous use of the directory are not indexed, and therefore deleted.
+ * Other files in the configured directory are never touched.
+ *
+ * @author agent <agent@local>
+ */
+@ApplicationScoped
+public class RenderedImageCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RenderedImageCache.class);
+
+    private static final String SUBDIR = "rendered-image-cache";
+
+    private static final String TMP_PREFIX = "wado";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int HASH_LENGTH = 40;
+
+    private static final class Entry {
+        final String iuid;
+        final File file;
+        final long length;
+        final long created;
+
+        Entry(String iuid, File file, long created) {
+            this.iuid = iuid;
+            this.file = file;
+            this.length = file.length();
+            this.created = created;
+        }
+    }
+
+    @Inject
+    private Device device;
+
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private final Map<String, Set<String>> keysByIUID =
+            new HashMap<String, Set<String>>();
+
+    private File dir;
+
+    private long size;
+
+    private ArchiveDeviceExtension arcDev() {
+        return device.getDeviceExtension(ArchiveDeviceExtension.class);
+    }
+
+    public boolean isEnabled() {
+        ArchiveDeviceExtension arcDev = arcDev();
+        return arcDev.getWadoRenderedImageCacheDirectory() != null
+                && arcDev.getWadoRenderedImageCacheMaxSize() > 0;
+    }
+
+    /**
+     * Opens the cached image for the given key.
+     *
+     * @return stream of the cached image or {@code null}, if there is no
+     *         valid cache entry
+     */
+    public FileInputStream open(String key) {
+        File file;
+        synchronized (this) {
+            if (!checkDirectory())
+                return null;
+
+            Entry entry = entries.get(key);
+            if (entry == null)
+                return null;
+
+            int ttl = arcDev().getWadoRenderedImageCacheTTL();
+            if (ttl > 0 && System.currentTimeMillis() - entry.created > ttl * 1000L) {
+                remove(key);
+                return null;
+            }
+            file = entry.file;
+        }
+        try {
+            return new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            // evicted concurrently
+            return null;
+        }
+    }
+
+    /**
+     * Returns a stream which writes to {@code out} and to a new cache entry.
+     * The entry becomes visible by {@link Writer#commit()}. If the cache entry
+     * cannot be written, only {@code out} is written.
+     */
+    public Writer writer(String iuid, String key, OutputStream out) {
+        File tmp = null;
+        synchronized (this) {
+            if (checkDirectory())
+                try {
+                    tmp = File.createTempFile(TMP_PREFIX, TMP_SUFFIX, dir);
+                } catch (IOException e) {
+                    LOG.warn("Failed to create file in rendered image cache {}", dir, e);
+                }
+        }
+        return new Writer(iuid, key, out, tmp);
+    }
+
+    public void onInstancesInvalidated(@Observes InstancesInvalidatedEvent event) {
+        synchronized (this) {
+            if (dir == null)
+                return;
+
+            for (String iuid : event.getSOPInstanceUIDs()) {
+                Set<String> keys = keysByIUID.get(iuid);
+                if (keys != null)
+                    for (String key : keys.toArray(new String[keys.size()]))
+                        remove(key);
+            }
+        }
+    }
+
+    private synchronized void put(String iuid, String key, File tmp) {
+        if (!tmp.getParentFile().equals(dir)) {
+            // directory changed while rendering
+            tmp.delete();
+            return;
+        }
+        File iuidDir = new File(dir, iuid);
+        File file = new File(iuidDir, hash(key));
+        remove(key);
+        iuidDir.mkdir();
+        file.delete();
+        if (!tmp.renameTo(file)) {
+            LOG.warn("Failed to rename {} to {}", tmp, file);
+            tmp.delete();
+            return;
+        }
+        Entry entry = new Entry(iuid, file, System.currentTimeMillis());
+        entries.put(key, entry);
+        Set<String> keys = keysByIUID.get(iuid);
+        if (keys == null)
+            keysByIUID.put(iuid, keys = new HashSet<String>());
+        keys.add(key);
+        size += entry.length;
+        evict(arcDev().getWadoRenderedImageCacheMaxSize() * 1024L * 1024L);
+    }
+
+    private void evict(long maxSize) {
+        Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator();
+        while (size > maxSize && iter.hasNext()) {
+            Map.Entry<String, Entry> next = iter.next();
+            iter.remove();
+            delete(next.getKey(), next.getValue());
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null)
+            delete(key, entry);
+    }
+
+    private void delete(String key, Entry entry) {
+        size -= entry.length;
+        entry.file.delete();
+        Set<String> keys = keysByIUID.get(entry.iuid);
+        keys.remove(key);
+        if (keys.isEmpty()) {
+            keysByIUID.remove(entry.iuid);
+            entry.file.getParentFile().delete();
+        }
+    }
+
+    /**
+     * Applies changes of the configured directory, and deletes entries left
+     * over in its {@value #SUBDIR} subdirectory on its first use.
+     *
+     * @return {@code true} if the cache is enabled
+     */
+    private boolean checkDirectory() {
+        if (!isEnabled()) {
+            if (dir != null)
+                clear();
+            return false;
+        }
+        File configured = new File(new File(StringUtils.replaceSystemProperties(
+                arcDev().getWadoRenderedImageCacheDirectory())), SUBDIR);
+        if (!configured.equals(dir)) {
+            if (dir != null)
+                clear();
+            deleteContent(configured);
+            configured.mkdirs();
+            dir = configured;
+            LOG.info("Use {} as rendered image cache", dir);
+        }
+        return true;
+    }
+
+    private void clear() {
+        deleteContent(dir);
+        entries.clear();
+        keysByIUID.clear();
+        size = 0L;
+        dir = null;
+    }
+
+    /**
+     * Deletes only files created by this cache: temporary files and
+     * directories of cached entries named by hash.
+     */
+    private static void deleteContent(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files) {
+                String name = file.getName();
+                if (file.isDirectory()) {
+                    deleteEntries(file);
+                    file.delete(); // only succeeds, if empty
+                } else if (name.startsWith(TMP_PREFIX) && name.endsWith(TMP_SUFFIX)) {
+                    file.delete();
+                }
+            }
+    }
+
+    private static void deleteEntries(File iuidDir) {
+        File[] files = iuidDir.listFiles();
+        if (files != null)
+            for (File file : files)
+                if (file.isFile() && isHash(file.getName()))
+                    file.delete();
+    }
+
+    private static boolean isHash(String name) {
+        if (name.length() != HASH_LENGTH)
+            return false;
+        for (int i = 0; i < HASH_LENGTH; i++)
+            if (Character.digit(name.charAt(i), 16) < 0)
+                return false;
+        return true;
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(key.getBytes(StandardCharsets.UTF_8));
+            return TagUtils.toHexString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public final class Writer extends OutputStream {
+
+        private final String iuid;
+        private final String key;
+        private final OutputStream out;
+        private File tmp;
+        private OutputStream cacheOut;
+
+        private Writer(String iuid, String key, OutputStream out, File tmp) {
+            this.iuid = iuid;
+            this.key = key;
+            this.out = out;
+            this.tmp = tmp;
+            if (tmp != null)
+                try {
+                    cacheOut = new FileOutputStream(tmp);
+                } catch (IOException e) {
+                    abort(e);
+                }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (cacheOut != null)
+                try {
+                    cacheOut.write(b);
+                } catch (IOException e) {
+                    abort(e);
+                }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (cacheOut != null)
+                try {
+                    cacheOut.write(b, off, len);
+                } catch (IOException e) {
+                    abort(e);
+                }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * Does not close the wrapped stream, but discards the cache entry,
+         * if it was not committed before.
+         */
+        @Override
+        public void close() {
+            if (tmp != null) {
+                SafeClose.close(cacheOut);
+                tmp.delete();
+                tmp = null;
+                cacheOut = null;
+            }
+        }
+
+        public void commit() {
+            if (tmp == null)
+                return;
+
+            try {
+                cacheOut.close();
+            } catch (IOException e) {
+                abort(e);
+                return;
+            }
+            put(iuid, key, tmp);
+            tmp = null;
+            cacheOut = null;
+        }
+
+        private void abort(IOException e) {
+            LOG.warn("Failed to write {} to rendered image cache", tmp, e);
+            close();
+        }
+    }
+}
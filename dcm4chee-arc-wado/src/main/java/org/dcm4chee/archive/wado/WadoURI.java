@@ -38,6 +38,7 @@
 package org.dcm4chee.archive.wado;
 
 import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
@@ -89,6 +90,7 @@ import org.dcm4che3.io.TemplatesCache;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.service.BasicCStoreSCUResp;
 import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.StreamUtils;
 import org.dcm4che3.util.StringUtils;
 import org.dcm4che3.ws.rs.MediaTypes;
 import org.dcm4chee.archive.dto.ArchiveInstanceLocator;
@@ -136,6 +138,9 @@ public class WadoURI extends Wado {
     @Inject
     private WeightWatcher weightWatcher;
 
+    @Inject
+    private RenderedImageCache renderedImageCache;
+
     private CStoreSCUContext context;
 
     private static final int STATUS_NOT_IMPLEMENTED = 501;
@@ -554,6 +559,24 @@ public class WadoURI extends Wado {
     }
 
     private Response retrieveImage(ArchiveInstanceLocator ref, final MediaType mediaType) {
+        String cacheKey = null;
+        if (renderedImageCache.isEnabled()) {
+            cacheKey = renderedImageCacheKey(ref.iuid, mediaType);
+            final FileInputStream cached = renderedImageCache.open(cacheKey);
+            if (cached != null) {
+                LOG.debug("Return cached rendered image of {}", ref.iuid);
+                return Response.ok(new StreamingOutput() {
+                    @Override
+                    public void write(OutputStream out) throws IOException {
+                        try {
+                            StreamUtils.copy(cached, out);
+                        } finally {
+                            cached.close();
+                        }
+                    }
+                }, mediaType).build();
+            }
+        }
         Attributes attrs = (Attributes) ref.getObject();
         ImageInputStream iis = null;
         ImageReader reader = null;
@@ -604,7 +627,8 @@ public class WadoURI extends Wado {
 
             RenderedImageOutput renderedImageOutput = new RenderedImageOutput(reader, param, rows, columns, frameNumberZeroBased, imageWriter, imageWriteParam);
 
-            StreamingOutputWrapper wrapper = new StreamingOutputWrapper(renderedImageOutput, iis);
+            StreamingOutputWrapper wrapper = new StreamingOutputWrapper(renderedImageOutput, iis,
+                    ref.iuid, cacheKey);
 
             // make sure the stream/reader/writer is not closed early, but later on when doing the streaming
             iis = null;
@@ -651,20 +675,31 @@ public class WadoURI extends Wado {
 
         private final RenderedImageOutput renderedImageOutput;
         private final ImageInputStream inputStream;
+        private final String iuid;
+        private final String cacheKey;
 
-        public StreamingOutputWrapper(RenderedImageOutput renderedImageOutput, ImageInputStream inputStream) {
+        public StreamingOutputWrapper(RenderedImageOutput renderedImageOutput, ImageInputStream inputStream,
+                String iuid, String cacheKey) {
             this.renderedImageOutput = renderedImageOutput;
             this.inputStream = inputStream;
+            this.iuid = iuid;
+            this.cacheKey = cacheKey;
         }
 
         @Override
         public void write(OutputStream output) throws IOException {
-            // we wrap the RenderedImageOutput for two reasons:
+            // we wrap the RenderedImageOutput for three reasons:
             // 1) we need to close the input stream in a finally
             // 2) we want to run it through the WeightWatcher
+            // 3) we want to write the rendered image also to the cache
 
+            RenderedImageCache.Writer cacheWriter = null;
             try {
+                if (cacheKey != null)
+                    output = cacheWriter = renderedImageCache.writer(iuid, cacheKey, output);
                 weightWatcher.execute(new RenditionTask(renderedImageOutput, output));
+                if (cacheWriter != null)
+                    cacheWriter.commit();
             } catch (Exception e) {
                 if (e instanceof IOException)
                     throw (IOException) e;
@@ -673,6 +708,8 @@ public class WadoURI extends Wado {
                 else
                     throw new RuntimeException(e); // should not happen
             } finally {
+                if (cacheWriter != null)
+                    cacheWriter.close();
                 inputStream.close();
             }
         }
@@ -725,10 +762,8 @@ public class WadoURI extends Wado {
     private void init(DicomImageReadParam param)
             throws WebApplicationException, IOException {
 
-        if (!request.getQueryString().contains("overlays"))
-            overlays = arcAE.isWadoOverlayRendering();
         //set overlay activation mask
-        param.setOverlayActivationMask(overlays ? 0xf : 0x0);
+        param.setOverlayActivationMask(overlays() ? 0xf : 0x0);
         param.setWindowCenter(windowCenter);
         param.setWindowWidth(windowWidth);
         if (presentationUID != null) {
@@ -745,6 +780,33 @@ public class WadoURI extends Wado {
         }
     }
 
+    private boolean overlays() {
+        if (!request.getQueryString().contains("overlays"))
+            overlays = arcAE.isWadoOverlayRendering();
+        return overlays;
+    }
+
+    /**
+     * Returns the key of the rendered image in the {@link RenderedImageCache},
+     * composed from all request parameters which affect the rendition.
+     */
+    private String renderedImageCacheKey(String iuid, MediaType mediaType) {
+        StringBuilder sb = new StringBuilder(128)
+            .append(iuid)
+            .append('|').append(frameNumber)
+            .append('|').append(rows).append('x').append(columns)
+            .append('|').append(windowCenter).append('/').append(windowWidth)
+            .append('|');
+        if (region != null)
+            sb.append(region.left).append(',').append(region.top).append(',')
+              .append(region.right).append(',').append(region.bottom);
+        sb.append('|').append(mediaType)
+          .append('|').append(imageQuality)
+          .append('|').append(presentationUID)
+          .append('|').append(overlays());
+        return sb.toString();
+    }
+
     private ImageWriteParam getImageWriterParam(ImageWriter imageWriter) {
         ImageWriteParam imageWriteParam = imageWriter
                 .getDefaultWriteParam();